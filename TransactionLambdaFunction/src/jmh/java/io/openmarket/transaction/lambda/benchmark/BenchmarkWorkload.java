@@ -0,0 +1,115 @@
+package io.openmarket.transaction.lambda.benchmark;
+
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+
+/**
+ * Builds the transactions of a benchmark batch. A share of the transactions, the payer collision rate, is paid
+ * by a single hot payer, the others by distinct payers; currencies are spread evenly over the batch.
+ */
+final class BenchmarkWorkload {
+    static final Gson GSON = new Gson();
+    static final String HOT_PAYER_ID = "hot-payer";
+    static final double INITIAL_BALANCE = 1.0e12;
+    static final double TRANSACTION_AMOUNT = 1.0;
+
+    private BenchmarkWorkload() {}
+
+    static InMemoryDynamoDB createStore() {
+        final InMemoryDynamoDB store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        return store;
+    }
+
+    static List<Transaction> createTransactions(final int batchSize, final double payerCollisionRate,
+                                               final int currencyCount, final Random random) {
+        final List<Transaction> transactions = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final String payerId = random.nextDouble() < payerCollisionRate ? HOT_PAYER_ID : "payer-" + i;
+            transactions.add(Transaction.builder()
+                    .transactionId(UUID.randomUUID().toString())
+                    .payerId(payerId)
+                    .recipientId("recipient-" + i)
+                    .currencyId(getCurrencyId(i % currencyCount))
+                    .amount(TRANSACTION_AMOUNT)
+                    .status(TransactionStatus.PENDING)
+                    .type(TransactionType.TRANSFER)
+                    .build());
+        }
+        return transactions;
+    }
+
+    /**
+     * Creates the wallets of every payer and recipient of the transactions, funded in every currency.
+     */
+    static void createWallets(final WalletDao walletDao, final List<Transaction> transactions,
+                              final int currencyCount) {
+        final Map<String, Double> coins = new HashMap<>();
+        for (int i = 0; i < currencyCount; i++) {
+            coins.put(getCurrencyId(i), INITIAL_BALANCE);
+        }
+        final Set<String> ownerIds = new LinkedHashSet<>();
+        for (Transaction transaction : transactions) {
+            ownerIds.add(transaction.getPayerId());
+            ownerIds.add(transaction.getRecipientId());
+        }
+        for (String ownerId : ownerIds) {
+            walletDao.save(Wallet.builder().ownerId(ownerId).coins(new HashMap<>(coins)).type(WalletType.USER)
+                    .build());
+        }
+    }
+
+    static SQSEvent createEvent(final List<Transaction> transactions) {
+        return createEvent(transactions, false);
+    }
+
+    /**
+     * @param inline whether the messages embed the transactions, see {@link TransactionMessage#inline(Transaction)}.
+     */
+    static SQSEvent createEvent(final List<Transaction> transactions, final boolean inline) {
+        final List<SQSEvent.SQSMessage> messages = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageId(UUID.randomUUID().toString());
+            message.setBody(inline ? GSON.toJson(TransactionMessage.inline(transaction))
+                    : GSON.toJson(new TransactionTask(transaction.getTransactionId())));
+            messages.add(message);
+        }
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+
+    private static String getCurrencyId(final int index) {
+        return "currency-" + index;
+    }
+}
@@ -0,0 +1,87 @@
+package io.openmarket.transaction.lambda.benchmark;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sns.AmazonSNS;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Full {@link LambdaEntry#handleRequest} runs against the real DAOs backed by an in-memory DynamoDB. Every
+ * invocation processes a fresh batch of pending transactions, whose creation is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandleRequestBenchmark {
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    @Param({"0.0", "0.5", "1.0"})
+    public double payerCollisionRate;
+
+    @Param({"1", "10"})
+    public int currencyCount;
+
+    private final Random random = new Random(42);
+    private InMemoryDynamoDB store;
+    private RuntimeContext runtime;
+    private LambdaEntry entry;
+    private SQSEvent event;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        store = BenchmarkWorkload.createStore();
+        runtime = new RuntimeContext(store, mock(AmazonSNS.class), EnvironmentConfig.fromMap(Collections.emptyMap()));
+        entry = new LambdaEntry(runtime);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        final List<Transaction> transactions = BenchmarkWorkload.createTransactions(batchSize, payerCollisionRate,
+                currencyCount, random);
+        BenchmarkWorkload.createWallets(runtime.getWalletDao(), transactions, currencyCount);
+        for (Transaction transaction : transactions) {
+            runtime.getTransactionDao().save(transaction);
+        }
+        event = BenchmarkWorkload.createEvent(transactions);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        store.clear(TRANSACTION_DDB_TABLE_NAME);
+        store.clear(WALLET_DDB_TABLE_NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runtime.getExecutor().shutdown();
+    }
+
+    @Benchmark
+    public SQSBatchResponse handleRequest() {
+        return entry.handleRequest(event, null);
+    }
+}
@@ -0,0 +1,51 @@
+package io.openmarket.transaction.lambda.benchmark;
+
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the {@link TransactionTaskResult}s published to SNS after a batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResultSerializationBenchmark {
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    private List<TransactionTaskResult> results;
+
+    @Setup
+    public void setup() {
+        results = new ArrayList<>(batchSize);
+        for (Transaction transaction : BenchmarkWorkload.createTransactions(batchSize, 0.0, 1,
+                new Random(batchSize))) {
+            results.add(TransactionTaskResult.builder()
+                    .transactionId(transaction.getTransactionId())
+                    .type(transaction.getType())
+                    .error(TransactionErrorType.NONE)
+                    .status(TransactionStatus.COMPLETED)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public String serializeResults() {
+        return BenchmarkWorkload.GSON.toJson(results);
+    }
+}
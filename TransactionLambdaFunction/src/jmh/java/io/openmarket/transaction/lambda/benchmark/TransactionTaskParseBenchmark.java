@@ -0,0 +1,45 @@
+package io.openmarket.transaction.lambda.benchmark;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the {@link TransactionMessage} bodies of an SQS batch, with and without inline payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionTaskParseBenchmark {
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean inline;
+
+    private SQSEvent event;
+
+    @Setup
+    public void setup() {
+        event = BenchmarkWorkload.createEvent(BenchmarkWorkload.createTransactions(batchSize, 0.0, 1,
+                new Random(batchSize)), inline);
+    }
+
+    @Benchmark
+    public void parseBatch(final Blackhole blackhole) {
+        for (SQSEvent.SQSMessage message : event.getRecords()) {
+            blackhole.consume(BenchmarkWorkload.GSON.fromJson(message.getBody(), TransactionMessage.class));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.openmarket.transaction.lambda.benchmark;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.handler.TransactionLambda;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the TransactWriteItems requests written by {@code TransactionLambda.processTransactionHelper}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteItemsBenchmark {
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    @Param({"1", "10"})
+    public int currencyCount;
+
+    private RequestBuilder builder;
+    private List<Transaction> transactions;
+
+    @Setup
+    public void setup() {
+        final AmazonDynamoDB store = BenchmarkWorkload.createStore();
+        final DynamoDBMapper mapper = new DynamoDBMapper(store);
+        builder = new RequestBuilder(new TransactionDaoImpl(store, mapper), new WalletDaoImpl(store, mapper));
+        transactions = BenchmarkWorkload.createTransactions(batchSize, 0.0, currencyCount, new Random(batchSize));
+    }
+
+    @Benchmark
+    public void buildRequests(final Blackhole blackhole) {
+        for (Transaction transaction : transactions) {
+            blackhole.consume(builder.build(transaction));
+        }
+    }
+
+    private static final class RequestBuilder extends TransactionLambda {
+        private RequestBuilder(final TransactionDaoImpl transactionDao, final WalletDaoImpl walletDao) {
+            super(transactionDao, walletDao);
+        }
+
+        private List<TransactWriteItem> build(final Transaction transaction) {
+            return buildWriteItems(transaction);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import io.openmarket.transaction.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the write items of a transaction with {@link WriteItemTemplates} and with fresh maps for every
+ * transaction, the bytes allocated per operation are reported as {@code gc.alloc.rate.norm} by the gc profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriteItemTemplatesBenchmark {
+    private List<Transaction> transactions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        transactions = WriteItemTemplatesTest.createTransactions();
+    }
+
+    @Benchmark
+    public List<TransactWriteItem> buildWithTemplates() {
+        return WriteItemTemplates.build(nextTransaction());
+    }
+
+    @Benchmark
+    public List<TransactWriteItem> buildWithoutTemplates() {
+        return WriteItemTemplatesTest.buildWithoutTemplates(nextTransaction());
+    }
+
+    private Transaction nextTransaction() {
+        next = (next + 1) % transactions.size();
+        return transactions.get(next);
+    }
+}
@@ -1,5 +1,14 @@
 package io.openmarket.transaction.lambda.config;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 public class EnvironmentConfig {
     /**
      * The environmental variable name for whether SNS message should be published.
@@ -10,4 +19,220 @@ public class EnvironmentConfig {
      * The environmental variable name for the SNS topic ARN on processed transactions.
      */
     public static final String ENV_VAR_ON_PROCESSED_TOPIC_ARN = "onProcessedTopicArn";
+
+    /**
+     * The environmental variable name for how many transactions of a batch may be processed concurrently.
+     */
+    public static final String ENV_VAR_PROCESSING_PARALLELISM = "processingParallelism";
+
+    /**
+     * The environmental variable name for whether independent transactions are committed in a single request.
+     */
+    public static final String ENV_VAR_ENABLE_BATCH_COMMIT = "enableBatchCommit";
+
+    /**
+     * The environmental variable name for the comma separated owner IDs of the wallets whose credits are sharded.
+     */
+    public static final String ENV_VAR_SHARDED_WALLETS = "shardedWallets";
+
+    /**
+     * The environmental variable name for the number of shards of each sharded wallet.
+     */
+    public static final String ENV_VAR_WALLET_SHARD_COUNT = "walletShardCount";
+
+    /**
+     * The environmental variable name for whether recipient credits are deferred to the credit ledger.
+     */
+    public static final String ENV_VAR_ENABLE_DEFERRED_CREDITS = "enableDeferredCredits";
+
+    /**
+     * The environmental variable name for whether transactions are processed on the asynchronous engine.
+     */
+    public static final String ENV_VAR_ENABLE_ASYNC_PROCESSING = "enableAsyncProcessing";
+
+    /**
+     * The environmental variable name for how many transactions the asynchronous engine processes at once.
+     */
+    public static final String ENV_VAR_MAX_IN_FLIGHT_TRANSACTIONS = "maxInFlightTransactions";
+
+    /**
+     * The environmental variable name for the URL of the transaction task queue consumed by the worker.
+     */
+    public static final String ENV_VAR_TASK_QUEUE_URL = "transactionTaskQueueUrl";
+
+    /**
+     * The environmental variable name for the number of batches the worker processes at the same time.
+     */
+    public static final String ENV_VAR_WORKER_POLLERS = "workerPollers";
+
+    /**
+     * The environmental variable name for whether transfers are checked against a snapshot of the payer balance
+     * before they are written.
+     */
+    public static final String ENV_VAR_ENABLE_BALANCE_PREFLIGHT = "enableBalancePreflight";
+
+    /**
+     * The environmental variable name for the share of the transactions without error whose outcome is logged.
+     */
+    public static final String ENV_VAR_OUTCOME_LOG_SAMPLE_RATE = "outcomeLogSampleRate";
+
+    /**
+     * The environmental variable name for whether the clients and the request building paths are primed while the
+     * container initializes, see {@link io.openmarket.transaction.lambda.entry.StartupPriming}.
+     */
+    public static final String ENV_VAR_ENABLE_STARTUP_PRIMING = "enableStartupPriming";
+
+    /**
+     * The environmental variable name for how many hot wallets and currencies are reported per invocation, 0 turns
+     * the {@link io.openmarket.transaction.lambda.metrics.HotKeyTracker} off.
+     */
+    public static final String ENV_VAR_HOT_KEY_TOP_K = "hotKeyTopK";
+
+    /**
+     * The environmental variable set by the Lambda runtime to how the container is initialized, {@code snap-start}
+     * when the initialized container is snapshot.
+     */
+    public static final String ENV_VAR_INITIALIZATION_TYPE = "AWS_LAMBDA_INITIALIZATION_TYPE";
+
+    private static final String INITIALIZATION_TYPE_SNAP_START = "snap-start";
+
+    private final boolean publishToSNS;
+    private final String onProcessedTopicArn;
+    private final int processingParallelism;
+    private final boolean batchCommit;
+    private final boolean deferredCredits;
+    private final boolean asyncProcessing;
+    private final boolean balancePreflight;
+    private final int maxInFlightTransactions;
+    private final String taskQueueUrl;
+    private final int workerPollers;
+    private final double outcomeLogSampleRate;
+    private final int hotKeyTopK;
+    private final boolean startupPriming;
+    private final boolean snapStart;
+    private final Set<String> shardedWallets;
+    private final int walletShardCount;
+
+    /**
+     * Builds the config with the given SNS settings and the defaults of everything else.
+     */
+    public EnvironmentConfig(final boolean publishToSNS, final String onProcessedTopicArn) {
+        this(toMap(publishToSNS, onProcessedTopicArn));
+    }
+
+    private EnvironmentConfig(final Map<String, String> env) {
+        this.publishToSNS = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_PUBLISH_TO_TOPIC));
+        this.onProcessedTopicArn = env.get(ENV_VAR_ON_PROCESSED_TOPIC_ARN);
+        this.processingParallelism = getInt(env, ENV_VAR_PROCESSING_PARALLELISM,
+                LambdaConfig.DEFAULT_PROCESSING_PARALLELISM);
+        this.batchCommit = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_BATCH_COMMIT));
+        this.deferredCredits = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_DEFERRED_CREDITS));
+        this.asyncProcessing = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_ASYNC_PROCESSING));
+        this.balancePreflight = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_BALANCE_PREFLIGHT));
+        this.maxInFlightTransactions = getInt(env, ENV_VAR_MAX_IN_FLIGHT_TRANSACTIONS,
+                LambdaConfig.DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS);
+        this.taskQueueUrl = env.get(ENV_VAR_TASK_QUEUE_URL);
+        this.workerPollers = getInt(env, ENV_VAR_WORKER_POLLERS, LambdaConfig.DEFAULT_WORKER_POLLERS);
+        final String sampleRate = env.get(ENV_VAR_OUTCOME_LOG_SAMPLE_RATE);
+        this.outcomeLogSampleRate = sampleRate == null || sampleRate.isEmpty()
+                ? LambdaConfig.DEFAULT_OUTCOME_LOG_SAMPLE_RATE : Double.parseDouble(sampleRate.trim());
+        this.hotKeyTopK = getInt(env, ENV_VAR_HOT_KEY_TOP_K, LambdaConfig.DEFAULT_HOT_KEY_TOP_K);
+        this.startupPriming = Boolean.parseBoolean(env.get(ENV_VAR_ENABLE_STARTUP_PRIMING));
+        this.snapStart = INITIALIZATION_TYPE_SNAP_START.equals(env.get(ENV_VAR_INITIALIZATION_TYPE));
+        final String wallets = env.get(ENV_VAR_SHARDED_WALLETS);
+        this.shardedWallets = wallets == null ? Collections.emptySet()
+                : ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(wallets));
+        this.walletShardCount = getInt(env, ENV_VAR_WALLET_SHARD_COUNT, LambdaConfig.DEFAULT_WALLET_SHARD_COUNT);
+    }
+
+    /**
+     * Reads the config from the process environment, this is meant to be called once per container.
+     * @return the {@link EnvironmentConfig} of this container.
+     */
+    public static EnvironmentConfig fromEnvironment() {
+        return fromMap(System.getenv());
+    }
+
+    public static EnvironmentConfig fromMap(@NonNull final Map<String, String> env) {
+        return new EnvironmentConfig(env);
+    }
+
+    public boolean isPublishToSNS() {
+        return publishToSNS;
+    }
+
+    public String getOnProcessedTopicArn() {
+        return onProcessedTopicArn;
+    }
+
+    public int getProcessingParallelism() {
+        return processingParallelism;
+    }
+
+    public boolean isBatchCommit() {
+        return batchCommit;
+    }
+
+    public boolean isDeferredCredits() {
+        return deferredCredits;
+    }
+
+    public boolean isAsyncProcessing() {
+        return asyncProcessing;
+    }
+
+    public boolean isBalancePreflight() {
+        return balancePreflight;
+    }
+
+    public int getMaxInFlightTransactions() {
+        return maxInFlightTransactions;
+    }
+
+    public String getTaskQueueUrl() {
+        return taskQueueUrl;
+    }
+
+    public int getWorkerPollers() {
+        return workerPollers;
+    }
+
+    public double getOutcomeLogSampleRate() {
+        return outcomeLogSampleRate;
+    }
+
+    public int getHotKeyTopK() {
+        return hotKeyTopK;
+    }
+
+    public boolean isStartupPriming() {
+        return startupPriming;
+    }
+
+    /**
+     * @return true if the container is initialized to be snapshot and restored later, by Lambda SnapStart.
+     */
+    public boolean isSnapStart() {
+        return snapStart;
+    }
+
+    public Set<String> getShardedWallets() {
+        return shardedWallets;
+    }
+
+    public int getWalletShardCount() {
+        return walletShardCount;
+    }
+
+    private static Map<String, String> toMap(final boolean publishToSNS, final String onProcessedTopicArn) {
+        final Map<String, String> env = new HashMap<>();
+        env.put(ENV_VAR_ENABLE_PUBLISH_TO_TOPIC, String.valueOf(publishToSNS));
+        env.put(ENV_VAR_ON_PROCESSED_TOPIC_ARN, onProcessedTopicArn);
+        return env;
+    }
+
+    private static int getInt(final Map<String, String> env, final String name, final int defaultValue) {
+        final String value = env.get(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
 }
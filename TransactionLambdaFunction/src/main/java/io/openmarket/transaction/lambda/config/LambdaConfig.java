@@ -7,4 +7,298 @@ public final class LambdaConfig {
      * The initial balance for when a user receive a new coin type.
      */
     public static final double INITIAL_COIN_AMOUNT = 0.0;
+
+    /**
+     * The number of transactions processed concurrently when it is not configured, 1 means sequential.
+     */
+    public static final int DEFAULT_PROCESSING_PARALLELISM = 1;
+
+    /**
+     * The maximum number of items DynamoDB accepts in a single TransactWriteItems request.
+     */
+    public static final int MAX_TRANSACT_WRITE_ITEMS = 100;
+
+    /**
+     * The maximum number of attempts for a transaction that keeps failing for a transient reason.
+     */
+    public static final int MAX_TRANSACTION_ATTEMPTS = 4;
+
+    /**
+     * The backoff ceiling of the first retry, doubled on every following retry.
+     */
+    public static final long RETRY_BASE_DELAY_MILLIS = 25;
+
+    /**
+     * The maximum backoff between two attempts.
+     */
+    public static final long RETRY_MAX_DELAY_MILLIS = 1000;
+
+    /**
+     * The time kept free at the end of an invocation, no transaction or retry is started past it. It leaves room
+     * for the calls in flight to finish, each is bounded by {@link #DYNAMODB_CLIENT_EXECUTION_TIMEOUT_MILLIS}.
+     */
+    public static final long INVOCATION_SAFETY_MARGIN_MILLIS = 2000;
+
+    /**
+     * The timeout of a single DynamoDB request.
+     */
+    public static final int DYNAMODB_REQUEST_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The number of times the SDK retries a failed DynamoDB request on its own, the retries of
+     * {@link io.openmarket.transaction.lambda.handler.RetryPolicy} stop at the deadline of the invocation instead.
+     */
+    public static final int DYNAMODB_MAX_ERROR_RETRY = 1;
+
+    /**
+     * The timeout of a DynamoDB call, its SDK retries and their backoff included. It is below
+     * {@link #INVOCATION_SAFETY_MARGIN_MILLIS}, so a call started before the deadline returns before the invocation
+     * times out.
+     */
+    public static final int DYNAMODB_CLIENT_EXECUTION_TIMEOUT_MILLIS = 1500;
+
+    /**
+     * The CloudWatch namespace of the metrics emitted in Embedded Metric Format.
+     */
+    public static final String METRICS_NAMESPACE = "OpenMarket/TransactionLambda";
+
+    /**
+     * The maximum number of messages SNS accepts in a single PublishBatch request.
+     */
+    public static final int SNS_PUBLISH_BATCH_SIZE = 10;
+
+    /**
+     * The maximum number of PublishBatch requests in flight.
+     */
+    public static final int MAX_IN_FLIGHT_PUBLISH_REQUESTS = 4;
+
+    /**
+     * The timeout of a single SNS request.
+     */
+    public static final int SNS_REQUEST_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * The maximum time an invocation waits for its results to be published.
+     */
+    public static final long MAX_PUBLISH_WAIT_MILLIS = 3000;
+
+    /**
+     * The number of consecutive failed or slow SNS requests that opens the circuit breaker.
+     */
+    public static final int PUBLISH_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 3;
+
+    /**
+     * SNS requests slower than this count as failures for the circuit breaker.
+     */
+    public static final long PUBLISH_SLOW_CALL_MILLIS = 1000;
+
+    /**
+     * How long the circuit breaker stays open before a trial request is let through.
+     */
+    public static final long PUBLISH_CIRCUIT_BREAKER_OPEN_MILLIS = 30000;
+
+    /**
+     * The maximum number of keys DynamoDB accepts in a single BatchGetItem request.
+     */
+    public static final int MAX_BATCH_GET_ITEM_KEYS = 100;
+
+    /**
+     * The maximum number of BatchGetItem requests in flight while loading the transactions of a batch.
+     */
+    public static final int BATCH_LOAD_PARALLELISM = 8;
+
+    /**
+     * The maximum number of attempts for a BatchGetItem request that keeps leaving keys unprocessed.
+     */
+    public static final int MAX_BATCH_LOAD_ATTEMPTS = 5;
+
+    /**
+     * The number of shards of a sharded wallet when it is not configured.
+     */
+    public static final int DEFAULT_WALLET_SHARD_COUNT = 8;
+
+    /**
+     * The table of the shards of the sharded wallets.
+     */
+    public static final String WALLET_SHARD_DDB_TABLE_NAME = "WalletShard";
+
+    /**
+     * The hash key of the shard table, the owner ID of the sharded wallet.
+     */
+    public static final String WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID = "ownerId";
+
+    /**
+     * The range key of the shard table, the number of the shard.
+     */
+    public static final String WALLET_SHARD_DDB_ATTRIBUTE_SHARD = "shard";
+
+    /**
+     * The table of the credits that are not yet folded into the recipient wallets.
+     */
+    public static final String CREDIT_LEDGER_DDB_TABLE_NAME = "CreditLedger";
+
+    /**
+     * The hash key of the credit ledger, the owner ID of the credited wallet.
+     */
+    public static final String CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID = "ownerId";
+
+    /**
+     * The range key of the credit ledger, the ID of the crediting transaction.
+     */
+    public static final String CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID = "transactionId";
+
+    public static final String CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID = "currencyId";
+
+    public static final String CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT = "amount";
+
+    /**
+     * The maximum number of ledger entries folded by a single TransactWriteItems request, one item is left for the
+     * wallet update.
+     */
+    public static final int MAX_COMPACTED_CREDITS_PER_WRITE = MAX_TRANSACT_WRITE_ITEMS - 1;
+
+    /**
+     * The number of transactions in flight on the asynchronous engine when it is not configured.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS = 32;
+
+    /**
+     * The number of threads running the stages of the asynchronous engine that block, folding pending balance and
+     * recording error statuses.
+     */
+    public static final int ASYNC_BLOCKING_STAGE_PARALLELISM = 4;
+
+    /**
+     * The maximum number of messages SQS returns from a receive, and of entries in a batch request.
+     */
+    public static final int MAX_SQS_BATCH_ENTRIES = 10;
+
+    /**
+     * How long a worker poller waits for messages, the SQS long polling maximum.
+     */
+    public static final int SQS_WAIT_TIME_SECONDS = 20;
+
+    /**
+     * How long a worker poller waits after a failed receive.
+     */
+    public static final long RECEIVE_FAILURE_BACKOFF_MILLIS = 1000;
+
+    /**
+     * How long acknowledged messages may wait for a full delete batch.
+     */
+    public static final long DELETE_FLUSH_INTERVAL_MILLIS = 200;
+
+    /**
+     * How often the worker flushes the metrics its pollers recorded, the resolution of standard CloudWatch metrics.
+     */
+    public static final long WORKER_METRICS_FLUSH_INTERVAL_MILLIS = 60000;
+
+    /**
+     * The number of worker pollers when it is not configured.
+     */
+    public static final int DEFAULT_WORKER_POLLERS = 4;
+
+    /**
+     * The visibility timeout of the messages received by the worker, extended while they are processed.
+     */
+    public static final int WORKER_VISIBILITY_TIMEOUT_SECONDS = 60;
+
+    /**
+     * How long the worker waits for the batches in progress when it is stopped.
+     */
+    public static final long WORKER_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * The lowest write rate a throttled table is limited to, in items per second.
+     */
+    public static final double THROTTLE_MIN_WRITE_RATE = 1.0;
+
+    /**
+     * The write rate at which a table is no longer limited, in items per second.
+     */
+    public static final double THROTTLE_MAX_WRITE_RATE = 10000.0;
+
+    /**
+     * How much the write rate limit of a table grows for every second of successful writes at the limit.
+     */
+    public static final double THROTTLE_ADDITIVE_INCREASE = 20.0;
+
+    /**
+     * The factor applied to the write rate limit of a table when it throttles a write.
+     */
+    public static final double THROTTLE_DECREASE_FACTOR = 0.5;
+
+    /**
+     * The minimum time between two cuts of the write rate limit of a table.
+     */
+    public static final long THROTTLE_DECREASE_INTERVAL_MILLIS = 200;
+
+    /**
+     * How many millis worth of unused write permits a limited table may spend at once.
+     */
+    public static final long THROTTLE_BURST_MILLIS = 100;
+
+    /**
+     * The number of segments each table is scanned with by a reconciliation, scanned in parallel.
+     */
+    public static final int RECONCILE_SCAN_SEGMENTS = 16;
+
+    /**
+     * The largest difference between a balance and its expected value that is not reported as drift.
+     */
+    public static final double RECONCILE_TOLERANCE = 1e-6;
+
+    /**
+     * The number of drifted balances a reconciliation report lists, the largest ones, the others are only counted.
+     */
+    public static final int RECONCILE_MAX_REPORTED_DRIFTS = 1000;
+
+    /**
+     * The number of wallet balances a reconciliation repairs per second.
+     */
+    public static final double RECONCILE_REPAIR_RATE = 50.0;
+
+    /**
+     * The number of independently locked stripes of the balance maps of a reconciliation.
+     */
+    public static final int RECONCILE_BALANCE_MAP_STRIPES = 64;
+
+    /**
+     * How far a transfer may exceed the upper bound of its payer balance before the pre-flight check rejects it,
+     * so the rounding of the snapshot never rejects an affordable transfer.
+     */
+    public static final double PREFLIGHT_BALANCE_TOLERANCE = 1e-6;
+
+    /**
+     * The default share of the transactions without error whose outcome is logged, every failure is logged.
+     */
+    public static final double DEFAULT_OUTCOME_LOG_SAMPLE_RATE = 1.0;
+
+    /**
+     * The IDs used by the requests that prime a container, no transaction or wallet is expected to have it.
+     */
+    public static final String PRIMING_ID = "startup-priming";
+
+    /**
+     * The SQS attribute holding the message group of a message received from a FIFO queue.
+     */
+    public static final String SQS_MESSAGE_GROUP_ID_ATTRIBUTE = "MessageGroupId";
+
+    /**
+     * The number of wallets and currencies reported as hot keys per invocation when it is not configured, for their
+     * touches and their conflicts each.
+     */
+    public static final int DEFAULT_HOT_KEY_TOP_K = 5;
+
+    /**
+     * The number of counters per row of the hot key sketches, each count overestimates by at most 0.3% of the
+     * window total with high probability.
+     */
+    public static final int HOT_KEY_SKETCH_WIDTH = 1024;
+
+    /**
+     * The number of rows of the hot key sketches, an estimate is off by more than the width bound with a
+     * probability of at most 2%.
+     */
+    public static final int HOT_KEY_SKETCH_DEPTH = 4;
 }
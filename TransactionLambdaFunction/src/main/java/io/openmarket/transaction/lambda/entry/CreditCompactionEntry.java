@@ -0,0 +1,42 @@
+package io.openmarket.transaction.lambda.entry;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import lombok.NonNull;
+
+import java.util.Map;
+
+/**
+ * Folds the credits deferred to the {@link CreditLedger} and the shards of the sharded wallets into the wallet
+ * balances, invoked on a schedule.
+ */
+public class CreditCompactionEntry implements RequestHandler<Map<String, Object>, Integer> {
+    private final CreditLedger creditLedger;
+    private final WalletShards walletShards;
+
+    public CreditCompactionEntry() {
+        this(AmazonDynamoDBClientBuilder.standard().build(), EnvironmentConfig.fromEnvironment());
+    }
+
+    private CreditCompactionEntry(final AmazonDynamoDB dbClient, final EnvironmentConfig config) {
+        this(new CreditLedger(dbClient), config.getShardedWallets().isEmpty() ? WalletShards.none()
+                : new WalletShards(dbClient, config.getShardedWallets(), config.getWalletShardCount()));
+    }
+
+    public CreditCompactionEntry(@NonNull final CreditLedger creditLedger, @NonNull final WalletShards walletShards) {
+        this.creditLedger = creditLedger;
+        this.walletShards = walletShards;
+    }
+
+    /**
+     * @return the number of credits and shards folded.
+     */
+    public Integer handleRequest(final Map<String, Object> input, final Context context) {
+        return creditLedger.compact() + walletShards.consolidateAll();
+    }
+}
@@ -1,66 +1,386 @@
 package io.openmarket.transaction.lambda.entry;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.google.gson.Gson;
-import io.openmarket.sns.dao.SNSDao;
-import io.openmarket.sns.dao.SNSDaoImpl;
-import io.openmarket.transaction.dao.dynamodb.TransactionDao;
-import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import com.google.gson.JsonParseException;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.handler.AsyncTransactionLambda;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.ErrorClassifier;
+import io.openmarket.transaction.lambda.handler.PreflightCheck;
 import io.openmarket.transaction.lambda.handler.TransactionLambda;
+import io.openmarket.transaction.lambda.handler.TransactionOutcome;
+import io.openmarket.transaction.lambda.logging.OutcomeLog;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.publisher.AsyncResultPublisher;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
 import io.openmarket.transaction.model.Transaction;
-import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionStatus;
 import io.openmarket.transaction.model.TransactionTaskResult;
-import io.openmarket.wallet.dao.dynamodb.WalletDao;
-import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static io.openmarket.transaction.lambda.config.EnvironmentConfig.ENV_VAR_ENABLE_PUBLISH_TO_TOPIC;
-import static io.openmarket.transaction.lambda.config.EnvironmentConfig.ENV_VAR_ON_PROCESSED_TOPIC_ARN;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Processes the transaction tasks of an SQS batch, the {@link TransactionMessage}s. Only the messages whose
+ * transaction failed for a transient reason are reported back in {@link SQSBatchResponse#getBatchItemFailures()},
+ * the rest of the batch is acknowledged.
+ */
 @Log4j2
-public class LambdaEntry implements RequestHandler<SQSEvent, List<TransactionTaskResult>> {
+public class LambdaEntry implements RequestHandler<SQSEvent, SQSBatchResponse> {
     private static final Gson GSON = new Gson();
-    public List<TransactionTaskResult> handleRequest(final SQSEvent input, final Context context) {
+    private final RuntimeContext runtime;
+    private final boolean flushesMetrics;
+    // Held for the lifetime of the runtime, the CRaC context only keeps a weak reference to it.
+    private final StartupPriming priming;
+
+    /**
+     * Invoked by the Lambda runtime once per container, so the clients are kept warm across invocations.
+     */
+    public LambdaEntry() {
+        this(RuntimeContext.fromEnvironment(GSON));
+    }
+
+    /**
+     * @param runtime the dependencies of the processor, primed here when the config enables
+     *                {@link StartupPriming}.
+     */
+    public LambdaEntry(@NonNull final RuntimeContext runtime) {
+        this(runtime, true);
+    }
+
+    /**
+     * @param runtime the dependencies of the processor, primed here when the config enables
+     *                {@link StartupPriming}.
+     * @param flushesMetrics whether each request flushes the metrics, false when requests run concurrently on the
+     *                       same runtime and its owner calls {@link #flushMetrics()} instead, as the
+     *                       {@link io.openmarket.transaction.lambda.worker.TransactionWorker} does.
+     */
+    public LambdaEntry(@NonNull final RuntimeContext runtime, final boolean flushesMetrics) {
+        this.runtime = runtime;
+        this.flushesMetrics = flushesMetrics;
+        this.priming = runtime.getConfig().isStartupPriming() ? StartupPriming.prime(runtime, GSON) : null;
+    }
+
+    /**
+     * Processes the batch and, unless its owner does, flushes the metrics, see {@link #flushMetrics()}. Transactions
+     * rejected for a business reason, such as insufficient balance, are acknowledged. Once the remaining time of the
+     * invocation falls below a safety margin no more transaction is started, the ones in flight finish and the others
+     * are reported back, so a slow batch makes partial progress instead of timing out.
+     */
+    public SQSBatchResponse handleRequest(final SQSEvent input, final Context context) {
+        final long start = System.nanoTime();
+        final MetricsRecorder metrics = runtime.getMetrics();
+        try {
+            return handle(input, context, metrics, start);
+        } finally {
+            metrics.timeSince(Metric.INVOCATION_LATENCY, MetricDimensions.NONE, start);
+            if (flushesMetrics) {
+                flushMetrics();
+            }
+        }
+    }
+
+    /**
+     * Flushes the metrics of every stage recorded since the last flush, along with those of the
+     * {@link io.openmarket.transaction.lambda.throttle.WriteThrottle} and the hottest wallets and currencies reported
+     * by the {@link io.openmarket.transaction.lambda.metrics.HotKeyTracker}.
+     */
+    public void flushMetrics() {
+        final MetricsRecorder metrics = runtime.getMetrics();
+        runtime.getTransactionLambda().getWriteThrottle().recordMetrics(metrics);
+        runtime.getTransactionLambda().getHotKeys().recordMetrics(metrics);
+        metrics.flush();
+    }
+
+    /**
+     * Only the transactions without an inline payload are loaded from the table. Redelivered tasks are deduplicated
+     * by transaction ID, and the transactions that are already settled are acknowledged without being processed
+     * again. The rest go through the {@link PreflightCheck} before anything is written, then through one of the
+     * processing modes, and the outcome of each is logged by the {@link OutcomeLog}. Settled results are published
+     * to SNS while the rest of the batch is processed.
+     */
+    private SQSBatchResponse handle(final SQSEvent input, final Context context, final MetricsRecorder metrics,
+                                    final long start) {
         log.info("Lambda is handling transaction requests, size: {}", input.getRecords().size());
-        final AmazonDynamoDB dbClient = AmazonDynamoDBClientBuilder.standard().build();
-        final DynamoDBMapper mapper = new DynamoDBMapper(dbClient);
-        final TransactionDao transacDao = new TransactionDaoImpl(dbClient, mapper);
-        final WalletDao walletDao = new WalletDaoImpl(dbClient, mapper);
-        final TransactionLambda lambda = new TransactionLambda(transacDao, walletDao);
-        final SNSDao snsDao = new SNSDaoImpl(AmazonSNSClientBuilder.standard().build(), GSON);
-        final boolean publishToSNS = Boolean.parseBoolean(System.getenv(ENV_VAR_ENABLE_PUBLISH_TO_TOPIC));
-        final String snsTopicARN = System.getenv(ENV_VAR_ON_PROCESSED_TOPIC_ARN);
-
-        final List<TransactionTask> tasks = input.getRecords()
-                .stream().map(a -> GSON.fromJson(a.getBody(), TransactionTask.class))
-                .collect(Collectors.toList());
-        final List<Transaction> transactions = transacDao.batchLoad(tasks.stream()
-                .map(TransactionTask::getTransactionId).collect(Collectors.toList()));
-
-        final List<TransactionTaskResult> results = new LinkedList<>();
-        for (Transaction t : transactions) {
-            results.add(lambda.processTransaction(t));
-        }
-
-        if (publishToSNS) {
+        final TransactionLambda lambda = runtime.getTransactionLambda();
+        final EnvironmentConfig config = runtime.getConfig();
+
+        metrics.count(Metric.MESSAGES, MetricDimensions.NONE, input.getRecords().size());
+        final long parseStart = System.nanoTime();
+        final Map<String, Transaction> transactionsById = new HashMap<>();
+        final MessageGroups groups = new MessageGroups();
+        final Map<String, List<String>> messageIdsByTransaction = parseTasks(input.getRecords(), transactionsById,
+                groups);
+        metrics.timeSince(Metric.PARSE_LATENCY, MetricDimensions.NONE, parseStart);
+        metrics.count(Metric.INLINE_PAYLOADS, MetricDimensions.NONE, transactionsById.size());
+        final Set<String> failedTransactionIds = new LinkedHashSet<>(messageIdsByTransaction.keySet());
+        final List<String> idsToLoad = new ArrayList<>();
+        for (String transactionId : messageIdsByTransaction.keySet()) {
+            if (!transactionsById.containsKey(transactionId)) {
+                idsToLoad.add(transactionId);
+            }
+        }
+        final long deadlineMillis = getDeadlineMillis(context);
+        final Set<String> missing = new HashSet<>();
+        if (!idsToLoad.isEmpty()) {
+            final long loadStart = System.nanoTime();
             try {
-                snsDao.publishToTopic(snsTopicARN, GSON.toJson(results));
-                log.info("Published to SNS topicARN: {}", snsTopicARN);
-            } catch (IllegalArgumentException e) {
-                log.error("Failed to publish to SNS topicArn: {}", snsTopicARN, e);
+                transactionsById.putAll(runtime.getTransactionLoader().load(idsToLoad, deadlineMillis, missing));
+            } finally {
+                metrics.timeSince(Metric.BATCH_LOAD_LATENCY, MetricDimensions.NONE, loadStart);
+            }
+        }
+        final List<String> notLoaded = new ArrayList<>();
+        for (String transactionId : messageIdsByTransaction.keySet()) {
+            if (!transactionsById.containsKey(transactionId) && !missing.contains(transactionId)) {
+                notLoaded.add(transactionId);
+                groups.stop(transactionId);
+            }
+        }
+        final List<String> dropped = new ArrayList<>();
+        final List<Transaction> transactions = new ArrayList<>(transactionsById.size());
+        int alreadySettled = 0;
+        final AtomicInteger heldBack = new AtomicInteger();
+        for (String transactionId : messageIdsByTransaction.keySet()) {
+            final Transaction transaction = transactionsById.get(transactionId);
+            if (transaction == null && !missing.contains(transactionId)) {
+                continue;
+            }
+            if (groups.isHeldBack(transactionId)) {
+                heldBack.incrementAndGet();
+                continue;
+            }
+            failedTransactionIds.remove(transactionId);
+            if (transaction == null) {
+                // Not even a consistent read finds it, redelivering its messages would never change that.
+                dropped.add(transactionId);
+            } else if (isSettled(transaction)) {
+                // A redelivered task, its result was published when it was settled.
+                log.info("Transaction {} is already {}, acknowledging its messages", transactionId,
+                        transaction.getStatus());
+                alreadySettled++;
+            } else {
+                transactions.add(transaction);
+            }
+        }
+        metrics.count(Metric.ALREADY_SETTLED, MetricDimensions.NONE, alreadySettled);
+        metrics.count(Metric.MISSING_TRANSACTIONS, MetricDimensions.NONE, dropped.size());
+        if (!dropped.isEmpty()) {
+            log.error("Transactions {} don't exist, dropping their messages", dropped);
+        }
+        if (!notLoaded.isEmpty()) {
+            log.warn("Transactions {} were not loaded, returning them to the queue", notLoaded);
+        }
+        final long loadDone = System.nanoTime();
+
+        final AsyncResultPublisher.Batch published = config.isPublishToSNS()
+                ? runtime.getPublisher().newBatch() : null;
+        final PreflightCheck preflightCheck = runtime.getPreflightCheck();
+        final List<Transaction> accepted = new ArrayList<>(transactions.size());
+        final List<TransactionOutcome> outcomes = new ArrayList<>(transactions.size());
+        final long preflightStart = System.nanoTime();
+        try {
+            outcomes.addAll(preflightCheck.screen(transactions, deadlineMillis, accepted));
+        } finally {
+            metrics.timeSince(Metric.PREFLIGHT_LATENCY, MetricDimensions.NONE, preflightStart);
+        }
+        for (TransactionOutcome outcome : outcomes) {
+            publishIfSettled(published, outcome);
+            if (outcome.isRetryable()) {
+                groups.stop(outcome.getResult().getTransactionId());
+            }
+        }
+        // A FIFO batch keeps the order of its groups whatever the mode, otherwise one write may commit many
+        // transactions, the writes may be asynchronous, or each transaction is written by a worker thread.
+        if (!groups.isEmpty()) {
+            outcomes.addAll(processInGroupOrder(lambda, accepted, groups, deadlineMillis, published, heldBack));
+        } else if (config.isBatchCommit()) {
+            final List<TransactionOutcome> committed = runtime.getBatchCommitter().commit(accepted, deadlineMillis);
+            committed.forEach(outcome -> publishIfSettled(published, outcome));
+            outcomes.addAll(committed);
+        } else if (config.isAsyncProcessing()) {
+            outcomes.addAll(processAsync(runtime.getAsyncTransactionLambda(), accepted, deadlineMillis, published));
+        } else {
+            outcomes.addAll(runtime.getExecutor().execute(accepted,
+                    t -> publishIfSettled(published, processSafely(lambda, t, deadlineMillis))));
+        }
+        metrics.count(Metric.HELD_BACK, MetricDimensions.NONE, heldBack.get());
+        final List<TransactionTaskResult> results = new ArrayList<>(outcomes.size());
+        int notStarted = 0;
+        final OutcomeLog outcomeLog = runtime.getOutcomeLog();
+        for (TransactionOutcome outcome : outcomes) {
+            metrics.count(Metric.TRANSACTIONS,
+                    MetricDimensions.of(outcome.getResult().getType(), outcome.getErrorClass()), 1);
+            outcomeLog.log(outcome, transactionsById.get(outcome.getResult().getTransactionId()));
+            if (outcome.getErrorClass() == ErrorClass.NOT_STARTED) {
+                notStarted++;
+            }
+            if (outcome.isRetryable()) {
+                failedTransactionIds.add(outcome.getResult().getTransactionId());
+            } else {
+                results.add(outcome.getResult());
+            }
+        }
+
+        if (published != null) {
+            // The transactions are already settled, redelivering them would not republish the results.
+            published.awaitCompletion(Math.min(deadlineMillis,
+                    System.currentTimeMillis() + LambdaConfig.MAX_PUBLISH_WAIT_MILLIS));
+        }
+        final long end = System.nanoTime();
+        log.info("Finished processing {} transactions, {} to retry of which {} not started, "
+                        + "parse and load: {} ms, processing: {} ms", results.size(), failedTransactionIds.size(),
+                notStarted, TimeUnit.NANOSECONDS.toMillis(loadDone - start),
+                TimeUnit.NANOSECONDS.toMillis(end - loadDone));
+        return toBatchResponse(failedTransactionIds, messageIdsByTransaction);
+    }
+
+    /**
+     * Parses the message bodies, messages that can never be parsed are dropped rather than redelivered.
+     * @param inlineTransactions filled with the transactions whose payload is inline, they need not be loaded.
+     * @param groups filled with the FIFO message group of each transaction, if any.
+     * @return the message IDs of each transaction ID, in the order they are received.
+     */
+    private static Map<String, List<String>> parseTasks(final List<SQSEvent.SQSMessage> messages,
+                                                        final Map<String, Transaction> inlineTransactions,
+                                                        final MessageGroups groups) {
+        final Map<String, List<String>> messageIdsByTransaction = new LinkedHashMap<>();
+        for (SQSEvent.SQSMessage message : messages) {
+            final TransactionMessage task;
+            try {
+                task = GSON.fromJson(message.getBody(), TransactionMessage.class);
+            } catch (JsonParseException e) {
+                log.error("Dropping message {} with malformed body '{}'", message.getMessageId(),
+                        message.getBody(), e);
+                continue;
+            }
+            if (task == null || task.getTransactionId() == null) {
+                log.error("Dropping message {} without transaction ID", message.getMessageId());
+                continue;
+            }
+            messageIdsByTransaction.computeIfAbsent(task.getTransactionId(), k -> new ArrayList<>())
+                    .add(message.getMessageId());
+            groups.add(task.getTransactionId(), message.getAttributes() == null ? null
+                    : message.getAttributes().get(LambdaConfig.SQS_MESSAGE_GROUP_ID_ATTRIBUTE));
+            if (task.getPayload() != null) {
+                inlineTransactions.put(task.getTransactionId(), task.getPayload());
+            }
+        }
+        return messageIdsByTransaction;
+    }
+
+    /**
+     * @return true if the transaction is no longer pending, an inline payload carries no status.
+     */
+    private static boolean isSettled(final Transaction transaction) {
+        return transaction.getStatus() != null && transaction.getStatus() != TransactionStatus.PENDING;
+    }
+
+    private static TransactionOutcome processSafely(final TransactionLambda lambda, final Transaction transaction,
+                                                    final long deadlineMillis) {
+        try {
+            return lambda.process(transaction, deadlineMillis);
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure while processing transaction {}, it will be retried",
+                    transaction.getTransactionId(), e);
+            return TransactionOutcome.retryable(transaction, ErrorClassifier.classify(e));
+        }
+    }
+
+    /**
+     * Processes the transactions of each message group one after the other in the order they are received, the
+     * groups concurrently. Producers set the group to the payer, and SQS never delivers a group to two invocations at
+     * once, so concurrent invocations don't race for the same payer. Once a transaction is returned to the queue, the
+     * ones after it in its group are not started, see {@link MessageGroups}. Batch commits and asynchronous
+     * processing don't apply to a FIFO batch.
+     * @param heldBack incremented for each transaction held back.
+     * @return the outcomes in the same order as the given transactions.
+     */
+    private List<TransactionOutcome> processInGroupOrder(final TransactionLambda lambda,
+                                                         final List<Transaction> transactions,
+                                                         final MessageGroups groups,
+                                                         final long deadlineMillis,
+                                                         final AsyncResultPublisher.Batch published,
+                                                         final AtomicInteger heldBack) {
+        return runtime.getExecutor().execute(transactions, t -> groups.groupOf(t.getTransactionId()), t -> {
+            if (groups.isHeldBack(t.getTransactionId())) {
+                heldBack.incrementAndGet();
+                return TransactionOutcome.notStarted(t);
+            }
+            final TransactionOutcome outcome = publishIfSettled(published, processSafely(lambda, t, deadlineMillis));
+            if (outcome.isRetryable()) {
+                groups.stop(t.getTransactionId());
+            }
+            return outcome;
+        });
+    }
+
+    /**
+     * Starts every transaction on the asynchronous engine, each result is published as soon as it is settled.
+     * @return the outcomes in the same order as the given transactions.
+     */
+    private static List<TransactionOutcome> processAsync(final AsyncTransactionLambda lambda,
+                                                         final List<Transaction> transactions,
+                                                         final long deadlineMillis,
+                                                         final AsyncResultPublisher.Batch published) {
+        final List<CompletableFuture<TransactionOutcome>> futures = new ArrayList<>(transactions.size());
+        for (CompletableFuture<TransactionOutcome> future : lambda.processAll(transactions, deadlineMillis)) {
+            futures.add(future.thenApply(outcome -> publishIfSettled(published, outcome)));
+        }
+        final List<TransactionOutcome> outcomes = new ArrayList<>(futures.size());
+        for (CompletableFuture<TransactionOutcome> future : futures) {
+            outcomes.add(future.join());
+        }
+        return outcomes;
+    }
+
+    private static TransactionOutcome publishIfSettled(final AsyncResultPublisher.Batch published,
+                                                       final TransactionOutcome outcome) {
+        if (published != null && !outcome.isRetryable()) {
+            published.add(outcome.getResult());
+        }
+        return outcome;
+    }
+
+    /**
+     * @return the epoch millis after which no transaction or retry should be started, so the transactions in flight
+     * finish and the rest of the batch is reported back before the invocation times out, instead of the whole batch
+     * being redelivered.
+     */
+    private static long getDeadlineMillis(final Context context) {
+        if (context == null) {
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() + context.getRemainingTimeInMillis()
+                - LambdaConfig.INVOCATION_SAFETY_MARGIN_MILLIS;
+    }
+
+    private static SQSBatchResponse toBatchResponse(final Set<String> failedTransactionIds,
+                                                    final Map<String, List<String>> messageIdsByTransaction) {
+        final List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        for (String transactionId : failedTransactionIds) {
+            for (String messageId : messageIdsByTransaction.get(transactionId)) {
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
             }
         }
-        log.info("Finished processing {} transactions", results.size());
-        return results;
+        return new SQSBatchResponse(failures);
     }
 }
@@ -0,0 +1,73 @@
+package io.openmarket.transaction.lambda.entry;
+
+import lombok.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The SQS FIFO message groups of the transactions of a batch, in the order they are received. SQS only delivers
+ * the next messages of a group once the earlier ones are deleted, so a group must be processed strictly in order:
+ * once a transaction of a group is stopped, because it was not loaded or failed for a transient reason, every
+ * transaction received after it in the same group is held back and reported as a failure with it, and SQS
+ * redelivers the rest of the group in order. The transactions received before it are not affected.
+ * <p>
+ * Groups are filled while the batch is parsed and read concurrently while it is processed.
+ */
+final class MessageGroups {
+    private final Map<String, String> groupByTransaction = new HashMap<>();
+    private final Map<String, Integer> positionByTransaction = new HashMap<>();
+    private final ConcurrentMap<String, Integer> stoppedAt = new ConcurrentHashMap<>();
+
+    /**
+     * Records the group of a transaction, only its first message counts.
+     * @param transactionId the ID of the transaction.
+     * @param groupId the message group of its message, or null if it was not received from a FIFO queue.
+     */
+    void add(@NonNull final String transactionId, final String groupId) {
+        if (groupId == null || groupByTransaction.containsKey(transactionId)) {
+            return;
+        }
+        groupByTransaction.put(transactionId, groupId);
+        positionByTransaction.put(transactionId, positionByTransaction.size());
+    }
+
+    /**
+     * @return true if no transaction of the batch belongs to a group, the batch then has no order to keep.
+     */
+    boolean isEmpty() {
+        return groupByTransaction.isEmpty();
+    }
+
+    /**
+     * @return the group of the transaction, or null if it has none.
+     */
+    String groupOf(@NonNull final String transactionId) {
+        return groupByTransaction.get(transactionId);
+    }
+
+    /**
+     * Holds back every transaction received after the given one in its group.
+     * @param transactionId the ID of a transaction that is returned to the queue.
+     */
+    void stop(@NonNull final String transactionId) {
+        final String groupId = groupByTransaction.get(transactionId);
+        if (groupId != null) {
+            stoppedAt.merge(groupId, positionByTransaction.get(transactionId), Math::min);
+        }
+    }
+
+    /**
+     * @return true if an earlier transaction of the same group was stopped, so the given one must not be processed.
+     */
+    boolean isHeldBack(@NonNull final String transactionId) {
+        final String groupId = groupByTransaction.get(transactionId);
+        if (groupId == null) {
+            return false;
+        }
+        final Integer stopped = stoppedAt.get(groupId);
+        return stopped != null && stopped < positionByTransaction.get(transactionId);
+    }
+}
@@ -0,0 +1,90 @@
+package io.openmarket.transaction.lambda.entry;
+
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.lambda.reconcile.ReconciliationReport;
+import io.openmarket.transaction.lambda.reconcile.WalletReconciler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Reconciles the wallet balances with the settled transactions from the command line, see {@link WalletReconciler}.
+ * The sharded wallets and the credit ledger are taken from the same environment as {@link LambdaEntry}. Options are
+ * given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code segments}: the number of parallel scan segments per table;</li>
+ *     <li>{@code openingBalances}: a file of {@code ownerId,currencyId,balance} lines, 0 for the balances not
+ *     listed;</li>
+ *     <li>{@code repairRate}: repairs the drifted balances at this many per second, only reports when absent;</li>
+ *     <li>{@code endpoint}: the DynamoDB endpoint, such as {@code http://localhost:8000} for DynamoDB Local.</li>
+ * </ul>
+ * Exits with status 1 when a balance drifted.
+ */
+public final class ReconciliationEntry {
+    private static final String OPTION_SEGMENTS = "segments";
+    private static final String OPTION_OPENING_BALANCES = "openingBalances";
+    private static final String OPTION_REPAIR_RATE = "repairRate";
+    private static final String OPTION_ENDPOINT = "endpoint";
+
+    private ReconciliationEntry() {}
+
+    public static void main(final String[] args) throws IOException {
+        int segments = LambdaConfig.RECONCILE_SCAN_SEGMENTS;
+        String openingBalances = null;
+        double repairRate = 0;
+        String endpoint = null;
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            final String name = arg.substring(2, arg.indexOf('='));
+            final String value = arg.substring(arg.indexOf('=') + 1);
+            if (OPTION_SEGMENTS.equals(name)) {
+                segments = Integer.parseInt(value);
+            } else if (OPTION_OPENING_BALANCES.equals(name)) {
+                openingBalances = value;
+            } else if (OPTION_REPAIR_RATE.equals(name)) {
+                repairRate = Double.parseDouble(value);
+            } else if (OPTION_ENDPOINT.equals(name)) {
+                endpoint = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+
+        final AmazonDynamoDBClientBuilder builder = AmazonDynamoDBClientBuilder.standard();
+        if (endpoint != null) {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, null));
+        }
+        final AmazonDynamoDB dbClient = builder.build();
+        final EnvironmentConfig config = EnvironmentConfig.fromEnvironment();
+        final WalletReconciler reconciler = new WalletReconciler(dbClient,
+                config.getShardedWallets().isEmpty() ? WalletShards.none()
+                        : new WalletShards(dbClient, config.getShardedWallets(), config.getWalletShardCount()),
+                config.isDeferredCredits() ? new CreditLedger(dbClient) : CreditLedger.disabled(),
+                segments, repairRate);
+
+        final ReconciliationReport report;
+        if (openingBalances == null) {
+            report = reconciler.reconcile();
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(openingBalances),
+                    StandardCharsets.UTF_8)) {
+                report = reconciler.reconcile(reader);
+            }
+        }
+        System.out.println(report.format());
+        if (!report.isConsistent()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package io.openmarket.transaction.lambda.entry;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClientBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.executor.ConflictAwareExecutor;
+import io.openmarket.transaction.lambda.handler.AsyncTransactWriter;
+import io.openmarket.transaction.lambda.handler.AsyncTransactionLambda;
+import io.openmarket.transaction.lambda.handler.BalanceSnapshots;
+import io.openmarket.transaction.lambda.handler.BatchCommitter;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.PreflightCheck;
+import io.openmarket.transaction.lambda.handler.RetryPolicy;
+import io.openmarket.transaction.lambda.handler.TransactWriter;
+import io.openmarket.transaction.lambda.handler.TransactionLambda;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.lambda.logging.OutcomeLog;
+import io.openmarket.transaction.lambda.metrics.EmfMetricsSink;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.metrics.MetricsSink;
+import io.openmarket.transaction.lambda.publisher.AsyncResultPublisher;
+import io.openmarket.transaction.lambda.publisher.CircuitBreaker;
+import io.openmarket.transaction.lambda.task.TransactionLoader;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process scoped dependencies of the transaction processor. Building the SDK clients is expensive
+ * (connection pool, TLS handshake, mapper reflection), so a single instance is created at container
+ * init and reused by every warm invocation.
+ */
+@Log4j2
+public final class RuntimeContext {
+    private final AmazonDynamoDB dbClient;
+    private final DynamoDBMapper mapper;
+    private final TransactionDao transactionDao;
+    private final WalletDao walletDao;
+    private final TransactionLoader transactionLoader;
+    private final TransactionLambda transactionLambda;
+    private final AsyncTransactionLambda asyncTransactionLambda;
+    private final PreflightCheck preflightCheck;
+    private final AsyncResultPublisher publisher;
+    private final EnvironmentConfig config;
+    private final ConflictAwareExecutor executor;
+    private final BatchCommitter batchCommitter;
+    private final MetricsRecorder metrics;
+    private final OutcomeLog outcomeLog;
+    private final Gson gson;
+
+    public RuntimeContext(@NonNull final AmazonDynamoDB dbClient, @NonNull final AmazonSNS snsClient,
+                          @NonNull final EnvironmentConfig config) {
+        this(dbClient, snsClient, config, new EmfMetricsSink(LambdaConfig.METRICS_NAMESPACE));
+    }
+
+    public RuntimeContext(@NonNull final AmazonDynamoDB dbClient, @NonNull final AmazonSNS snsClient,
+                          @NonNull final EnvironmentConfig config, @NonNull final MetricsSink metricsSink) {
+        this(dbClient, newAsyncWriter(dbClient), snsClient, config, metricsSink, new Gson());
+    }
+
+    /**
+     * @param dbClient the client of every blocking call.
+     * @param asyncWriter the writer of {@link AsyncTransactionLambda}.
+     */
+    private RuntimeContext(final AmazonDynamoDB dbClient, final AsyncTransactWriter asyncWriter,
+                           final AmazonSNS snsClient, final EnvironmentConfig config, final MetricsSink metricsSink,
+                           final Gson gson) {
+        this.dbClient = dbClient;
+        this.mapper = new DynamoDBMapper(dbClient);
+        this.transactionDao = new TransactionDaoImpl(dbClient, mapper);
+        this.walletDao = new WalletDaoImpl(dbClient, mapper);
+        this.metrics = new MetricsRecorder(metricsSink);
+        this.transactionLoader = new TransactionLoader(dbClient, mapper, LambdaConfig.MAX_BATCH_GET_ITEM_KEYS,
+                LambdaConfig.BATCH_LOAD_PARALLELISM, new RetryPolicy(LambdaConfig.MAX_BATCH_LOAD_ATTEMPTS,
+                        LambdaConfig.RETRY_BASE_DELAY_MILLIS, LambdaConfig.RETRY_MAX_DELAY_MILLIS), metrics);
+        // Writes through the client so they carry a client request token, see TransactWriter.
+        this.transactionLambda = new TransactionLambda(transactionDao, walletDao,
+                new RetryPolicy(LambdaConfig.MAX_TRANSACTION_ATTEMPTS, LambdaConfig.RETRY_BASE_DELAY_MILLIS,
+                        LambdaConfig.RETRY_MAX_DELAY_MILLIS), metrics, TransactWriter.of(dbClient),
+                config.getShardedWallets().isEmpty() ? WalletShards.none()
+                        : new WalletShards(dbClient, config.getShardedWallets(), config.getWalletShardCount()),
+                config.isDeferredCredits() ? new CreditLedger(dbClient) : CreditLedger.disabled(),
+                new WriteThrottle(), config.getHotKeyTopK() > 0 ? new HotKeyTracker(config.getHotKeyTopK(),
+                        LambdaConfig.HOT_KEY_SKETCH_WIDTH, LambdaConfig.HOT_KEY_SKETCH_DEPTH)
+                        : HotKeyTracker.disabled());
+        this.asyncTransactionLambda = new AsyncTransactionLambda(transactionLambda, asyncWriter,
+                config.getMaxInFlightTransactions());
+        this.preflightCheck = new PreflightCheck(transactionLambda, config.isBalancePreflight()
+                ? new BalanceSnapshots(dbClient) : BalanceSnapshots.disabled());
+        this.publisher = new AsyncResultPublisher(snsClient, config.getOnProcessedTopicArn(), gson,
+                LambdaConfig.SNS_PUBLISH_BATCH_SIZE, LambdaConfig.MAX_IN_FLIGHT_PUBLISH_REQUESTS,
+                new CircuitBreaker(LambdaConfig.PUBLISH_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        LambdaConfig.PUBLISH_SLOW_CALL_MILLIS, LambdaConfig.PUBLISH_CIRCUIT_BREAKER_OPEN_MILLIS),
+                metrics);
+        this.config = config;
+        this.outcomeLog = new OutcomeLog(config.getOutcomeLogSampleRate());
+        this.gson = gson;
+        this.executor = new ConflictAwareExecutor(config.getProcessingParallelism());
+        this.batchCommitter = new BatchCommitter(transactionLambda, LambdaConfig.MAX_TRANSACT_WRITE_ITEMS, metrics);
+    }
+
+    /**
+     * Builds the context from the default AWS clients and the process environment.
+     * @param gson the {@link Gson} used to serialize SNS messages.
+     * @return a new {@link RuntimeContext}.
+     */
+    public static RuntimeContext fromEnvironment(@NonNull final Gson gson) {
+        final long start = System.nanoTime();
+        final EnvironmentConfig config = EnvironmentConfig.fromEnvironment();
+        final AmazonDynamoDB dbClient = AmazonDynamoDBClientBuilder.standard()
+                .withClientConfiguration(newDynamoDBClientConfiguration())
+                .build();
+        // The blocking calls keep the synchronous client, only the writes of AsyncTransactionLambda go through the
+        // asynchronous one. It runs each call on its own pool, sized to the transactions in flight.
+        final AsyncTransactWriter asyncWriter = config.isAsyncProcessing()
+                ? AsyncTransactWriter.of(AmazonDynamoDBAsyncClientBuilder.standard()
+                        .withClientConfiguration(newDynamoDBClientConfiguration())
+                        .withExecutorFactory(() -> Executors.newFixedThreadPool(config.getMaxInFlightTransactions(),
+                                new ThreadFactoryBuilder()
+                                        .setNameFormat("dynamodb-async-%d")
+                                        .setDaemon(true)
+                                        .build()))
+                        .build())
+                : newAsyncWriter(dbClient);
+        final RuntimeContext context = new RuntimeContext(dbClient, asyncWriter,
+                AmazonSNSClientBuilder.standard()
+                        .withClientConfiguration(new ClientConfiguration()
+                                .withRequestTimeout(LambdaConfig.SNS_REQUEST_TIMEOUT_MILLIS))
+                        .build(),
+                config, new EmfMetricsSink(LambdaConfig.METRICS_NAMESPACE), gson);
+        log.info("Runtime context initialized in {} ms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return context;
+    }
+
+    /**
+     * @return the configuration of the DynamoDB clients, a call started before the deadline of the invocation,
+     * retries included, ends within {@link LambdaConfig#INVOCATION_SAFETY_MARGIN_MILLIS}.
+     */
+    private static ClientConfiguration newDynamoDBClientConfiguration() {
+        return new ClientConfiguration()
+                .withRequestTimeout(LambdaConfig.DYNAMODB_REQUEST_TIMEOUT_MILLIS)
+                .withClientExecutionTimeout(LambdaConfig.DYNAMODB_CLIENT_EXECUTION_TIMEOUT_MILLIS)
+                .withMaxErrorRetry(LambdaConfig.DYNAMODB_MAX_ERROR_RETRY);
+    }
+
+    /**
+     * @return a writer on the asynchronous client, or one running the blocking writer on its own threads, their
+     * number is bounded by the transactions in flight.
+     */
+    private static AsyncTransactWriter newAsyncWriter(final AmazonDynamoDB dbClient) {
+        if (dbClient instanceof AmazonDynamoDBAsync) {
+            return AsyncTransactWriter.of((AmazonDynamoDBAsync) dbClient);
+        }
+        return AsyncTransactWriter.of(TransactWriter.of(dbClient), Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("transaction-writer-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    public AmazonDynamoDB getDbClient() {
+        return dbClient;
+    }
+
+    public DynamoDBMapper getMapper() {
+        return mapper;
+    }
+
+    public TransactionDao getTransactionDao() {
+        return transactionDao;
+    }
+
+    public WalletDao getWalletDao() {
+        return walletDao;
+    }
+
+    public TransactionLoader getTransactionLoader() {
+        return transactionLoader;
+    }
+
+    public TransactionLambda getTransactionLambda() {
+        return transactionLambda;
+    }
+
+    public AsyncTransactionLambda getAsyncTransactionLambda() {
+        return asyncTransactionLambda;
+    }
+
+    public PreflightCheck getPreflightCheck() {
+        return preflightCheck;
+    }
+
+    public AsyncResultPublisher getPublisher() {
+        return publisher;
+    }
+
+    public EnvironmentConfig getConfig() {
+        return config;
+    }
+
+    public ConflictAwareExecutor getExecutor() {
+        return executor;
+    }
+
+    public BatchCommitter getBatchCommitter() {
+        return batchCommitter;
+    }
+
+    public MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    public OutcomeLog getOutcomeLog() {
+        return outcomeLog;
+    }
+
+    /**
+     * @return the {@link Gson} serializing the published results.
+     */
+    public Gson getGson() {
+        return gson;
+    }
+}
@@ -0,0 +1,127 @@
+package io.openmarket.transaction.lambda.entry;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.handler.RetryPolicy;
+import io.openmarket.transaction.lambda.handler.TransactionOutcome;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+
+/**
+ * Moves the one time costs of the first invocation into the init phase of the container: the classes and the
+ * reflective models of the mapper and of Gson, the request building paths of the {@link RuntimeContext}, and the
+ * connections to DynamoDB. Priming only reads, with keys that don't exist, and never writes.
+ * <p>
+ * It is also a CRaC {@link Resource}, so the primed container can be snapshot and restored, by Lambda SnapStart or
+ * any JVM supporting CRaC. A container initialized for a snapshot opens no connection, since a restored connection
+ * would be stale. After a restore the jitter of the retries is reseeded, the containers restored from one snapshot
+ * would back off in lockstep otherwise, and the connections are opened.
+ */
+@Log4j2
+public final class StartupPriming implements Resource {
+    private final RuntimeContext runtime;
+    private final Gson taskGson;
+
+    /**
+     * @param runtime the runtime to prime.
+     * @param taskGson the {@link Gson} parsing the task messages, its type adapters are created by priming.
+     */
+    StartupPriming(@NonNull final RuntimeContext runtime, @NonNull final Gson taskGson) {
+        this.runtime = runtime;
+        this.taskGson = taskGson;
+    }
+
+    /**
+     * Primes the runtime and registers it for checkpoint and restore.
+     * @return the registered {@link StartupPriming}, the CRaC context only keeps a weak reference to it so it must
+     * be kept as long as the runtime.
+     */
+    static StartupPriming prime(@NonNull final RuntimeContext runtime, @NonNull final Gson taskGson) {
+        final long start = System.nanoTime();
+        final StartupPriming priming = new StartupPriming(runtime, taskGson);
+        priming.primeClasses();
+        if (!runtime.getConfig().isSnapStart()) {
+            priming.primeConnections();
+        }
+        Core.getGlobalContext().register(priming);
+        log.info("Runtime primed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return priming;
+    }
+
+    @Override
+    public void beforeCheckpoint(final Context<? extends Resource> context) {
+        log.info("Checkpointing the primed runtime");
+    }
+
+    @Override
+    public void afterRestore(final Context<? extends Resource> context) {
+        final long start = System.nanoTime();
+        RetryPolicy.reseedJitter();
+        primeConnections();
+        log.info("Runtime restored in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Runs every offline step of a transaction once: parsing its task, converting it and a wallet with the mapper,
+     * building its write items and serializing its result. Nothing is sent.
+     */
+    void primeClasses() {
+        final Transaction transaction = Transaction.builder()
+                .transactionId(LambdaConfig.PRIMING_ID)
+                .payerId(LambdaConfig.PRIMING_ID)
+                .recipientId(LambdaConfig.PRIMING_ID + "-recipient")
+                .currencyId(LambdaConfig.PRIMING_ID)
+                .amount(1.0)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        taskGson.fromJson(taskGson.toJson(TransactionMessage.inline(transaction)), TransactionMessage.class);
+
+        final DynamoDBMapperTableModel<Transaction> transactionModel = runtime.getMapper()
+                .getTableModel(Transaction.class);
+        transactionModel.unconvert(transactionModel.convert(transaction));
+        final DynamoDBMapperTableModel<Wallet> walletModel = runtime.getMapper().getTableModel(Wallet.class);
+        walletModel.unconvert(walletModel.convert(Wallet.builder().ownerId(LambdaConfig.PRIMING_ID)
+                .coins(Collections.singletonMap(LambdaConfig.PRIMING_ID, 1.0)).type(WalletType.USER).build()));
+
+        runtime.getTransactionLambda().prime();
+        runtime.getGson().toJson(TransactionOutcome.completed(transaction).getResult());
+    }
+
+    /**
+     * Reads a missing item of the transaction and wallet tables, so the connection pool holds open connections and
+     * the SDK has loaded its request pipeline. A failure is only logged, the first invocation then pays for it.
+     */
+    void primeConnections() {
+        try {
+            runtime.getDbClient().getItem(new GetItemRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                    .withKey(Collections.singletonMap(TRANSACTION_DDB_ATTRIBUTE_ID,
+                            new AttributeValue(LambdaConfig.PRIMING_ID))));
+            runtime.getDbClient().getItem(new GetItemRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                    .withKey(Collections.singletonMap(WALLET_DDB_ATTRIBUTE_OWNER_ID,
+                            new AttributeValue(LambdaConfig.PRIMING_ID))));
+        } catch (RuntimeException e) {
+            log.warn("Failed to open the DynamoDB connections while priming", e);
+        }
+    }
+}
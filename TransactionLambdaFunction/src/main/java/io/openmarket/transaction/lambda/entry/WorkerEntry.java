@@ -0,0 +1,34 @@
+package io.openmarket.transaction.lambda.entry;
+
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.worker.SqsMessageQueue;
+import io.openmarket.transaction.lambda.worker.TransactionWorker;
+
+/**
+ * Runs the transaction processor as a long-running worker that polls the task queue itself, for sustained volumes
+ * where per-invocation overhead and cold starts cost more than a dedicated host. It is configured with the same
+ * environment as {@link LambdaEntry}, plus the queue URL, and drains the batches in progress on SIGTERM.
+ */
+public final class WorkerEntry {
+    private WorkerEntry() {}
+
+    public static void main(final String[] args) throws InterruptedException {
+        final RuntimeContext runtime = RuntimeContext.fromEnvironment(new Gson());
+        final EnvironmentConfig config = runtime.getConfig();
+        if (config.getTaskQueueUrl() == null) {
+            throw new IllegalStateException(String.format("Environment variable %s is not set",
+                    EnvironmentConfig.ENV_VAR_TASK_QUEUE_URL));
+        }
+        final LambdaEntry entry = new LambdaEntry(runtime, false);
+        final TransactionWorker worker = new TransactionWorker(entry,
+                new SqsMessageQueue(AmazonSQSClientBuilder.standard().build(), config.getTaskQueueUrl()),
+                config.getWorkerPollers(), LambdaConfig.WORKER_VISIBILITY_TIMEOUT_SECONDS, entry::flushMetrics);
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> worker.shutdown(LambdaConfig.WORKER_DRAIN_TIMEOUT_MILLIS), "worker-shutdown"));
+        worker.start();
+        worker.awaitTermination();
+    }
+}
@@ -0,0 +1,136 @@
+package io.openmarket.transaction.lambda.executor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.model.Transaction;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Runs the transactions of a batch concurrently while keeping the ones that touch the same wallet in order.
+ * Each transaction only starts after every earlier transaction sharing its payer or recipient has finished,
+ * so transactions of the same batch never cancel each other with a TransactionConflict.
+ */
+@Log4j2
+public class ConflictAwareExecutor {
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public ConflictAwareExecutor(final int parallelism) {
+        this(Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("transaction-worker-%d")
+                .setDaemon(true)
+                .build()), parallelism);
+    }
+
+    public ConflictAwareExecutor(@NonNull final ExecutorService executor, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(String.format("Parallelism must be positive, got %d", parallelism));
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Applies the task to every transaction.
+     * @param transactions the transactions to process.
+     * @param task the processing function, it is called at most once per transaction.
+     * @param <R> the result type.
+     * @return the results in the same order as the given transactions.
+     */
+    public <R> List<R> execute(@NonNull final List<Transaction> transactions,
+                               @NonNull final Function<Transaction, R> task) {
+        return execute(transactions, transaction -> null, task);
+    }
+
+    /**
+     * Applies the task to every transaction, the transactions of the same group also run one after the other in
+     * the given order, whether they share a wallet or not.
+     * @param transactions the transactions to process.
+     * @param groupOf the group of a transaction, or null if it has none.
+     * @param task the processing function, it is called at most once per transaction.
+     * @param <R> the result type.
+     * @return the results in the same order as the given transactions.
+     */
+    public <R> List<R> execute(@NonNull final List<Transaction> transactions,
+                               @NonNull final Function<Transaction, String> groupOf,
+                               @NonNull final Function<Transaction, R> task) {
+        final List<R> results = new ArrayList<>(transactions.size());
+        if (parallelism == 1 || transactions.size() <= 1) {
+            for (Transaction transaction : transactions) {
+                results.add(task.apply(transaction));
+            }
+            return results;
+        }
+
+        final Map<String, CompletableFuture<?>> lastByWallet = new HashMap<>();
+        final Map<String, CompletableFuture<?>> lastByGroup = new HashMap<>();
+        final List<CompletableFuture<R>> futures = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            final String group = groupOf.apply(transaction);
+            final CompletableFuture<R> future = after(lastByWallet.get(transaction.getPayerId()),
+                    lastByWallet.get(transaction.getRecipientId()), group == null ? null : lastByGroup.get(group))
+                    .thenApplyAsync(ignored -> task.apply(transaction), executor);
+            lastByWallet.put(transaction.getPayerId(), future);
+            lastByWallet.put(transaction.getRecipientId(), future);
+            if (group != null) {
+                lastByGroup.put(group, future);
+            }
+            futures.add(future);
+        }
+
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns a future that completes once all the given predecessors are done, regardless of their outcome,
+     * since a failed transaction must not block the ones queued behind it.
+     * @param predecessors the futures to wait for, null entries are ignored.
+     */
+    private static CompletableFuture<Void> after(final CompletableFuture<?>... predecessors) {
+        final List<CompletableFuture<?>> pending = new ArrayList<>(predecessors.length);
+        for (CompletableFuture<?> predecessor : predecessors) {
+            if (predecessor != null && !pending.contains(predecessor)) {
+                pending.add(predecessor);
+            }
+        }
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pending.size() == 1) {
+            return pending.get(0).handle((v, e) -> null);
+        }
+        final CompletableFuture<?>[] done = new CompletableFuture<?>[pending.size()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = pending.get(i).handle((v, e) -> null);
+        }
+        return CompletableFuture.allOf(done);
+    }
+}
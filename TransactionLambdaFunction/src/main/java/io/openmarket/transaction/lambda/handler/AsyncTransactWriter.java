@@ -0,0 +1,61 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Sends the TransactWriteItems request that settles a transaction without blocking the caller, the asynchronous
+ * counterpart of {@link TransactWriter}.
+ */
+@FunctionalInterface
+public interface AsyncTransactWriter {
+    /**
+     * @param items the items to write atomically.
+     * @param clientRequestToken the idempotency token of the write, see
+     *                           {@link TransactWriter#getClientRequestToken(String)}.
+     * @return a future completed once the write is applied, or completed exceptionally with the failure.
+     */
+    CompletableFuture<Void> write(List<TransactWriteItem> items, String clientRequestToken);
+
+    /**
+     * @return a writer on the asynchronous client, the future is completed by the client callback. The client runs
+     * the blocking call on a thread of its executor, which is held until the write returns.
+     */
+    static AsyncTransactWriter of(@NonNull final AmazonDynamoDBAsync dbClient) {
+        return (items, clientRequestToken) -> {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            dbClient.transactWriteItemsAsync(new TransactWriteItemsRequest()
+                    .withTransactItems(items)
+                    .withClientRequestToken(clientRequestToken),
+                    new AsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult>() {
+                        @Override
+                        public void onError(final Exception exception) {
+                            future.completeExceptionally(exception);
+                        }
+
+                        @Override
+                        public void onSuccess(final TransactWriteItemsRequest request,
+                                              final TransactWriteItemsResult result) {
+                            future.complete(null);
+                        }
+                    });
+            return future;
+        };
+    }
+
+    /**
+     * @return a writer that runs the blocking writer on the executor.
+     */
+    static AsyncTransactWriter of(@NonNull final TransactWriter writer, @NonNull final Executor executor) {
+        return (items, clientRequestToken) -> CompletableFuture.runAsync(
+                () -> writer.write(items, clientRequestToken), executor);
+    }
+}
@@ -0,0 +1,315 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.lambda.throttle.WriteThrottledException;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Processes transactions as chains of stages on an {@link AsyncTransactWriter}, the asynchronous counterpart of
+ * {@link TransactionLambda}, whose items, retry policy and error handling it shares. The SDK v1 asynchronous client
+ * runs each blocking call on its own thread pool, so a write in flight still holds one of its threads, but none of
+ * the caller's, and a backoff is scheduled instead of slept, so a batch completes in about the time of its longest
+ * chain of dependent writes. The recipient credit creates the coin
+ * slot, so there is no separate slot stage. The rare stages that still block, folding pending balance and
+ * recording an error status, run on a small dedicated pool. At most {@code maxInFlight} transactions are
+ * processed at once, the others wait in a queue without holding a thread.
+ */
+@Log4j2
+public class AsyncTransactionLambda {
+    private final TransactionLambda lambda;
+    private final AsyncTransactWriter writer;
+    private final int maxInFlight;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService blockingExecutor;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+    private int pendingReleases;
+    private boolean releasing;
+
+    public AsyncTransactionLambda(@NonNull final TransactionLambda lambda, @NonNull final AsyncTransactWriter writer,
+                                  final int maxInFlight) {
+        this(lambda, writer, maxInFlight, Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("transaction-backoff-%d")
+                .setDaemon(true)
+                .build()), Executors.newFixedThreadPool(LambdaConfig.ASYNC_BLOCKING_STAGE_PARALLELISM,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("transaction-blocking-stage-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    /**
+     * @param scheduler the executor that schedules the retries.
+     * @param blockingExecutor the executor of the stages that block.
+     */
+    public AsyncTransactionLambda(@NonNull final TransactionLambda lambda, @NonNull final AsyncTransactWriter writer,
+                                  final int maxInFlight, @NonNull final ScheduledExecutorService scheduler,
+                                  @NonNull final ExecutorService blockingExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(String.format("maxInFlight must be positive, got %d", maxInFlight));
+        }
+        this.lambda = lambda;
+        this.writer = writer;
+        this.maxInFlight = maxInFlight;
+        this.scheduler = scheduler;
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    public CompletableFuture<TransactionTaskResult> processTransaction(@NonNull final Transaction transaction) {
+        return process(transaction, Long.MAX_VALUE).thenApply(TransactionOutcome::getResult);
+    }
+
+    /**
+     * Processes the transaction, see {@link TransactionLambda#process(Transaction, long)}.
+     * @param transaction the {@link Transaction} to process.
+     * @param deadlineMillis the epoch millis after which neither the transaction nor its retries are started, a
+     *                       transaction still waiting for a slot then is not started.
+     * @return the future {@link TransactionOutcome} of the transaction, it never completes exceptionally: an
+     * unexpected failure leaves the transaction pending.
+     */
+    public CompletableFuture<TransactionOutcome> process(@NonNull final Transaction transaction,
+                                                         final long deadlineMillis) {
+        return submit(() -> {
+            if (TransactionLambda.isPastDeadline(deadlineMillis)) {
+                log.info("Transaction {} is not started, the deadline has passed", transaction.getTransactionId());
+                return CompletableFuture.completedFuture(TransactionOutcome.notStarted(transaction));
+            }
+            log.debug("Processing transaction {}", transaction);
+            lambda.recordTouch(transaction);
+            return attempt(transaction, TransactionLambda.newResult(transaction), 1, deadlineMillis);
+        }).handle((outcome, e) -> {
+            if (e == null) {
+                return outcome;
+            }
+            final Exception cause = unwrap(e);
+            log.error("Unexpected failure while processing transaction {}, it will be retried",
+                    transaction.getTransactionId(), cause);
+            return TransactionOutcome.retryable(transaction, ErrorClassifier.classify(cause));
+        });
+    }
+
+    /**
+     * Processes the transactions of a batch, a transaction only starts after every earlier transaction sharing its
+     * payer or recipient has finished, like {@link io.openmarket.transaction.lambda.executor.ConflictAwareExecutor}.
+     * @param transactions the transactions to process.
+     * @param deadlineMillis the epoch millis after which no more retries are started.
+     * @return the future outcomes in the same order as the given transactions.
+     */
+    public List<CompletableFuture<TransactionOutcome>> processAll(@NonNull final List<Transaction> transactions,
+                                                                  final long deadlineMillis) {
+        final Map<String, CompletableFuture<?>> lastByWallet = new HashMap<>();
+        final List<CompletableFuture<TransactionOutcome>> futures = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            final CompletableFuture<TransactionOutcome> future = after(lastByWallet.get(transaction.getPayerId()),
+                    lastByWallet.get(transaction.getRecipientId()))
+                    .thenCompose(ignored -> process(transaction, deadlineMillis));
+            lastByWallet.put(transaction.getPayerId(), future);
+            lastByWallet.put(transaction.getRecipientId(), future);
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        blockingExecutor.shutdown();
+    }
+
+    private CompletableFuture<TransactionOutcome> attempt(final Transaction transaction,
+                                                          final TransactionTaskResult result, final int attempt,
+                                                          final long deadlineMillis) {
+        final long writeStart = System.nanoTime();
+        return write(transaction, deadlineMillis).<CompletableFuture<TransactionOutcome>>handle((ignored, e) -> {
+            if (e == null) {
+                lambda.getMetrics().timeSince(Metric.TRANSACTION_WRITE_LATENCY,
+                        MetricDimensions.of(transaction.getType(), ErrorClass.NONE), writeStart);
+                return CompletableFuture.completedFuture(TransactionOutcome.settled(result, ErrorClass.NONE));
+            }
+            final Exception cause = unwrap(e);
+            final ErrorClass errorClass = ErrorClassifier.classify(cause);
+            lambda.getMetrics().timeSince(Metric.TRANSACTION_WRITE_LATENCY,
+                    MetricDimensions.of(transaction.getType(), errorClass), writeStart);
+            lambda.recordConflict(transaction, errorClass, cause);
+            final RetryPolicy retryPolicy = lambda.getRetryPolicy();
+            final long delayMillis = retryPolicy.getDelayMillis(attempt);
+            if (!(cause instanceof WriteThrottledException)
+                    && retryPolicy.shouldRetry(attempt, errorClass, delayMillis, deadlineMillis)) {
+                log.info("Transaction {} failed with {} on attempt {}, retrying in {} ms",
+                        transaction.getTransactionId(), errorClass, attempt, delayMillis);
+                return delay(delayMillis).thenCompose(v -> attempt(transaction, result, attempt + 1,
+                        deadlineMillis));
+            }
+            if (errorClass.isRetryable()) {
+                return CompletableFuture.completedFuture(lambda.fail(transaction, result, errorClass, attempt,
+                        cause));
+            }
+            return CompletableFuture.supplyAsync(() -> lambda.fail(transaction, result, errorClass, attempt, cause),
+                    blockingExecutor);
+        }).thenCompose(outcome -> outcome);
+    }
+
+    /**
+     * Writes the items that settle the transaction. A payer debit that fails while part of the payer balance is
+     * kept aside folds that balance and writes again, see {@link TransactionLambda#processTransactionHelper}.
+     */
+    private CompletableFuture<Void> write(final Transaction transaction, final long deadlineMillis) {
+        final List<TransactWriteItem> items = lambda.buildWriteItems(transaction);
+        final String clientRequestToken = TransactWriter.getClientRequestToken(transaction.getTransactionId());
+        return write(items, clientRequestToken, deadlineMillis).<CompletableFuture<Void>>handle((ignored, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            final Exception cause = unwrap(e);
+            if (!(cause instanceof TransactionCanceledException)
+                    || !TransactionLambda.isPayerDebitFailed((TransactionCanceledException) cause)
+                    || !lambda.mayHavePendingBalance(transaction.getPayerId())) {
+                return failed(cause);
+            }
+            return CompletableFuture.supplyAsync(
+                    () -> lambda.releasePendingBalance(transaction.getPayerId(), deadlineMillis),
+                    blockingExecutor).thenCompose(released -> released
+                    ? write(items, clientRequestToken, deadlineMillis) : failed(cause));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Sends the write once the {@link WriteThrottle} grants its permits, the wait is scheduled rather than slept.
+     * The write fails with a {@link WriteThrottledException} if it can't start before the deadline.
+     */
+    private CompletableFuture<Void> write(final List<TransactWriteItem> items, final String clientRequestToken,
+                                          final long deadlineMillis) {
+        final WriteThrottle writeThrottle = lambda.getWriteThrottle();
+        final long waitMillis = writeThrottle.reserve(items, deadlineMillis);
+        if (waitMillis < 0) {
+            return failed(new WriteThrottledException(items.size()));
+        }
+        final CompletableFuture<Void> written = waitMillis == 0 ? writer.write(items, clientRequestToken)
+                : delay(waitMillis).thenCompose(v -> writer.write(items, clientRequestToken));
+        return written.whenComplete((ignored, e) -> writeThrottle.record(items, e == null ? null : unwrap(e)));
+    }
+
+    private CompletableFuture<Void> delay(final long delayMillis) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Starts the task once fewer than {@code maxInFlight} tasks are running.
+     */
+    private <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = task.get();
+            } catch (RuntimeException e) {
+                started = failed(e);
+            }
+            started.whenComplete((value, e) -> {
+                release();
+                if (e == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            });
+        };
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                waiting.add(start);
+                return future;
+            }
+            inFlight++;
+        }
+        start.run();
+        return future;
+    }
+
+    /**
+     * Frees the slot of a finished task or hands it over to the next waiting one. A waiting task may finish while it
+     * starts, e.g. once the deadline has passed, so the slots released meanwhile are handed over in a loop by the
+     * outermost call instead of recursing once per waiting task.
+     */
+    private void release() {
+        synchronized (this) {
+            pendingReleases++;
+            if (releasing) {
+                return;
+            }
+            releasing = true;
+        }
+        while (true) {
+            final Runnable next;
+            synchronized (this) {
+                if (pendingReleases == 0) {
+                    releasing = false;
+                    return;
+                }
+                pendingReleases--;
+                next = waiting.poll();
+                if (next == null) {
+                    inFlight--;
+                    continue;
+                }
+            }
+            // The slot is handed over to the next task.
+            next.run();
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static Exception unwrap(final Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+    }
+
+    /**
+     * Returns a future that completes once all the given predecessors are done, regardless of their outcome.
+     */
+    private static CompletableFuture<Void> after(final CompletableFuture<?> first,
+                                                 final CompletableFuture<?> second) {
+        if (first == null && second == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (first == null || first == second) {
+            return second.handle((v, e) -> null);
+        }
+        if (second == null) {
+            return first.handle((v, e) -> null);
+        }
+        return CompletableFuture.allOf(first.handle((v, e) -> null), second.handle((v, e) -> null));
+    }
+}
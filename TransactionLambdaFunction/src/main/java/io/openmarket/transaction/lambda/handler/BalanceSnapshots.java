@@ -0,0 +1,161 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_COIN_MAP;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+
+/**
+ * Loads snapshots of wallet balances in bulk with consistent BatchGetItem reads, so the {@link PreflightCheck} can
+ * tell a transfer is unaffordable without writing. The snapshots only live for the batch that loads them and are
+ * not cached: a later batch reads the balances again, so a credit settled since is never missed. A snapshot is not
+ * updated by the writes, the balance condition of the payer debit stays the decision. The wallets that fail to load
+ * have no snapshot and are simply not checked.
+ */
+@Log4j2
+public class BalanceSnapshots {
+    private static final String ATTR_NAME_OWNER_ID = "#owner";
+    private static final String ATTR_NAME_COIN_MAP = "#cm";
+    private static final String PROJECTION = String.format("%s, %s", ATTR_NAME_OWNER_ID, ATTR_NAME_COIN_MAP);
+    private static final Map<String, String> PROJECTION_ATTR_NAMES = ImmutableMap.of(
+            ATTR_NAME_OWNER_ID, WALLET_DDB_ATTRIBUTE_OWNER_ID, ATTR_NAME_COIN_MAP, WALLET_DDB_ATTRIBUTE_COIN_MAP);
+
+    private final AmazonDynamoDB dbClient;
+    private final RetryPolicy retryPolicy;
+
+    public BalanceSnapshots(@NonNull final AmazonDynamoDB dbClient) {
+        this(dbClient, new RetryPolicy(LambdaConfig.MAX_BATCH_LOAD_ATTEMPTS, LambdaConfig.RETRY_BASE_DELAY_MILLIS,
+                LambdaConfig.RETRY_MAX_DELAY_MILLIS));
+    }
+
+    @VisibleForTesting
+    BalanceSnapshots(@NonNull final AmazonDynamoDB dbClient, @NonNull final RetryPolicy retryPolicy) {
+        this.dbClient = dbClient;
+        this.retryPolicy = retryPolicy;
+    }
+
+    private BalanceSnapshots() {
+        this.dbClient = null;
+        this.retryPolicy = RetryPolicy.noRetry();
+    }
+
+    /**
+     * @return a {@link BalanceSnapshots} that is not used, no transfer is rejected for its balance before it
+     * is written.
+     */
+    public static BalanceSnapshots disabled() {
+        return new BalanceSnapshots();
+    }
+
+    public boolean isEnabled() {
+        return dbClient != null;
+    }
+
+    /**
+     * Loads the wallets, {@link LambdaConfig#MAX_BATCH_GET_ITEM_KEYS} per request.
+     * @param ownerIds the owners of the wallets to snapshot.
+     * @param deadlineMillis the epoch millis after which no more retries are started.
+     * @return the coins of each loaded wallet, empty if the wallet does not exist. A wallet that failed to load has
+     * no entry.
+     */
+    public Map<String, Map<String, Double>> load(@NonNull final Collection<String> ownerIds,
+                                                 final long deadlineMillis) {
+        final Map<String, Map<String, Double>> snapshots = new HashMap<>();
+        for (List<String> page : Lists.partition(new ArrayList<>(new HashSet<>(ownerIds)),
+                LambdaConfig.MAX_BATCH_GET_ITEM_KEYS)) {
+            loadPage(page, deadlineMillis, snapshots);
+        }
+        return snapshots;
+    }
+
+    private void loadPage(final List<String> ownerIds, final long deadlineMillis,
+                          final Map<String, Map<String, Double>> snapshots) {
+        final Set<String> pending = new HashSet<>(ownerIds);
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(ownerIds.size());
+        for (String ownerId : ownerIds) {
+            keys.add(WriteItemTemplates.getOwnerKey(ownerId));
+        }
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(WALLET_DDB_TABLE_NAME,
+                new KeysAndAttributes().withKeys(keys).withConsistentRead(true)
+                        .withProjectionExpression(PROJECTION)
+                        .withExpressionAttributeNames(PROJECTION_ATTR_NAMES));
+        for (int attempt = 1; ; attempt++) {
+            ErrorClass errorClass;
+            try {
+                final BatchGetItemResult result = dbClient.batchGetItem(new BatchGetItemRequest()
+                        .withRequestItems(requestItems));
+                final List<Map<String, AttributeValue>> items = result.getResponses() == null ? null
+                        : result.getResponses().get(WALLET_DDB_TABLE_NAME);
+                if (items != null) {
+                    for (Map<String, AttributeValue> item : items) {
+                        final String ownerId = item.get(WALLET_DDB_ATTRIBUTE_OWNER_ID).getS();
+                        snapshots.put(ownerId, getCoins(item));
+                        pending.remove(ownerId);
+                    }
+                }
+                final Map<String, KeysAndAttributes> unprocessed = result.getUnprocessedKeys();
+                if (unprocessed == null || unprocessed.isEmpty()) {
+                    // The wallets that were not returned don't exist, nothing can be debited from them.
+                    for (String ownerId : pending) {
+                        snapshots.put(ownerId, Collections.emptyMap());
+                    }
+                    return;
+                }
+                requestItems = unprocessed;
+                errorClass = ErrorClass.THROTTLING;
+            } catch (RuntimeException e) {
+                errorClass = ErrorClassifier.classify(e);
+                if (!errorClass.isRetryable()) {
+                    log.warn("Failed to snapshot {} wallet balances with {}", pending.size(), errorClass, e);
+                    return;
+                }
+            }
+            final long delayMillis = retryPolicy.getDelayMillis(attempt);
+            if (!retryPolicy.shouldRetry(attempt, errorClass, delayMillis, deadlineMillis)) {
+                log.info("{} wallet balances are not snapshot after {} attempts, they won't be checked",
+                        pending.size(), attempt);
+                return;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static Map<String, Double> getCoins(final Map<String, AttributeValue> item) {
+        final AttributeValue coinMap = item.get(WALLET_DDB_ATTRIBUTE_COIN_MAP);
+        if (coinMap == null || coinMap.getM() == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Double> coins = new HashMap<>(coinMap.getM().size() * 2);
+        for (Map.Entry<String, AttributeValue> coin : coinMap.getM().entrySet()) {
+            if (coin.getValue().getN() != null) {
+                coins.put(coin.getKey(), Double.parseDouble(coin.getValue().getN()));
+            }
+        }
+        return coins;
+    }
+}
@@ -0,0 +1,226 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionType;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settles several transactions with a single TransactWriteItems request. Transactions are packed into groups
+ * that never touch the same item twice, a transaction always lands in a later group than the earlier
+ * transactions it shares an item with, so the per-wallet order of the batch is kept.
+ * When a group is cancelled, the cancellation reasons tell which transactions failed, those are settled one by
+ * one through {@link TransactionLambda#process(Transaction, long)} while the rest of the group is committed again.
+ * If the reasons do not single out a transaction, the group is split in halves.
+ */
+@Log4j2
+public class BatchCommitter {
+    private static final String WALLET_KEY_PREFIX = "W:";
+    private static final String TRANSACTION_KEY_PREFIX = "T:";
+    private static final String LEDGER_KEY_PREFIX = "L:";
+    private static final String SHARD_KEY_PREFIX = "S:";
+
+    private final TransactionLambda lambda;
+    private final int maxItemsPerWrite;
+    private final MetricsRecorder metrics;
+
+    public BatchCommitter(@NonNull final TransactionLambda lambda, final int maxItemsPerWrite) {
+        this(lambda, maxItemsPerWrite, MetricsRecorder.discarding());
+    }
+
+    /**
+     * @param lambda the lambda whose {@link TransactWriter} writes the groups, and that settles the transactions
+     *               of a cancelled group one by one.
+     */
+    public BatchCommitter(@NonNull final TransactionLambda lambda, final int maxItemsPerWrite,
+                          @NonNull final MetricsRecorder metrics) {
+        this.lambda = lambda;
+        this.maxItemsPerWrite = maxItemsPerWrite;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param transactions the transactions to settle.
+     * @param deadlineMillis the epoch millis after which no more group or transaction is started, and transactions
+     *                       settled one by one are no longer retried.
+     * @return the {@link TransactionOutcome} of each transaction, in the same order as the given transactions.
+     */
+    public List<TransactionOutcome> commit(@NonNull final List<Transaction> transactions, final long deadlineMillis) {
+        final TransactionOutcome[] outcomes = new TransactionOutcome[transactions.size()];
+        for (List<Integer> group : pack(transactions)) {
+            commitGroup(transactions, group, outcomes, deadlineMillis);
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    private List<List<Integer>> pack(final List<Transaction> transactions) {
+        final List<List<Integer>> groups = new ArrayList<>();
+        final List<Integer> groupItemCounts = new ArrayList<>();
+        final Map<String, Integer> lastGroupByKey = new HashMap<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            final List<String> keys = getItemKeys(transactions.get(i));
+            int groupIndex = 0;
+            for (String key : keys) {
+                groupIndex = Math.max(groupIndex, lastGroupByKey.getOrDefault(key, -1) + 1);
+            }
+            while (groupIndex < groups.size() && groupItemCounts.get(groupIndex) + keys.size() > maxItemsPerWrite) {
+                groupIndex++;
+            }
+            if (groupIndex == groups.size()) {
+                groups.add(new ArrayList<>());
+                groupItemCounts.add(0);
+            }
+            groups.get(groupIndex).add(i);
+            groupItemCounts.set(groupIndex, groupItemCounts.get(groupIndex) + keys.size());
+            for (String key : keys) {
+                lastGroupByKey.put(key, groupIndex);
+            }
+        }
+        return groups;
+    }
+
+    private void commitGroup(final List<Transaction> transactions, final List<Integer> group,
+                             final TransactionOutcome[] outcomes, final long deadlineMillis) {
+        if (group.isEmpty()) {
+            return;
+        }
+        if (group.size() == 1) {
+            final int index = group.get(0);
+            outcomes[index] = processOne(transactions.get(index), deadlineMillis);
+            return;
+        }
+        if (TransactionLambda.isPastDeadline(deadlineMillis)) {
+            log.info("Group of {} transactions is not started, the deadline has passed", group.size());
+            for (Integer index : group) {
+                outcomes[index] = TransactionOutcome.notStarted(transactions.get(index));
+            }
+            return;
+        }
+
+        final List<TransactWriteItem> items = new ArrayList<>();
+        final List<Integer> owners = new ArrayList<>();
+        final List<String> transactionIds = new ArrayList<>(group.size());
+        for (Integer index : group) {
+            transactionIds.add(transactions.get(index).getTransactionId());
+            for (TransactWriteItem item : lambda.buildWriteItems(transactions.get(index))) {
+                items.add(item);
+                owners.add(index);
+            }
+        }
+        try {
+            write(items, TransactWriter.getClientRequestToken(transactionIds), deadlineMillis);
+            log.info("Committed {} transactions with {} items in one request", group.size(), items.size());
+            for (Integer index : group) {
+                outcomes[index] = TransactionOutcome.completed(transactions.get(index));
+            }
+            return;
+        } catch (TransactionCanceledException e) {
+            final List<Integer> failed = getFailedTransactions(e.getCancellationReasons(), owners);
+            if (!failed.isEmpty() && failed.size() < group.size()) {
+                log.info("Group of {} transactions was cancelled by {}, committing the rest",
+                        group.size(), failed.size());
+                final List<Integer> rest = new ArrayList<>(group);
+                rest.removeAll(failed);
+                commitGroup(transactions, rest, outcomes, deadlineMillis);
+                for (Integer index : failed) {
+                    outcomes[index] = processOne(transactions.get(index), deadlineMillis);
+                }
+                return;
+            }
+            log.info("Group of {} transactions was cancelled without a single culprit, bisecting", group.size());
+        } catch (RuntimeException e) {
+            final ErrorClass errorClass = ErrorClassifier.classify(e);
+            if (errorClass.isRetryable()) {
+                log.warn("Group of {} transactions failed with {}", group.size(), errorClass, e);
+                for (Integer index : group) {
+                    outcomes[index] = TransactionOutcome.retryable(transactions.get(index), errorClass);
+                }
+                return;
+            }
+            log.warn("Group of {} transactions failed, bisecting", group.size(), e);
+        }
+        final int middle = group.size() / 2;
+        commitGroup(transactions, new ArrayList<>(group.subList(0, middle)), outcomes, deadlineMillis);
+        commitGroup(transactions, new ArrayList<>(group.subList(middle, group.size())), outcomes, deadlineMillis);
+    }
+
+    /**
+     * Writes the group once the {@link io.openmarket.transaction.lambda.throttle.WriteThrottle} of the lambda grants
+     * its permits, a group that can't start before the deadline fails as throttled and is left pending. The token
+     * makes a write the SDK repeats after a timeout idempotent, like the write of a single transaction.
+     */
+    private void write(final List<TransactWriteItem> items, final String clientRequestToken,
+                       final long deadlineMillis) {
+        lambda.getWriteThrottle().acquire(items, deadlineMillis);
+        final long start = System.nanoTime();
+        try {
+            lambda.getTransactWriter().write(items, clientRequestToken);
+            lambda.getWriteThrottle().record(items, null);
+        } catch (RuntimeException e) {
+            lambda.getWriteThrottle().record(items, e);
+            throw e;
+        } finally {
+            metrics.timeSince(Metric.BATCH_WRITE_LATENCY, MetricDimensions.NONE, start);
+        }
+    }
+
+    private TransactionOutcome processOne(final Transaction transaction, final long deadlineMillis) {
+        try {
+            return lambda.process(transaction, deadlineMillis);
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure while processing transaction {}, it will be retried",
+                    transaction.getTransactionId(), e);
+            return TransactionOutcome.retryable(transaction, ErrorClassifier.classify(e));
+        }
+    }
+
+    private static List<Integer> getFailedTransactions(final List<CancellationReason> reasons,
+                                                       final List<Integer> owners) {
+        final List<Integer> failed = new ArrayList<>();
+        if (reasons == null || reasons.size() != owners.size()) {
+            return failed;
+        }
+        for (int i = 0; i < reasons.size(); i++) {
+            final String code = reasons.get(i).getCode();
+            if (code != null && !ErrorClassifier.CANCELLATION_NONE.equals(code) && !failed.contains(owners.get(i))) {
+                failed.add(owners.get(i));
+            }
+        }
+        return failed;
+    }
+
+    private List<String> getItemKeys(final Transaction transaction) {
+        final List<String> keys = new ArrayList<>();
+        keys.add(WALLET_KEY_PREFIX + transaction.getPayerId());
+        if (lambda.getCreditLedger().isEnabled()) {
+            keys.add(LEDGER_KEY_PREFIX + transaction.getTransactionId());
+            // The existence check of the recipient wallet.
+            keys.add(WALLET_KEY_PREFIX + transaction.getRecipientId());
+        } else if (lambda.getWalletShards().isSharded(transaction.getRecipientId())) {
+            keys.add(SHARD_KEY_PREFIX + lambda.getWalletShards().getCreditShard(transaction.getTransactionId())
+                    + ":" + transaction.getRecipientId());
+        } else {
+            keys.add(WALLET_KEY_PREFIX + transaction.getRecipientId());
+        }
+        keys.add(TRANSACTION_KEY_PREFIX + transaction.getTransactionId());
+        if (TransactionType.REFUND.equals(transaction.getType())) {
+            for (String refundedId : new LinkedHashSet<>(transaction.getRefundTransacIds())) {
+                keys.add(TRANSACTION_KEY_PREFIX + refundedId);
+            }
+        }
+        return keys;
+    }
+}
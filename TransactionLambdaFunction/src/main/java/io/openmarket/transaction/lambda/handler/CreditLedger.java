@@ -0,0 +1,221 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.openmarket.transaction.model.Transaction;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_COIN_MAP;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.*;
+
+/**
+ * Defers recipient credits to an append-only ledger, so a transfer only writes the payer wallet, its own status and
+ * a new ledger entry, and never contends on the recipient wallet. Entries are keyed by recipient and transaction,
+ * the entry of a transaction can only be written once. {@link #compact()} folds the entries into the wallet
+ * balances in bulk and deletes them, in the same transaction. Until then the balance of a wallet is its coin map
+ * plus its pending entries, see {@link #getBalance(String, String)}. The transaction adding an entry checks that
+ * the recipient wallet exists, so every entry can be folded.
+ */
+@Log4j2
+public class CreditLedger {
+    private static final String ATTR_NAME_OWNER_ID = "#owner";
+    private static final String ATTR_NAME_TRANSACTION_ID = "#tid";
+    private static final String ATTR_VAL_OWNER_ID = ":owner";
+    private static final String EXPRESSION_ENTRY_NOT_EXISTS = String.format("attribute_not_exists(%s)",
+            ATTR_NAME_TRANSACTION_ID);
+    private static final String EXPRESSION_ENTRY_EXISTS = String.format("attribute_exists(%s)",
+            ATTR_NAME_TRANSACTION_ID);
+    private static final String EXPRESSION_OWNER_ENTRIES = String.format("%s = %s", ATTR_NAME_OWNER_ID,
+            ATTR_VAL_OWNER_ID);
+    private static final Map<String, String> ENTRY_ATTR_NAMES = ImmutableMap.of(
+            ATTR_NAME_TRANSACTION_ID, CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID);
+    private static final Map<String, String> OWNER_ATTR_NAMES = ImmutableMap.of(
+            ATTR_NAME_OWNER_ID, CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID);
+
+    private final AmazonDynamoDB dbClient;
+
+    public CreditLedger(@NonNull final AmazonDynamoDB dbClient) {
+        this.dbClient = dbClient;
+    }
+
+    private CreditLedger() {
+        this.dbClient = null;
+    }
+
+    /**
+     * @return a {@link CreditLedger} that is not used, credits are applied to the recipient wallet directly.
+     */
+    public static CreditLedger disabled() {
+        return new CreditLedger();
+    }
+
+    public boolean isEnabled() {
+        return dbClient != null;
+    }
+
+    /**
+     * @param transaction the transaction crediting its recipient.
+     * @return the put of its ledger entry, which fails if the entry already exists.
+     */
+    TransactWriteItem buildCredit(final Transaction transaction) {
+        return new TransactWriteItem().withPut(new Put()
+                .withItem(ImmutableMap.of(
+                        CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(transaction.getRecipientId()),
+                        CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID, new AttributeValue(transaction.getTransactionId()),
+                        CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID, new AttributeValue(transaction.getCurrencyId()),
+                        CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT,
+                        new AttributeValue().withN(String.valueOf(transaction.getAmount()))))
+                .withConditionExpression(EXPRESSION_ENTRY_NOT_EXISTS)
+                .withExpressionAttributeNames(ENTRY_ATTR_NAMES)
+                .withTableName(CREDIT_LEDGER_DDB_TABLE_NAME));
+    }
+
+    /**
+     * @return the committed balance of the wallet plus its pending credits, 0 if the wallet doesn't have the
+     * currency.
+     */
+    public double getBalance(@NonNull final String ownerId, @NonNull final String currencyId) {
+        final Map<String, AttributeValue> wallet = dbClient.getItem(new GetItemRequest()
+                .withTableName(WALLET_DDB_TABLE_NAME)
+                .withKey(WriteItemTemplates.getOwnerKey(ownerId))
+                .withConsistentRead(true)).getItem();
+        double balance = 0;
+        if (wallet != null && wallet.get(WALLET_DDB_ATTRIBUTE_COIN_MAP) != null) {
+            final AttributeValue coin = wallet.get(WALLET_DDB_ATTRIBUTE_COIN_MAP).getM().get(currencyId);
+            balance = coin == null ? 0 : Double.parseDouble(coin.getN());
+        }
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final QueryResult result = queryEntries(ownerId, startKey);
+            for (Map<String, AttributeValue> entry : result.getItems()) {
+                if (currencyId.equals(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID).getS())) {
+                    balance += Double.parseDouble(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT).getN());
+                }
+            }
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+        return balance;
+    }
+
+    /**
+     * Folds the pending credits of a single wallet, for a payer whose balance may still be in the ledger. Only the
+     * partition of the wallet is read, a page of
+     * {@link io.openmarket.transaction.lambda.config.LambdaConfig#MAX_COMPACTED_CREDITS_PER_WRITE} entries at a
+     * time, and each page is folded before the next one is read.
+     * @param deadlineMillis the epoch millis after which no more page is folded.
+     * @return the number of entries folded.
+     * @throws DeadlineExceededException if entries are left once the deadline has passed, the pages already folded
+     * stay folded.
+     */
+    public int compact(@NonNull final String ownerId, final long deadlineMillis) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        int compacted = 0;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            if (TransactionLambda.isPastDeadline(deadlineMillis)) {
+                throw new DeadlineExceededException(String.format(
+                        "Stopped compacting wallet '%s' at the deadline after %d credits", ownerId, compacted));
+            }
+            final QueryResult result = queryEntries(ownerId, startKey);
+            compacted += compactEntries(ownerId, result.getItems());
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+        if (compacted > 0) {
+            log.info("Compacted {} credits into wallet '{}'", compacted, ownerId);
+        }
+        return compacted;
+    }
+
+    /**
+     * Folds every pending credit into its wallet. The ledger is scanned a page at a time and the entries of each
+     * page are folded by wallet before the next page is read, so memory stays bounded by the page size.
+     * A wallet whose entries fail to fold keeps them for the next run.
+     * @return the number of entries folded.
+     */
+    public int compact() {
+        int compacted = 0;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final ScanResult result = dbClient.scan(new ScanRequest()
+                    .withTableName(CREDIT_LEDGER_DDB_TABLE_NAME)
+                    .withExclusiveStartKey(startKey));
+            final Map<String, List<Map<String, AttributeValue>>> entriesByOwner = new LinkedHashMap<>();
+            for (Map<String, AttributeValue> entry : result.getItems()) {
+                entriesByOwner.computeIfAbsent(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID).getS(),
+                        k -> new ArrayList<>()).add(entry);
+            }
+            for (Map.Entry<String, List<Map<String, AttributeValue>>> entries : entriesByOwner.entrySet()) {
+                try {
+                    compacted += compactEntries(entries.getKey(), entries.getValue());
+                } catch (RuntimeException e) {
+                    log.error("Failed to compact the credits of wallet '{}'", entries.getKey(), e);
+                }
+            }
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+        log.info("Compacted {} credits", compacted);
+        return compacted;
+    }
+
+    /**
+     * Reads a page of at most
+     * {@link io.openmarket.transaction.lambda.config.LambdaConfig#MAX_COMPACTED_CREDITS_PER_WRITE} entries of the wallet.
+     */
+    private QueryResult queryEntries(final String ownerId, final Map<String, AttributeValue> startKey) {
+        return dbClient.query(new QueryRequest()
+                .withTableName(CREDIT_LEDGER_DDB_TABLE_NAME)
+                .withKeyConditionExpression(EXPRESSION_OWNER_ENTRIES)
+                .withExpressionAttributeNames(OWNER_ATTR_NAMES)
+                .withExpressionAttributeValues(Collections.singletonMap(ATTR_VAL_OWNER_ID,
+                        new AttributeValue(ownerId)))
+                .withConsistentRead(true)
+                .withLimit(MAX_COMPACTED_CREDITS_PER_WRITE)
+                .withExclusiveStartKey(startKey));
+    }
+
+    private int compactEntries(final String ownerId, final List<Map<String, AttributeValue>> entries) {
+        int compacted = 0;
+        for (List<Map<String, AttributeValue>> chunk : Lists.partition(entries, MAX_COMPACTED_CREDITS_PER_WRITE)) {
+            final Map<String, Double> amounts = new TreeMap<>();
+            final List<TransactWriteItem> items = new ArrayList<>(chunk.size() + 1);
+            for (Map<String, AttributeValue> entry : chunk) {
+                amounts.merge(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID).getS(),
+                        Double.parseDouble(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT).getN()), Double::sum);
+                items.add(new TransactWriteItem().withDelete(new Delete()
+                        .withKey(ImmutableMap.of(
+                                CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID, entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID),
+                                CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID,
+                                entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID)))
+                        .withConditionExpression(EXPRESSION_ENTRY_EXISTS)
+                        .withExpressionAttributeNames(ENTRY_ATTR_NAMES)
+                        .withTableName(CREDIT_LEDGER_DDB_TABLE_NAME)));
+            }
+            items.add(WriteItemTemplates.buildCredits(ownerId, amounts));
+            dbClient.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+            compacted += chunk.size();
+        }
+        return compacted;
+    }
+}
@@ -0,0 +1,11 @@
+package io.openmarket.transaction.lambda.handler;
+
+/**
+ * Thrown when work that must finish before a write of the transaction is stopped at the deadline of the invocation,
+ * the transaction is left pending so it is tried again by a later invocation.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    public DeadlineExceededException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+package io.openmarket.transaction.lambda.handler;
+
+/**
+ * The class of failure a transaction ran into, used to decide whether it is worth another attempt.
+ */
+public enum ErrorClass {
+    /**
+     * No failure.
+     */
+    NONE(false),
+
+    /**
+     * A condition of the write failed, such as an insufficient balance or an unexpected transaction status.
+     */
+    CONDITION_FAILED(false),
+
+    /**
+     * Another writer was updating one of the items at the same time.
+     */
+    TRANSACTION_CONFLICT(true),
+
+    /**
+     * The request exceeded the table throughput or the account request limit.
+     */
+    THROTTLING(true),
+
+    /**
+     * DynamoDB returned a server error or could not be reached.
+     */
+    SERVICE_ERROR(true),
+
+    /**
+     * The transaction was not started because the invocation was running out of time.
+     */
+    NOT_STARTED(true),
+
+    /**
+     * The request is invalid, for example it targets a wallet without a coin map.
+     */
+    VALIDATION(false),
+
+    /**
+     * Any other failure, treated as permanent.
+     */
+    UNKNOWN(false);
+
+    private final boolean retryable;
+
+    ErrorClass(final boolean retryable) {
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,112 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.TransactionConflictException;
+import com.amazonaws.services.dynamodbv2.model.TransactionInProgressException;
+import io.openmarket.transaction.lambda.throttle.WriteThrottledException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Maps DynamoDB failures to an {@link ErrorClass}, telling transient failures, which are worth another attempt,
+ * from permanent ones.
+ */
+public final class ErrorClassifier {
+    private ErrorClassifier() {}
+
+    public static final String CANCELLATION_NONE = "None";
+    public static final String CANCELLATION_CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    public static final String CANCELLATION_TRANSACTION_CONFLICT = "TransactionConflict";
+    public static final String CANCELLATION_THROTTLING = "ThrottlingError";
+    public static final String CANCELLATION_THROUGHPUT_EXCEEDED = "ProvisionedThroughputExceeded";
+    public static final String CANCELLATION_VALIDATION = "ValidationError";
+
+    private static final String ERROR_CODE_VALIDATION = "ValidationException";
+
+    /**
+     * @param e the exception thrown by a DynamoDB call.
+     * @return true if the same request may succeed when it is sent again.
+     */
+    public static boolean isRetryable(final Exception e) {
+        return classify(e).isRetryable();
+    }
+
+    /**
+     * @param e the exception thrown by a DynamoDB call.
+     * @return the {@link ErrorClass} of the exception.
+     */
+    public static ErrorClass classify(final Exception e) {
+        if (e instanceof TransactionCanceledException) {
+            return classify(((TransactionCanceledException) e).getCancellationReasons());
+        }
+        if (e instanceof ConditionalCheckFailedException) {
+            return ErrorClass.CONDITION_FAILED;
+        }
+        if (e instanceof WriteThrottledException) {
+            return ErrorClass.THROTTLING;
+        }
+        if (e instanceof DeadlineExceededException) {
+            return ErrorClass.NOT_STARTED;
+        }
+        if (e instanceof TransactionConflictException || e instanceof TransactionInProgressException) {
+            return ErrorClass.TRANSACTION_CONFLICT;
+        }
+        if (e instanceof AmazonServiceException) {
+            final AmazonServiceException serviceException = (AmazonServiceException) e;
+            if (RetryUtils.isThrottlingException(serviceException)) {
+                return ErrorClass.THROTTLING;
+            }
+            if (serviceException.getErrorType() == AmazonServiceException.ErrorType.Service
+                    || serviceException.getStatusCode() >= 500) {
+                return ErrorClass.SERVICE_ERROR;
+            }
+            if (ERROR_CODE_VALIDATION.equals(serviceException.getErrorCode())) {
+                return ErrorClass.VALIDATION;
+            }
+            return ErrorClass.UNKNOWN;
+        }
+        if (e instanceof SdkClientException && e.getCause() instanceof IOException) {
+            return ErrorClass.SERVICE_ERROR;
+        }
+        return ErrorClass.UNKNOWN;
+    }
+
+    /**
+     * @param cancellationCode the code of a {@link CancellationReason}.
+     * @return true if the item was throttled.
+     */
+    public static boolean isThrottling(final String cancellationCode) {
+        return CANCELLATION_THROTTLING.equals(cancellationCode)
+                || CANCELLATION_THROUGHPUT_EXCEEDED.equals(cancellationCode);
+    }
+
+    /**
+     * Classifies a cancelled transaction by its most significant reason: a failed condition or an invalid item
+     * fails the transaction for good, regardless of the other items.
+     */
+    private static ErrorClass classify(final List<CancellationReason> reasons) {
+        if (reasons == null) {
+            return ErrorClass.UNKNOWN;
+        }
+        ErrorClass result = ErrorClass.UNKNOWN;
+        for (CancellationReason reason : reasons) {
+            final String code = reason.getCode();
+            if (CANCELLATION_CONDITIONAL_CHECK_FAILED.equals(code)) {
+                return ErrorClass.CONDITION_FAILED;
+            } else if (CANCELLATION_VALIDATION.equals(code)) {
+                result = ErrorClass.VALIDATION;
+            } else if (result != ErrorClass.VALIDATION && isThrottling(code)) {
+                result = ErrorClass.THROTTLING;
+            } else if (result == ErrorClass.UNKNOWN && CANCELLATION_TRANSACTION_CONFLICT.equals(code)) {
+                result = ErrorClass.TRANSACTION_CONFLICT;
+            }
+        }
+        return result;
+    }
+}
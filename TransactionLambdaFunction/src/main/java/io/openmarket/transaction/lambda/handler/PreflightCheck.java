@@ -0,0 +1,155 @@
+package io.openmarket.transaction.lambda.handler;
+
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionType;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Screens the transactions of a batch before they are written. A transaction that is malformed, or whose payer
+ * clearly can't afford it, is failed right away, saving the transactional write that would be cancelled anyway.
+ * The balance check only runs with a {@link BalanceSnapshots}, against an upper bound of the payer balance: its
+ * snapshot plus every credit the batch makes to it. Wallets with part of their balance kept aside, in
+ * {@link WalletShards} or the {@link CreditLedger}, are not checked. A transfer that passes may still fail the
+ * balance condition of the payer debit, which remains the decision.
+ */
+@Log4j2
+public class PreflightCheck {
+    private final TransactionLambda lambda;
+    private final BalanceSnapshots balances;
+
+    /**
+     * @param lambda the {@link TransactionLambda} recording the errors of the rejected transactions.
+     * @param balances the balance snapshots, or {@link BalanceSnapshots#disabled()} to only check the shape
+     *                 of the transactions.
+     */
+    public PreflightCheck(@NonNull final TransactionLambda lambda, @NonNull final BalanceSnapshots balances) {
+        this.lambda = lambda;
+        this.balances = balances;
+    }
+
+    /**
+     * Rejects the transactions that would fail for a permanent reason, their error status is recorded.
+     * @param transactions the pending transactions of the batch.
+     * @param deadlineMillis the epoch millis after which nothing is loaded or rejected, every transaction is
+     *                       accepted so it is left pending.
+     * @param accepted filled with the transactions to process, in their order.
+     * @return the outcomes of the rejected transactions.
+     */
+    public List<TransactionOutcome> screen(@NonNull final List<Transaction> transactions, final long deadlineMillis,
+                                           @NonNull final List<Transaction> accepted) {
+        final List<TransactionOutcome> rejected = new ArrayList<>();
+        if (TransactionLambda.isPastDeadline(deadlineMillis)) {
+            accepted.addAll(transactions);
+            return rejected;
+        }
+        final List<Transaction> valid = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            final String problem = validate(transaction);
+            if (problem == null) {
+                valid.add(transaction);
+            } else {
+                rejected.add(reject(transaction, ErrorClass.VALIDATION, new IllegalArgumentException(problem)));
+            }
+        }
+        if (!balances.isEnabled()) {
+            accepted.addAll(valid);
+            return rejected;
+        }
+
+        final Set<String> payers = new LinkedHashSet<>();
+        final Map<String, Map<String, Double>> credits = new HashMap<>();
+        for (Transaction transaction : valid) {
+            if (!lambda.mayHavePendingBalance(transaction.getPayerId())) {
+                payers.add(transaction.getPayerId());
+            }
+            // The transactions of a batch may settle in any order, so every credit may land before a debit.
+            credits.computeIfAbsent(transaction.getRecipientId(), k -> new HashMap<>())
+                    .merge(transaction.getCurrencyId(), transaction.getAmount(), Double::sum);
+        }
+        final Map<String, Map<String, Double>> snapshots = balances.load(payers, deadlineMillis);
+        for (Transaction transaction : valid) {
+            final Map<String, Double> coins = payers.contains(transaction.getPayerId())
+                    ? snapshots.get(transaction.getPayerId()) : null;
+            if (coins == null) {
+                accepted.add(transaction);
+                continue;
+            }
+            final double balance = coins.getOrDefault(transaction.getCurrencyId(), 0.0);
+            final double upperBound = balance + credits.getOrDefault(transaction.getPayerId(),
+                    Collections.emptyMap()).getOrDefault(transaction.getCurrencyId(), 0.0);
+            if (transaction.getAmount() > upperBound + LambdaConfig.PREFLIGHT_BALANCE_TOLERANCE) {
+                rejected.add(reject(transaction, ErrorClass.CONDITION_FAILED, new IllegalStateException(
+                        String.format("Payer '%s' has at most %s of currency '%s', short of %s",
+                                transaction.getPayerId(), upperBound, transaction.getCurrencyId(),
+                                transaction.getAmount()))));
+            } else {
+                accepted.add(transaction);
+            }
+        }
+        return rejected;
+    }
+
+    public boolean isBalanceCheckEnabled() {
+        return balances.isEnabled();
+    }
+
+    /**
+     * @return why the transaction can never be written, or null if it is well formed.
+     */
+    static String validate(final Transaction transaction) {
+        if (isBlank(transaction.getPayerId()) || isBlank(transaction.getRecipientId())) {
+            return "The payer and the recipient are required";
+        }
+        if (transaction.getPayerId().equals(transaction.getRecipientId())) {
+            return "The payer and the recipient must differ";
+        }
+        if (isBlank(transaction.getCurrencyId())) {
+            return "The currency is required";
+        }
+        final Double amount = transaction.getAmount();
+        if (amount == null || amount.isNaN() || amount.isInfinite() || amount <= 0) {
+            return String.format("The amount must be a positive number, got %s", amount);
+        }
+        if (transaction.getType() == null) {
+            return "The type is required";
+        }
+        if (TransactionType.REFUND.equals(transaction.getType())
+                && (transaction.getRefundTransacIds() == null || transaction.getRefundTransacIds().isEmpty())) {
+            return "A refund must name the transactions it refunds";
+        }
+        return null;
+    }
+
+    private TransactionOutcome reject(final Transaction transaction, final ErrorClass errorClass,
+                                      final Exception e) {
+        log.debug("Transaction {} is rejected before being written: {}", transaction.getTransactionId(),
+                e.getMessage());
+        final TransactionOutcome outcome;
+        try {
+            outcome = lambda.fail(transaction, TransactionLambda.newResult(transaction), errorClass, 0, e);
+        } catch (RuntimeException writeError) {
+            log.error("Failed to record the rejection of transaction {}, it will be retried",
+                    transaction.getTransactionId(), writeError);
+            return TransactionOutcome.retryable(transaction, ErrorClassifier.classify(writeError));
+        }
+        lambda.getMetrics().count(Metric.PREFLIGHT_REJECTIONS,
+                MetricDimensions.of(transaction.getType(), outcome.getErrorClass()), 1);
+        return outcome;
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,65 @@
+package io.openmarket.transaction.lambda.handler;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded exponential backoff with full jitter for transient transaction failures.
+ */
+public class RetryPolicy {
+    private static volatile long jitterSalt = System.nanoTime();
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(final int maxAttempts, final long baseDelayMillis, final long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException(String.format("maxAttempts must be positive, got %d", maxAttempts));
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return a {@link RetryPolicy} that never retries.
+     */
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy(1, 0, 0);
+    }
+
+    /**
+     * @param attempt the number of attempts made so far, starting at 1.
+     * @return a random delay between 0 and the exponential backoff ceiling of this attempt.
+     */
+    public long getDelayMillis(final int attempt) {
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return ceiling <= 0 ? 0 : Math.floorMod(ThreadLocalRandom.current().nextLong() ^ jitterSalt, ceiling + 1);
+    }
+
+    /**
+     * Draws a new salt for the jitter of every policy. The per-thread random generators are part of a snapshot, so
+     * the containers restored from the same snapshot would back off in lockstep without it.
+     */
+    public static void reseedJitter() {
+        jitterSalt = new SecureRandom().nextLong();
+    }
+
+    /**
+     * @param attempt the number of attempts made so far, starting at 1.
+     * @param errorClass the {@link ErrorClass} of the last failure.
+     * @param delayMillis the delay before the next attempt.
+     * @param deadlineMillis the epoch millis by which the transaction must be done.
+     * @return true if another attempt should be made.
+     */
+    public boolean shouldRetry(final int attempt, final ErrorClass errorClass, final long delayMillis,
+                               final long deadlineMillis) {
+        return errorClass.isRetryable() && attempt < maxAttempts
+                && System.currentTimeMillis() + delayMillis < deadlineMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,69 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Sends the TransactWriteItems request that settles a transaction.
+ */
+@FunctionalInterface
+public interface TransactWriter {
+    /**
+     * The maximum length of a TransactWriteItems client request token.
+     */
+    int MAX_CLIENT_REQUEST_TOKEN_LENGTH = 36;
+
+    /**
+     * @param items the items to write atomically.
+     * @param clientRequestToken the idempotency token of the write, see {@link #getClientRequestToken(String)}.
+     */
+    void write(List<TransactWriteItem> items, String clientRequestToken);
+
+    /**
+     * @return a writer that goes through {@link WalletDao#doTransactionWrite(List)}, which takes no token.
+     */
+    static TransactWriter of(@NonNull final WalletDao walletDao) {
+        return (items, clientRequestToken) -> walletDao.doTransactionWrite(items);
+    }
+
+    /**
+     * @return a writer that passes the token, DynamoDB then answers a repeated successful write within its
+     * idempotency window without applying it again, and without consuming write capacity.
+     */
+    static TransactWriter of(@NonNull final AmazonDynamoDB dbClient) {
+        return (items, clientRequestToken) -> dbClient.transactWriteItems(new TransactWriteItemsRequest()
+                .withTransactItems(items)
+                .withClientRequestToken(clientRequestToken));
+    }
+
+    /**
+     * @param transactionId the ID of the transaction being settled.
+     * @return the transaction ID, or a name based UUID of it when it is too long to be a token.
+     */
+    static String getClientRequestToken(@NonNull final String transactionId) {
+        if (transactionId.length() <= MAX_CLIENT_REQUEST_TOKEN_LENGTH) {
+            return transactionId;
+        }
+        return UUID.nameUUIDFromBytes(transactionId.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * @param transactionIds the IDs of the transactions settled together by one write.
+     * @return a name based UUID of the sorted IDs, so the same transactions always get the same token.
+     */
+    static String getClientRequestToken(@NonNull final Collection<String> transactionIds) {
+        final List<String> sorted = new ArrayList<>(transactionIds);
+        Collections.sort(sorted);
+        return UUID.nameUUIDFromBytes(String.join(",", sorted).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
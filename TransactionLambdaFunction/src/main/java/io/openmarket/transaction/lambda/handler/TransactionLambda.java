@@ -1,10 +1,16 @@
 package io.openmarket.transaction.lambda.handler;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTransactionWriteExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
 import com.amazonaws.services.dynamodbv2.model.*;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableMap;
 import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.lambda.throttle.WriteThrottledException;
 import io.openmarket.transaction.dao.dynamodb.TransactionDao;
 import io.openmarket.transaction.model.Transaction;
 import io.openmarket.transaction.model.TransactionErrorType;
@@ -16,191 +22,502 @@ import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
 import javax.inject.Inject;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
 
-import static io.openmarket.config.TransactionConfig.*;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_STATUS;
 import static io.openmarket.config.WalletConfig.*;
+import static io.openmarket.transaction.lambda.handler.WriteItemTemplates.ATTR_NAME_COIN_IN_MAP;
+import static io.openmarket.transaction.lambda.handler.WriteItemTemplates.ATTR_VAL_DEFAULT_COIN_AMOUNT;
 
 @Log4j2
 public class TransactionLambda {
-    private static final String ATTR_NAME_COIN_MAP = "#cm";
-    private static final String ATTR_NAME_COIN = "#coin";
-    private static final String ATTR_NAME_COIN_IN_MAP = String.format("%s.%s", ATTR_NAME_COIN_MAP, ATTR_NAME_COIN);
-    private static final String ATTR_VAL_TRANSACTION_AMOUNT = ":val";
-    private static final String EXPRESSION_UPDATE_PAYER_BALANCE = String.format("SET %s = %s - %s",
-            ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP, ATTR_VAL_TRANSACTION_AMOUNT);
-    private static final String EXPRESSION_CHECK_PAYER_ENOUGH_BALANCE = String.format(
-            "attribute_exists(%s) AND %s >= %s", ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP,
-            ATTR_VAL_TRANSACTION_AMOUNT);
-    private static final String EXPRESSION_UPDATE_RECIPIENT_BALANCE = String.format("SET %s = %s + %s",
-            ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP, ATTR_VAL_TRANSACTION_AMOUNT);
-
-    private static final String ATTR_NAME_TRANSAC_STATUS = "#stat";
-    private static final String ATTR_VAL_TRANSAC_STATUS = ":statVal";
-    private static final String ATTR_VAL_COND_TRANSAC_STATUS = ":condVal";
-    private static final Map<String, String> TRANSAC_STATUS_ATTR_NAME = ImmutableMap.of(ATTR_NAME_TRANSAC_STATUS,
-            TRANSACTION_DDB_ATTRIBUTE_STATUS);
-    private static final String EXPRESSION_CHECK_STATUS = String.format("%s = %s", ATTR_NAME_TRANSAC_STATUS,
-            ATTR_VAL_COND_TRANSAC_STATUS);
-
-
-    private static final String EXPRESSION_UPDATE_TRANSAC_STATUS = String.format("SET %s = %s",
-            ATTR_NAME_TRANSAC_STATUS, ATTR_VAL_TRANSAC_STATUS);
-    private static final String ATTR_VAL_DEFAULT_COIN_AMOUNT = ":default";
     private static final String CREATE_COIN_SLOT_EXPRESSION = String.format("SET %s = %s",
             ATTR_NAME_COIN_IN_MAP, ATTR_VAL_DEFAULT_COIN_AMOUNT);
     private static final String COIN_NOT_ALREADY_EXIST = String.format("attribute_not_exists(%s)",
             ATTR_NAME_COIN_IN_MAP);
+    private static final String ATTR_NAME_STATUS = "#stat";
+    private static final String ATTR_VAL_STATUS = ":condVal";
+    private static final String EXPRESSION_CHECK_STATUS = String.format("%s = %s", ATTR_NAME_STATUS,
+            ATTR_VAL_STATUS);
 
     private final TransactionDao transactionDao;
     private final WalletDao walletDao;
+    private final RetryPolicy retryPolicy;
+    private final MetricsRecorder metrics;
+    private final TransactWriter transactWriter;
+    private final WalletShards walletShards;
+    private final CreditLedger creditLedger;
+    private final WriteThrottle writeThrottle;
+    private final HotKeyTracker hotKeys;
 
     @Inject
     public TransactionLambda(@NonNull final TransactionDao dbDao, @NonNull final WalletDao walletDao) {
+        this(dbDao, walletDao, new RetryPolicy(LambdaConfig.MAX_TRANSACTION_ATTEMPTS,
+                LambdaConfig.RETRY_BASE_DELAY_MILLIS, LambdaConfig.RETRY_MAX_DELAY_MILLIS),
+                MetricsRecorder.discarding(), TransactWriter.of(walletDao), WalletShards.none(),
+                CreditLedger.disabled(), WriteThrottle.disabled(), HotKeyTracker.disabled());
+    }
+
+    /**
+     * The optional features are turned off by passing {@link WalletShards#none()}, {@link CreditLedger#disabled()},
+     * {@link WriteThrottle#disabled()} and {@link HotKeyTracker#disabled()}.
+     */
+    public TransactionLambda(@NonNull final TransactionDao dbDao, @NonNull final WalletDao walletDao,
+                             @NonNull final RetryPolicy retryPolicy, @NonNull final MetricsRecorder metrics,
+                             @NonNull final TransactWriter transactWriter, @NonNull final WalletShards walletShards,
+                             @NonNull final CreditLedger creditLedger, @NonNull final WriteThrottle writeThrottle,
+                             @NonNull final HotKeyTracker hotKeys) {
         this.transactionDao = dbDao;
         this.walletDao = walletDao;
+        this.retryPolicy = retryPolicy;
+        this.metrics = metrics;
+        this.transactWriter = transactWriter;
+        this.walletShards = walletShards;
+        this.creditLedger = creditLedger;
+        this.writeThrottle = writeThrottle;
+        this.hotKeys = hotKeys;
     }
 
     public TransactionTaskResult processTransaction(@NonNull final Transaction transaction) {
-        final TransactionTaskResult result = TransactionTaskResult.builder()
+        return process(transaction).getResult();
+    }
+
+    public TransactionOutcome process(@NonNull final Transaction transaction) {
+        return process(transaction, Long.MAX_VALUE);
+    }
+
+    /**
+     * Processes the transaction. Transient failures are retried with backoff as long as the deadline allows,
+     * and are left pending instead of being recorded as an error once the attempts run out. A transaction whose
+     * write can't get its permits from the {@link WriteThrottle} before the deadline is left pending right away.
+     * @param transaction the {@link Transaction} to process.
+     * @param deadlineMillis the epoch millis after which neither the transaction nor its retries are started.
+     * @return the {@link TransactionOutcome} of the transaction.
+     */
+    public TransactionOutcome process(@NonNull final Transaction transaction, final long deadlineMillis) {
+        if (isPastDeadline(deadlineMillis)) {
+            log.info("Transaction {} is not started, the deadline has passed", transaction.getTransactionId());
+            return TransactionOutcome.notStarted(transaction);
+        }
+        final TransactionTaskResult result = newResult(transaction);
+        log.debug("Processing transaction {}", transaction);
+        recordTouch(transaction);
+        for (int attempt = 1; ; attempt++) {
+            final long writeStart = System.nanoTime();
+            try {
+                processTransactionHelper(transaction, deadlineMillis);
+                metrics.timeSince(Metric.TRANSACTION_WRITE_LATENCY,
+                        MetricDimensions.of(transaction.getType(), ErrorClass.NONE), writeStart);
+                return TransactionOutcome.settled(result, ErrorClass.NONE);
+            } catch (WriteThrottledException e) {
+                return fail(transaction, result, ErrorClass.THROTTLING, attempt, e);
+            } catch (Exception e) {
+                final ErrorClass errorClass = ErrorClassifier.classify(e);
+                metrics.timeSince(Metric.TRANSACTION_WRITE_LATENCY,
+                        MetricDimensions.of(transaction.getType(), errorClass), writeStart);
+                recordConflict(transaction, errorClass, e);
+                final long delayMillis = retryPolicy.getDelayMillis(attempt);
+                if (retryPolicy.shouldRetry(attempt, errorClass, delayMillis, deadlineMillis)) {
+                    log.info("Transaction {} failed with {} on attempt {}, retrying in {} ms",
+                            transaction.getTransactionId(), errorClass, attempt, delayMillis);
+                    sleep(delayMillis);
+                    continue;
+                }
+                return fail(transaction, result, errorClass, attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Counts the transaction on its payer, its recipient and its currency in the {@link HotKeyTracker}.
+     */
+    void recordTouch(final Transaction transaction) {
+        hotKeys.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH, transaction.getPayerId());
+        hotKeys.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH, transaction.getRecipientId());
+        hotKeys.record(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.TOUCH, transaction.getCurrencyId());
+    }
+
+    /**
+     * Counts a failed attempt that was cancelled by a conflicting transaction in the {@link HotKeyTracker}. The
+     * conflict is blamed on the payer or the recipient when the cancellation reasons tell which of their items
+     * conflicted, on both otherwise.
+     */
+    void recordConflict(final Transaction transaction, final ErrorClass errorClass, final Exception e) {
+        if (errorClass != ErrorClass.TRANSACTION_CONFLICT || !hotKeys.isEnabled()) {
+            return;
+        }
+        boolean payer = true;
+        boolean recipient = true;
+        if (e instanceof TransactionCanceledException) {
+            final List<CancellationReason> reasons = ((TransactionCanceledException) e).getCancellationReasons();
+            if (reasons != null && reasons.size() > WriteItemTemplates.RECIPIENT_CREDIT_INDEX) {
+                payer = isConflict(reasons.get(0));
+                recipient = isConflict(reasons.get(WriteItemTemplates.RECIPIENT_CREDIT_INDEX));
+                if (!payer && !recipient) {
+                    // The conflict is on a status or refund item, the wallets of the transaction are still the keys.
+                    payer = true;
+                    recipient = true;
+                }
+            }
+        }
+        if (payer) {
+            hotKeys.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.CONFLICT, transaction.getPayerId());
+        }
+        if (recipient) {
+            hotKeys.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.CONFLICT,
+                    transaction.getRecipientId());
+        }
+        hotKeys.record(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.CONFLICT, transaction.getCurrencyId());
+    }
+
+    private static boolean isConflict(final CancellationReason reason) {
+        return ErrorClassifier.CANCELLATION_TRANSACTION_CONFLICT.equals(reason.getCode());
+    }
+
+    static boolean isPastDeadline(final long deadlineMillis) {
+        return System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    static TransactionTaskResult newResult(final Transaction transaction) {
+        return TransactionTaskResult.builder()
                 .transactionId(transaction.getTransactionId())
                 .type(transaction.getType())
                 .error(TransactionErrorType.NONE)
                 .status(TransactionStatus.COMPLETED)
                 .build();
-        try {
-            log.info("Processing transaction {}", transaction);
-            processTransactionHelper(transaction);
-        } catch (Exception e) {
+    }
+
+    /**
+     * Settles a transaction that won't be retried within this invocation: a transient failure leaves it pending,
+     * a permanent one records its error status.
+     * @param attempt the number of attempts made.
+     * @return the {@link TransactionOutcome} of the transaction.
+     */
+    TransactionOutcome fail(final Transaction transaction, final TransactionTaskResult result,
+                            final ErrorClass errorClass, final int attempt, final Exception e) {
+        if (errorClass.isRetryable()) {
+            log.warn("Transaction {} failed with {} after {} attempts, leaving it pending: {}",
+                    transaction.getTransactionId(), errorClass, attempt, String.valueOf(e));
+            result.setStatus(TransactionStatus.PENDING);
+            return TransactionOutcome.retryable(result, errorClass);
+        }
+        if (errorClass == ErrorClass.UNKNOWN) {
             log.error("An exception occurred while processing transaction: {}", transaction, e);
-            result.setError(TransactionErrorType.INSUFFICIENT_BALANCE);
-            result.setStatus(TransactionStatus.ERROR);
-            try {
-                updateErrorStatus(transaction, TransactionErrorType.INSUFFICIENT_BALANCE);
-            } catch (ConditionalCheckFailedException e2) {
-                log.warn("Transaction {} was overwritten externally", transaction.getTransactionId(), e2);
-            }
+        } else {
+            // A business rejection such as an insufficient balance, the stack trace tells nothing more.
+            log.debug("Transaction {} is rejected with {}: {}", transaction.getTransactionId(), errorClass,
+                    String.valueOf(e));
+        }
+        // Every permanent failure is reported as INSUFFICIENT_BALANCE, the ErrorClass tells them apart.
+        result.setError(TransactionErrorType.INSUFFICIENT_BALANCE);
+        result.setStatus(TransactionStatus.ERROR);
+        final long errorWriteStart = System.nanoTime();
+        final TransactionStatus storedStatus;
+        try {
+            storedStatus = updateErrorStatus(transaction, TransactionErrorType.INSUFFICIENT_BALANCE);
+        } finally {
+            metrics.timeSince(Metric.ERROR_STATUS_WRITE_LATENCY,
+                    MetricDimensions.of(transaction.getType(), errorClass), errorWriteStart);
+        }
+        if (storedStatus != TransactionStatus.ERROR) {
+            // A redelivered transaction that was settled meanwhile, its status check failed.
+            log.info("Transaction {} is already {}, keeping its status", transaction.getTransactionId(),
+                    storedStatus);
+            result.setError(TransactionErrorType.NONE);
+            result.setStatus(storedStatus);
+            return TransactionOutcome.settled(result, ErrorClass.NONE);
+        }
+        return TransactionOutcome.settled(result, errorClass);
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
         }
-        return result;
     }
 
     @VisibleForTesting
     protected void processTransactionHelper(final Transaction transaction) {
-        final Map<String, AttributeValue> payerKey = getOwnerKey(transaction.getPayerId());
-        final Map<String, AttributeValue> recipientKey = getOwnerKey(transaction.getRecipientId());
-        final Map<String, String> attributeNames = getAttributeName(transaction.getCurrencyId());
-        final Map<String, AttributeValue> attributeValues = getAttributeValue(transaction.getAmount());
-
-        // Create the coin slot if it doesn't already exist.
-        createCurrencySlot(transaction.getRecipientId(), transaction.getCurrencyId());
-
-        final List<TransactWriteItem> updateRequests = Stream.of(
-                new TransactWriteItem().withUpdate(new Update()
-                        .withKey(payerKey)
-                        .withUpdateExpression(EXPRESSION_UPDATE_PAYER_BALANCE)
-                        .withConditionExpression(EXPRESSION_CHECK_PAYER_ENOUGH_BALANCE)
-                        .withExpressionAttributeNames(attributeNames)
-                        .withExpressionAttributeValues(attributeValues)
-                        .withTableName(WALLET_DDB_TABLE_NAME)
-                ),
-                new TransactWriteItem().withUpdate(new Update()
-                        .withKey(recipientKey)
-                        .withUpdateExpression(EXPRESSION_UPDATE_RECIPIENT_BALANCE)
-                        .withExpressionAttributeNames(attributeNames)
-                        .withExpressionAttributeValues(attributeValues)
-                        .withTableName(WALLET_DDB_TABLE_NAME)
-                ),
-                new TransactWriteItem().withUpdate(new Update()
-                        .withKey(getTransacKey(transaction.getTransactionId()))
-                        .withUpdateExpression(EXPRESSION_UPDATE_TRANSAC_STATUS)
-                        .withConditionExpression(EXPRESSION_CHECK_STATUS)
-                        .withExpressionAttributeNames(TRANSAC_STATUS_ATTR_NAME)
-                        .withExpressionAttributeValues(getTransacValue(TransactionStatus.COMPLETED,
-                                TransactionStatus.PENDING))
-
-                        .withTableName(TRANSACTION_DDB_TABLE_NAME)
-                )
-        ).collect(Collectors.toList());
-        if (transaction.getType().equals(TransactionType.REFUND)) {
-            updateRequests.add(new TransactWriteItem()
-                    .withUpdate(new Update()
-                    .withKey(getTransacKey(transaction.getRefundTransacIds().get(0)))
-                    .withUpdateExpression(EXPRESSION_UPDATE_TRANSAC_STATUS)
-                    .withConditionExpression(EXPRESSION_CHECK_STATUS)
-                    .withExpressionAttributeNames(TRANSAC_STATUS_ATTR_NAME)
-                    .withExpressionAttributeValues(getTransacValue(TransactionStatus.REFUNDED,
-                            TransactionStatus.REFUND_STARTED))
-                    .withTableName(TRANSACTION_DDB_TABLE_NAME)));
-        }
-        walletDao.doTransactionWrite(updateRequests);
+        processTransactionHelper(transaction, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadlineMillis the epoch millis by which the write must start.
+     * @throws WriteThrottledException if the write can't get its permits before the deadline.
+     */
+    private void processTransactionHelper(final Transaction transaction, final long deadlineMillis) {
+        final List<TransactWriteItem> items = buildWriteItems(transaction);
+        final String clientRequestToken = TransactWriter.getClientRequestToken(transaction.getTransactionId());
+        try {
+            write(items, clientRequestToken, deadlineMillis);
+        } catch (TransactionCanceledException e) {
+            if (!isPayerDebitFailed(e) || !releasePendingBalance(transaction.getPayerId(), deadlineMillis)) {
+                throw e;
+            }
+            write(items, clientRequestToken, deadlineMillis);
+        }
+    }
+
+    private void write(final List<TransactWriteItem> items, final String clientRequestToken,
+                       final long deadlineMillis) {
+        writeThrottle.acquire(items, deadlineMillis);
+        try {
+            transactWriter.write(items, clientRequestToken);
+        } catch (RuntimeException e) {
+            writeThrottle.record(items, e);
+            throw e;
+        }
+        writeThrottle.record(items, null);
+    }
+
+    /**
+     * Folds the balance of the wallet that is still kept aside, in its shards or in the credit ledger. The same
+     * credits may be folded at the same time by the compaction schedule or by another debit of the wallet, a fold
+     * that finds its credits already gone is cancelled with a failed condition, and counts as released.
+     * @param deadlineMillis the epoch millis after which no more ledger page is folded.
+     * @return true if any balance was folded into the wallet, by this call or a concurrent one.
+     * @throws DeadlineExceededException if the ledger is not folded by the deadline.
+     */
+    boolean releasePendingBalance(final String ownerId, final long deadlineMillis) {
+        int folded = 0;
+        boolean raced = false;
+        try {
+            folded += walletShards.consolidate(ownerId);
+        } catch (TransactionCanceledException e) {
+            raced = isFoldedConcurrently(ownerId, e);
+        }
+        try {
+            folded += creditLedger.compact(ownerId, deadlineMillis);
+        } catch (TransactionCanceledException e) {
+            raced |= isFoldedConcurrently(ownerId, e);
+        }
+        if (folded > 0) {
+            log.info("Wallet '{}' was short of balance, folded {} pending credits", ownerId, folded);
+        }
+        return folded > 0 || raced;
+    }
+
+    /**
+     * @return true if the fold was cancelled because a concurrent fold moved the same balance first.
+     * @throws TransactionCanceledException the given exception, if it was cancelled for another reason.
+     */
+    private static boolean isFoldedConcurrently(final String ownerId, final TransactionCanceledException e) {
+        if (ErrorClassifier.classify(e) != ErrorClass.CONDITION_FAILED) {
+            throw e;
+        }
+        log.info("The pending balance of wallet '{}' was folded concurrently", ownerId);
+        return true;
+    }
+
+    /**
+     * @return true if part of the balance of the wallet may be kept aside, see {@link #releasePendingBalance}.
+     */
+    boolean mayHavePendingBalance(final String ownerId) {
+        return walletShards.isSharded(ownerId) || creditLedger.isEnabled();
+    }
+
+    static boolean isPayerDebitFailed(final TransactionCanceledException e) {
+        final List<CancellationReason> reasons = e.getCancellationReasons();
+        return reasons != null && !reasons.isEmpty()
+                && ErrorClassifier.CANCELLATION_CONDITIONAL_CHECK_FAILED.equals(reasons.get(0).getCode());
+    }
+
+    /**
+     * Builds the items that settle the transaction atomically, see {@link WriteItemTemplates#build(Transaction)}.
+     * The recipient credit creates the coin slot when the recipient doesn't have the currency yet, so no separate
+     * call to {@link #createCurrencySlot(String, String)} is needed. The credit is recorded in the
+     * {@link CreditLedger} when it is enabled, along with a check that the recipient wallet exists, otherwise the credit of a sharded recipient goes to one of its
+     * shards, see {@link WalletShards}.
+     * @param transaction the {@link Transaction} to settle.
+     * @return the list of {@link TransactWriteItem}, mutable so callers may append to it.
+     */
+    protected List<TransactWriteItem> buildWriteItems(final Transaction transaction) {
+        final List<TransactWriteItem> items = WriteItemTemplates.build(transaction);
+        if (creditLedger.isEnabled()) {
+            items.set(WriteItemTemplates.RECIPIENT_CREDIT_INDEX, creditLedger.buildCredit(transaction));
+            items.add(WriteItemTemplates.buildWalletCheck(transaction.getRecipientId()));
+        } else if (walletShards.isSharded(transaction.getRecipientId())) {
+            items.set(WriteItemTemplates.RECIPIENT_CREDIT_INDEX, walletShards.shardCredit(
+                    transaction.getRecipientId(), transaction.getTransactionId(),
+                    items.get(WriteItemTemplates.RECIPIENT_CREDIT_INDEX), transaction.getCurrencyId(),
+                    new AttributeValue().withN(String.valueOf(transaction.getAmount()))));
+        }
+        return items;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    TransactWriter getTransactWriter() {
+        return transactWriter;
+    }
+
+    public WriteThrottle getWriteThrottle() {
+        return writeThrottle;
+    }
+
+    public HotKeyTracker getHotKeys() {
+        return hotKeys;
+    }
+
+    public WalletShards getWalletShards() {
+        return walletShards;
+    }
+
+    public CreditLedger getCreditLedger() {
+        return creditLedger;
+    }
+
+    /**
+     * Builds the write items of a sample transfer and refund and classifies a sample cancellation without sending
+     * anything, so the classes of the request building paths are loaded before the first transaction arrives.
+     */
+    public void prime() {
+        final Transaction transfer = Transaction.builder()
+                .transactionId(LambdaConfig.PRIMING_ID)
+                .payerId(LambdaConfig.PRIMING_ID)
+                .recipientId(LambdaConfig.PRIMING_ID + "-recipient")
+                .currencyId(LambdaConfig.PRIMING_ID)
+                .amount(1.0)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        buildWriteItems(transfer);
+        transfer.setType(TransactionType.REFUND);
+        transfer.setRefundTransacIds(Collections.singletonList(LambdaConfig.PRIMING_ID + "-refunded"));
+        buildWriteItems(transfer);
+        ErrorClassifier.classify(new TransactionCanceledException(LambdaConfig.PRIMING_ID)
+                .withCancellationReasons(new CancellationReason()
+                        .withCode(ErrorClassifier.CANCELLATION_CONDITIONAL_CHECK_FAILED)));
     }
 
     @VisibleForTesting
     protected void createCurrencySlot(final String ownerId, String currencyId) {
-        final Map<String, AttributeValue> key = getOwnerKey(ownerId);
+        final Map<String, AttributeValue> key = WriteItemTemplates.getOwnerKey(ownerId);
         final UpdateItemRequest request = new UpdateItemRequest()
                 .withTableName(WALLET_DDB_TABLE_NAME)
                 .withKey(key)
                 .withUpdateExpression(CREATE_COIN_SLOT_EXPRESSION)
                 .withConditionExpression(COIN_NOT_ALREADY_EXIST)
-                .withExpressionAttributeNames(getAttributeName(currencyId))
-                .withExpressionAttributeValues(getCurrencySlotAttrValue());
+                .withExpressionAttributeNames(WriteItemTemplates.getAttributeNames(currencyId))
+                .withExpressionAttributeValues(Collections.singletonMap(ATTR_VAL_DEFAULT_COIN_AMOUNT,
+                        WriteItemTemplates.DEFAULT_COIN_AMOUNT));
+        final long start = System.nanoTime();
         try {
             walletDao.update(request);
-            log.info("Created a new coin for ownerId '{}'", ownerId);
+            log.debug("Created a new coin for ownerId '{}'", ownerId);
         } catch (ConditionalCheckFailedException e) {
-            log.info("Owner '{}' already have currency with Id {}", ownerId, currencyId);
+            log.debug("Owner '{}' already have currency with Id {}", ownerId, currencyId);
+        } finally {
+            metrics.timeSince(Metric.CREATE_CURRENCY_SLOT_LATENCY, MetricDimensions.NONE, start);
         }
     }
 
-    private void updateErrorStatus(final Transaction transaction, final TransactionErrorType error) {
-        transaction.setStatus(TransactionStatus.ERROR);
-        transaction.setError(error);
-        if (transaction.getType().equals(TransactionType.REFUND)) {
-            final Transaction orgTransaction = transactionDao.load(transaction.getRefundTransacIds().get(0)).get();
-            if (orgTransaction.getStatus().equals(TransactionStatus.REFUND_STARTED)) {
-                orgTransaction.setStatus(TransactionStatus.COMPLETED);
-                transactionDao.transactionWrite(new TransactionWriteRequest()
-                        .addUpdate(transaction)
-                        .addUpdate(orgTransaction));
-                return;
+    /**
+     * Records the error status of a pending transaction with a single conditional write, a transaction that is no
+     * longer pending is left as is. The originals of a refund go back to {@link TransactionStatus#COMPLETED} in the
+     * same write, an original that is no longer {@link TransactionStatus#REFUND_STARTED} is left out. The write only
+     * sets the status and the error, so a transaction parsed from an inline payload doesn't need to be reloaded.
+     * @return {@link TransactionStatus#ERROR}, or the status of a transaction that is no longer pending.
+     */
+    private TransactionStatus updateErrorStatus(final Transaction transaction, final TransactionErrorType error) {
+        final Set<String> refundedIds = new LinkedHashSet<>();
+        if (TransactionType.REFUND.equals(transaction.getType()) && transaction.getRefundTransacIds() != null) {
+            refundedIds.addAll(transaction.getRefundTransacIds());
+        }
+        for (int attempt = 1; ; attempt++) {
+            final TransactionWriteRequest request = new TransactionWriteRequest().addUpdate(Transaction.builder()
+                    .transactionId(transaction.getTransactionId())
+                    .status(TransactionStatus.ERROR)
+                    .error(error)
+                    .build(), buildStatusCondition(TransactionStatus.PENDING),
+                    ReturnValuesOnConditionCheckFailure.ALL_OLD);
+            for (String refundedId : refundedIds) {
+                request.addUpdate(Transaction.builder()
+                        .transactionId(refundedId)
+                        .status(TransactionStatus.COMPLETED)
+                        .build(), buildStatusCondition(TransactionStatus.REFUND_STARTED));
+            }
+            final List<CancellationReason> reasons;
+            try {
+                transactionDao.transactionWrite(request);
+                transaction.setStatus(TransactionStatus.ERROR);
+                transaction.setError(error);
+                return TransactionStatus.ERROR;
+            } catch (TransactionCanceledException e) {
+                reasons = e.getCancellationReasons();
+                if (reasons == null || reasons.isEmpty()) {
+                    throw e;
+                }
+                if (isConditionFailed(reasons.get(0))) {
+                    return getStoredStatus(transaction.getTransactionId(), reasons.get(0).getItem());
+                }
+                final Set<String> invalidIds = new LinkedHashSet<>();
+                int index = 1;
+                for (String refundedId : refundedIds) {
+                    if (index < reasons.size() && isConditionFailed(reasons.get(index))) {
+                        invalidIds.add(refundedId);
+                    }
+                    index++;
+                }
+                if (!invalidIds.isEmpty()) {
+                    log.warn("Refunded transactions {} are no longer {}, status {} is not auto updated", invalidIds,
+                            TransactionStatus.REFUND_STARTED, TransactionStatus.COMPLETED);
+                    refundedIds.removeAll(invalidIds);
+                    continue;
+                }
+                final ErrorClass errorClass = ErrorClassifier.classify(e);
+                final long delayMillis = retryPolicy.getDelayMillis(attempt);
+                if (!retryPolicy.shouldRetry(attempt, errorClass, delayMillis, Long.MAX_VALUE)) {
+                    throw e;
+                }
+                log.info("Recording the error of transaction {} failed with {} on attempt {}",
+                        transaction.getTransactionId(), errorClass, attempt);
+                sleep(delayMillis);
             }
-            log.warn("Refund for transaction '{}' has invalid status {}, status {} is not auto updated",
-                    orgTransaction.getTransactionId(), orgTransaction.getStatus(), TransactionStatus.COMPLETED);
         }
-        transactionDao.save(transaction);
     }
 
-    private static Map<String, AttributeValue> getCurrencySlotAttrValue() {
-        return ImmutableMap.of(ATTR_VAL_DEFAULT_COIN_AMOUNT, new AttributeValue()
-                .withN(String.valueOf(LambdaConfig.INITIAL_COIN_AMOUNT)));
+    private static DynamoDBTransactionWriteExpression buildStatusCondition(final TransactionStatus status) {
+        return new DynamoDBTransactionWriteExpression()
+                .withConditionExpression(EXPRESSION_CHECK_STATUS)
+                .withExpressionAttributeNames(Collections.singletonMap(ATTR_NAME_STATUS,
+                        TRANSACTION_DDB_ATTRIBUTE_STATUS))
+                .withExpressionAttributeValues(Collections.singletonMap(ATTR_VAL_STATUS,
+                        new AttributeValue(status.toString())));
     }
 
-    private static Map<String, AttributeValue> getTransacKey(final String transactionId) {
-        return ImmutableMap.of(TRANSACTION_DDB_ATTRIBUTE_ID, new AttributeValue(transactionId));
+    private static boolean isConditionFailed(final CancellationReason reason) {
+        return ErrorClassifier.CANCELLATION_CONDITIONAL_CHECK_FAILED.equals(reason.getCode());
     }
 
-    private static Map<String, AttributeValue> getTransacValue(final TransactionStatus finalstatus,
-                                                               final TransactionStatus preStatus) {
-        return ImmutableMap.of(ATTR_VAL_TRANSAC_STATUS, new AttributeValue(String.valueOf(finalstatus)),
-                ATTR_VAL_COND_TRANSAC_STATUS, new AttributeValue(preStatus.toString()));
-    }
-
-    private static Map<String, AttributeValue> getOwnerKey(final String payerId) {
-        return ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID,
-                new AttributeValue(payerId));
-    }
-
-    private static Map<String, String> getAttributeName(final String currencyId) {
-        return ImmutableMap.of(ATTR_NAME_COIN_MAP, WALLET_DDB_ATTRIBUTE_COIN_MAP,
-                ATTR_NAME_COIN, currencyId);
-    }
-
-    private static  Map<String, AttributeValue> getAttributeValue(final double amount) {
-        return ImmutableMap.of(
-                ATTR_VAL_TRANSACTION_AMOUNT, new AttributeValue().withN(String.valueOf(amount)));
+    /**
+     * @param item the stored transaction returned by its failed status check, null if it doesn't exist.
+     * @return the status the transaction already has.
+     */
+    private static TransactionStatus getStoredStatus(final String transactionId,
+                                                     final Map<String, AttributeValue> item) {
+        if (item == null) {
+            log.warn("Transaction {} does not exist, its error status is not recorded", transactionId);
+            return TransactionStatus.ERROR;
+        }
+        final AttributeValue status = item.get(TRANSACTION_DDB_ATTRIBUTE_STATUS);
+        if (status == null || status.getS() == null) {
+            log.warn("Transaction {} has no status, its error status is not recorded", transactionId);
+            return TransactionStatus.ERROR;
+        }
+        return TransactionStatus.valueOf(status.getS());
     }
 }
@@ -0,0 +1,91 @@
+package io.openmarket.transaction.lambda.handler;
+
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import lombok.NonNull;
+
+/**
+ * The {@link TransactionTaskResult} of a processed transaction along with the {@link ErrorClass} of its failure
+ * and whether it should be retried.
+ */
+public final class TransactionOutcome {
+    private final TransactionTaskResult result;
+    private final ErrorClass errorClass;
+    private final boolean retryable;
+
+    private TransactionOutcome(final TransactionTaskResult result, final ErrorClass errorClass,
+                               final boolean retryable) {
+        this.result = result;
+        this.errorClass = errorClass;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @param result the final result of the transaction, either completed or failed for a permanent reason.
+     * @param errorClass the {@link ErrorClass} of the failure, {@link ErrorClass#NONE} if it completed.
+     * @return a {@link TransactionOutcome} that should be acknowledged.
+     */
+    public static TransactionOutcome settled(@NonNull final TransactionTaskResult result,
+                                             @NonNull final ErrorClass errorClass) {
+        return new TransactionOutcome(result, errorClass, false);
+    }
+
+    /**
+     * @param result the result of a transaction that failed for a transient reason and is still pending.
+     * @param errorClass the {@link ErrorClass} of the failure.
+     * @return a {@link TransactionOutcome} that should be redelivered.
+     */
+    public static TransactionOutcome retryable(@NonNull final TransactionTaskResult result,
+                                               @NonNull final ErrorClass errorClass) {
+        return new TransactionOutcome(result, errorClass, true);
+    }
+
+    /**
+     * @param transaction a transaction that was committed successfully.
+     * @return a settled {@link TransactionOutcome} with a completed result.
+     */
+    public static TransactionOutcome completed(@NonNull final Transaction transaction) {
+        return settled(resultOf(transaction, TransactionStatus.COMPLETED), ErrorClass.NONE);
+    }
+
+    /**
+     * @param transaction a transaction that has not been settled yet.
+     * @param errorClass the {@link ErrorClass} of the failure.
+     * @return a retryable {@link TransactionOutcome} with a pending result.
+     */
+    public static TransactionOutcome retryable(@NonNull final Transaction transaction,
+                                               @NonNull final ErrorClass errorClass) {
+        return retryable(resultOf(transaction, TransactionStatus.PENDING), errorClass);
+    }
+
+    /**
+     * @param transaction a transaction that was not started before the deadline.
+     * @return a retryable {@link TransactionOutcome} with a pending result.
+     */
+    public static TransactionOutcome notStarted(@NonNull final Transaction transaction) {
+        return retryable(transaction, ErrorClass.NOT_STARTED);
+    }
+
+    private static TransactionTaskResult resultOf(final Transaction transaction, final TransactionStatus status) {
+        return TransactionTaskResult.builder()
+                .transactionId(transaction.getTransactionId())
+                .type(transaction.getType())
+                .error(TransactionErrorType.NONE)
+                .status(status)
+                .build();
+    }
+
+    public TransactionTaskResult getResult() {
+        return result;
+    }
+
+    public ErrorClass getErrorClass() {
+        return errorClass;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,241 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static io.openmarket.transaction.lambda.config.LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_SHARD;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME;
+
+/**
+ * Spreads the credits of hot wallets over shard items, so concurrent payments to the same recipient don't conflict
+ * on its wallet item. A shard is an item of the shard table keyed by the owner ID and the shard number, with one
+ * number attribute per currency, created by its first credit. A credit lands on the shard picked by the transaction
+ * ID, so retries of a transaction write the same items. Debits still go to the wallet item, the shards are folded
+ * back into it by {@link #consolidate(String)}, when a debit finds the wallet item short of balance and on the
+ * compaction schedule. The balance of a sharded wallet is the wallet item plus its shards.
+ */
+@Log4j2
+public class WalletShards {
+    private static final String ATTR_NAME_OWNER_ID = "#o";
+    private static final String ATTR_VAL_OWNER_ID = ":o";
+    private static final String EXPRESSION_OWNER_ID = String.format("%s = %s", ATTR_NAME_OWNER_ID,
+            ATTR_VAL_OWNER_ID);
+    private static final String ATTR_NAME_COIN_PREFIX = "#c";
+    private static final String ATTR_VAL_AMOUNT_PREFIX = ":v";
+    private static final String ATTR_VAL_DEFAULT_COIN_AMOUNT = ":default";
+    private static final String EXPRESSION_CREDIT_SHARD = String.format("SET %s0 = if_not_exists(%s0, %s) + %s0",
+            ATTR_NAME_COIN_PREFIX, ATTR_NAME_COIN_PREFIX, ATTR_VAL_DEFAULT_COIN_AMOUNT, ATTR_VAL_AMOUNT_PREFIX);
+
+    private final AmazonDynamoDB dbClient;
+    private final Set<String> shardedOwnerIds;
+    private final int shardCount;
+
+    /**
+     * @param dbClient the client used to read and consolidate the shards.
+     * @param shardedOwnerIds the owners whose wallets are sharded.
+     * @param shardCount the number of shards of each sharded wallet, at most one less than the number of items of
+     *                   a TransactWriteItems request.
+     */
+    public WalletShards(@NonNull final AmazonDynamoDB dbClient, @NonNull final Set<String> shardedOwnerIds,
+                        final int shardCount) {
+        if (shardCount < 1 || shardCount >= LambdaConfig.MAX_TRANSACT_WRITE_ITEMS) {
+            throw new IllegalArgumentException(String.format("shardCount must be between 1 and %d, got %d",
+                    LambdaConfig.MAX_TRANSACT_WRITE_ITEMS - 1, shardCount));
+        }
+        this.dbClient = dbClient;
+        this.shardedOwnerIds = ImmutableSet.copyOf(shardedOwnerIds);
+        this.shardCount = shardCount;
+    }
+
+    private WalletShards() {
+        this.dbClient = null;
+        this.shardedOwnerIds = Collections.emptySet();
+        this.shardCount = 1;
+    }
+
+    /**
+     * @return a {@link WalletShards} without any sharded wallet.
+     */
+    public static WalletShards none() {
+        return new WalletShards();
+    }
+
+    /**
+     * @return true if some wallet is sharded.
+     */
+    public boolean isEnabled() {
+        return !shardedOwnerIds.isEmpty();
+    }
+
+    public boolean isSharded(final String ownerId) {
+        return shardedOwnerIds.contains(ownerId);
+    }
+
+    /**
+     * @param transactionId the ID of the crediting transaction.
+     * @return the number of the shard the credit of the transaction lands on.
+     */
+    int getCreditShard(final String transactionId) {
+        return Math.floorMod(transactionId.hashCode(), shardCount);
+    }
+
+    /**
+     * Sends the credit of a sharded recipient to its shard.
+     * @param recipientId the recipient of the credit.
+     * @param transactionId the ID of the crediting transaction.
+     * @param credit the credit of the wallet item, as built by {@link WriteItemTemplates#build}.
+     * @param currencyId the currency of the credit.
+     * @param amount the amount of the credit.
+     * @return the credit of the shard, or the given credit if the recipient is not sharded.
+     */
+    TransactWriteItem shardCredit(final String recipientId, final String transactionId,
+                                  final TransactWriteItem credit, final String currencyId,
+                                  final AttributeValue amount) {
+        if (!isSharded(recipientId)) {
+            return credit;
+        }
+        return new TransactWriteItem().withUpdate(new Update()
+                .withKey(getShardKey(recipientId, getCreditShard(transactionId)))
+                .withUpdateExpression(EXPRESSION_CREDIT_SHARD)
+                .withExpressionAttributeNames(Collections.singletonMap(ATTR_NAME_COIN_PREFIX + 0, currencyId))
+                .withExpressionAttributeValues(ImmutableMap.of(ATTR_VAL_AMOUNT_PREFIX + 0, amount,
+                        ATTR_VAL_DEFAULT_COIN_AMOUNT, WriteItemTemplates.DEFAULT_COIN_AMOUNT))
+                .withTableName(WALLET_SHARD_DDB_TABLE_NAME));
+    }
+
+    /**
+     * Moves the balances of every shard of the wallet into the wallet item with a single transaction, credits that
+     * reach a shard meanwhile stay there. A concurrent credit of a shard cancels the transaction with a
+     * TransactionConflict, which is worth another attempt. A concurrent consolidation of the same wallet that drains
+     * a shard first cancels it with a ConditionalCheckFailed, the balance is then already in the wallet item, see
+     * {@link TransactionLambda#releasePendingBalance}. The shards are read with a consistent query of the owner.
+     * @param ownerId the owner of a sharded wallet.
+     * @return the number of shards that were folded, 0 if every shard was empty.
+     */
+    public int consolidate(@NonNull final String ownerId) {
+        if (!isSharded(ownerId)) {
+            return 0;
+        }
+        final List<TransactWriteItem> items = new ArrayList<>(shardCount + 1);
+        final Map<String, Double> totals = new TreeMap<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final QueryResult result = dbClient.query(new QueryRequest()
+                    .withTableName(WALLET_SHARD_DDB_TABLE_NAME)
+                    .withKeyConditionExpression(EXPRESSION_OWNER_ID)
+                    .withExpressionAttributeNames(Collections.singletonMap(ATTR_NAME_OWNER_ID,
+                            WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID))
+                    .withExpressionAttributeValues(Collections.singletonMap(ATTR_VAL_OWNER_ID,
+                            new AttributeValue(ownerId)))
+                    .withConsistentRead(true)
+                    .withExclusiveStartKey(startKey));
+            for (Map<String, AttributeValue> shard : result.getItems()) {
+                final Map<String, Double> balances = getBalances(shard);
+                if (balances.isEmpty()) {
+                    continue;
+                }
+                balances.forEach((currencyId, balance) -> totals.merge(currencyId, balance, Double::sum));
+                items.add(buildShardDebit(shard, balances));
+            }
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+        if (items.isEmpty()) {
+            return 0;
+        }
+        items.add(WriteItemTemplates.buildCredits(ownerId, totals));
+        dbClient.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+        log.info("Consolidated {} shards of wallet '{}': {}", items.size() - 1, ownerId, totals);
+        return items.size() - 1;
+    }
+
+    /**
+     * Consolidates every sharded wallet, a wallet that fails is left to the next run.
+     * @return the number of shards that were folded.
+     */
+    public int consolidateAll() {
+        int folded = 0;
+        for (String ownerId : shardedOwnerIds) {
+            try {
+                folded += consolidate(ownerId);
+            } catch (RuntimeException e) {
+                log.warn("Failed to consolidate the shards of wallet '{}'", ownerId, e);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * @return true if the attribute of a shard item is part of its key rather than a currency balance.
+     */
+    public static boolean isKeyAttribute(@NonNull final String attributeName) {
+        return attributeName.equals(WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID)
+                || attributeName.equals(WALLET_SHARD_DDB_ATTRIBUTE_SHARD);
+    }
+
+    private static Map<String, AttributeValue> getShardKey(final String ownerId, final int shard) {
+        return ImmutableMap.of(WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(ownerId),
+                WALLET_SHARD_DDB_ATTRIBUTE_SHARD, new AttributeValue().withN(String.valueOf(shard)));
+    }
+
+    /**
+     * @return the positive balances of the shard by currency.
+     */
+    private static Map<String, Double> getBalances(final Map<String, AttributeValue> shard) {
+        final Map<String, Double> balances = new TreeMap<>();
+        for (Map.Entry<String, AttributeValue> attribute : shard.entrySet()) {
+            if (isKeyAttribute(attribute.getKey()) || attribute.getValue().getN() == null) {
+                continue;
+            }
+            final double balance = Double.parseDouble(attribute.getValue().getN());
+            if (balance > 0) {
+                balances.put(attribute.getKey(), balance);
+            }
+        }
+        return balances;
+    }
+
+    private static TransactWriteItem buildShardDebit(final Map<String, AttributeValue> shard,
+                                                     final Map<String, Double> balances) {
+        final Map<String, String> names = new HashMap<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        final List<String> updates = new ArrayList<>();
+        final List<String> conditions = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, Double> balance : balances.entrySet()) {
+            final String name = ATTR_NAME_COIN_PREFIX + index;
+            final String value = ATTR_VAL_AMOUNT_PREFIX + index++;
+            names.put(name, balance.getKey());
+            values.put(value, new AttributeValue().withN(String.valueOf(balance.getValue())));
+            updates.add(String.format("%s = %s - %s", name, name, value));
+            conditions.add(String.format("%s >= %s", name, value));
+        }
+        return new TransactWriteItem().withUpdate(new Update()
+                .withKey(ImmutableMap.of(WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID,
+                        shard.get(WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID), WALLET_SHARD_DDB_ATTRIBUTE_SHARD,
+                        shard.get(WALLET_SHARD_DDB_ATTRIBUTE_SHARD)))
+                .withUpdateExpression("SET " + String.join(", ", updates))
+                .withConditionExpression(String.join(" AND ", conditions))
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values)
+                .withTableName(WALLET_SHARD_DDB_TABLE_NAME));
+    }
+}
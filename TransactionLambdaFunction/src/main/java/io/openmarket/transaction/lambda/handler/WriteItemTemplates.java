@@ -0,0 +1,199 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.openmarket.config.TransactionConfig.*;
+import static io.openmarket.config.WalletConfig.*;
+
+/**
+ * Precompiled parts of the TransactWriteItems request that settles a transaction. Expressions, status values and
+ * the attribute names of each currency are built once and shared, only the keys and the amount are filled in
+ * per transaction. The shared maps and {@link AttributeValue}s must never be modified by the callers.
+ */
+final class WriteItemTemplates {
+    /**
+     * The index of the recipient credit in the items built by {@link #build(Transaction)}, the payer debit comes
+     * first.
+     */
+    static final int RECIPIENT_CREDIT_INDEX = 1;
+    static final String ATTR_NAME_COIN_MAP = "#cm";
+    static final String ATTR_NAME_COIN = "#coin";
+    static final String ATTR_NAME_COIN_IN_MAP = String.format("%s.%s", ATTR_NAME_COIN_MAP, ATTR_NAME_COIN);
+    static final String ATTR_VAL_TRANSACTION_AMOUNT = ":val";
+    static final String ATTR_VAL_DEFAULT_COIN_AMOUNT = ":default";
+    private static final String EXPRESSION_UPDATE_PAYER_BALANCE = String.format("SET %s = %s - %s",
+            ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP, ATTR_VAL_TRANSACTION_AMOUNT);
+    private static final String EXPRESSION_CHECK_PAYER_ENOUGH_BALANCE = String.format(
+            "attribute_exists(%s) AND %s >= %s", ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP,
+            ATTR_VAL_TRANSACTION_AMOUNT);
+    private static final String EXPRESSION_UPDATE_RECIPIENT_BALANCE = String.format(
+            "SET %s = if_not_exists(%s, %s) + %s", ATTR_NAME_COIN_IN_MAP, ATTR_NAME_COIN_IN_MAP,
+            ATTR_VAL_DEFAULT_COIN_AMOUNT, ATTR_VAL_TRANSACTION_AMOUNT);
+    private static final String EXPRESSION_CHECK_RECIPIENT_WALLET_EXISTS = String.format("attribute_exists(%s)",
+            ATTR_NAME_COIN_MAP);
+
+    private static final Map<String, String> COIN_MAP_ATTR_NAME = Collections.singletonMap(ATTR_NAME_COIN_MAP,
+            WALLET_DDB_ATTRIBUTE_COIN_MAP);
+
+    private static final String ATTR_NAME_TRANSAC_STATUS = "#stat";
+    private static final String ATTR_VAL_TRANSAC_STATUS = ":statVal";
+    private static final String ATTR_VAL_COND_TRANSAC_STATUS = ":condVal";
+    private static final String EXPRESSION_CHECK_STATUS = String.format("%s = %s", ATTR_NAME_TRANSAC_STATUS,
+            ATTR_VAL_COND_TRANSAC_STATUS);
+    private static final String EXPRESSION_UPDATE_TRANSAC_STATUS = String.format("SET %s = %s",
+            ATTR_NAME_TRANSAC_STATUS, ATTR_VAL_TRANSAC_STATUS);
+
+    private static final Map<String, String> TRANSAC_STATUS_ATTR_NAME = Collections.singletonMap(
+            ATTR_NAME_TRANSAC_STATUS, TRANSACTION_DDB_ATTRIBUTE_STATUS);
+    private static final Map<String, AttributeValue> COMPLETE_TRANSAC_VALUES = getTransacValue(
+            TransactionStatus.COMPLETED, TransactionStatus.PENDING);
+    private static final Map<String, AttributeValue> REFUND_TRANSAC_VALUES = getTransacValue(
+            TransactionStatus.REFUNDED, TransactionStatus.REFUND_STARTED);
+    static final AttributeValue DEFAULT_COIN_AMOUNT = new AttributeValue()
+            .withN(String.valueOf(LambdaConfig.INITIAL_COIN_AMOUNT));
+
+    /**
+     * The maximum number of currencies whose attribute names are cached, names of further currencies are built
+     * on every call.
+     */
+    private static final int MAX_CACHED_CURRENCIES = 1024;
+    private static final Map<String, Map<String, String>> ATTRIBUTE_NAMES_BY_CURRENCY = new ConcurrentHashMap<>();
+
+    private WriteItemTemplates() {}
+
+    /**
+     * Builds the items that settle the transaction atomically: the payer debit, the recipient credit, the status
+     * change and, for a refund, the status change of every refunded transaction, so a refund covering several
+     * originals settles all of them or none.
+     * @param transaction the {@link Transaction} to settle.
+     * @return the list of {@link TransactWriteItem}, mutable so callers may append to it.
+     */
+    static List<TransactWriteItem> build(final Transaction transaction) {
+        final boolean isRefund = TransactionType.REFUND.equals(transaction.getType());
+        final Map<String, String> attributeNames = getAttributeNames(transaction.getCurrencyId());
+        final AttributeValue amount = new AttributeValue().withN(String.valueOf(transaction.getAmount()));
+
+        final Set<String> refundedIds = isRefund ? new LinkedHashSet<>(transaction.getRefundTransacIds())
+                : Collections.emptySet();
+        final List<TransactWriteItem> items = new ArrayList<>(3 + refundedIds.size());
+        items.add(new TransactWriteItem().withUpdate(new Update()
+                .withKey(getOwnerKey(transaction.getPayerId()))
+                .withUpdateExpression(EXPRESSION_UPDATE_PAYER_BALANCE)
+                .withConditionExpression(EXPRESSION_CHECK_PAYER_ENOUGH_BALANCE)
+                .withExpressionAttributeNames(attributeNames)
+                .withExpressionAttributeValues(Collections.singletonMap(ATTR_VAL_TRANSACTION_AMOUNT, amount))
+                .withTableName(WALLET_DDB_TABLE_NAME)));
+        items.add(new TransactWriteItem().withUpdate(new Update()
+                .withKey(getOwnerKey(transaction.getRecipientId()))
+                .withUpdateExpression(EXPRESSION_UPDATE_RECIPIENT_BALANCE)
+                .withConditionExpression(EXPRESSION_CHECK_RECIPIENT_WALLET_EXISTS)
+                .withExpressionAttributeNames(attributeNames)
+                .withExpressionAttributeValues(ImmutableMap.of(ATTR_VAL_TRANSACTION_AMOUNT, amount,
+                        ATTR_VAL_DEFAULT_COIN_AMOUNT, DEFAULT_COIN_AMOUNT))
+                .withTableName(WALLET_DDB_TABLE_NAME)));
+        items.add(getStatusUpdate(transaction.getTransactionId(), COMPLETE_TRANSAC_VALUES));
+        for (String refundedId : refundedIds) {
+            items.add(getStatusUpdate(refundedId, REFUND_TRANSAC_VALUES));
+        }
+        return items;
+    }
+
+    /**
+     * Builds the check that a wallet exists, for a transaction whose credit does not update the wallet itself.
+     * @param ownerId the owner of the wallet.
+     * @return the {@link TransactWriteItem} checking the wallet.
+     */
+    static TransactWriteItem buildWalletCheck(final String ownerId) {
+        return new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                .withKey(getOwnerKey(ownerId))
+                .withConditionExpression(EXPRESSION_CHECK_RECIPIENT_WALLET_EXISTS)
+                .withExpressionAttributeNames(COIN_MAP_ATTR_NAME)
+                .withTableName(WALLET_DDB_TABLE_NAME));
+    }
+
+    /**
+     * Builds the update that adds several balances to a wallet at once, used to fold credits that were kept aside.
+     * @param ownerId the owner of the wallet, which must exist.
+     * @param amounts the amounts to add by currency ID.
+     * @return the {@link TransactWriteItem} crediting the wallet.
+     */
+    static TransactWriteItem buildCredits(final String ownerId, final Map<String, Double> amounts) {
+        final Map<String, String> names = new HashMap<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        final List<String> updates = new ArrayList<>(amounts.size());
+        names.put(ATTR_NAME_COIN_MAP, WALLET_DDB_ATTRIBUTE_COIN_MAP);
+        values.put(ATTR_VAL_DEFAULT_COIN_AMOUNT, DEFAULT_COIN_AMOUNT);
+        int index = 0;
+        for (Map.Entry<String, Double> amount : amounts.entrySet()) {
+            final String name = ATTR_NAME_COIN + index;
+            final String path = String.format("%s.%s", ATTR_NAME_COIN_MAP, name);
+            final String value = ATTR_VAL_TRANSACTION_AMOUNT + index++;
+            names.put(name, amount.getKey());
+            values.put(value, new AttributeValue().withN(String.valueOf(amount.getValue())));
+            updates.add(String.format("%s = if_not_exists(%s, %s) + %s", path, path, ATTR_VAL_DEFAULT_COIN_AMOUNT,
+                    value));
+        }
+        return new TransactWriteItem().withUpdate(new Update()
+                .withKey(getOwnerKey(ownerId))
+                .withUpdateExpression("SET " + String.join(", ", updates))
+                .withConditionExpression(EXPRESSION_CHECK_RECIPIENT_WALLET_EXISTS)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values)
+                .withTableName(WALLET_DDB_TABLE_NAME));
+    }
+
+    /**
+     * @param currencyId the currency to address in the coin map.
+     * @return the shared expression attribute names of the given currency.
+     */
+    static Map<String, String> getAttributeNames(final String currencyId) {
+        final Map<String, String> cached = ATTRIBUTE_NAMES_BY_CURRENCY.get(currencyId);
+        if (cached != null) {
+            return cached;
+        }
+        final Map<String, String> names = ImmutableMap.of(ATTR_NAME_COIN_MAP, WALLET_DDB_ATTRIBUTE_COIN_MAP,
+                ATTR_NAME_COIN, currencyId);
+        if (ATTRIBUTE_NAMES_BY_CURRENCY.size() < MAX_CACHED_CURRENCIES) {
+            ATTRIBUTE_NAMES_BY_CURRENCY.putIfAbsent(currencyId, names);
+        }
+        return names;
+    }
+
+    static Map<String, AttributeValue> getOwnerKey(final String ownerId) {
+        return Collections.singletonMap(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(ownerId));
+    }
+
+    private static TransactWriteItem getStatusUpdate(final String transactionId,
+                                                     final Map<String, AttributeValue> statusValues) {
+        return new TransactWriteItem().withUpdate(new Update()
+                .withKey(Collections.singletonMap(TRANSACTION_DDB_ATTRIBUTE_ID, new AttributeValue(transactionId)))
+                .withUpdateExpression(EXPRESSION_UPDATE_TRANSAC_STATUS)
+                .withConditionExpression(EXPRESSION_CHECK_STATUS)
+                .withExpressionAttributeNames(TRANSAC_STATUS_ATTR_NAME)
+                .withExpressionAttributeValues(statusValues)
+                .withTableName(TRANSACTION_DDB_TABLE_NAME));
+    }
+
+    private static Map<String, AttributeValue> getTransacValue(final TransactionStatus finalStatus,
+                                                               final TransactionStatus preStatus) {
+        return ImmutableMap.of(ATTR_VAL_TRANSAC_STATUS, new AttributeValue(finalStatus.toString()),
+                ATTR_VAL_COND_TRANSAC_STATUS, new AttributeValue(preStatus.toString()));
+    }
+}
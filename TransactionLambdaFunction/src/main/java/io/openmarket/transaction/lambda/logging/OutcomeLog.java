@@ -0,0 +1,122 @@
+package io.openmarket.transaction.lambda.logging;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.TransactionOutcome;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Logs one compact JSON line per transaction outcome, such as
+ * <pre>
+ * {"transactionId":"t1","type":"TRANSFER","payerId":"a","recipientId":"b","currencyId":"c","amount":5.0,
+ * "status":"COMPLETED","errorClass":"NONE","retryable":false}
+ * </pre>
+ * Every failure is logged, the outcomes without error only at the given sample rate. The line is built in a
+ * reusable per-thread buffer, and the logger is meant to be routed to an asynchronous logger with a {@code %m%n}
+ * layout, see {@code log4j2.xml}, so a logged outcome allocates next to nothing on the processing thread.
+ */
+@Log4j2
+public class OutcomeLog {
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    private static final ThreadLocal<StringBuilder> LINES = ThreadLocal.withInitial(
+            () -> new StringBuilder(INITIAL_LINE_CAPACITY));
+
+    private final double successSampleRate;
+    private final DoubleSupplier random;
+
+    /**
+     * @param successSampleRate the share of the outcomes without error that are logged, from 0 to 1.
+     */
+    public OutcomeLog(final double successSampleRate) {
+        this(successSampleRate, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    @VisibleForTesting
+    OutcomeLog(final double successSampleRate, @NonNull final DoubleSupplier random) {
+        if (!(successSampleRate >= 0 && successSampleRate <= 1)) {
+            throw new IllegalArgumentException(String.format("successSampleRate must be between 0 and 1, got %s",
+                    successSampleRate));
+        }
+        this.successSampleRate = successSampleRate;
+        this.random = random;
+    }
+
+    /**
+     * @param outcome the outcome of the transaction.
+     * @param transaction the processed transaction, or null if only its outcome is known.
+     */
+    public void log(@NonNull final TransactionOutcome outcome, final Transaction transaction) {
+        if (!log.isInfoEnabled() || !isSampled(outcome)) {
+            return;
+        }
+        final StringBuilder line = LINES.get();
+        line.setLength(0);
+        format(line, outcome, transaction);
+        // The message is copied before the call returns, so the buffer can be reused.
+        log.info(line);
+    }
+
+    boolean isSampled(final TransactionOutcome outcome) {
+        if (outcome.getErrorClass() != ErrorClass.NONE || outcome.isRetryable()) {
+            return true;
+        }
+        return successSampleRate >= 1 || (successSampleRate > 0 && random.getAsDouble() < successSampleRate);
+    }
+
+    static void format(final StringBuilder line, final TransactionOutcome outcome, final Transaction transaction) {
+        final TransactionTaskResult result = outcome.getResult();
+        line.append('{');
+        appendString(line, "transactionId", result.getTransactionId());
+        line.append(',');
+        appendString(line, "type", result.getType() == null ? null : result.getType().name());
+        if (transaction != null) {
+            line.append(',');
+            appendString(line, "payerId", transaction.getPayerId());
+            line.append(',');
+            appendString(line, "recipientId", transaction.getRecipientId());
+            line.append(',');
+            appendString(line, "currencyId", transaction.getCurrencyId());
+            line.append(",\"amount\":");
+            final Double amount = transaction.getAmount();
+            if (amount == null || amount.isNaN() || amount.isInfinite()) {
+                // JSON has no literal for these.
+                line.append("null");
+            } else {
+                line.append(amount.doubleValue());
+            }
+        }
+        line.append(',');
+        appendString(line, "status", result.getStatus() == null ? null : result.getStatus().name());
+        line.append(',');
+        appendString(line, "errorClass", outcome.getErrorClass().name());
+        line.append(",\"retryable\":").append(outcome.isRetryable());
+        line.append('}');
+    }
+
+    private static void appendString(final StringBuilder line, final String name, final String value) {
+        line.append('"').append(name).append("\":");
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append("\\u00");
+                line.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,88 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates how often each key was counted in a fixed amount of memory, whatever the number of distinct keys. Each
+ * of the {@code depth} rows holds {@code width} counters and a key adds to one counter per row, its estimate is the
+ * smallest of them. An estimate is never below the true count, and exceeds it by more than {@code e / width} of the
+ * total count with a probability of at most {@code e^-depth}. Counters are updated atomically without a lock.
+ */
+public final class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width the number of counters per row.
+     * @param depth the number of rows.
+     */
+    public CountMinSketch(final int width, final int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException(String.format("Width and depth must be positive, got %d and %d",
+                    width, depth));
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * Adds to the count of the key.
+     * @return the estimated count of the key, including the given delta.
+     */
+    public long add(final String key, final long delta) {
+        final long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(hash, row), delta));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the estimated count of the key.
+     */
+    public long estimate(final String key) {
+        final long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Resets every count. Counts added concurrently may be kept.
+     */
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Derives the counter of each row from two halves of one hash, like Guava's bloom filters, see Kirsch and
+     * Mitzenmacher, "Less Hashing, Same Performance".
+     */
+    private int index(final long hash, final int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return row * width + combined % width;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, it spreads the bits of the string hash over the 64 bits.
+     */
+    private static long hash(final String key) {
+        long hash = key.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE53D58C3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
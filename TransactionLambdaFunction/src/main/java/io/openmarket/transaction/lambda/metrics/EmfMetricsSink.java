@@ -0,0 +1,93 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes metrics as CloudWatch Embedded Metric Format log lines, one line per set of dimension values. Lambda
+ * forwards standard output to CloudWatch Logs, which extracts the metrics without any call to CloudWatch.
+ * Latencies are written as histograms with their Values and Counts, counters as plain numbers. The properties of
+ * the dimensions are written as plain fields, outside the dimension set.
+ */
+public class EmfMetricsSink implements MetricsSink {
+    private static final Gson GSON = new Gson();
+
+    private final String namespace;
+    private final Consumer<String> output;
+
+    public EmfMetricsSink(final String namespace) {
+        this(namespace, System.out::println);
+    }
+
+    public EmfMetricsSink(final String namespace, final Consumer<String> output) {
+        this.namespace = namespace;
+        this.output = output;
+    }
+
+    @Override
+    public void publish(final long timestampMillis, final List<MetricsRecord> records) {
+        for (MetricsRecord record : records) {
+            output.accept(GSON.toJson(toDocument(timestampMillis, record)));
+        }
+    }
+
+    private JsonObject toDocument(final long timestampMillis, final MetricsRecord record) {
+        final JsonObject document = new JsonObject();
+        final JsonArray dimensionSet = new JsonArray();
+        for (Map.Entry<String, String> dimension : record.getDimensions().getValues().entrySet()) {
+            dimensionSet.add(dimension.getKey());
+            document.addProperty(dimension.getKey(), dimension.getValue());
+        }
+        record.getDimensions().getProperties().forEach(document::addProperty);
+        final JsonArray metrics = new JsonArray();
+        for (Map.Entry<Metric, Histogram> entry : record.getHistograms().entrySet()) {
+            metrics.add(toDefinition(entry.getKey()));
+            document.add(entry.getKey().getMetricName(), toValue(entry.getValue()));
+        }
+        for (Map.Entry<Metric, Long> entry : record.getCounts().entrySet()) {
+            metrics.add(toDefinition(entry.getKey()));
+            document.addProperty(entry.getKey().getMetricName(), entry.getValue());
+        }
+
+        final JsonObject directive = new JsonObject();
+        directive.addProperty("Namespace", namespace);
+        final JsonArray dimensions = new JsonArray();
+        dimensions.add(dimensionSet);
+        directive.add("Dimensions", dimensions);
+        directive.add("Metrics", metrics);
+        final JsonArray directives = new JsonArray();
+        directives.add(directive);
+        final JsonObject metadata = new JsonObject();
+        metadata.addProperty("Timestamp", timestampMillis);
+        metadata.add("CloudWatchMetrics", directives);
+        document.add("_aws", metadata);
+        return document;
+    }
+
+    private static JsonObject toDefinition(final Metric metric) {
+        final JsonObject definition = new JsonObject();
+        definition.addProperty("Name", metric.getMetricName());
+        definition.addProperty("Unit", metric.getUnit().getUnitName());
+        return definition;
+    }
+
+    private static JsonObject toValue(final Histogram histogram) {
+        final JsonObject value = new JsonObject();
+        final JsonArray values = new JsonArray();
+        histogram.getValues().forEach(values::add);
+        final JsonArray counts = new JsonArray();
+        histogram.getCounts().forEach(counts::add);
+        value.add("Values", values);
+        value.add("Counts", counts);
+        value.addProperty("Max", histogram.getMax());
+        value.addProperty("Min", histogram.getMin());
+        value.addProperty("Count", histogram.getCount());
+        value.addProperty("Sum", histogram.getSum());
+        return value;
+    }
+}
@@ -0,0 +1,84 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A latency histogram with logarithmic buckets, four per power of two from 1 microsecond to 28 seconds, so each
+ * value is kept within 10% and a histogram never has more than the 100 distinct values EMF accepts. Longer values
+ * land in the last bucket, the exact maximum is kept aside. Recording is a few arithmetic operations under the
+ * histogram lock.
+ */
+public final class Histogram {
+    private static final double MIN_MILLIS = 0.001;
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKET_COUNT = 100;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private double sum;
+    private double min = Double.MAX_VALUE;
+    private double max;
+
+    public synchronized void record(final double millis) {
+        counts[getBucket(millis)]++;
+        count++;
+        sum += millis;
+        min = Math.min(min, millis);
+        max = Math.max(max, millis);
+    }
+
+    /**
+     * @return the representative value of every non empty bucket, in increasing order.
+     */
+    public synchronized List<Double> getValues() {
+        final List<Double> values = new ArrayList<>();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (counts[bucket] > 0) {
+                values.add(getBucketValue(bucket));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of values of every non empty bucket, in the order of {@link #getValues()}.
+     */
+    public synchronized List<Long> getCounts() {
+        final List<Long> bucketCounts = new ArrayList<>();
+        for (long bucketCount : counts) {
+            if (bucketCount > 0) {
+                bucketCounts.add(bucketCount);
+            }
+        }
+        return bucketCounts;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getSum() {
+        return sum;
+    }
+
+    public synchronized double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    private static int getBucket(final double millis) {
+        if (millis <= MIN_MILLIS) {
+            return 0;
+        }
+        final int bucket = (int) Math.ceil(Math.log(millis / MIN_MILLIS) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static double getBucketValue(final int bucket) {
+        return MIN_MILLIS * Math.pow(2, (bucket - 0.5) / BUCKETS_PER_DOUBLING);
+    }
+}
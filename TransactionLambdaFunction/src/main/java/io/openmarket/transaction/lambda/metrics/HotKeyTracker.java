@@ -0,0 +1,180 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import lombok.NonNull;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the wallets and currencies that are touched the most, and that cause the most transaction conflicts, without
+ * keeping a count per key. Each {@link KeyType} and {@link Event} has a {@link CountMinSketch} and the top keys by
+ * estimated count, so the memory stays fixed however many wallets there are and tracking can stay on in production.
+ * The top keys of each window are recorded as metrics by {@link #recordMetrics(MetricsRecorder)}, which starts a new
+ * window, see {@link MetricDimensions#ofHotKey(String, String)}.
+ */
+public class HotKeyTracker {
+    private final Map<KeyType, Map<Event, HeavyHitters>> hitters;
+
+    /**
+     * @param topK the number of keys of each type reported per event and window.
+     * @param width the number of counters per row of each sketch.
+     * @param depth the number of rows of each sketch.
+     */
+    public HotKeyTracker(final int topK, final int width, final int depth) {
+        if (topK < 1) {
+            throw new IllegalArgumentException(String.format("topK must be positive, got %d", topK));
+        }
+        this.hitters = new EnumMap<>(KeyType.class);
+        for (KeyType type : KeyType.values()) {
+            final Map<Event, HeavyHitters> byEvent = new EnumMap<>(Event.class);
+            for (Event event : Event.values()) {
+                byEvent.put(event, new HeavyHitters(topK, new CountMinSketch(width, depth)));
+            }
+            hitters.put(type, byEvent);
+        }
+    }
+
+    private HotKeyTracker() {
+        this.hitters = null;
+    }
+
+    /**
+     * @return a tracker that records nothing.
+     */
+    public static HotKeyTracker disabled() {
+        return new HotKeyTracker();
+    }
+
+    public boolean isEnabled() {
+        return hitters != null;
+    }
+
+    /**
+     * Counts the event for the key, null keys are ignored.
+     */
+    public void record(@NonNull final KeyType type, @NonNull final Event event, final String key) {
+        if (hitters != null && key != null) {
+            hitters.get(type).get(event).add(key);
+        }
+    }
+
+    /**
+     * Records the top keys of the window as {@link Event#getMetric()} counts, one record per key under the dimension of
+     * its type, and starts a new window.
+     */
+    public void recordMetrics(@NonNull final MetricsRecorder metrics) {
+        if (hitters == null) {
+            return;
+        }
+        hitters.forEach((type, byEvent) -> byEvent.forEach((event, heavyHitters) -> {
+            for (Map.Entry<String, Long> top : heavyHitters.drain().entrySet()) {
+                metrics.count(event.getMetric(), MetricDimensions.ofHotKey(type.getDimensionValue(), top.getKey()),
+                        top.getValue());
+            }
+        }));
+    }
+
+    /**
+     * @return the top keys of the window with their estimated counts, in no particular order.
+     */
+    public Map<String, Long> getTop(@NonNull final KeyType type, @NonNull final Event event) {
+        return hitters == null ? new HashMap<>() : hitters.get(type).get(event).getTop();
+    }
+
+    /**
+     * The kinds of contended keys.
+     */
+    public enum KeyType {
+        WALLET("Wallet"),
+        CURRENCY("Currency");
+
+        private final String dimensionValue;
+
+        KeyType(final String dimensionValue) {
+            this.dimensionValue = dimensionValue;
+        }
+
+        public String getDimensionValue() {
+            return dimensionValue;
+        }
+    }
+
+    /**
+     * What is counted for a key.
+     */
+    public enum Event {
+        /** A transaction was processed on the key. */
+        TOUCH(Metric.HOT_KEY_TOUCHES),
+        /** An attempt on the key was cancelled by a conflicting transaction. */
+        CONFLICT(Metric.HOT_KEY_CONFLICTS);
+
+        private final Metric metric;
+
+        Event(final Metric metric) {
+            this.metric = metric;
+        }
+
+        public Metric getMetric() {
+            return metric;
+        }
+    }
+
+    /**
+     * The keys of one sketch with the highest estimates. The sketch is updated without a lock, the top keys are only
+     * locked when a key reaches the smallest of their estimates, which is rare once the window has warmed up.
+     */
+    private static final class HeavyHitters {
+        private final int topK;
+        private final CountMinSketch sketch;
+        private final Map<String, Long> top = new HashMap<>();
+        // The estimate a key must exceed to enter the top, 0 while it is not full.
+        private volatile long threshold;
+
+        HeavyHitters(final int topK, final CountMinSketch sketch) {
+            this.topK = topK;
+            this.sketch = sketch;
+        }
+
+        void add(final String key) {
+            final long estimate = sketch.add(key, 1);
+            if (estimate > threshold) {
+                offer(key, estimate);
+            }
+        }
+
+        private synchronized void offer(final String key, final long estimate) {
+            top.merge(key, estimate, Math::max);
+            if (top.size() <= topK) {
+                if (top.size() == topK) {
+                    threshold = minEntry().getValue();
+                }
+                return;
+            }
+            top.remove(minEntry().getKey());
+            threshold = minEntry().getValue();
+        }
+
+        private Map.Entry<String, Long> minEntry() {
+            Map.Entry<String, Long> min = null;
+            for (Map.Entry<String, Long> entry : top.entrySet()) {
+                if (min == null || entry.getValue() < min.getValue()) {
+                    min = entry;
+                }
+            }
+            return min;
+        }
+
+        synchronized Map<String, Long> getTop() {
+            return new HashMap<>(top);
+        }
+
+        synchronized Map<String, Long> drain() {
+            final Map<String, Long> drained = new HashMap<>(top);
+            top.clear();
+            threshold = 0;
+            sketch.clear();
+            return drained;
+        }
+    }
+}
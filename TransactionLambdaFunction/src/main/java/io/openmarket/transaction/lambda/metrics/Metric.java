@@ -0,0 +1,61 @@
+package io.openmarket.transaction.lambda.metrics;
+
+/**
+ * The metrics emitted by the transaction processor.
+ */
+public enum Metric {
+    INVOCATION_LATENCY("InvocationLatency", Unit.MILLISECONDS),
+    PARSE_LATENCY("ParseLatency", Unit.MILLISECONDS),
+    BATCH_LOAD_LATENCY("BatchLoadLatency", Unit.MILLISECONDS),
+    PREFLIGHT_LATENCY("PreflightLatency", Unit.MILLISECONDS),
+    CREATE_CURRENCY_SLOT_LATENCY("CreateCurrencySlotLatency", Unit.MILLISECONDS),
+    TRANSACTION_WRITE_LATENCY("TransactionWriteLatency", Unit.MILLISECONDS),
+    BATCH_WRITE_LATENCY("BatchWriteLatency", Unit.MILLISECONDS),
+    ERROR_STATUS_WRITE_LATENCY("ErrorStatusWriteLatency", Unit.MILLISECONDS),
+    SNS_PUBLISH_LATENCY("SnsPublishLatency", Unit.MILLISECONDS),
+    MESSAGES("Messages", Unit.COUNT),
+    INLINE_PAYLOADS("InlinePayloads", Unit.COUNT),
+    UNPROCESSED_KEYS("UnprocessedKeys", Unit.COUNT),
+    ALREADY_SETTLED("AlreadySettled", Unit.COUNT),
+    MISSING_TRANSACTIONS("MissingTransactions", Unit.COUNT),
+    TRANSACTIONS("Transactions", Unit.COUNT),
+    PREFLIGHT_REJECTIONS("PreflightRejections", Unit.COUNT),
+    HELD_BACK("HeldBack", Unit.COUNT),
+    HOT_KEY_TOUCHES("HotKeyTouches", Unit.COUNT),
+    HOT_KEY_CONFLICTS("HotKeyConflicts", Unit.COUNT),
+    UNPUBLISHED_RESULTS("UnpublishedResults", Unit.COUNT),
+    WRITE_RATE("WriteRate", Unit.COUNT_PER_SECOND),
+    WRITE_RATE_LIMIT("WriteRateLimit", Unit.COUNT_PER_SECOND);
+
+    private final String metricName;
+    private final Unit unit;
+
+    Metric(final String metricName, final Unit unit) {
+        this.metricName = metricName;
+        this.unit = unit;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public enum Unit {
+        MILLISECONDS("Milliseconds"),
+        COUNT("Count"),
+        COUNT_PER_SECOND("Count/Second");
+
+        private final String unitName;
+
+        Unit(final String unitName) {
+            this.unitName = unitName;
+        }
+
+        public String getUnitName() {
+            return unitName;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * The dimension values a metric is recorded with, and the properties that tell apart records of the same dimension
+ * values. Properties are written beside the metrics for log queries, but do not create a metric of their own.
+ */
+public final class MetricDimensions {
+    public static final String DIMENSION_TRANSACTION_TYPE = "TransactionType";
+    public static final String DIMENSION_ERROR_TYPE = "ErrorType";
+    public static final String DIMENSION_TABLE = "Table";
+    public static final String DIMENSION_HOT_KEY_TYPE = "HotKeyType";
+    public static final String PROPERTY_HOT_KEY = "HotKey";
+
+    /**
+     * Metrics of the whole invocation, recorded without dimension.
+     */
+    public static final MetricDimensions NONE = new MetricDimensions(ImmutableMap.of());
+
+    private final Map<String, String> values;
+    private final Map<String, String> properties;
+
+    private MetricDimensions(final Map<String, String> values) {
+        this(values, ImmutableMap.of());
+    }
+
+    private MetricDimensions(final Map<String, String> values, final Map<String, String> properties) {
+        this.values = values;
+        this.properties = properties;
+    }
+
+    public static MetricDimensions of(final Object transactionType, final Object errorType) {
+        return new MetricDimensions(ImmutableMap.of(DIMENSION_TRANSACTION_TYPE, String.valueOf(transactionType),
+                DIMENSION_ERROR_TYPE, String.valueOf(errorType)));
+    }
+
+    public static MetricDimensions ofTable(final String tableName) {
+        return new MetricDimensions(ImmutableMap.of(DIMENSION_TABLE, tableName));
+    }
+
+    /**
+     * The key is a property rather than a dimension, wallet keys are user IDs and would make a metric per wallet.
+     * @param keyType the kind of the key, such as a wallet or a currency.
+     * @param key a key reported by the {@link HotKeyTracker}, there are at most a few per window.
+     */
+    public static MetricDimensions ofHotKey(final String keyType, final String key) {
+        return new MetricDimensions(ImmutableMap.of(DIMENSION_HOT_KEY_TYPE, keyType),
+                ImmutableMap.of(PROPERTY_HOT_KEY, key));
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof MetricDimensions && values.equals(((MetricDimensions) o).values)
+                && properties.equals(((MetricDimensions) o).properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * values.hashCode() + properties.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return properties.isEmpty() ? values.toString() : values + " " + properties;
+    }
+}
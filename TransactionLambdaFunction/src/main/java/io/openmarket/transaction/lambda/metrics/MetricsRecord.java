@@ -0,0 +1,31 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics recorded with one set of dimension values since the last flush.
+ */
+public final class MetricsRecord {
+    private final MetricDimensions dimensions;
+    private final Map<Metric, Histogram> histograms;
+    private final Map<Metric, Long> counts;
+
+    public MetricsRecord(final MetricDimensions dimensions, final Map<Metric, Histogram> histograms,
+                         final Map<Metric, Long> counts) {
+        this.dimensions = dimensions;
+        this.histograms = histograms;
+        this.counts = counts;
+    }
+
+    public MetricDimensions getDimensions() {
+        return dimensions;
+    }
+
+    public Map<Metric, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<Metric, Long> getCounts() {
+        return counts;
+    }
+}
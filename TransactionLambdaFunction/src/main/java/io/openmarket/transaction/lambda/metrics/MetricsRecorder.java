@@ -0,0 +1,123 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Aggregates the metrics of an invocation in memory and hands them to a {@link MetricsSink} on {@link #flush()}.
+ * Recording is thread safe and does no I/O, so it can be called on the hot path; the number of dimension
+ * combinations is bounded by the transaction types and error types. Recording shares a lock that {@link #flush()}
+ * takes exclusively only to swap in an empty window, so no metric recorded during a flush is lost.
+ */
+@Log4j2
+public class MetricsRecorder {
+    private final MetricsSink sink;
+    private final ReadWriteLock windowLock = new ReentrantReadWriteLock();
+    // guarded by windowLock, replaced under its write lock
+    private Window window = new Window();
+
+    public MetricsRecorder(@NonNull final MetricsSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return a recorder whose metrics are dropped on flush.
+     */
+    public static MetricsRecorder discarding() {
+        return new MetricsRecorder((timestampMillis, records) -> { });
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, taken from {@link System#nanoTime()}.
+     */
+    public void timeSince(final Metric metric, final MetricDimensions dimensions, final long startNanos) {
+        record(metric, dimensions, (System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public void record(final Metric metric, final MetricDimensions dimensions, final double millis) {
+        windowLock.readLock().lock();
+        try {
+            window.histograms.computeIfAbsent(dimensions, d -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(metric, m -> new Histogram())
+                    .record(millis);
+        } finally {
+            windowLock.readLock().unlock();
+        }
+    }
+
+    public void count(final Metric metric, final MetricDimensions dimensions, final long delta) {
+        windowLock.readLock().lock();
+        try {
+            window.counts.computeIfAbsent(dimensions, d -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(metric, m -> new AtomicLong())
+                    .addAndGet(delta);
+        } finally {
+            windowLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes the metrics recorded since the last flush and starts over. A failing sink is logged, metrics must
+     * never fail an invocation.
+     */
+    public synchronized void flush() {
+        final Window flushed;
+        windowLock.writeLock().lock();
+        try {
+            flushed = window;
+            window = new Window();
+        } finally {
+            windowLock.writeLock().unlock();
+        }
+        final List<MetricsRecord> records = new ArrayList<>();
+        for (MetricDimensions dimensions : flushed.union()) {
+            final Map<Metric, Histogram> recordHistograms = new EnumMap<>(Metric.class);
+            final Map<Metric, Histogram> dimensionHistograms = flushed.histograms.get(dimensions);
+            if (dimensionHistograms != null) {
+                recordHistograms.putAll(dimensionHistograms);
+            }
+            final Map<Metric, Long> recordCounts = new EnumMap<>(Metric.class);
+            final Map<Metric, AtomicLong> dimensionCounts = flushed.counts.get(dimensions);
+            if (dimensionCounts != null) {
+                dimensionCounts.forEach((metric, count) -> recordCounts.put(metric, count.get()));
+            }
+            records.add(new MetricsRecord(dimensions, recordHistograms, recordCounts));
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            sink.publish(System.currentTimeMillis(), records);
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish {} metric records", records.size(), e);
+        }
+    }
+
+    /**
+     * The metrics recorded between two flushes.
+     */
+    private static final class Window {
+        private final Map<MetricDimensions, Map<Metric, Histogram>> histograms = new ConcurrentHashMap<>();
+        private final Map<MetricDimensions, Map<Metric, AtomicLong>> counts = new ConcurrentHashMap<>();
+
+        private List<MetricDimensions> union() {
+            final List<MetricDimensions> dimensions = new ArrayList<>(histograms.keySet());
+            for (MetricDimensions counted : counts.keySet()) {
+                if (!dimensions.contains(counted)) {
+                    dimensions.add(counted);
+                }
+            }
+            return dimensions;
+        }
+    }
+}
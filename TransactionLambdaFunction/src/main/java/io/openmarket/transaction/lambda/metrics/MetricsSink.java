@@ -0,0 +1,15 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import java.util.List;
+
+/**
+ * Receives the metrics of an invocation when the {@link MetricsRecorder} is flushed.
+ */
+@FunctionalInterface
+public interface MetricsSink {
+    /**
+     * @param timestampMillis the epoch millis of the flush.
+     * @param records one record per set of dimension values.
+     */
+    void publish(long timestampMillis, List<MetricsRecord> records);
+}
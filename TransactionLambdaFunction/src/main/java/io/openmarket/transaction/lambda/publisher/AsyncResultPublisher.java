@@ -0,0 +1,183 @@
+package io.openmarket.transaction.lambda.publisher;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.BatchResultErrorEntry;
+import com.amazonaws.services.sns.model.PublishBatchRequest;
+import com.amazonaws.services.sns.model.PublishBatchRequestEntry;
+import com.amazonaws.services.sns.model.PublishBatchResult;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes every {@link TransactionTaskResult} as its own SNS message. Results are sent with PublishBatch as soon
+ * as a full batch is collected, so publishing overlaps with the processing of the rest of the invocation.
+ * The publisher threads bound the number of requests in flight, further batches wait in the thread pool queue.
+ * Batches are skipped while the {@link CircuitBreaker} is open, so a degraded SNS costs no invocation time.
+ */
+@Log4j2
+public class AsyncResultPublisher {
+    private final AmazonSNS sns;
+    private final String topicArn;
+    private final Gson gson;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final CircuitBreaker circuitBreaker;
+    private final MetricsRecorder metrics;
+
+    public AsyncResultPublisher(@NonNull final AmazonSNS sns, final String topicArn, @NonNull final Gson gson,
+                                final int batchSize, final int maxInFlight,
+                                @NonNull final CircuitBreaker circuitBreaker, @NonNull final MetricsRecorder metrics) {
+        this(sns, topicArn, gson, batchSize, Executors.newFixedThreadPool(maxInFlight, new ThreadFactoryBuilder()
+                .setNameFormat("sns-publisher-%d")
+                .setDaemon(true)
+                .build()), circuitBreaker, metrics);
+    }
+
+    public AsyncResultPublisher(@NonNull final AmazonSNS sns, final String topicArn, @NonNull final Gson gson,
+                                final int batchSize, @NonNull final ExecutorService executor,
+                                @NonNull final CircuitBreaker circuitBreaker, @NonNull final MetricsRecorder metrics) {
+        this.sns = sns;
+        this.topicArn = topicArn;
+        this.gson = gson;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return a new {@link Batch} collecting the results of one invocation.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the number of results that could not be published.
+     */
+    private int publish(final List<TransactionTaskResult> results) {
+        if (!circuitBreaker.tryAcquire()) {
+            log.warn("Circuit breaker is open, skipping {} results", results.size());
+            return results.size();
+        }
+        final List<PublishBatchRequestEntry> entries = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            entries.add(new PublishBatchRequestEntry()
+                    .withId(String.valueOf(i))
+                    .withMessage(gson.toJson(results.get(i))));
+        }
+        final long start = System.nanoTime();
+        try {
+            final PublishBatchResult result = sns.publishBatch(new PublishBatchRequest()
+                    .withTopicArn(topicArn)
+                    .withPublishBatchRequestEntries(entries));
+            final List<BatchResultErrorEntry> failed = result.getFailed() == null
+                    ? new ArrayList<>() : result.getFailed();
+            circuitBreaker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    failed.size() < entries.size());
+            for (BatchResultErrorEntry entry : failed) {
+                log.warn("Failed to publish result of transaction {}: {} {}",
+                        results.get(Integer.parseInt(entry.getId())).getTransactionId(), entry.getCode(),
+                        entry.getMessage());
+            }
+            return failed.size();
+        } catch (RuntimeException e) {
+            circuitBreaker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), false);
+            log.error("Failed to publish {} results to SNS topicArn: {}", results.size(), topicArn, e);
+            return results.size();
+        } finally {
+            metrics.timeSince(Metric.SNS_PUBLISH_LATENCY, MetricDimensions.NONE, start);
+        }
+    }
+
+    /**
+     * The results of one invocation. Results may be added from several threads.
+     */
+    public final class Batch {
+        private final List<Future<Integer>> requests = new ArrayList<>();
+        private final List<Integer> requestSizes = new ArrayList<>();
+        private List<TransactionTaskResult> pending = new ArrayList<>();
+        private int rejected;
+
+        private Batch() {}
+
+        public synchronized void add(@NonNull final TransactionTaskResult result) {
+            pending.add(result);
+            if (pending.size() >= batchSize) {
+                submit();
+            }
+        }
+
+        /**
+         * Sends the results still pending and waits for the requests of this batch until the deadline. Requests
+         * that have not started by then are cancelled, requests that are running are left to finish in background.
+         * @param deadlineMillis the epoch millis after which waiting stops.
+         * @return the number of results that were not published or not confirmed by the deadline.
+         */
+        public synchronized int awaitCompletion(final long deadlineMillis) {
+            if (!pending.isEmpty()) {
+                submit();
+            }
+            int unpublished = rejected;
+            for (int i = 0; i < requests.size(); i++) {
+                final Future<Integer> request = requests.get(i);
+                try {
+                    unpublished += request.get(Math.max(0, deadlineMillis - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    request.cancel(false);
+                    unpublished += requestSizes.get(i);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    unpublished += requestSizes.get(i);
+                } catch (ExecutionException | CancellationException e) {
+                    unpublished += requestSizes.get(i);
+                }
+            }
+            requests.clear();
+            requestSizes.clear();
+            rejected = 0;
+            if (unpublished > 0) {
+                log.warn("{} results were not published", unpublished);
+                metrics.count(Metric.UNPUBLISHED_RESULTS, MetricDimensions.NONE, unpublished);
+            }
+            return unpublished;
+        }
+
+        private void submit() {
+            final List<TransactionTaskResult> results = pending;
+            pending = new ArrayList<>(batchSize);
+            try {
+                requests.add(executor.submit(() -> publish(results)));
+                requestSizes.add(results.size());
+            } catch (RuntimeException e) {
+                log.error("Failed to schedule the publishing of {} results", results.size(), e);
+                rejected += results.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.openmarket.transaction.lambda.publisher;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a degraded dependency. The breaker opens after a number of consecutive failures, calls slower
+ * than the slow call threshold count as failures. While open every call is rejected, once the open period is over
+ * a single trial call is let through, it closes the breaker if it succeeds and opens it again otherwise.
+ */
+@Log4j2
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(final int failureThreshold, final long slowCallMillis, final long openMillis) {
+        this(failureThreshold, slowCallMillis, openMillis, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    CircuitBreaker(final int failureThreshold, final long slowCallMillis, final long openMillis,
+                   final LongSupplier clock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(String.format("Failure threshold must be positive, got %d",
+                    failureThreshold));
+        }
+        this.failureThreshold = failureThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a call may be made now, every permitted call must be followed by {@link #record(long, boolean)}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAtMillis >= openMillis) {
+            state = State.HALF_OPEN;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param elapsedMillis how long the call took.
+     * @param succeeded whether the call succeeded.
+     */
+    public synchronized void record(final long elapsedMillis, final boolean succeeded) {
+        final boolean healthy = succeeded && elapsedMillis <= slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (healthy) {
+                log.info("Circuit breaker closed after a successful trial call");
+                state = State.CLOSED;
+                consecutiveFailures = 0;
+            } else {
+                open();
+            }
+            return;
+        }
+        if (healthy) {
+            consecutiveFailures = 0;
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        log.warn("Circuit breaker opened for {} ms after {} consecutive failures", openMillis, consecutiveFailures);
+        state = State.OPEN;
+        openedAtMillis = clock.getAsLong();
+    }
+}
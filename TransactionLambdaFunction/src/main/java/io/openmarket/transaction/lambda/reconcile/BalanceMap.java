@@ -0,0 +1,202 @@
+package io.openmarket.transaction.lambda.reconcile;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sums amounts by owner and currency in primitive arrays, so a reconciliation over millions of balances holds 17
+ * bytes per slot instead of a boxed map entry per balance. A balance is keyed by the 64 bit hash of its owner and
+ * currency, see {@link #getKey(String, String)}, the names are not kept. The keys are spread over stripes that are
+ * locked independently, each an open addressing table with linear probing, so the segments of a parallel scan can
+ * add to the same map.
+ */
+class BalanceMap {
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    private static final double MAX_LOAD_FACTOR = 0.6;
+
+    private final Stripe[] stripes;
+
+    /**
+     * @param stripeCount the number of independently locked stripes.
+     */
+    BalanceMap(final int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be positive, got " + stripeCount);
+        }
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the key of the balance of the owner in the currency. Two balances share a key with a probability of
+     * about 2^-64 per pair, which a reconciliation accepts.
+     */
+    static long getKey(final String ownerId, final String currencyId) {
+        return KEY_HASH.newHasher()
+                .putString(ownerId, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(currencyId, StandardCharsets.UTF_8)
+                .hash().asLong();
+    }
+
+    /**
+     * Adds the amount to the balance of the key, which starts at 0.
+     */
+    void add(final long key, final double amount) {
+        final Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.add(key, amount);
+        }
+    }
+
+    /**
+     * @return the balance of the key, 0 if it has none.
+     */
+    double get(final long key) {
+        final Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            final int slot = stripe.find(key);
+            return slot < 0 ? 0 : stripe.values[slot];
+        }
+    }
+
+    boolean contains(final long key) {
+        final Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.find(key) >= 0;
+        }
+    }
+
+    /**
+     * Removes the balance of the key, so {@link #forEach(Visitor)} only visits the balances that were not matched.
+     * @return the removed balance, 0 if the key has none.
+     */
+    double remove(final long key) {
+        final Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Visits every balance, a stripe is locked while it is visited so the visitor must not modify the map.
+     */
+    void forEach(final Visitor visitor) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.used.length; slot++) {
+                    if (stripe.used[slot]) {
+                        visitor.visit(stripe.keys[slot], stripe.values[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    private Stripe getStripe(final long key) {
+        // The low bits pick the slot within the stripe.
+        return stripes[(int) ((key >>> 40) % stripes.length)];
+    }
+
+    /**
+     * Visits a balance of a {@link BalanceMap}.
+     */
+    interface Visitor {
+        void visit(long key, double balance);
+    }
+
+    private static final class Stripe {
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private double[] values = new double[INITIAL_STRIPE_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        private void add(final long key, final double amount) {
+            int slot = indexOf(key, keys.length);
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    values[slot] += amount;
+                    return;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = amount;
+            if (++size > keys.length * MAX_LOAD_FACTOR) {
+                resize();
+            }
+        }
+
+        private int find(final long key) {
+            int slot = indexOf(key, keys.length);
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * Removes the key and shifts the following keys of its probe sequence back, so no tombstone is left.
+         */
+        private double remove(final long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return 0;
+            }
+            final double removed = values[slot];
+            final int mask = keys.length - 1;
+            int next = (slot + 1) & mask;
+            while (used[next]) {
+                final int home = indexOf(keys[next], keys.length);
+                // Moves the key into the hole unless its home lies cyclically between the hole and its slot.
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    keys[slot] = keys[next];
+                    values[slot] = values[next];
+                    slot = next;
+                }
+                next = (next + 1) & mask;
+            }
+            used[slot] = false;
+            size--;
+            return removed;
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final double[] oldValues = values;
+            final boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldUsed[slot]) {
+                    add(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int indexOf(final long key, final int capacity) {
+            return (int) (key ^ (key >>> 32)) & (capacity - 1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.openmarket.transaction.lambda.reconcile;
+
+import lombok.NonNull;
+
+/**
+ * A wallet balance that doesn't match its opening balance plus the settled transactions.
+ */
+public final class Drift {
+    private final String ownerId;
+    private final String currencyId;
+    private final double balance;
+    private final double expectedBalance;
+
+    /**
+     * @param ownerId the owner of the wallet.
+     * @param currencyId the currency of the balance.
+     * @param balance the balance of the wallet item plus its shards and pending credits.
+     * @param expectedBalance the opening balance plus the net flow of the settled transactions.
+     */
+    public Drift(@NonNull final String ownerId, @NonNull final String currencyId, final double balance,
+                 final double expectedBalance) {
+        this.ownerId = ownerId;
+        this.currencyId = currencyId;
+        this.balance = balance;
+        this.expectedBalance = expectedBalance;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public String getCurrencyId() {
+        return currencyId;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public double getExpectedBalance() {
+        return expectedBalance;
+    }
+
+    /**
+     * @return how much the balance exceeds its expected value, negative if money is missing.
+     */
+    public double getDrift() {
+        return balance - expectedBalance;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s: balance %s, expected %s, drift %+f", ownerId, currencyId, balance,
+                expectedBalance, getDrift());
+    }
+}
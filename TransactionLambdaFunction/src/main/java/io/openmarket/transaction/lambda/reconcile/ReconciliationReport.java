@@ -0,0 +1,145 @@
+package io.openmarket.transaction.lambda.reconcile;
+
+import com.google.common.collect.ImmutableList;
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * The outcome of a {@link WalletReconciler} run: the drifted balances, how much was repaired and how fast each table
+ * was scanned.
+ */
+public final class ReconciliationReport {
+    private final List<ScanStats> scans;
+    private final long balancesChecked;
+    private final List<Drift> drifts;
+    private final long driftCount;
+    private final double totalDrift;
+    private final long unattributedDriftCount;
+    private final double unattributedDrift;
+    private final long repaired;
+    private final long repairSkipped;
+
+    /**
+     * @param scans the scan of every table, in scan order.
+     * @param balancesChecked the number of wallet balances compared with their expected value.
+     * @param drifts the largest drifts, largest first.
+     * @param driftCount the number of drifted wallet balances, including those not listed.
+     * @param totalDrift the sum of the drifts of the wallet balances.
+     * @param unattributedDriftCount the number of drifted balances without a wallet balance, such as the flows of a
+     *                               missing wallet, whose owner and currency are not known.
+     * @param unattributedDrift the sum of those drifts.
+     * @param repaired the number of wallet balances set to their expected value.
+     * @param repairSkipped the number of drifted wallet balances that could not be repaired.
+     */
+    public ReconciliationReport(@NonNull final List<ScanStats> scans, final long balancesChecked,
+                                @NonNull final List<Drift> drifts, final long driftCount, final double totalDrift,
+                                final long unattributedDriftCount, final double unattributedDrift,
+                                final long repaired, final long repairSkipped) {
+        this.scans = ImmutableList.copyOf(scans);
+        this.balancesChecked = balancesChecked;
+        this.drifts = ImmutableList.copyOf(drifts);
+        this.driftCount = driftCount;
+        this.totalDrift = totalDrift;
+        this.unattributedDriftCount = unattributedDriftCount;
+        this.unattributedDrift = unattributedDrift;
+        this.repaired = repaired;
+        this.repairSkipped = repairSkipped;
+    }
+
+    public List<ScanStats> getScans() {
+        return scans;
+    }
+
+    public long getBalancesChecked() {
+        return balancesChecked;
+    }
+
+    public List<Drift> getDrifts() {
+        return drifts;
+    }
+
+    public long getDriftCount() {
+        return driftCount;
+    }
+
+    public double getTotalDrift() {
+        return totalDrift;
+    }
+
+    public long getUnattributedDriftCount() {
+        return unattributedDriftCount;
+    }
+
+    public double getUnattributedDrift() {
+        return unattributedDrift;
+    }
+
+    public long getRepaired() {
+        return repaired;
+    }
+
+    public long getRepairSkipped() {
+        return repairSkipped;
+    }
+
+    /**
+     * @return true if every balance matched its expected value.
+     */
+    public boolean isConsistent() {
+        return driftCount == 0 && unattributedDriftCount == 0;
+    }
+
+    public String format() {
+        final StringBuilder builder = new StringBuilder();
+        for (ScanStats scan : scans) {
+            builder.append(String.format("scanned %s: %d items in %.1f s (%.0f items/s)%n", scan.getTableName(),
+                    scan.getItems(), scan.getElapsedMillis() / 1e3, scan.getRate()));
+        }
+        builder.append(String.format("balances checked: %d, drifted: %d (total %+f), unattributed drifts: %d "
+                        + "(total %+f), repaired: %d, not repaired: %d",
+                balancesChecked, driftCount, totalDrift, unattributedDriftCount, unattributedDrift, repaired,
+                repairSkipped));
+        for (Drift drift : drifts) {
+            builder.append(String.format("%n  %s", drift));
+        }
+        if (drifts.size() < driftCount) {
+            builder.append(String.format("%n  ... %d more", driftCount - drifts.size()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The scan of a table.
+     */
+    public static final class ScanStats {
+        private final String tableName;
+        private final long items;
+        private final long elapsedMillis;
+
+        public ScanStats(@NonNull final String tableName, final long items, final long elapsedMillis) {
+            this.tableName = tableName;
+            this.items = items;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the scanned items per second.
+         */
+        public double getRate() {
+            return items * 1000.0 / Math.max(elapsedMillis, 1);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package io.openmarket.transaction.lambda.reconcile;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_COIN_MAP;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.transaction.lambda.config.LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME;
+
+/**
+ * Checks that every wallet balance equals its opening balance plus the net flow of the settled transactions. The
+ * tables are read with segmented parallel scans and streamed into {@link BalanceMap}s, so memory grows with the
+ * number of balances, not with the number of transactions:
+ * <ol>
+ *     <li>the transaction table, every transaction that moved money ({@link TransactionStatus#COMPLETED},
+ *     {@link TransactionStatus#REFUND_STARTED} or {@link TransactionStatus#REFUNDED}) debits its payer and credits
+ *     its recipient, a refund being a transaction of its own;</li>
+ *     <li>the credits not folded into the wallet items yet: the shards of the sharded wallets and the entries of the
+ *     {@link CreditLedger}, when they are in use;</li>
+ *     <li>the wallet table, whose balances are compared as they stream by, and repaired when enabled.</li>
+ * </ol>
+ * Balances that are left without a wallet balance, such as the flows of a wallet that doesn't exist, are reported
+ * as unattributed drift. The scans are not a snapshot, so transactions settling meanwhile show up as drift and
+ * must not be repaired: reconcile while processing is paused.
+ * <p>
+ * A repair sets the balance of the wallet item to the expected balance minus the pending credits, with a condition
+ * on the balance read by the scan, and at most at the repair rate.
+ */
+@Log4j2
+public class WalletReconciler {
+    private static final Set<TransactionStatus> SETTLED_STATUSES = EnumSet.of(TransactionStatus.COMPLETED,
+            TransactionStatus.REFUND_STARTED, TransactionStatus.REFUNDED);
+    private static final String OPENING_BALANCE_SEPARATOR = ",";
+    private static final String ATTR_NAME_COIN_MAP = "#cm";
+    private static final String ATTR_NAME_COIN = "#c";
+    private static final String ATTR_VAL_BALANCE = ":balance";
+    private static final String ATTR_VAL_OBSERVED_BALANCE = ":observed";
+    private static final String EXPRESSION_SET_BALANCE = String.format("SET %s.%s = %s", ATTR_NAME_COIN_MAP,
+            ATTR_NAME_COIN, ATTR_VAL_BALANCE);
+    private static final String EXPRESSION_BALANCE_UNCHANGED = String.format("%s.%s = %s", ATTR_NAME_COIN_MAP,
+            ATTR_NAME_COIN, ATTR_VAL_OBSERVED_BALANCE);
+
+    private final AmazonDynamoDB dbClient;
+    private final DynamoDBMapperTableModel<Transaction> tableModel;
+    private final WalletShards walletShards;
+    private final CreditLedger creditLedger;
+    private final int segments;
+    private final RateLimiter repairLimiter;
+
+    /**
+     * Creates a reconciler that only reports.
+     */
+    public WalletReconciler(@NonNull final AmazonDynamoDB dbClient, @NonNull final WalletShards walletShards,
+                            @NonNull final CreditLedger creditLedger) {
+        this(dbClient, walletShards, creditLedger, LambdaConfig.RECONCILE_SCAN_SEGMENTS, 0);
+    }
+
+    /**
+     * @param dbClient the client used to scan the tables and repair the wallets.
+     * @param walletShards the sharded wallets, whose shards are scanned.
+     * @param creditLedger the ledger of the deferred credits, scanned if it is enabled.
+     * @param segments the number of segments each table is scanned with, in parallel.
+     * @param repairRate the number of balances repaired per second, 0 to only report.
+     */
+    public WalletReconciler(@NonNull final AmazonDynamoDB dbClient, @NonNull final WalletShards walletShards,
+                            @NonNull final CreditLedger creditLedger, final int segments, final double repairRate) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be positive, got " + segments);
+        }
+        this.dbClient = dbClient;
+        this.tableModel = new DynamoDBMapper(dbClient).getTableModel(Transaction.class);
+        this.walletShards = walletShards;
+        this.creditLedger = creditLedger;
+        this.segments = segments;
+        this.repairLimiter = repairRate > 0 ? RateLimiter.create(repairRate) : null;
+    }
+
+    /**
+     * Reconciles the wallets against opening balances of 0, for wallets only funded by transactions.
+     */
+    public ReconciliationReport reconcile() {
+        return reconcile(new BalanceMap(LambdaConfig.RECONCILE_BALANCE_MAP_STRIPES));
+    }
+
+    /**
+     * @param openingBalances lines of {@code ownerId,currencyId,balance}, the balances of the wallets before the
+     *                        first transaction, 0 for the balances not listed.
+     */
+    public ReconciliationReport reconcile(@NonNull final BufferedReader openingBalances) throws IOException {
+        final BalanceMap opening = new BalanceMap(LambdaConfig.RECONCILE_BALANCE_MAP_STRIPES);
+        String line;
+        while ((line = openingBalances.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            final String[] fields = line.split(OPENING_BALANCE_SEPARATOR);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Expected ownerId,currencyId,balance but got " + line);
+            }
+            opening.add(BalanceMap.getKey(fields[0].trim(), fields[1].trim()), Double.parseDouble(fields[2].trim()));
+        }
+        return reconcile(opening);
+    }
+
+    private ReconciliationReport reconcile(final BalanceMap opening) {
+        final ExecutorService executor = Executors.newFixedThreadPool(segments, new ThreadFactoryBuilder()
+                .setNameFormat("reconcile-scan-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            final List<ReconciliationReport.ScanStats> scans = new ArrayList<>();
+            final BalanceMap flows = new BalanceMap(LambdaConfig.RECONCILE_BALANCE_MAP_STRIPES);
+            scans.add(scan(executor, TRANSACTION_DDB_TABLE_NAME, item -> addFlows(flows, item)));
+            log.info("Aggregated the flows of {} balances", flows.size());
+
+            final BalanceMap pending = new BalanceMap(LambdaConfig.RECONCILE_BALANCE_MAP_STRIPES);
+            if (creditLedger.isEnabled()) {
+                scans.add(scan(executor, CREDIT_LEDGER_DDB_TABLE_NAME, entry -> pending.add(BalanceMap.getKey(
+                        entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID).getS(),
+                        entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_CURRENCY_ID).getS()),
+                        Double.parseDouble(entry.get(CREDIT_LEDGER_DDB_ATTRIBUTE_AMOUNT).getN()))));
+            }
+            if (walletShards.isEnabled()) {
+                scans.add(scan(executor, WALLET_SHARD_DDB_TABLE_NAME, item -> addShard(pending, item)));
+            }
+
+            final Comparison comparison = new Comparison(opening, flows, pending);
+            scans.add(scan(executor, WALLET_DDB_TABLE_NAME, comparison::compare));
+            comparison.compareUnattributed();
+            final ReconciliationReport report = comparison.toReport(scans);
+            log.info("Reconciled {} balances, {} drifted, {} unattributed drifts", report.getBalancesChecked(),
+                    report.getDriftCount(), report.getUnattributedDriftCount());
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans every segment of the table in parallel, the consumer is called concurrently.
+     */
+    private ReconciliationReport.ScanStats scan(final ExecutorService executor, final String tableName,
+                                                final Consumer<Map<String, AttributeValue>> consumer) {
+        final long start = System.currentTimeMillis();
+        final AtomicLong items = new AtomicLong();
+        final List<Future<?>> futures = new ArrayList<>(segments);
+        for (int segment = 0; segment < segments; segment++) {
+            final int index = segment;
+            futures.add(executor.submit(() -> {
+                Map<String, AttributeValue> startKey = null;
+                do {
+                    final ScanResult result = dbClient.scan(new ScanRequest()
+                            .withTableName(tableName)
+                            .withSegment(index)
+                            .withTotalSegments(segments)
+                            .withExclusiveStartKey(startKey));
+                    result.getItems().forEach(consumer);
+                    items.addAndGet(result.getItems().size());
+                    startKey = result.getLastEvaluatedKey();
+                } while (startKey != null && !startKey.isEmpty());
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning " + tableName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to scan " + tableName, e.getCause());
+        }
+        final ReconciliationReport.ScanStats stats = new ReconciliationReport.ScanStats(tableName, items.get(),
+                System.currentTimeMillis() - start);
+        log.info("Scanned {} items of {} with {} segments at {} items/s", stats.getItems(), tableName, segments,
+                Math.round(stats.getRate()));
+        return stats;
+    }
+
+    private void addFlows(final BalanceMap flows, final Map<String, AttributeValue> item) {
+        final Transaction transaction = tableModel.unconvert(item);
+        if (!SETTLED_STATUSES.contains(transaction.getStatus()) || transaction.getAmount() == null) {
+            return;
+        }
+        flows.add(BalanceMap.getKey(transaction.getPayerId(), transaction.getCurrencyId()), -transaction.getAmount());
+        flows.add(BalanceMap.getKey(transaction.getRecipientId(), transaction.getCurrencyId()),
+                transaction.getAmount());
+    }
+
+    private static void addShard(final BalanceMap pending, final Map<String, AttributeValue> item) {
+        final String ownerId = item.get(WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID).getS();
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (!WalletShards.isKeyAttribute(attribute.getKey()) && attribute.getValue().getN() != null) {
+                pending.add(BalanceMap.getKey(ownerId, attribute.getKey()),
+                        Double.parseDouble(attribute.getValue().getN()));
+            }
+        }
+    }
+
+    /**
+     * Compares the wallet balances with their expected value, removing the balances it matched from the maps so
+     * what is left afterwards has no wallet balance.
+     */
+    private final class Comparison {
+        private final BalanceMap opening;
+        private final BalanceMap flows;
+        private final BalanceMap pending;
+        private final AtomicLong balancesChecked = new AtomicLong();
+        private final AtomicLong driftCount = new AtomicLong();
+        private final DoubleAdder totalDrift = new DoubleAdder();
+        private final AtomicLong repaired = new AtomicLong();
+        private final AtomicLong repairSkipped = new AtomicLong();
+        private final PriorityQueue<Drift> largestDrifts = new PriorityQueue<>(
+                Comparator.comparingDouble(drift -> Math.abs(drift.getDrift())));
+        private long unattributedDriftCount;
+        private double unattributedDrift;
+
+        private Comparison(final BalanceMap opening, final BalanceMap flows, final BalanceMap pending) {
+            this.opening = opening;
+            this.flows = flows;
+            this.pending = pending;
+        }
+
+        private void compare(final Map<String, AttributeValue> wallet) {
+            final String ownerId = wallet.get(WALLET_DDB_ATTRIBUTE_OWNER_ID).getS();
+            final AttributeValue coins = wallet.get(WALLET_DDB_ATTRIBUTE_COIN_MAP);
+            if (coins == null || coins.getM() == null) {
+                return;
+            }
+            for (Map.Entry<String, AttributeValue> coin : coins.getM().entrySet()) {
+                final long key = BalanceMap.getKey(ownerId, coin.getKey());
+                final double walletBalance = Double.parseDouble(coin.getValue().getN());
+                final double pendingBalance = pending.remove(key);
+                final double expected = opening.remove(key) + flows.remove(key);
+                balancesChecked.incrementAndGet();
+                final Drift drift = new Drift(ownerId, coin.getKey(), walletBalance + pendingBalance, expected);
+                if (Math.abs(drift.getDrift()) <= LambdaConfig.RECONCILE_TOLERANCE) {
+                    continue;
+                }
+                driftCount.incrementAndGet();
+                totalDrift.add(drift.getDrift());
+                keep(drift);
+                if (repairLimiter != null) {
+                    repair(drift, coin.getValue(), expected - pendingBalance);
+                }
+            }
+        }
+
+        /**
+         * Checks the balances no wallet balance matched: the flows and pending credits of missing wallets or
+         * currencies, and opening balances of wallets that are gone.
+         */
+        private void compareUnattributed() {
+            flows.forEach((key, flow) -> addUnattributed(pending.get(key) - opening.get(key) - flow));
+            pending.forEach((key, balance) -> {
+                if (!flows.contains(key)) {
+                    addUnattributed(balance - opening.get(key));
+                }
+            });
+            opening.forEach((key, balance) -> {
+                if (!flows.contains(key) && !pending.contains(key)) {
+                    addUnattributed(-balance);
+                }
+            });
+        }
+
+        private void addUnattributed(final double drift) {
+            if (Math.abs(drift) > LambdaConfig.RECONCILE_TOLERANCE) {
+                unattributedDriftCount++;
+                unattributedDrift += drift;
+            }
+        }
+
+        private synchronized void keep(final Drift drift) {
+            largestDrifts.add(drift);
+            if (largestDrifts.size() > LambdaConfig.RECONCILE_MAX_REPORTED_DRIFTS) {
+                largestDrifts.poll();
+            }
+        }
+
+        private void repair(final Drift drift, final AttributeValue observed, final double target) {
+            if (target < 0) {
+                log.warn("Not repairing {}, the pending credits exceed the expected balance", drift);
+                repairSkipped.incrementAndGet();
+                return;
+            }
+            repairLimiter.acquire();
+            try {
+                dbClient.updateItem(new UpdateItemRequest()
+                        .withTableName(WALLET_DDB_TABLE_NAME)
+                        .withKey(ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(drift.getOwnerId())))
+                        .withUpdateExpression(EXPRESSION_SET_BALANCE)
+                        .withConditionExpression(EXPRESSION_BALANCE_UNCHANGED)
+                        .withExpressionAttributeNames(ImmutableMap.of(ATTR_NAME_COIN_MAP, WALLET_DDB_ATTRIBUTE_COIN_MAP,
+                                ATTR_NAME_COIN, drift.getCurrencyId()))
+                        .withExpressionAttributeValues(ImmutableMap.of(
+                                ATTR_VAL_BALANCE, new AttributeValue().withN(String.valueOf(target)),
+                                ATTR_VAL_OBSERVED_BALANCE, observed)));
+                log.info("Repaired {}, the wallet item balance was set to {}", drift, target);
+                repaired.incrementAndGet();
+            } catch (ConditionalCheckFailedException e) {
+                log.warn("Not repairing {}, the balance changed since it was scanned", drift);
+                repairSkipped.incrementAndGet();
+            }
+        }
+
+        private synchronized ReconciliationReport toReport(final List<ReconciliationReport.ScanStats> scans) {
+            final List<Drift> drifts = new ArrayList<>(largestDrifts);
+            drifts.sort(Comparator.comparingDouble((Drift drift) -> Math.abs(drift.getDrift())).reversed());
+            return new ReconciliationReport(scans, balancesChecked.get(), drifts, driftCount.get(),
+                    totalDrift.sum(), unattributedDriftCount, unattributedDrift, repaired.get(),
+                    repairSkipped.get());
+        }
+    }
+}
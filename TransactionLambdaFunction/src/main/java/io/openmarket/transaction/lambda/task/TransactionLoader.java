@@ -0,0 +1,221 @@
+package io.openmarket.transaction.lambda.task;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.ErrorClassifier;
+import io.openmarket.transaction.lambda.handler.RetryPolicy;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.model.Transaction;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+
+/**
+ * Loads the transactions of an SQS batch with BatchGetItem. The IDs are split into pages of at most
+ * {@link io.openmarket.transaction.lambda.config.LambdaConfig#MAX_BATCH_GET_ITEM_KEYS} keys that are fetched
+ * concurrently, and the keys DynamoDB leaves unprocessed are requested again with backoff. A page that keeps
+ * failing only loses its own transactions, which are left out of the result. The reads are eventually consistent,
+ * the transactions they don't find are read again with consistent reads before they are reported as missing.
+ */
+@Log4j2
+public class TransactionLoader {
+    private final AmazonDynamoDB dbClient;
+    private final DynamoDBMapperTableModel<Transaction> tableModel;
+    private final int pageSize;
+    private final ExecutorService executor;
+    private final RetryPolicy retryPolicy;
+    private final MetricsRecorder metrics;
+
+    public TransactionLoader(@NonNull final AmazonDynamoDB dbClient, @NonNull final DynamoDBMapper mapper,
+                             final int pageSize, final int parallelism, @NonNull final RetryPolicy retryPolicy,
+                             @NonNull final MetricsRecorder metrics) {
+        this(dbClient, mapper, pageSize, Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("transaction-loader-%d")
+                .setDaemon(true)
+                .build()), retryPolicy, metrics);
+    }
+
+    public TransactionLoader(@NonNull final AmazonDynamoDB dbClient, @NonNull final DynamoDBMapper mapper,
+                             final int pageSize, @NonNull final ExecutorService executor,
+                             @NonNull final RetryPolicy retryPolicy, @NonNull final MetricsRecorder metrics) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(String.format("pageSize must be positive, got %d", pageSize));
+        }
+        this.dbClient = dbClient;
+        this.tableModel = mapper.getTableModel(Transaction.class);
+        this.pageSize = pageSize;
+        this.executor = executor;
+        this.retryPolicy = retryPolicy;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Loads the transactions, a single page is loaded on the calling thread.
+     * @param transactionIds the distinct IDs of the transactions to load.
+     * @param deadlineMillis the epoch millis after which no more retries are started.
+     * @return the loaded transactions by ID, the transactions that don't exist or could not be loaded are absent.
+     */
+    public Map<String, Transaction> load(@NonNull final Collection<String> transactionIds,
+                                         final long deadlineMillis) {
+        return load(transactionIds, deadlineMillis, new ArrayList<>());
+    }
+
+    /**
+     * Loads the transactions, a single page is loaded on the calling thread.
+     * @param transactionIds the distinct IDs of the transactions to load.
+     * @param deadlineMillis the epoch millis after which no more retries are started.
+     * @param missing filled with the IDs of the transactions that a consistent read confirmed don't exist, unlike
+     *                the ones that could not be loaded they won't be found by a later attempt either.
+     * @return the loaded transactions by ID, the transactions that don't exist or could not be loaded are absent.
+     */
+    public Map<String, Transaction> load(@NonNull final Collection<String> transactionIds,
+                                         final long deadlineMillis, @NonNull final Collection<String> missing) {
+        final Map<String, Transaction> loaded = new ConcurrentHashMap<>(transactionIds.size() * 2);
+        final Set<String> notFound = ConcurrentHashMap.newKeySet();
+        loadPages(transactionIds, false, deadlineMillis, loaded, notFound);
+        if (!notFound.isEmpty()) {
+            final Set<String> stillNotFound = ConcurrentHashMap.newKeySet();
+            loadPages(notFound, true, deadlineMillis, loaded, stillNotFound);
+            missing.addAll(stillNotFound);
+        }
+        return loaded;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Loads the pages of transactions, the IDs DynamoDB answered for without returning an item go to notFound.
+     */
+    private void loadPages(final Collection<String> transactionIds, final boolean consistentRead,
+                           final long deadlineMillis, final Map<String, Transaction> loaded,
+                           final Set<String> notFound) {
+        final List<List<String>> pages = Lists.partition(new ArrayList<>(transactionIds), pageSize);
+        if (pages.size() <= 1) {
+            pages.forEach(page -> loadPage(page, consistentRead, deadlineMillis, loaded, notFound));
+            return;
+        }
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(pages.size());
+        for (List<String> page : pages) {
+            futures.add(CompletableFuture.runAsync(() -> loadPage(page, consistentRead, deadlineMillis, loaded,
+                    notFound), executor));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                log.error("Failed to load a page of transactions", e.getCause());
+            }
+        }
+    }
+
+    private void loadPage(final List<String> transactionIds, final boolean consistentRead,
+                          final long deadlineMillis, final Map<String, Transaction> loaded,
+                          final Set<String> notFound) {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(transactionIds.size());
+        for (String transactionId : transactionIds) {
+            keys.add(Collections.singletonMap(TRANSACTION_DDB_ATTRIBUTE_ID, new AttributeValue(transactionId)));
+        }
+        // The IDs DynamoDB has not answered for yet.
+        final Set<String> pending = new HashSet<>(transactionIds);
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(TRANSACTION_DDB_TABLE_NAME,
+                new KeysAndAttributes().withKeys(keys).withConsistentRead(consistentRead));
+        for (int attempt = 1; ; attempt++) {
+            ErrorClass errorClass;
+            try {
+                final BatchGetItemResult result = dbClient.batchGetItem(new BatchGetItemRequest()
+                        .withRequestItems(requestItems));
+                final List<Map<String, AttributeValue>> items = result.getResponses() == null ? null
+                        : result.getResponses().get(TRANSACTION_DDB_TABLE_NAME);
+                if (items != null) {
+                    for (Map<String, AttributeValue> item : items) {
+                        final Transaction transaction = tableModel.unconvert(item);
+                        loaded.put(transaction.getTransactionId(), transaction);
+                        pending.remove(transaction.getTransactionId());
+                    }
+                }
+                final Map<String, KeysAndAttributes> unprocessed = result.getUnprocessedKeys();
+                if (unprocessed == null || unprocessed.isEmpty()) {
+                    notFound.addAll(pending);
+                    return;
+                }
+                // Every key left out of the unprocessed ones was answered for.
+                final Set<String> unanswered = getIds(unprocessed);
+                for (String transactionId : pending) {
+                    if (!unanswered.contains(transactionId)) {
+                        notFound.add(transactionId);
+                    }
+                }
+                pending.retainAll(unanswered);
+                requestItems = unprocessed;
+                // DynamoDB leaves keys unprocessed when the table throughput is exceeded.
+                errorClass = ErrorClass.THROTTLING;
+                metrics.count(Metric.UNPROCESSED_KEYS, MetricDimensions.NONE, countKeys(unprocessed));
+            } catch (RuntimeException e) {
+                errorClass = ErrorClassifier.classify(e);
+                if (!errorClass.isRetryable()) {
+                    log.error("Failed to load {} transactions with {}", countKeys(requestItems), errorClass, e);
+                    return;
+                }
+                log.info("Loading {} transactions failed with {} on attempt {}", countKeys(requestItems),
+                        errorClass, attempt);
+            }
+            final long delayMillis = retryPolicy.getDelayMillis(attempt);
+            if (!retryPolicy.shouldRetry(attempt, errorClass, delayMillis, deadlineMillis)) {
+                log.warn("{} transactions are still not loaded after {} attempts", countKeys(requestItems),
+                        attempt);
+                return;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static Set<String> getIds(final Map<String, KeysAndAttributes> requestItems) {
+        final Set<String> ids = new HashSet<>();
+        for (KeysAndAttributes keysAndAttributes : requestItems.values()) {
+            for (Map<String, AttributeValue> key : keysAndAttributes.getKeys()) {
+                ids.add(key.get(TRANSACTION_DDB_ATTRIBUTE_ID).getS());
+            }
+        }
+        return ids;
+    }
+
+    private static int countKeys(final Map<String, KeysAndAttributes> requestItems) {
+        int count = 0;
+        for (KeysAndAttributes keysAndAttributes : requestItems.values()) {
+            count += keysAndAttributes.getKeys().size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,71 @@
+package io.openmarket.transaction.lambda.task;
+
+import com.google.gson.annotations.JsonAdapter;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionTask;
+import lombok.NonNull;
+
+/**
+ * The body of a transaction task message. Version 1 is the plain {@link TransactionTask}, version 2 may also embed
+ * the fields needed to settle the transaction so it can be processed without loading it first.
+ * The payload must come from the producer that created the transaction record, the processor trusts its amount
+ * and wallets, while the status conditions of the settling write still prevent settling a transaction twice.
+ */
+@JsonAdapter(TransactionMessageAdapter.class)
+public final class TransactionMessage {
+    /**
+     * The format of plain {@link TransactionTask} bodies.
+     */
+    public static final int VERSION_TASK = 1;
+
+    /**
+     * The format with an inline payload, the newest one this processor understands.
+     */
+    public static final int VERSION_INLINE = 2;
+
+    private final int version;
+    private final String transactionId;
+    private final Transaction payload;
+
+    private TransactionMessage(final int version, final String transactionId, final Transaction payload) {
+        this.version = version;
+        this.transactionId = transactionId;
+        this.payload = payload;
+    }
+
+    /**
+     * @param transactionId the ID of the transaction, it is loaded from the table before processing.
+     * @return a {@link TransactionMessage} without payload.
+     */
+    public static TransactionMessage of(final String transactionId) {
+        return new TransactionMessage(VERSION_TASK, transactionId, null);
+    }
+
+    /**
+     * @param transaction the pending transaction, embedded in the message.
+     * @return a {@link TransactionMessage} with an inline payload.
+     */
+    public static TransactionMessage inline(@NonNull final Transaction transaction) {
+        return new TransactionMessage(VERSION_INLINE, transaction.getTransactionId(), transaction);
+    }
+
+    static TransactionMessage read(final int version, final String transactionId, final Transaction payload) {
+        return new TransactionMessage(version, transactionId, payload);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @return the embedded pending transaction, or null if the message has none, has an incomplete one or has a
+     * format newer than {@link #VERSION_INLINE}. The transaction must then be loaded from the table.
+     */
+    public Transaction getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,208 @@
+package io.openmarket.transaction.lambda.task;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes {@link TransactionMessage} with the streaming API, so no reflection is involved. Unknown fields
+ * are skipped. A payload that is incomplete, has an unknown transaction type or comes with a newer format version
+ * is dropped, the transaction is then loaded from the table as with a plain task.
+ */
+public final class TransactionMessageAdapter extends TypeAdapter<TransactionMessage> {
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_TRANSACTION_ID = "transactionId";
+    private static final String FIELD_TRANSACTION = "transaction";
+    private static final String FIELD_PAYER_ID = "payerId";
+    private static final String FIELD_RECIPIENT_ID = "recipientId";
+    private static final String FIELD_CURRENCY_ID = "currencyId";
+    private static final String FIELD_AMOUNT = "amount";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_REFUND_TRANSAC_IDS = "refundTransacIds";
+
+    @Override
+    public void write(final JsonWriter out, final TransactionMessage message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        final Transaction payload = message.getPayload();
+        if (payload != null) {
+            out.name(FIELD_VERSION).value(message.getVersion());
+        }
+        out.name(FIELD_TRANSACTION_ID).value(message.getTransactionId());
+        if (payload != null) {
+            out.name(FIELD_TRANSACTION).beginObject();
+            out.name(FIELD_PAYER_ID).value(payload.getPayerId());
+            out.name(FIELD_RECIPIENT_ID).value(payload.getRecipientId());
+            out.name(FIELD_CURRENCY_ID).value(payload.getCurrencyId());
+            out.name(FIELD_AMOUNT).value(payload.getAmount());
+            out.name(FIELD_TYPE).value(payload.getType() == null ? null : payload.getType().name());
+            if (payload.getRefundTransacIds() != null) {
+                out.name(FIELD_REFUND_TRANSAC_IDS).beginArray();
+                for (String refundTransacId : payload.getRefundTransacIds()) {
+                    out.value(refundTransacId);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+        out.endObject();
+    }
+
+    @Override
+    public TransactionMessage read(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        int version = TransactionMessage.VERSION_TASK;
+        String transactionId = null;
+        Transaction.TransactionBuilder payload = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case FIELD_VERSION:
+                    version = nextInt(in);
+                    break;
+                case FIELD_TRANSACTION_ID:
+                    transactionId = nextString(in);
+                    break;
+                case FIELD_TRANSACTION:
+                    payload = readPayload(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (payload == null || transactionId == null || version > TransactionMessage.VERSION_INLINE) {
+            return TransactionMessage.read(version, transactionId, null);
+        }
+        final Transaction transaction = payload.transactionId(transactionId)
+                .status(TransactionStatus.PENDING)
+                .build();
+        return TransactionMessage.read(version, transactionId, isComplete(transaction) ? transaction : null);
+    }
+
+    /**
+     * @return the builder of the payload, or null if it has an unknown transaction type.
+     */
+    private static Transaction.TransactionBuilder readPayload(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        final Transaction.TransactionBuilder builder = Transaction.builder();
+        boolean knownType = true;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case FIELD_PAYER_ID:
+                    builder.payerId(nextString(in));
+                    break;
+                case FIELD_RECIPIENT_ID:
+                    builder.recipientId(nextString(in));
+                    break;
+                case FIELD_CURRENCY_ID:
+                    builder.currencyId(nextString(in));
+                    break;
+                case FIELD_AMOUNT:
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else {
+                        builder.amount(nextDouble(in));
+                    }
+                    break;
+                case FIELD_TYPE:
+                    final TransactionType type = parseType(nextString(in));
+                    knownType = type != null;
+                    builder.type(type);
+                    break;
+                case FIELD_REFUND_TRANSAC_IDS:
+                    builder.refundTransacIds(readStrings(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return knownType ? builder : null;
+    }
+
+    private static boolean isComplete(final Transaction transaction) {
+        if (transaction.getPayerId() == null || transaction.getRecipientId() == null
+                || transaction.getCurrencyId() == null || transaction.getAmount() == null
+                || transaction.getType() == null) {
+            return false;
+        }
+        return !TransactionType.REFUND.equals(transaction.getType())
+                || (transaction.getRefundTransacIds() != null && !transaction.getRefundTransacIds().isEmpty());
+    }
+
+    private static TransactionType parseType(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return TransactionType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readStrings(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        final List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(nextString(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    /**
+     * Reads an int, a value that is not a number fails as malformed JSON instead of escaping Gson.
+     */
+    private static int nextInt(final JsonReader in) throws IOException {
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(String.format("Expected an int at %s", in.getPath()), e);
+        }
+    }
+
+    /**
+     * Reads a double, a value that is not a number fails as malformed JSON instead of escaping Gson.
+     */
+    private static double nextDouble(final JsonReader in) throws IOException {
+        try {
+            return in.nextDouble();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(String.format("Expected a number at %s", in.getPath()), e);
+        }
+    }
+
+    private static String nextString(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
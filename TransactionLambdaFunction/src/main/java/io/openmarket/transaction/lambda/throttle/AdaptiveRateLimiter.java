@@ -0,0 +1,170 @@
+package io.openmarket.transaction.lambda.throttle;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.function.LongSupplier;
+
+/**
+ * An AIMD rate limiter for the writes to one table. It lets every write through until the table throttles one, it
+ * then limits the rate to a fraction of the rate measured so far, cuts it again on further throttling, and raises
+ * it additively while writes succeed. Once the limit is back to its maximum the limiter stops limiting. Permits are
+ * reserved ahead of time, so a caller learns how long to wait without holding the lock while it waits.
+ */
+public class AdaptiveRateLimiter {
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * The length of the windows the rate of the granted permits is measured over.
+     */
+    private static final long MEASURE_WINDOW_MILLIS = 500;
+
+    /**
+     * The weight of the last window in the measured rate.
+     */
+    private static final double MEASURE_SMOOTHING = 0.8;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final long decreaseIntervalMillis;
+    private final long burstMillis;
+    private final LongSupplier clock;
+
+    private boolean limiting;
+    private double rate;
+    private double nextFreeMillis;
+    private long lastDecreaseMillis;
+    private long windowStartMillis;
+    private long windowPermits;
+    private double measuredRate;
+
+    /**
+     * @param minRate the lowest limit, in permits per second.
+     * @param maxRate the limit at which the limiter stops limiting, in permits per second.
+     * @param additiveIncrease how much the limit grows for every second of writes at the limit.
+     * @param decreaseFactor the factor applied to the limit when a write is throttled.
+     * @param decreaseIntervalMillis the minimum time between two cuts, so a burst of throttled writes cuts once.
+     * @param burstMillis how many millis worth of unused permits may be spent at once.
+     */
+    public AdaptiveRateLimiter(final double minRate, final double maxRate, final double additiveIncrease,
+                               final double decreaseFactor, final long decreaseIntervalMillis,
+                               final long burstMillis) {
+        this(minRate, maxRate, additiveIncrease, decreaseFactor, decreaseIntervalMillis, burstMillis,
+                System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    AdaptiveRateLimiter(final double minRate, final double maxRate, final double additiveIncrease,
+                        final double decreaseFactor, final long decreaseIntervalMillis, final long burstMillis,
+                        final LongSupplier clock) {
+        if (minRate <= 0 || maxRate < minRate) {
+            throw new IllegalArgumentException(String.format("Invalid rate range [%s, %s]", minRate, maxRate));
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException(String.format("decreaseFactor must be in (0, 1), got %s",
+                    decreaseFactor));
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.decreaseIntervalMillis = decreaseIntervalMillis;
+        this.burstMillis = burstMillis;
+        this.clock = clock;
+        this.windowStartMillis = clock.getAsLong();
+    }
+
+    /**
+     * Reserves permits for a write.
+     * @param permits the number of permits the write needs.
+     * @param deadlineMillis the epoch millis by which the write must start.
+     * @return the millis to wait before the write, or -1 if it can't start before the deadline, in which case
+     * nothing is reserved.
+     */
+    public synchronized long reserve(final int permits, final long deadlineMillis) {
+        final long now = clock.getAsLong();
+        long waitMillis = 0;
+        if (limiting) {
+            final double start = Math.max(nextFreeMillis, now - burstMillis);
+            waitMillis = (long) Math.ceil(Math.max(0, start - now));
+            if (now + waitMillis > deadlineMillis) {
+                return -1;
+            }
+            nextFreeMillis = start + permits * MILLIS_PER_SECOND / rate;
+        }
+        measure(now, permits);
+        return waitMillis;
+    }
+
+    /**
+     * Raises the limit after a successful write.
+     * @param permits the number of permits the write took.
+     */
+    public synchronized void onSuccess(final int permits) {
+        if (!limiting) {
+            return;
+        }
+        rate += additiveIncrease * permits / rate;
+        if (rate >= maxRate) {
+            limiting = false;
+        }
+    }
+
+    /**
+     * Cuts the limit after a throttled write, unless it was cut less than the decrease interval ago.
+     */
+    public synchronized void onThrottle() {
+        final long now = clock.getAsLong();
+        if (limiting && now - lastDecreaseMillis < decreaseIntervalMillis) {
+            return;
+        }
+        final double measured = getMeasuredRate(now);
+        rate = Math.min(maxRate, Math.max(minRate, (limiting ? Math.min(rate, measured) : measured)
+                * decreaseFactor));
+        limiting = true;
+        lastDecreaseMillis = now;
+        // The permits saved up before the table throttled are gone.
+        nextFreeMillis = Math.max(nextFreeMillis, now);
+    }
+
+    public synchronized boolean isLimiting() {
+        return limiting;
+    }
+
+    /**
+     * @return the current limit in permits per second, the maximum rate while not {@link #isLimiting()}.
+     */
+    public synchronized double getRateLimit() {
+        return limiting ? rate : maxRate;
+    }
+
+    /**
+     * @return the smoothed rate of the granted permits, in permits per second.
+     */
+    public synchronized double getMeasuredRate() {
+        return getMeasuredRate(clock.getAsLong());
+    }
+
+    private void measure(final long now, final int permits) {
+        final long elapsed = now - windowStartMillis;
+        if (elapsed >= MEASURE_WINDOW_MILLIS) {
+            final double windowRate = windowPermits * MILLIS_PER_SECOND / elapsed;
+            measuredRate = measuredRate == 0 ? windowRate
+                    : MEASURE_SMOOTHING * windowRate + (1 - MEASURE_SMOOTHING) * measuredRate;
+            windowStartMillis = now;
+            windowPermits = 0;
+        }
+        windowPermits += permits;
+    }
+
+    /**
+     * @return the measured rate, or the rate of the current window when no window is complete yet.
+     */
+    private double getMeasuredRate(final long now) {
+        if (measuredRate > 0) {
+            return measuredRate;
+        }
+        return windowPermits * MILLIS_PER_SECOND / Math.max(now - windowStartMillis, 1);
+    }
+}
@@ -0,0 +1,183 @@
+package io.openmarket.transaction.lambda.throttle;
+
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.ErrorClassifier;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Paces the TransactWriteItems requests with an {@link AdaptiveRateLimiter} per DynamoDB table, so throttling slows
+ * the writers down instead of burning their retries. A request takes a permit per item from the limiter of every
+ * table it writes, and its outcome is fed back to them: a throttled request only cuts the limits of the tables its
+ * cancellation reasons blame. The limiters live as long as the container, so a warm invocation starts at the rate
+ * the previous one ended with.
+ */
+@Log4j2
+public class WriteThrottle {
+    private static final WriteThrottle DISABLED = new WriteThrottle(null);
+
+    private final Supplier<AdaptiveRateLimiter> limiterFactory;
+    private final Map<String, AdaptiveRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    public WriteThrottle() {
+        this(() -> new AdaptiveRateLimiter(LambdaConfig.THROTTLE_MIN_WRITE_RATE,
+                LambdaConfig.THROTTLE_MAX_WRITE_RATE, LambdaConfig.THROTTLE_ADDITIVE_INCREASE,
+                LambdaConfig.THROTTLE_DECREASE_FACTOR, LambdaConfig.THROTTLE_DECREASE_INTERVAL_MILLIS,
+                LambdaConfig.THROTTLE_BURST_MILLIS));
+    }
+
+    /**
+     * @param limiterFactory creates the limiter of a table the first time it is written.
+     */
+    public WriteThrottle(final Supplier<AdaptiveRateLimiter> limiterFactory) {
+        this.limiterFactory = limiterFactory;
+    }
+
+    /**
+     * @return a throttle that lets every write through.
+     */
+    public static WriteThrottle disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Reserves the permits of a write. When a table can't grant them in time, the permits already reserved on the
+     * other tables are not given back, they only make the next writes a little slower.
+     * @param items the items of the write.
+     * @param deadlineMillis the epoch millis by which the write must start.
+     * @return the millis to wait before the write, or -1 if it can't start before the deadline.
+     */
+    public long reserve(@NonNull final List<TransactWriteItem> items, final long deadlineMillis) {
+        if (limiterFactory == null) {
+            return 0;
+        }
+        long waitMillis = 0;
+        for (Map.Entry<String, Integer> entry : countItemsByTable(items).entrySet()) {
+            final long tableWaitMillis = getLimiter(entry.getKey()).reserve(entry.getValue(), deadlineMillis);
+            if (tableWaitMillis < 0) {
+                return -1;
+            }
+            waitMillis = Math.max(waitMillis, tableWaitMillis);
+        }
+        return waitMillis;
+    }
+
+    /**
+     * Reserves the permits of a write and waits for them.
+     * @throws WriteThrottledException if the write can't start before the deadline.
+     */
+    public void acquire(@NonNull final List<TransactWriteItem> items, final long deadlineMillis) {
+        final long waitMillis = reserve(items, deadlineMillis);
+        if (waitMillis < 0) {
+            throw new WriteThrottledException(items.size());
+        }
+        if (waitMillis == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for write permits", e);
+        }
+    }
+
+    /**
+     * Feeds the outcome of a write back to the limiters.
+     * @param items the items of the write.
+     * @param e the failure of the write, null if it succeeded.
+     */
+    public void record(@NonNull final List<TransactWriteItem> items, final Exception e) {
+        if (limiterFactory == null) {
+            return;
+        }
+        if (e == null) {
+            countItemsByTable(items).forEach((table, count) -> getLimiter(table).onSuccess(count));
+            return;
+        }
+        if (ErrorClassifier.classify(e) != ErrorClass.THROTTLING) {
+            return;
+        }
+        final Set<String> throttledTables = getThrottledTables(items, e);
+        log.warn("Writes to {} are throttled, slowing down", throttledTables);
+        throttledTables.forEach(table -> getLimiter(table).onThrottle());
+    }
+
+    /**
+     * Records the measured write rate of every table, and the limit of the tables being limited.
+     */
+    public void recordMetrics(@NonNull final MetricsRecorder metrics) {
+        limiters.forEach((table, limiter) -> {
+            final MetricDimensions dimensions = MetricDimensions.ofTable(table);
+            metrics.record(Metric.WRITE_RATE, dimensions, limiter.getMeasuredRate());
+            if (limiter.isLimiting()) {
+                metrics.record(Metric.WRITE_RATE_LIMIT, dimensions, limiter.getRateLimit());
+            }
+        });
+    }
+
+    /**
+     * @return the limiter of the table, created on first use, null if the throttle is disabled.
+     */
+    public AdaptiveRateLimiter getLimiter(@NonNull final String tableName) {
+        return limiterFactory == null ? null : limiters.computeIfAbsent(tableName, t -> limiterFactory.get());
+    }
+
+    /**
+     * @return the tables whose cancellation reasons report throttling, or every table of the write when the
+     * reasons don't tell.
+     */
+    private static Set<String> getThrottledTables(final List<TransactWriteItem> items, final Exception e) {
+        final Set<String> tables = new LinkedHashSet<>();
+        if (e instanceof TransactionCanceledException) {
+            final List<CancellationReason> reasons = ((TransactionCanceledException) e).getCancellationReasons();
+            if (reasons != null && reasons.size() == items.size()) {
+                for (int i = 0; i < reasons.size(); i++) {
+                    if (ErrorClassifier.isThrottling(reasons.get(i).getCode())) {
+                        tables.add(getTableName(items.get(i)));
+                    }
+                }
+            }
+        }
+        if (tables.isEmpty()) {
+            tables.addAll(countItemsByTable(items).keySet());
+        }
+        return tables;
+    }
+
+    private static Map<String, Integer> countItemsByTable(final List<TransactWriteItem> items) {
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        for (TransactWriteItem item : items) {
+            counts.merge(getTableName(item), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static String getTableName(final TransactWriteItem item) {
+        if (item.getUpdate() != null) {
+            return item.getUpdate().getTableName();
+        }
+        if (item.getPut() != null) {
+            return item.getPut().getTableName();
+        }
+        if (item.getDelete() != null) {
+            return item.getDelete().getTableName();
+        }
+        return item.getConditionCheck().getTableName();
+    }
+}
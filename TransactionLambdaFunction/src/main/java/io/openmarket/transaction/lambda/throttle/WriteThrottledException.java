@@ -0,0 +1,14 @@
+package io.openmarket.transaction.lambda.throttle;
+
+/**
+ * Thrown when a write could not get its permits from the {@link WriteThrottle} before its deadline, the write was
+ * not sent.
+ */
+public class WriteThrottledException extends RuntimeException {
+    /**
+     * @param itemCount the number of items of the write.
+     */
+    public WriteThrottledException(final int itemCount) {
+        super(String.format("The write of %d items can't start before the deadline", itemCount));
+    }
+}
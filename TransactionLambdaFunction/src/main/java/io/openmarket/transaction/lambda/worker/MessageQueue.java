@@ -0,0 +1,33 @@
+package io.openmarket.transaction.lambda.worker;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import java.util.List;
+
+/**
+ * The queue the {@link TransactionWorker} consumes, with the SQS semantics: a received message is invisible to other
+ * consumers until its visibility timeout expires, and it is only removed once it is deleted.
+ */
+public interface MessageQueue {
+    /**
+     * Waits for messages until at least one is available or the wait time expires.
+     * @param maxMessages the maximum number of messages to receive.
+     * @param waitTimeSeconds how long to wait for a message.
+     * @param visibilityTimeoutSeconds how long the received messages stay invisible.
+     * @return the received messages, each with a receipt handle, empty if none arrived in time.
+     */
+    List<SQSEvent.SQSMessage> receive(int maxMessages, int waitTimeSeconds, int visibilityTimeoutSeconds);
+
+    /**
+     * @param receiptHandles the receipt handles of messages being processed.
+     * @param visibilityTimeoutSeconds the new visibility timeout, counted from now, 0 makes them visible again.
+     * @return the receipt handles whose visibility could not be changed.
+     */
+    List<String> changeVisibility(List<String> receiptHandles, int visibilityTimeoutSeconds);
+
+    /**
+     * @param receiptHandles the receipt handles of messages that were processed.
+     * @return the receipt handles that could not be deleted.
+     */
+    List<String> delete(List<String> receiptHandles);
+}
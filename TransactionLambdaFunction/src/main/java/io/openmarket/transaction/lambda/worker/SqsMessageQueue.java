@@ -0,0 +1,111 @@
+package io.openmarket.transaction.lambda.worker;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.google.common.collect.Lists;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link MessageQueue} on an SQS queue. Visibility changes and deletes are sent in batches of at most
+ * {@link LambdaConfig#MAX_SQS_BATCH_ENTRIES} entries.
+ */
+@Log4j2
+public class SqsMessageQueue implements MessageQueue {
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+
+    public SqsMessageQueue(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+    }
+
+    @Override
+    public List<SQSEvent.SQSMessage> receive(final int maxMessages, final int waitTimeSeconds,
+                                             final int visibilityTimeoutSeconds) {
+        final List<Message> received = sqs.receiveMessage(new ReceiveMessageRequest()
+                .withQueueUrl(queueUrl)
+                .withMaxNumberOfMessages(maxMessages)
+                .withWaitTimeSeconds(waitTimeSeconds)
+                .withVisibilityTimeout(visibilityTimeoutSeconds)
+                .withAttributeNames("All")).getMessages();
+        final List<SQSEvent.SQSMessage> messages = new ArrayList<>(received.size());
+        for (Message message : received) {
+            final SQSEvent.SQSMessage converted = new SQSEvent.SQSMessage();
+            converted.setMessageId(message.getMessageId());
+            converted.setReceiptHandle(message.getReceiptHandle());
+            converted.setBody(message.getBody());
+            converted.setAttributes(message.getAttributes());
+            messages.add(converted);
+        }
+        return messages;
+    }
+
+    @Override
+    public List<String> changeVisibility(@NonNull final List<String> receiptHandles,
+                                         final int visibilityTimeoutSeconds) {
+        final List<String> failed = new ArrayList<>();
+        for (List<String> chunk : Lists.partition(receiptHandles, LambdaConfig.MAX_SQS_BATCH_ENTRIES)) {
+            final List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                entries.add(new ChangeMessageVisibilityBatchRequestEntry()
+                        .withId(String.valueOf(i))
+                        .withReceiptHandle(chunk.get(i))
+                        .withVisibilityTimeout(visibilityTimeoutSeconds));
+            }
+            try {
+                collectFailed(chunk, sqs.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest()
+                        .withQueueUrl(queueUrl)
+                        .withEntries(entries)).getFailed(), failed);
+            } catch (RuntimeException e) {
+                log.warn("Failed to change the visibility of {} messages", chunk.size(), e);
+                failed.addAll(chunk);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public List<String> delete(@NonNull final List<String> receiptHandles) {
+        final List<String> failed = new ArrayList<>();
+        for (List<String> chunk : Lists.partition(receiptHandles, LambdaConfig.MAX_SQS_BATCH_ENTRIES)) {
+            final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry()
+                        .withId(String.valueOf(i))
+                        .withReceiptHandle(chunk.get(i)));
+            }
+            try {
+                collectFailed(chunk, sqs.deleteMessageBatch(new DeleteMessageBatchRequest()
+                        .withQueueUrl(queueUrl)
+                        .withEntries(entries)).getFailed(), failed);
+            } catch (RuntimeException e) {
+                log.warn("Failed to delete {} messages", chunk.size(), e);
+                failed.addAll(chunk);
+            }
+        }
+        return failed;
+    }
+
+    private static void collectFailed(final List<String> chunk, final List<BatchResultErrorEntry> errors,
+                                      final List<String> failed) {
+        if (errors == null) {
+            return;
+        }
+        for (BatchResultErrorEntry error : errors) {
+            log.warn("SQS rejected entry {}: {} {}", error.getId(), error.getCode(), error.getMessage());
+            failed.add(chunk.get(Integer.parseInt(error.getId())));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package io.openmarket.transaction.lambda.worker;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumes a {@link MessageQueue} with long-running pollers instead of Lambda invocations. Each poller long polls
+ * for a batch and hands it to the same handler as the SQS trigger, usually a
+ * {@link io.openmarket.transaction.lambda.entry.LambdaEntry}. The messages the handler acknowledges are deleted in
+ * batches, the ones it reports as failed are left to reappear once their visibility timeout expires. The
+ * visibility of the messages being processed is extended in the background, so a slow batch is not redelivered
+ * while it is still running. The pollers share the handler, so its metrics are flushed on a timer rather than per
+ * batch. {@link #shutdown(long)} stops polling and lets the batches in progress finish.
+ */
+@Log4j2
+public class TransactionWorker {
+    private final RequestHandler<SQSEvent, SQSBatchResponse> handler;
+    private final MessageQueue queue;
+    private final int pollers;
+    private final int visibilityTimeoutSeconds;
+    private final Runnable metricsFlush;
+    private final ExecutorService pollerPool;
+    private final ScheduledExecutorService maintenance;
+    /**
+     * The receipt handles of the messages being processed, by the epoch millis their visibility was last set.
+     */
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+    private final List<String> pendingDeletes = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * @param handler the handler of each received batch.
+     * @param queue the queue to consume.
+     * @param pollers the number of batches processed at the same time.
+     * @param visibilityTimeoutSeconds the visibility timeout of the received messages, it is extended every third
+     *                                 of it while they are processed.
+     */
+    public TransactionWorker(@NonNull final RequestHandler<SQSEvent, SQSBatchResponse> handler,
+                             @NonNull final MessageQueue queue, final int pollers,
+                             final int visibilityTimeoutSeconds) {
+        this(handler, queue, pollers, visibilityTimeoutSeconds, () -> { });
+    }
+
+    /**
+     * @param metricsFlush flushes the metrics of the handler, run every
+     *                     {@link LambdaConfig#WORKER_METRICS_FLUSH_INTERVAL_MILLIS} and once more at shutdown.
+     */
+    public TransactionWorker(@NonNull final RequestHandler<SQSEvent, SQSBatchResponse> handler,
+                             @NonNull final MessageQueue queue, final int pollers,
+                             final int visibilityTimeoutSeconds, @NonNull final Runnable metricsFlush) {
+        if (pollers < 1) {
+            throw new IllegalArgumentException(String.format("pollers must be positive, got %d", pollers));
+        }
+        if (visibilityTimeoutSeconds < 1) {
+            throw new IllegalArgumentException(String.format("visibilityTimeoutSeconds must be positive, got %d",
+                    visibilityTimeoutSeconds));
+        }
+        this.handler = handler;
+        this.queue = queue;
+        this.pollers = pollers;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.metricsFlush = metricsFlush;
+        this.pollerPool = Executors.newFixedThreadPool(pollers, new ThreadFactoryBuilder()
+                .setNameFormat("queue-poller-%d")
+                .build());
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("queue-maintenance-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        final long extendIntervalMillis = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3;
+        maintenance.scheduleWithFixedDelay(this::extendVisibility, extendIntervalMillis, extendIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::flushDeletes, LambdaConfig.DELETE_FLUSH_INTERVAL_MILLIS,
+                LambdaConfig.DELETE_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::flushMetrics, LambdaConfig.WORKER_METRICS_FLUSH_INTERVAL_MILLIS,
+                LambdaConfig.WORKER_METRICS_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < pollers; i++) {
+            pollerPool.execute(this::poll);
+        }
+        log.info("Worker started with {} pollers", pollers);
+    }
+
+    /**
+     * Stops polling, waits for the batches in progress, deletes the messages they acknowledged and flushes the
+     * metrics.
+     * @param timeoutMillis how long to wait for the batches in progress.
+     * @return true if every batch finished in time.
+     */
+    public boolean shutdown(final long timeoutMillis) {
+        running = false;
+        pollerPool.shutdown();
+        boolean drained;
+        try {
+            drained = pollerPool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        maintenance.shutdown();
+        flushDeletes();
+        flushMetrics();
+        if (!drained) {
+            log.warn("{} messages were still being processed at shutdown", inFlight.size());
+        }
+        log.info("Worker stopped");
+        return drained;
+    }
+
+    /**
+     * Blocks until the pollers have stopped.
+     */
+    public void awaitTermination() throws InterruptedException {
+        while (!pollerPool.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.debug("Worker is still running");
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void poll() {
+        while (running) {
+            final List<SQSEvent.SQSMessage> messages;
+            try {
+                messages = queue.receive(LambdaConfig.MAX_SQS_BATCH_ENTRIES, LambdaConfig.SQS_WAIT_TIME_SECONDS,
+                        visibilityTimeoutSeconds);
+            } catch (RuntimeException e) {
+                log.error("Failed to receive messages, backing off", e);
+                sleep(LambdaConfig.RECEIVE_FAILURE_BACKOFF_MILLIS);
+                continue;
+            }
+            if (messages.isEmpty()) {
+                continue;
+            }
+            if (!running) {
+                // Received while shutting down, hand them back right away rather than at their timeout.
+                queue.changeVisibility(getReceiptHandles(messages), 0);
+                return;
+            }
+            process(messages);
+        }
+    }
+
+    private void process(final List<SQSEvent.SQSMessage> messages) {
+        final long now = System.currentTimeMillis();
+        for (SQSEvent.SQSMessage message : messages) {
+            inFlight.put(message.getReceiptHandle(), now);
+        }
+        try {
+            final SQSEvent event = new SQSEvent();
+            event.setRecords(messages);
+            final SQSBatchResponse response = handler.handleRequest(event, null);
+            final Set<String> failedIds = new HashSet<>();
+            for (SQSBatchResponse.BatchItemFailure failure : response.getBatchItemFailures()) {
+                failedIds.add(failure.getItemIdentifier());
+            }
+            final List<String> acknowledged = new ArrayList<>(messages.size());
+            for (SQSEvent.SQSMessage message : messages) {
+                if (!failedIds.contains(message.getMessageId())) {
+                    acknowledged.add(message.getReceiptHandle());
+                }
+            }
+            enqueueDeletes(acknowledged);
+        } catch (RuntimeException e) {
+            log.error("Failed to process a batch of {} messages, they will be redelivered", messages.size(), e);
+        } finally {
+            for (SQSEvent.SQSMessage message : messages) {
+                inFlight.remove(message.getReceiptHandle());
+            }
+        }
+    }
+
+    private void enqueueDeletes(final List<String> receiptHandles) {
+        final List<String> full;
+        synchronized (pendingDeletes) {
+            pendingDeletes.addAll(receiptHandles);
+            if (pendingDeletes.size() < LambdaConfig.MAX_SQS_BATCH_ENTRIES) {
+                return;
+            }
+            full = new ArrayList<>(pendingDeletes);
+            pendingDeletes.clear();
+        }
+        delete(full);
+    }
+
+    private void flushDeletes() {
+        final List<String> pending;
+        synchronized (pendingDeletes) {
+            if (pendingDeletes.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>(pendingDeletes);
+            pendingDeletes.clear();
+        }
+        delete(pending);
+    }
+
+    private void delete(final List<String> receiptHandles) {
+        try {
+            final List<String> failed = queue.delete(receiptHandles);
+            if (!failed.isEmpty()) {
+                log.warn("{} processed messages could not be deleted and will be redelivered", failed.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to delete {} processed messages, they will be redelivered", receiptHandles.size(), e);
+        }
+    }
+
+    private void flushMetrics() {
+        try {
+            metricsFlush.run();
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush the metrics", e);
+        }
+    }
+
+    private void extendVisibility() {
+        final long now = System.currentTimeMillis();
+        final long threshold = now - TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3;
+        final List<String> due = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : inFlight.entrySet()) {
+            if (entry.getValue() <= threshold) {
+                due.add(entry.getKey());
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        try {
+            final List<String> failed = queue.changeVisibility(due, visibilityTimeoutSeconds);
+            for (String receiptHandle : due) {
+                inFlight.replace(receiptHandle, now);
+            }
+            if (!failed.isEmpty()) {
+                log.warn("Failed to extend the visibility of {} messages, they may be redelivered", failed.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to extend the visibility of {} messages", due.size(), e);
+        }
+    }
+
+    private static List<String> getReceiptHandles(final List<SQSEvent.SQSMessage> messages) {
+        final List<String> receiptHandles = new ArrayList<>(messages.size());
+        for (SQSEvent.SQSMessage message : messages) {
+            receiptHandles.add(message.getReceiptHandle());
+        }
+        return receiptHandles;
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
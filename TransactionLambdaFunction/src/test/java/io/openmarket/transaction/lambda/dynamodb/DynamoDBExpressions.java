@@ -0,0 +1,431 @@
+package io.openmarket.transaction.lambda.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interpreter for the subset of DynamoDB condition and update expressions used by the DAOs and the mapper:
+ * SET (with +, - and if_not_exists), REMOVE, comparisons, BETWEEN, IN, AND, OR, NOT, attribute_exists,
+ * attribute_not_exists and begins_with, over document paths with nested maps and list indexes.
+ */
+final class DynamoDBExpressions {
+    private DynamoDBExpressions() {}
+
+    /**
+     * @return whether the item satisfies the condition, a missing item is an empty map.
+     */
+    static boolean evaluateCondition(final String expression, final Map<String, String> names,
+                                     final Map<String, AttributeValue> values,
+                                     final Map<String, AttributeValue> item) {
+        if (expression == null || expression.isEmpty()) {
+            return true;
+        }
+        final Parser parser = new Parser(expression, names, values, item);
+        final boolean result = parser.condition();
+        parser.expectEnd();
+        return result;
+    }
+
+    /**
+     * Applies the update to the item in place. Every operand is evaluated against the item before the update.
+     */
+    static void applyUpdate(final String expression, final Map<String, String> names,
+                            final Map<String, AttributeValue> values, final Map<String, AttributeValue> item) {
+        final Parser parser = new Parser(expression, names, values, item);
+        final Map<List<Object>, AttributeValue> sets = new LinkedHashMap<>();
+        final List<List<Object>> removes = new ArrayList<>();
+        while (!parser.atEnd()) {
+            final String clause = parser.keyword();
+            do {
+                if ("SET".equals(clause)) {
+                    final List<Object> path = parser.path();
+                    parser.expect("=");
+                    sets.put(path, parser.value());
+                } else if ("REMOVE".equals(clause)) {
+                    removes.add(parser.path());
+                } else if ("ADD".equals(clause)) {
+                    final List<Object> path = parser.path();
+                    final AttributeValue current = resolve(item, path);
+                    final AttributeValue delta = parser.operand();
+                    sets.put(path, current == null ? delta : arithmetic(current, delta, true));
+                } else {
+                    throw validation("Unsupported update clause " + clause);
+                }
+            } while (parser.accept(","));
+        }
+        for (Map.Entry<List<Object>, AttributeValue> entry : sets.entrySet()) {
+            set(item, entry.getKey(), entry.getValue());
+        }
+        for (List<Object> path : removes) {
+            remove(item, path);
+        }
+    }
+
+    static AmazonDynamoDBException validation(final String message) {
+        final AmazonDynamoDBException e = new AmazonDynamoDBException(message);
+        e.setErrorCode("ValidationException");
+        e.setErrorType(AmazonDynamoDBException.ErrorType.Client);
+        e.setStatusCode(400);
+        return e;
+    }
+
+    static int compare(final AttributeValue left, final AttributeValue right) {
+        if (left.getN() != null && right.getN() != null) {
+            return new BigDecimal(left.getN()).compareTo(new BigDecimal(right.getN()));
+        }
+        if (left.getS() != null && right.getS() != null) {
+            return left.getS().compareTo(right.getS());
+        }
+        throw validation("Incomparable operands " + left + " and " + right);
+    }
+
+    static boolean isEqual(final AttributeValue left, final AttributeValue right) {
+        if (left == null || right == null) {
+            return left == right;
+        }
+        if (left.getN() != null && right.getN() != null) {
+            return compare(left, right) == 0;
+        }
+        return left.equals(right);
+    }
+
+    static AttributeValue arithmetic(final AttributeValue left, final AttributeValue right, final boolean add) {
+        if (left == null || right == null || left.getN() == null || right.getN() == null) {
+            throw validation("An operand in the update expression has an incorrect data type");
+        }
+        final BigDecimal a = new BigDecimal(left.getN());
+        final BigDecimal b = new BigDecimal(right.getN());
+        final BigDecimal result = (add ? a.add(b) : a.subtract(b)).stripTrailingZeros();
+        return new AttributeValue().withN(result.signum() == 0 ? "0" : result.toPlainString());
+    }
+
+    static AttributeValue copy(final AttributeValue value) {
+        if (value == null) {
+            return null;
+        }
+        final AttributeValue copy = value.clone();
+        if (value.getM() != null) {
+            copy.setM(copy(value.getM()));
+        }
+        if (value.getL() != null) {
+            final List<AttributeValue> list = new ArrayList<>(value.getL().size());
+            for (AttributeValue element : value.getL()) {
+                list.add(copy(element));
+            }
+            copy.setL(list);
+        }
+        if (value.getSS() != null) {
+            copy.setSS(new ArrayList<>(value.getSS()));
+        }
+        return copy;
+    }
+
+    static Map<String, AttributeValue> copy(final Map<String, AttributeValue> item) {
+        if (item == null) {
+            return null;
+        }
+        final Map<String, AttributeValue> copy = new HashMap<>(item.size() * 2);
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            copy.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static AttributeValue resolve(final Map<String, AttributeValue> item, final List<Object> path) {
+        AttributeValue current = item.get((String) path.get(0));
+        for (int i = 1; i < path.size() && current != null; i++) {
+            final Object element = path.get(i);
+            if (element instanceof String) {
+                current = current.getM() == null ? null : current.getM().get(element);
+            } else {
+                final int index = (Integer) element;
+                current = current.getL() == null || index >= current.getL().size() ? null
+                        : current.getL().get(index);
+            }
+        }
+        return current;
+    }
+
+    private static void set(final Map<String, AttributeValue> item, final List<Object> path,
+                            final AttributeValue value) {
+        if (path.size() == 1) {
+            item.put((String) path.get(0), value);
+            return;
+        }
+        final AttributeValue parent = resolve(item, path.subList(0, path.size() - 1));
+        final Object last = path.get(path.size() - 1);
+        if (last instanceof String && parent != null && parent.getM() != null) {
+            final Map<String, AttributeValue> map = new HashMap<>(parent.getM());
+            map.put((String) last, value);
+            parent.setM(map);
+        } else if (last instanceof Integer && parent != null && parent.getL() != null) {
+            final List<AttributeValue> list = new ArrayList<>(parent.getL());
+            final int index = (Integer) last;
+            if (index < list.size()) {
+                list.set(index, value);
+            } else {
+                list.add(value);
+            }
+            parent.setL(list);
+        } else {
+            throw validation("The document path provided in the update expression is invalid for update");
+        }
+    }
+
+    private static void remove(final Map<String, AttributeValue> item, final List<Object> path) {
+        if (path.size() == 1) {
+            item.remove(path.get(0));
+            return;
+        }
+        final AttributeValue parent = resolve(item, path.subList(0, path.size() - 1));
+        final Object last = path.get(path.size() - 1);
+        if (last instanceof String && parent != null && parent.getM() != null) {
+            final Map<String, AttributeValue> map = new HashMap<>(parent.getM());
+            map.remove(last);
+            parent.setM(map);
+        } else if (last instanceof Integer && parent != null && parent.getL() != null
+                && (Integer) last < parent.getL().size()) {
+            final List<AttributeValue> list = new ArrayList<>(parent.getL());
+            list.remove((int) (Integer) last);
+            parent.setL(list);
+        }
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private final Map<String, AttributeValue> item;
+        private int position;
+
+        Parser(final String expression, final Map<String, String> names, final Map<String, AttributeValue> values,
+               final Map<String, AttributeValue> item) {
+            this.tokens = tokenize(expression);
+            this.names = names == null ? Collections.emptyMap() : names;
+            this.values = values == null ? Collections.emptyMap() : values;
+            this.item = item;
+        }
+
+        boolean atEnd() {
+            return position == tokens.size();
+        }
+
+        void expectEnd() {
+            if (!atEnd()) {
+                throw validation("Unexpected token " + tokens.get(position));
+            }
+        }
+
+        String keyword() {
+            return next().toUpperCase(Locale.ROOT);
+        }
+
+        boolean accept(final String token) {
+            if (!atEnd() && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(final String token) {
+            if (!accept(token)) {
+                throw validation("Expected " + token + " at " + (atEnd() ? "end" : tokens.get(position)));
+            }
+        }
+
+        boolean condition() {
+            boolean result = conjunction();
+            while (accept("OR")) {
+                result |= conjunction();
+            }
+            return result;
+        }
+
+        private boolean conjunction() {
+            boolean result = negation();
+            while (accept("AND")) {
+                result &= negation();
+            }
+            return result;
+        }
+
+        private boolean negation() {
+            if (accept("NOT")) {
+                return !negation();
+            }
+            if (accept("(")) {
+                final boolean result = condition();
+                expect(")");
+                return result;
+            }
+            final String token = peek();
+            if ("attribute_exists".equals(token) || "attribute_not_exists".equals(token)) {
+                next();
+                expect("(");
+                final boolean exists = resolve(item, path()) != null;
+                expect(")");
+                return "attribute_exists".equals(token) == exists;
+            }
+            if ("begins_with".equals(token)) {
+                next();
+                expect("(");
+                final AttributeValue value = operand();
+                expect(",");
+                final AttributeValue prefix = operand();
+                expect(")");
+                return value != null && value.getS() != null && prefix.getS() != null
+                        && value.getS().startsWith(prefix.getS());
+            }
+            final AttributeValue left = operand();
+            if (accept("BETWEEN")) {
+                final AttributeValue low = operand();
+                expect("AND");
+                final AttributeValue high = operand();
+                return left != null && compare(left, low) >= 0 && compare(left, high) <= 0;
+            }
+            if (accept("IN")) {
+                expect("(");
+                boolean found = false;
+                do {
+                    found |= isEqual(left, operand());
+                } while (accept(","));
+                expect(")");
+                return found;
+            }
+            final String comparator = next();
+            final AttributeValue right = operand();
+            switch (comparator) {
+                case "=":
+                    return isEqual(left, right);
+                case "<>":
+                    return !isEqual(left, right);
+                default:
+                    if (left == null || right == null) {
+                        return false;
+                    }
+                    final int order = compare(left, right);
+                    switch (comparator) {
+                        case "<":
+                            return order < 0;
+                        case "<=":
+                            return order <= 0;
+                        case ">":
+                            return order > 0;
+                        case ">=":
+                            return order >= 0;
+                        default:
+                            throw validation("Unsupported comparator " + comparator);
+                    }
+            }
+        }
+
+        AttributeValue value() {
+            final AttributeValue left = operand();
+            if (accept("+")) {
+                return arithmetic(left, operand(), true);
+            }
+            if (accept("-")) {
+                return arithmetic(left, operand(), false);
+            }
+            return left;
+        }
+
+        AttributeValue operand() {
+            final String token = peek();
+            if (token.startsWith(":")) {
+                next();
+                final AttributeValue value = values.get(token);
+                if (value == null) {
+                    throw validation("An expression attribute value used in expression is not defined: " + token);
+                }
+                return copy(value);
+            }
+            if ("if_not_exists".equals(token)) {
+                next();
+                expect("(");
+                final AttributeValue current = resolve(item, path());
+                expect(",");
+                final AttributeValue fallback = value();
+                expect(")");
+                return current == null ? fallback : copy(current);
+            }
+            return copy(resolve(item, path()));
+        }
+
+        List<Object> path() {
+            final List<Object> path = new ArrayList<>();
+            path.add(name(next()));
+            while (true) {
+                if (accept(".")) {
+                    path.add(name(next()));
+                } else if (accept("[")) {
+                    path.add(Integer.parseInt(next()));
+                    expect("]");
+                } else {
+                    return path;
+                }
+            }
+        }
+
+        private String name(final String token) {
+            if (!token.startsWith("#")) {
+                return token;
+            }
+            final String name = names.get(token);
+            if (name == null) {
+                throw validation("An expression attribute name used in the document path is not defined: " + token);
+            }
+            return name;
+        }
+
+        private String peek() {
+            if (atEnd()) {
+                throw validation("Unexpected end of expression");
+            }
+            return tokens.get(position);
+        }
+
+        private String next() {
+            final String token = peek();
+            position++;
+            return token;
+        }
+
+        private static List<String> tokenize(final String expression) {
+            final List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < expression.length()) {
+                final char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (Character.isLetterOrDigit(c) || c == '#' || c == ':' || c == '_') {
+                    int end = i + 1;
+                    while (end < expression.length() && (Character.isLetterOrDigit(expression.charAt(end))
+                            || expression.charAt(end) == '_')) {
+                        end++;
+                    }
+                    tokens.add(expression.substring(i, end));
+                    i = end;
+                } else if (i + 1 < expression.length() && (c == '<' || c == '>')
+                        && (expression.charAt(i + 1) == '=' || c == '<' && expression.charAt(i + 1) == '>')) {
+                    tokens.add(expression.substring(i, i + 2));
+                    i += 2;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,644 @@
+package io.openmarket.transaction.lambda.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.openmarket.transaction.lambda.dynamodb.DynamoDBExpressions.*;
+
+/**
+ * An {@link com.amazonaws.services.dynamodbv2.AmazonDynamoDB} keeping its tables in memory, so the real DAOs and
+ * {@link com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper} can run without DynamoDB Local, for example
+ * in benchmarks and load tests. Every request is applied atomically under a single lock, items are copied in and
+ * out so callers never share state with the store. Items written by a transaction stay locked until it is
+ * applied, which reproduces the conflicts between concurrent writers of the same wallet. The client request token
+ * of every applied transaction is remembered, a repeated transaction is answered without being applied again.
+ */
+public class InMemoryDynamoDB extends AbstractAmazonDynamoDB {
+    private static final String CANCELLATION_NONE = "None";
+    private static final String CANCELLATION_CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    private static final String CANCELLATION_TRANSACTION_CONFLICT = "TransactionConflict";
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    private static final int MAX_TRANSACT_ITEMS = 100;
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Set<String> itemsInTransaction = new HashSet<>();
+    private final Map<String, List<TransactWriteItem>> appliedTokens = new HashMap<>();
+    private final long transactionLatencyMicros;
+    private volatile int maxBatchGetItems = Integer.MAX_VALUE;
+
+    public InMemoryDynamoDB() {
+        this(0);
+    }
+
+    /**
+     * @param transactionLatencyMicros how long a transaction holds its items before it is applied. Meanwhile
+     *                                 other transactions on those items are cancelled with a TransactionConflict
+     *                                 reason and single item writes fail with a {@link TransactionConflictException},
+     *                                 as they do on DynamoDB.
+     */
+    public InMemoryDynamoDB(final long transactionLatencyMicros) {
+        this.transactionLatencyMicros = transactionLatencyMicros;
+    }
+
+    @Override
+    public CreateTableResult createTable(final CreateTableRequest request) {
+        final List<String> keyNames = new ArrayList<>();
+        for (KeySchemaElement element : request.getKeySchema()) {
+            keyNames.add(element.getAttributeName());
+        }
+        if (tables.putIfAbsent(request.getTableName(), new Table(keyNames)) != null) {
+            throw error(new ResourceInUseException("Table already exists: " + request.getTableName()));
+        }
+        return new CreateTableResult();
+    }
+
+    @Override
+    public DeleteTableResult deleteTable(final String tableName) {
+        if (tables.remove(tableName) == null) {
+            throw notFound(tableName);
+        }
+        return new DeleteTableResult();
+    }
+
+    @Override
+    public synchronized GetItemResult getItem(final GetItemRequest request) {
+        final Table table = getTable(request.getTableName());
+        return new GetItemResult().withItem(copy(table.items.get(table.getKey(request.getKey()))));
+    }
+
+    @Override
+    public synchronized BatchGetItemResult batchGetItem(final BatchGetItemRequest request) {
+        final Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        final Map<String, KeysAndAttributes> unprocessedKeys = new HashMap<>();
+        int keyCount = 0;
+        for (Map.Entry<String, KeysAndAttributes> entry : request.getRequestItems().entrySet()) {
+            final Table table = getTable(entry.getKey());
+            final List<Map<String, AttributeValue>> items = new ArrayList<>();
+            final List<Map<String, AttributeValue>> unprocessed = new ArrayList<>();
+            for (Map<String, AttributeValue> key : entry.getValue().getKeys()) {
+                if (++keyCount > maxBatchGetItems) {
+                    unprocessed.add(key);
+                    continue;
+                }
+                final Map<String, AttributeValue> item = table.items.get(table.getKey(key));
+                if (item != null) {
+                    items.add(copy(item));
+                }
+            }
+            responses.put(entry.getKey(), items);
+            if (!unprocessed.isEmpty()) {
+                unprocessedKeys.put(entry.getKey(), new KeysAndAttributes().withKeys(unprocessed));
+            }
+        }
+        if (keyCount > MAX_BATCH_GET_KEYS) {
+            throw validation("Too many items requested for the BatchGetItem call");
+        }
+        return new BatchGetItemResult().withResponses(responses).withUnprocessedKeys(unprocessedKeys);
+    }
+
+    @Override
+    public synchronized PutItemResult putItem(final PutItemRequest request) {
+        final Table table = getTable(request.getTableName());
+        final Map<String, AttributeValue> key = table.getKey(request.getItem());
+        checkNotInTransaction(request.getTableName(), key);
+        final Map<String, AttributeValue> existing = table.items.get(key);
+        if (!evaluateCondition(request.getConditionExpression(), request.getExpressionAttributeNames(),
+                request.getExpressionAttributeValues(), orEmpty(existing))
+                || !matchesExpected(request.getExpected(), existing)) {
+            throw conditionFailed();
+        }
+        table.items.put(key, copy(request.getItem()));
+        return new PutItemResult();
+    }
+
+    /**
+     * Applies every put and delete, none is left unprocessed.
+     */
+    @Override
+    public synchronized BatchWriteItemResult batchWriteItem(final BatchWriteItemRequest request) {
+        for (Map.Entry<String, List<WriteRequest>> requests : request.getRequestItems().entrySet()) {
+            final Table table = getTable(requests.getKey());
+            for (WriteRequest write : requests.getValue()) {
+                if (write.getPutRequest() != null) {
+                    final Map<String, AttributeValue> item = write.getPutRequest().getItem();
+                    checkNotInTransaction(requests.getKey(), table.getKey(item));
+                    table.items.put(table.getKey(item), copy(item));
+                } else {
+                    final Map<String, AttributeValue> key = table.getKey(write.getDeleteRequest().getKey());
+                    checkNotInTransaction(requests.getKey(), key);
+                    table.items.remove(key);
+                }
+            }
+        }
+        return new BatchWriteItemResult().withUnprocessedItems(Collections.emptyMap());
+    }
+
+    @Override
+    public synchronized UpdateItemResult updateItem(final UpdateItemRequest request) {
+        final Table table = getTable(request.getTableName());
+        final Map<String, AttributeValue> key = table.getKey(request.getKey());
+        checkNotInTransaction(request.getTableName(), key);
+        final Map<String, AttributeValue> existing = table.items.get(key);
+        if (!evaluateCondition(request.getConditionExpression(), request.getExpressionAttributeNames(),
+                request.getExpressionAttributeValues(), orEmpty(existing))
+                || !matchesExpected(request.getExpected(), existing)) {
+            throw conditionFailed();
+        }
+        final Map<String, AttributeValue> updated = existing == null ? copy(key) : copy(existing);
+        if (request.getUpdateExpression() != null) {
+            applyUpdate(request.getUpdateExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues(), updated);
+        }
+        applyAttributeUpdates(request.getAttributeUpdates(), updated);
+        table.items.put(key, updated);
+        return new UpdateItemResult().withAttributes(getReturnValues(request.getReturnValues(), existing, updated));
+    }
+
+    @Override
+    public synchronized DeleteItemResult deleteItem(final DeleteItemRequest request) {
+        final Table table = getTable(request.getTableName());
+        final Map<String, AttributeValue> key = table.getKey(request.getKey());
+        checkNotInTransaction(request.getTableName(), key);
+        final Map<String, AttributeValue> existing = table.items.get(key);
+        if (!evaluateCondition(request.getConditionExpression(), request.getExpressionAttributeNames(),
+                request.getExpressionAttributeValues(), orEmpty(existing))) {
+            throw conditionFailed();
+        }
+        table.items.remove(key);
+        return new DeleteItemResult().withAttributes(getReturnValues(request.getReturnValues(), existing, null));
+    }
+
+    /**
+     * Answers the query from the items matching the key condition, in the order of their keys. The key condition
+     * is evaluated like any condition, so it may use more than DynamoDB allows.
+     */
+    @Override
+    public synchronized QueryResult query(final QueryRequest request) {
+        final Table table = getTable(request.getTableName());
+        final List<Map<String, AttributeValue>> matches = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.getSortedItems()) {
+            if (evaluateCondition(request.getKeyConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues(), item)) {
+                matches.add(item);
+            }
+        }
+        final Page page = table.getPage(matches, request.getExclusiveStartKey(), request.getLimit());
+        return new QueryResult().withItems(filter(page.items, request.getFilterExpression(),
+                request.getExpressionAttributeNames(), request.getExpressionAttributeValues()))
+                .withCount(page.items.size())
+                .withLastEvaluatedKey(page.lastEvaluatedKey);
+    }
+
+    /**
+     * Scans the items in the order of their keys, a segment of a parallel scan holds the items whose key hashes
+     * to it.
+     */
+    @Override
+    public synchronized ScanResult scan(final ScanRequest request) {
+        final Table table = getTable(request.getTableName());
+        final List<Map<String, AttributeValue>> segment = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.getSortedItems()) {
+            if (request.getTotalSegments() == null || Math.floorMod(table.getKey(item).hashCode(),
+                    request.getTotalSegments()) == request.getSegment()) {
+                segment.add(item);
+            }
+        }
+        final Page page = table.getPage(segment, request.getExclusiveStartKey(), request.getLimit());
+        return new ScanResult().withItems(filter(page.items, request.getFilterExpression(),
+                request.getExpressionAttributeNames(), request.getExpressionAttributeValues()))
+                .withScannedCount(page.items.size())
+                .withLastEvaluatedKey(page.lastEvaluatedKey);
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(final TransactWriteItemsRequest request) {
+        final List<TransactWriteItem> items = request.getTransactItems();
+        final String token = request.getClientRequestToken();
+        if (token != null && isApplied(token, items)) {
+            return new TransactWriteItemsResult();
+        }
+        final List<String> itemIds = lockItems(items);
+        try {
+            pause(transactionLatencyMicros);
+            return applyTransaction(items, token);
+        } finally {
+            synchronized (this) {
+                itemsInTransaction.removeAll(itemIds);
+            }
+        }
+    }
+
+    /**
+     * @return true if a transaction with the token was already applied, as DynamoDB does within the idempotency
+     * window of a token, which is not modelled.
+     * @throws IdempotentParameterMismatchException if that transaction had other items.
+     */
+    private synchronized boolean isApplied(final String token, final List<TransactWriteItem> items) {
+        final List<TransactWriteItem> applied = appliedTokens.get(token);
+        if (applied == null) {
+            return false;
+        }
+        if (!applied.equals(items)) {
+            throw error(new IdempotentParameterMismatchException(
+                    "The request uses the same client token as a previous, but non-identical request"));
+        }
+        return true;
+    }
+
+    /**
+     * Marks the items of the transaction as in use, the transaction is cancelled with a TransactionConflict
+     * reason when another transaction is already using one of them.
+     * @return the IDs of the marked items.
+     */
+    private synchronized List<String> lockItems(final List<TransactWriteItem> items) {
+        if (items.size() > MAX_TRANSACT_ITEMS) {
+            throw validation("Member must have length less than or equal to " + MAX_TRANSACT_ITEMS);
+        }
+        final List<String> itemIds = new ArrayList<>(items.size());
+        final List<CancellationReason> reasons = new ArrayList<>(items.size());
+        boolean conflict = false;
+        for (TransactWriteItem item : items) {
+            final Operation operation = Operation.of(item);
+            final String itemId = getItemId(operation.tableName, getTable(operation.tableName).getKey(operation.key));
+            if (itemIds.contains(itemId)) {
+                throw validation("Transaction request cannot include multiple operations on one item");
+            }
+            itemIds.add(itemId);
+            final boolean inUse = itemsInTransaction.contains(itemId);
+            conflict |= inUse;
+            reasons.add(new CancellationReason().withCode(inUse ? CANCELLATION_TRANSACTION_CONFLICT
+                    : CANCELLATION_NONE));
+        }
+        if (conflict) {
+            throw cancelled(reasons);
+        }
+        itemsInTransaction.addAll(itemIds);
+        return itemIds;
+    }
+
+    private synchronized TransactWriteItemsResult applyTransaction(final List<TransactWriteItem> items,
+                                                                   final String token) {
+        final List<Table> targetTables = new ArrayList<>(items.size());
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(items.size());
+        final List<Map<String, AttributeValue>> results = new ArrayList<>(items.size());
+        final List<CancellationReason> reasons = new ArrayList<>(items.size());
+        boolean anyFailed = false;
+        for (TransactWriteItem item : items) {
+            final Operation operation = Operation.of(item);
+            final Table table = getTable(operation.tableName);
+            final Map<String, AttributeValue> key = table.getKey(operation.key);
+            final Map<String, AttributeValue> existing = table.items.get(key);
+            final boolean passed = evaluateCondition(operation.conditionExpression, operation.names,
+                    operation.values, orEmpty(existing));
+            anyFailed |= !passed;
+            final CancellationReason reason = new CancellationReason().withCode(passed ? CANCELLATION_NONE
+                    : CANCELLATION_CONDITIONAL_CHECK_FAILED);
+            if (!passed && ReturnValuesOnConditionCheckFailure.ALL_OLD.toString()
+                    .equals(operation.returnValuesOnConditionCheckFailure)) {
+                reason.setItem(copy(existing));
+            }
+            reasons.add(reason);
+            targetTables.add(table);
+            keys.add(key);
+            results.add(passed ? operation.apply(existing, key) : existing);
+        }
+        if (anyFailed) {
+            throw cancelled(reasons);
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (results.get(i) == null) {
+                targetTables.get(i).items.remove(keys.get(i));
+            } else {
+                targetTables.get(i).items.put(keys.get(i), results.get(i));
+            }
+        }
+        if (token != null) {
+            appliedTokens.put(token, new ArrayList<>(items));
+        }
+        return new TransactWriteItemsResult();
+    }
+
+    /**
+     * @return the number of items in the table.
+     */
+    public synchronized int size(final String tableName) {
+        return getTable(tableName).items.size();
+    }
+
+    /**
+     * Removes every item of the table, keeping the table. The client request tokens are forgotten as well, so the
+     * transactions can be written again.
+     */
+    public synchronized void clear(final String tableName) {
+        getTable(tableName).items.clear();
+        appliedTokens.clear();
+    }
+
+    /**
+     * @param maxBatchGetItems the number of keys a BatchGetItem request processes, the rest are returned as
+     *                         unprocessed keys, as DynamoDB does when the response is too large or the table
+     *                         throughput is exceeded.
+     */
+    public void setMaxBatchGetItems(final int maxBatchGetItems) {
+        this.maxBatchGetItems = maxBatchGetItems;
+    }
+
+    protected static TransactionCanceledException cancelled(final List<CancellationReason> reasons) {
+        final StringBuilder codes = new StringBuilder();
+        for (CancellationReason reason : reasons) {
+            codes.append(codes.length() == 0 ? "" : ", ").append(reason.getCode());
+        }
+        final TransactionCanceledException e = new TransactionCanceledException(
+                "Transaction cancelled, please refer cancellation reasons for specific reasons [" + codes + "]");
+        e.setCancellationReasons(reasons);
+        return error(e);
+    }
+
+    private void checkNotInTransaction(final String tableName, final Map<String, AttributeValue> key) {
+        if (itemsInTransaction.contains(getItemId(tableName, key))) {
+            throw error(new TransactionConflictException("Transaction is ongoing for the item"));
+        }
+    }
+
+    private static String getItemId(final String tableName, final Map<String, AttributeValue> key) {
+        return tableName + key;
+    }
+
+    private static void pause(final long micros) {
+        if (micros <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Table getTable(final String tableName) {
+        final Table table = tables.get(tableName);
+        if (table == null) {
+            throw notFound(tableName);
+        }
+        return table;
+    }
+
+    private static List<Map<String, AttributeValue>> filter(final List<Map<String, AttributeValue>> items,
+                                                            final String filterExpression,
+                                                            final Map<String, String> names,
+                                                            final Map<String, AttributeValue> values) {
+        final List<Map<String, AttributeValue>> filtered = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            if (evaluateCondition(filterExpression, names, values, item)) {
+                filtered.add(copy(item));
+            }
+        }
+        return filtered;
+    }
+
+    private static Map<String, AttributeValue> orEmpty(final Map<String, AttributeValue> item) {
+        return item == null ? new HashMap<>() : item;
+    }
+
+    private static boolean matchesExpected(final Map<String, ExpectedAttributeValue> expected,
+                                           final Map<String, AttributeValue> item) {
+        if (expected == null) {
+            return true;
+        }
+        for (Map.Entry<String, ExpectedAttributeValue> entry : expected.entrySet()) {
+            final AttributeValue actual = item == null ? null : item.get(entry.getKey());
+            final ExpectedAttributeValue condition = entry.getValue();
+            final String operator = condition.getComparisonOperator();
+            if (operator != null) {
+                final List<AttributeValue> operands = condition.getAttributeValueList();
+                final boolean matches;
+                switch (ComparisonOperator.fromValue(operator)) {
+                    case NULL:
+                        matches = actual == null;
+                        break;
+                    case NOT_NULL:
+                        matches = actual != null;
+                        break;
+                    case EQ:
+                        matches = isEqual(actual, operands.get(0));
+                        break;
+                    case NE:
+                        matches = !isEqual(actual, operands.get(0));
+                        break;
+                    default:
+                        throw validation("Unsupported comparison operator " + operator);
+                }
+                if (!matches) {
+                    return false;
+                }
+            } else if (Boolean.FALSE.equals(condition.getExists())) {
+                if (actual != null) {
+                    return false;
+                }
+            } else if (!isEqual(actual, condition.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void applyAttributeUpdates(final Map<String, AttributeValueUpdate> updates,
+                                              final Map<String, AttributeValue> item) {
+        if (updates == null) {
+            return;
+        }
+        for (Map.Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+            final AttributeValueUpdate update = entry.getValue();
+            final String action = update.getAction() == null ? AttributeAction.PUT.toString() : update.getAction();
+            switch (AttributeAction.fromValue(action)) {
+                case PUT:
+                    item.put(entry.getKey(), copy(update.getValue()));
+                    break;
+                case DELETE:
+                    item.remove(entry.getKey());
+                    break;
+                case ADD:
+                    final AttributeValue current = item.get(entry.getKey());
+                    item.put(entry.getKey(), current == null ? copy(update.getValue())
+                            : arithmetic(current, update.getValue(), true));
+                    break;
+                default:
+                    throw validation("Unsupported attribute action " + action);
+            }
+        }
+    }
+
+    private static Map<String, AttributeValue> getReturnValues(final String returnValues,
+                                                               final Map<String, AttributeValue> before,
+                                                               final Map<String, AttributeValue> after) {
+        if (returnValues == null || ReturnValue.NONE.toString().equals(returnValues)) {
+            return null;
+        }
+        // UPDATED_OLD and UPDATED_NEW are answered with the whole item.
+        return copy(returnValues.endsWith("OLD") ? before : after);
+    }
+
+    private static ResourceNotFoundException notFound(final String tableName) {
+        return error(new ResourceNotFoundException("Requested resource not found: Table: " + tableName
+                + " not found"));
+    }
+
+    private static ConditionalCheckFailedException conditionFailed() {
+        return error(new ConditionalCheckFailedException("The conditional request failed"));
+    }
+
+    private static <E extends AmazonDynamoDBException> E error(final E e) {
+        e.setErrorCode(e.getClass().getSimpleName());
+        e.setErrorType(AmazonDynamoDBException.ErrorType.Client);
+        e.setStatusCode(400);
+        return e;
+    }
+
+    private static final class Table {
+        private final List<String> keyNames;
+        private final Map<Map<String, AttributeValue>, Map<String, AttributeValue>> items = new HashMap<>();
+
+        private Table(final List<String> keyNames) {
+            this.keyNames = keyNames;
+        }
+
+        /**
+         * @return the items ordered by hash key, then range key.
+         */
+        private List<Map<String, AttributeValue>> getSortedItems() {
+            final List<Map<String, AttributeValue>> sorted = new ArrayList<>(items.values());
+            sorted.sort(this::compareKeys);
+            return sorted;
+        }
+
+        private int compareKeys(final Map<String, AttributeValue> left, final Map<String, AttributeValue> right) {
+            for (String name : keyNames) {
+                final int result = compare(left.get(name), right.get(name));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @param sorted items ordered by {@link #compareKeys}.
+         * @param exclusiveStartKey the key the page starts after, null for the first page.
+         * @param limit the maximum number of items of the page, null for no limit.
+         */
+        private Page getPage(final List<Map<String, AttributeValue>> sorted,
+                             final Map<String, AttributeValue> exclusiveStartKey, final Integer limit) {
+            int from = 0;
+            if (exclusiveStartKey != null) {
+                while (from < sorted.size() && compareKeys(sorted.get(from), exclusiveStartKey) <= 0) {
+                    from++;
+                }
+            }
+            final int to = limit == null ? sorted.size() : Math.min(sorted.size(), from + limit);
+            final List<Map<String, AttributeValue>> page = sorted.subList(from, to);
+            return new Page(page, to < sorted.size() && !page.isEmpty() ? getKey(page.get(page.size() - 1)) : null);
+        }
+
+        private Map<String, AttributeValue> getKey(final Map<String, AttributeValue> item) {
+            final Map<String, AttributeValue> key = new HashMap<>(keyNames.size() * 2);
+            for (String name : keyNames) {
+                final AttributeValue value = item.get(name);
+                if (value == null) {
+                    throw validation("One of the required keys was not given a value: " + name);
+                }
+                key.put(name, copy(value));
+            }
+            return key;
+        }
+    }
+
+    private static final class Page {
+        private final List<Map<String, AttributeValue>> items;
+        private final Map<String, AttributeValue> lastEvaluatedKey;
+
+        private Page(final List<Map<String, AttributeValue>> items, final Map<String, AttributeValue> lastEvaluatedKey) {
+            this.items = items;
+            this.lastEvaluatedKey = lastEvaluatedKey;
+        }
+    }
+
+    /**
+     * The common shape of the four kinds of {@link TransactWriteItem}.
+     */
+    private static final class Operation {
+        private final String tableName;
+        private final Map<String, AttributeValue> key;
+        private final String conditionExpression;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private final String returnValuesOnConditionCheckFailure;
+        private final Update update;
+        private final Put put;
+        private final Delete delete;
+
+        private Operation(final String tableName, final Map<String, AttributeValue> key,
+                          final String conditionExpression, final Map<String, String> names,
+                          final Map<String, AttributeValue> values, final String returnValuesOnConditionCheckFailure,
+                          final Update update, final Put put, final Delete delete) {
+            this.tableName = tableName;
+            this.key = key;
+            this.conditionExpression = conditionExpression;
+            this.names = names;
+            this.values = values;
+            this.returnValuesOnConditionCheckFailure = returnValuesOnConditionCheckFailure;
+            this.update = update;
+            this.put = put;
+            this.delete = delete;
+        }
+
+        private static Operation of(final TransactWriteItem item) {
+            if (item.getUpdate() != null) {
+                final Update u = item.getUpdate();
+                return new Operation(u.getTableName(), u.getKey(), u.getConditionExpression(),
+                        u.getExpressionAttributeNames(), u.getExpressionAttributeValues(), u.getReturnValuesOnConditionCheckFailure(), u, null, null);
+            }
+            if (item.getPut() != null) {
+                final Put p = item.getPut();
+                return new Operation(p.getTableName(), p.getItem(), p.getConditionExpression(),
+                        p.getExpressionAttributeNames(), p.getExpressionAttributeValues(), p.getReturnValuesOnConditionCheckFailure(), null, p, null);
+            }
+            if (item.getDelete() != null) {
+                final Delete d = item.getDelete();
+                return new Operation(d.getTableName(), d.getKey(), d.getConditionExpression(),
+                        d.getExpressionAttributeNames(), d.getExpressionAttributeValues(), d.getReturnValuesOnConditionCheckFailure(), null, null, d);
+            }
+            final ConditionCheck c = item.getConditionCheck();
+            if (c == null) {
+                throw validation("TransactWriteItem must contain exactly one operation");
+            }
+            return new Operation(c.getTableName(), c.getKey(), c.getConditionExpression(),
+                    c.getExpressionAttributeNames(), c.getExpressionAttributeValues(), c.getReturnValuesOnConditionCheckFailure(), null, null, null);
+        }
+
+        /**
+         * @return the item once the operation is applied, null when it is deleted.
+         */
+        private Map<String, AttributeValue> apply(final Map<String, AttributeValue> existing,
+                                                  final Map<String, AttributeValue> itemKey) {
+            if (update != null) {
+                final Map<String, AttributeValue> updated = existing == null ? copy(itemKey) : copy(existing);
+                applyUpdate(update.getUpdateExpression(), names, values, updated);
+                return updated;
+            }
+            if (put != null) {
+                return copy(put.getItem());
+            }
+            return delete != null ? null : existing;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.openmarket.transaction.lambda.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class InMemoryDynamoDBTest {
+    private static final Gson GSON = new Gson();
+    private static final String PAYER_ID = "123";
+    private static final String RECIPIENT_ID = "321";
+    private static final String CURRENCY_ID = "666";
+
+    private InMemoryDynamoDB store;
+    private RuntimeContext runtime;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        runtime = new RuntimeContext(store, mock(AmazonSNS.class), EnvironmentConfig.fromMap(Collections.emptyMap()));
+    }
+
+    @Test
+    public void test_Lambda_Entry_Settles_Transactions() {
+        runtime.getWalletDao().save(Wallet.builder().ownerId(PAYER_ID).coins(ImmutableMap.of(CURRENCY_ID, 10.0))
+                .type(WalletType.USER).build());
+        runtime.getWalletDao().save(Wallet.builder().ownerId(RECIPIENT_ID).coins(ImmutableMap.of("777", 1.0))
+                .type(WalletType.USER).build());
+        Transaction settled = createTransaction(7.5);
+        Transaction rejected = createTransaction(5.0);
+
+        SQSBatchResponse response = new LambdaEntry(runtime).handleRequest(createEvent(settled, rejected), null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(TransactionStatus.COMPLETED,
+                runtime.getTransactionDao().load(settled.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.ERROR,
+                runtime.getTransactionDao().load(rejected.getTransactionId()).get().getStatus());
+        assertEquals(2.5, runtime.getWalletDao().load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(7.5, runtime.getWalletDao().load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Transact_Write_Reports_Failed_Condition() {
+        store.putItem(new PutItemRequest().withTableName(WALLET_DDB_TABLE_NAME).withItem(
+                ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(PAYER_ID),
+                        "balance", new AttributeValue().withN("1"))));
+        TransactWriteItem debit = new TransactWriteItem().withUpdate(new Update()
+                .withTableName(WALLET_DDB_TABLE_NAME)
+                .withKey(ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(PAYER_ID)))
+                .withUpdateExpression("SET balance = balance - :val")
+                .withConditionExpression("balance >= :val")
+                .withExpressionAttributeValues(ImmutableMap.of(":val", new AttributeValue().withN("2"))));
+        TransactWriteItem create = new TransactWriteItem().withPut(new Put()
+                .withTableName(WALLET_DDB_TABLE_NAME)
+                .withItem(ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(RECIPIENT_ID))));
+
+        TransactionCanceledException e = assertThrows(TransactionCanceledException.class,
+                () -> store.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(create, debit)));
+
+        assertEquals("None", e.getCancellationReasons().get(0).getCode());
+        assertEquals("ConditionalCheckFailed", e.getCancellationReasons().get(1).getCode());
+        assertEquals(1, store.size(WALLET_DDB_TABLE_NAME));
+    }
+
+    @Test
+    public void test_Concurrent_Transactions_On_Same_Item_Conflict() throws Exception {
+        InMemoryDynamoDB slowStore = new InMemoryDynamoDB(TimeUnit.MILLISECONDS.toMicros(500));
+        slowStore.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        Map<String, AttributeValue> key = ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(PAYER_ID));
+        TransactWriteItemsRequest request = new TransactWriteItemsRequest().withTransactItems(
+                new TransactWriteItem().withPut(new Put().withTableName(WALLET_DDB_TABLE_NAME).withItem(key)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<TransactWriteItemsResult> first = executor.submit(() -> slowStore.transactWriteItems(request));
+        Thread.sleep(100);
+
+        TransactionCanceledException e = assertThrows(TransactionCanceledException.class,
+                () -> slowStore.transactWriteItems(request));
+        assertEquals("TransactionConflict", e.getCancellationReasons().get(0).getCode());
+        assertThrows(TransactionConflictException.class, () -> slowStore.putItem(new PutItemRequest()
+                .withTableName(WALLET_DDB_TABLE_NAME).withItem(key)));
+        first.get();
+        executor.shutdown();
+        assertEquals(1, slowStore.size(WALLET_DDB_TABLE_NAME));
+    }
+
+    private Transaction createTransaction(double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .payerId(PAYER_ID).recipientId(RECIPIENT_ID)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        runtime.getTransactionDao().save(transaction);
+        return transaction;
+    }
+
+    private static SQSEvent createEvent(Transaction... transactions) {
+        List<SQSEvent.SQSMessage> messages = new ArrayList<>();
+        for (Transaction t : transactions) {
+            SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageId(UUID.randomUUID().toString());
+            message.setBody(GSON.toJson(new TransactionTask(t.getTransactionId())));
+            messages.add(message);
+        }
+        SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+}
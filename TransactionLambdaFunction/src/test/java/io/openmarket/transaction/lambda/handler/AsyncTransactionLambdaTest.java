@@ -0,0 +1,209 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncTransactionLambdaTest {
+    private static final String CURRENCY_ID = "666";
+    private static final double INITIAL_BALANCE = 100.0;
+
+    private InMemoryDynamoDB store;
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private TransactionLambda lambda;
+    private ExecutorService writerExecutor;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        walletDao = new WalletDaoImpl(store, mapper);
+        lambda = new TransactionLambda(transactionDao, walletDao, new RetryPolicy(3, 1, 10),
+                MetricsRecorder.discarding(), TransactWriter.of(store), WalletShards.none(), CreditLedger.disabled(),
+                WriteThrottle.disabled(), HotKeyTracker.disabled());
+        writerExecutor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void reset() {
+        writerExecutor.shutdown();
+    }
+
+    @Test
+    public void test_Settles_Batch_And_Records_Errors() {
+        AsyncTransactionLambda asyncLambda = new AsyncTransactionLambda(lambda,
+                AsyncTransactWriter.of(TransactWriter.of(store), writerExecutor), 4);
+        createWallet("a", INITIAL_BALANCE);
+        createWallet("b", INITIAL_BALANCE);
+        createWallet("c", 0.0);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            transactions.add(createTransaction("a", "b", 1.0));
+        }
+        Transaction overdraft = createTransaction("c", "b", 1.0);
+        transactions.add(overdraft);
+
+        List<TransactionOutcome> outcomes = join(asyncLambda.processAll(transactions, Long.MAX_VALUE));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(TransactionStatus.COMPLETED, outcomes.get(i).getResult().getStatus());
+        }
+        assertEquals(TransactionStatus.ERROR, outcomes.get(10).getResult().getStatus());
+        assertEquals(ErrorClass.CONDITION_FAILED, outcomes.get(10).getErrorClass());
+        assertEquals(TransactionErrorType.INSUFFICIENT_BALANCE,
+                transactionDao.load(overdraft.getTransactionId()).get().getError());
+        assertEquals(90.0, walletDao.load("a").get().getCoins().get(CURRENCY_ID));
+        assertEquals(110.0, walletDao.load("b").get().getCoins().get(CURRENCY_ID));
+        asyncLambda.shutdown();
+    }
+
+    @Test
+    public void test_Caps_Transactions_In_Flight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AsyncTransactionLambda asyncLambda = new AsyncTransactionLambda(lambda, (items, token) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    Thread.sleep(5);
+                    TransactWriter.of(store).write(items, token);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }, writerExecutor);
+        }, 3);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            createWallet("payer" + i, INITIAL_BALANCE);
+            createWallet("recipient" + i, INITIAL_BALANCE);
+            transactions.add(createTransaction("payer" + i, "recipient" + i, 1.0));
+        }
+
+        List<TransactionOutcome> outcomes = join(asyncLambda.processAll(transactions, Long.MAX_VALUE));
+
+        assertTrue(outcomes.stream().allMatch(o -> o.getResult().getStatus() == TransactionStatus.COMPLETED));
+        assertTrue(maxInFlight.get() <= 3, "at most 3 writes in flight, got " + maxInFlight.get());
+        asyncLambda.shutdown();
+    }
+
+    @Test
+    public void test_Transaction_Conflict_Is_Retried() {
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncTransactWriter flakyWriter = AsyncTransactWriter.of((items, token) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new TransactionCanceledException("conflict").withCancellationReasons(
+                        new CancellationReason().withCode(ErrorClassifier.CANCELLATION_TRANSACTION_CONFLICT));
+            }
+            TransactWriter.of(store).write(items, token);
+        }, writerExecutor);
+        AsyncTransactionLambda asyncLambda = new AsyncTransactionLambda(lambda, flakyWriter, 1);
+        createWallet("a", INITIAL_BALANCE);
+        createWallet("b", INITIAL_BALANCE);
+        Transaction transaction = createTransaction("a", "b", 5.0);
+
+        TransactionOutcome outcome = asyncLambda.process(transaction, Long.MAX_VALUE).join();
+
+        assertEquals(2, attempts.get());
+        assertFalse(outcome.isRetryable());
+        assertEquals(TransactionStatus.COMPLETED, outcome.getResult().getStatus());
+        assertEquals(95.0, walletDao.load("a").get().getCoins().get(CURRENCY_ID));
+        asyncLambda.shutdown();
+    }
+
+    @Test
+    public void test_Hands_Over_Slots_Of_Many_Waiting_Transactions_In_A_Loop() throws Exception {
+        CompletableFuture<Void> firstWrite = new CompletableFuture<>();
+        AsyncTransactionLambda asyncLambda = new AsyncTransactionLambda(lambda, (items, token) -> firstWrite, 1);
+        createWallet("a", INITIAL_BALANCE);
+        createWallet("b", INITIAL_BALANCE);
+        List<Transaction> transactions = new ArrayList<>();
+        transactions.add(createTransaction("a", "b", 1.0));
+        // Enough transactions waiting for the slot to overflow the stack if each were started by the previous one.
+        for (int i = 0; i < 20000; i++) {
+            transactions.add(Transaction.builder().transactionId(UUID.randomUUID().toString())
+                    .payerId("payer" + i).recipientId("recipient" + i).currencyId(CURRENCY_ID).amount(1.0)
+                    .status(TransactionStatus.PENDING).type(TransactionType.TRANSFER).build());
+        }
+
+        List<CompletableFuture<TransactionOutcome>> futures = asyncLambda.processAll(transactions,
+                System.currentTimeMillis() + 200);
+        Thread.sleep(300);
+        firstWrite.complete(null);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        for (int i = 1; i < futures.size(); i++) {
+            assertEquals(ErrorClass.NOT_STARTED, futures.get(i).join().getErrorClass());
+        }
+        asyncLambda.shutdown();
+    }
+
+    private static List<TransactionOutcome> join(List<CompletableFuture<TransactionOutcome>> futures) {
+        List<TransactionOutcome> outcomes = new ArrayList<>(futures.size());
+        futures.forEach(future -> outcomes.add(future.join()));
+        return outcomes;
+    }
+
+    private void createWallet(String ownerId, double balance) {
+        walletDao.save(Wallet.builder().ownerId(ownerId).coins(ImmutableMap.of(CURRENCY_ID, balance))
+                .type(WalletType.USER).build());
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        transactionDao.save(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,176 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class CreditLedgerTest {
+    private static final String PAYER_ID = "123";
+    private static final String RECIPIENT_ID = "321";
+    private static final String CURRENCY_ID = "666";
+
+    private InMemoryDynamoDB store;
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private CreditLedger creditLedger;
+    private TransactionLambda lambda;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(LambdaConfig.CREDIT_LEDGER_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH),
+                        new KeySchemaElement(LambdaConfig.CREDIT_LEDGER_DDB_ATTRIBUTE_TRANSACTION_ID,
+                                KeyType.RANGE)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        walletDao = new WalletDaoImpl(store, mapper);
+        creditLedger = new CreditLedger(store);
+        lambda = new TransactionLambda(transactionDao, walletDao, RetryPolicy.noRetry(),
+                MetricsRecorder.discarding(), TransactWriter.of(store), WalletShards.none(), creditLedger,
+                WriteThrottle.disabled(), HotKeyTracker.disabled());
+        walletDao.save(Wallet.builder().ownerId(PAYER_ID).coins(ImmutableMap.of(CURRENCY_ID, 100.0))
+                .type(WalletType.USER).build());
+        walletDao.save(Wallet.builder().ownerId(RECIPIENT_ID).coins(ImmutableMap.of(CURRENCY_ID, 1.0))
+                .type(WalletType.USER).build());
+    }
+
+    @Test
+    public void test_Credits_Are_Deferred_Until_Compaction() {
+        for (int i = 0; i < 150; i++) {
+            assertEquals(TransactionStatus.COMPLETED,
+                    lambda.processTransaction(createTransaction(PAYER_ID, RECIPIENT_ID, 0.5)).getStatus());
+        }
+
+        assertEquals(25.0, walletDao.load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(1.0, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(76.0, creditLedger.getBalance(RECIPIENT_ID, CURRENCY_ID));
+        assertEquals(150, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+
+        assertEquals(150, creditLedger.compact());
+        assertEquals(76.0, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(76.0, creditLedger.getBalance(RECIPIENT_ID, CURRENCY_ID));
+        assertEquals(0, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+    }
+
+    @Test
+    public void test_Compacts_Only_The_Wallet_Page_By_Page() {
+        for (int i = 0; i < 150; i++) {
+            lambda.processTransaction(createTransaction(PAYER_ID, RECIPIENT_ID, 0.5));
+        }
+        lambda.processTransaction(createTransaction(RECIPIENT_ID, PAYER_ID, 0.5));
+
+        assertEquals(150, creditLedger.compact(RECIPIENT_ID, Long.MAX_VALUE));
+        assertEquals(75.5, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(1, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+        assertEquals(25.5, creditLedger.getBalance(PAYER_ID, CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Debit_Compacts_Pending_Credits() {
+        lambda.processTransaction(createTransaction(PAYER_ID, RECIPIENT_ID, 10.0));
+
+        Transaction refund = createTransaction(RECIPIENT_ID, PAYER_ID, 11.0);
+        assertEquals(TransactionStatus.COMPLETED, lambda.processTransaction(refund).getStatus());
+        assertEquals(0.0, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(101.0, creditLedger.getBalance(PAYER_ID, CURRENCY_ID));
+
+        Transaction overdraft = createTransaction(RECIPIENT_ID, PAYER_ID, 1.0);
+        assertEquals(TransactionStatus.ERROR, lambda.processTransaction(overdraft).getStatus());
+    }
+
+    @Test
+    public void test_Payer_Compaction_Stops_At_Deadline() {
+        lambda.processTransaction(createTransaction(PAYER_ID, RECIPIENT_ID, 10.0));
+
+        assertThrows(DeadlineExceededException.class, () -> creditLedger.compact(RECIPIENT_ID, 0));
+        assertEquals(1, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+        assertEquals(ErrorClass.NOT_STARTED,
+                ErrorClassifier.classify(new DeadlineExceededException("Stopped at the deadline")));
+    }
+
+    @Test
+    public void test_No_Such_Recipient() {
+        Transaction transaction = createTransaction(PAYER_ID, "missing", 1.0);
+
+        assertEquals(TransactionStatus.ERROR, lambda.processTransaction(transaction).getStatus());
+        assertEquals(100.0, walletDao.load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(0, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+    }
+
+    @Test
+    public void test_Debit_Survives_Concurrent_Compaction_Of_Payer() {
+        lambda.processTransaction(createTransaction(PAYER_ID, RECIPIENT_ID, 10.0));
+        // The scheduled compaction folds the same entries between the read and the write of the debit compaction.
+        AmazonDynamoDB racing = mock(AmazonDynamoDB.class, AdditionalAnswers.delegatesTo(store));
+        AtomicBoolean raced = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (raced.compareAndSet(false, true)) {
+                assertEquals(1, creditLedger.compact());
+            }
+            return store.transactWriteItems(invocation.getArgument(0));
+        }).when(racing).transactWriteItems(any(TransactWriteItemsRequest.class));
+        TransactionLambda racingLambda = new TransactionLambda(transactionDao, walletDao, RetryPolicy.noRetry(),
+                MetricsRecorder.discarding(), TransactWriter.of(store), WalletShards.none(), new CreditLedger(racing),
+                WriteThrottle.disabled(), HotKeyTracker.disabled());
+
+        Transaction refund = createTransaction(RECIPIENT_ID, PAYER_ID, 11.0);
+        assertEquals(TransactionStatus.COMPLETED, racingLambda.processTransaction(refund).getStatus());
+        assertEquals(0.0, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertTrue(raced.get());
+        // Only the credit of the refund is left.
+        assertEquals(1, store.size(LambdaConfig.CREDIT_LEDGER_DDB_TABLE_NAME));
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        transactionDao.save(transaction);
+        return transaction;
+    }
+}
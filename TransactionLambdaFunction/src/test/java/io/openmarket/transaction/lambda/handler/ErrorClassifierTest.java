@@ -0,0 +1,87 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static io.openmarket.transaction.lambda.handler.ErrorClassifier.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ErrorClassifierTest {
+    @Test
+    public void test_Cancellation_With_Failed_Condition_Is_Permanent() {
+        assertEquals(ErrorClass.CONDITION_FAILED, classify(cancelled(CANCELLATION_TRANSACTION_CONFLICT,
+                CANCELLATION_CONDITIONAL_CHECK_FAILED, CANCELLATION_NONE)));
+        assertFalse(isRetryable(cancelled(CANCELLATION_CONDITIONAL_CHECK_FAILED, CANCELLATION_NONE)));
+    }
+
+    @Test
+    public void test_Cancellation_With_Conflict_Is_Transient() {
+        assertEquals(ErrorClass.TRANSACTION_CONFLICT, classify(cancelled(CANCELLATION_NONE,
+                CANCELLATION_TRANSACTION_CONFLICT, CANCELLATION_NONE)));
+        assertTrue(isRetryable(cancelled(CANCELLATION_TRANSACTION_CONFLICT)));
+    }
+
+    @Test
+    public void test_Cancellation_With_Throttling_Is_Transient() {
+        assertEquals(ErrorClass.THROTTLING, classify(cancelled(CANCELLATION_TRANSACTION_CONFLICT,
+                CANCELLATION_THROTTLING)));
+        assertEquals(ErrorClass.THROTTLING, classify(cancelled(CANCELLATION_THROUGHPUT_EXCEEDED)));
+    }
+
+    @Test
+    public void test_Cancellation_With_Validation_Error_Is_Permanent() {
+        assertEquals(ErrorClass.VALIDATION, classify(cancelled(CANCELLATION_THROTTLING, CANCELLATION_VALIDATION)));
+    }
+
+    @Test
+    public void test_Cancellation_Without_Reasons_Is_Unknown() {
+        assertEquals(ErrorClass.UNKNOWN, classify(new TransactionCanceledException("cancelled")));
+    }
+
+    @Test
+    public void test_Service_Exceptions() {
+        assertEquals(ErrorClass.CONDITION_FAILED, classify(new ConditionalCheckFailedException("failed")));
+        assertEquals(ErrorClass.THROTTLING, classify(throttled()));
+
+        AmazonServiceException serverError = new AmazonServiceException("internal error");
+        serverError.setErrorType(AmazonServiceException.ErrorType.Service);
+        serverError.setStatusCode(500);
+        assertEquals(ErrorClass.SERVICE_ERROR, classify(serverError));
+
+        AmazonServiceException validation = new AmazonServiceException("invalid");
+        validation.setErrorType(AmazonServiceException.ErrorType.Client);
+        validation.setErrorCode("ValidationException");
+        validation.setStatusCode(400);
+        assertEquals(ErrorClass.VALIDATION, classify(validation));
+    }
+
+    @Test
+    public void test_Client_Exceptions() {
+        assertEquals(ErrorClass.SERVICE_ERROR, classify(new SdkClientException("timeout", new IOException())));
+        assertEquals(ErrorClass.UNKNOWN, classify(new IllegalStateException()));
+    }
+
+    private static ProvisionedThroughputExceededException throttled() {
+        ProvisionedThroughputExceededException e = new ProvisionedThroughputExceededException("throttled");
+        e.setErrorCode("ProvisionedThroughputExceededException");
+        e.setStatusCode(400);
+        return e;
+    }
+
+    private static TransactionCanceledException cancelled(String... codes) {
+        CancellationReason[] reasons = new CancellationReason[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            reasons[i] = new CancellationReason().withCode(codes[i]);
+        }
+        return new TransactionCanceledException("cancelled").withCancellationReasons(reasons);
+    }
+}
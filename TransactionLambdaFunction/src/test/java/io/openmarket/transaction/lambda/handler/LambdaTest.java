@@ -4,12 +4,31 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
 import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
 import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sns.AmazonSNS;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
 import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.lambda.executor.ConflictAwareExecutor;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.Metric;
+import io.openmarket.transaction.lambda.metrics.MetricDimensions;
+import io.openmarket.transaction.lambda.metrics.MetricsRecord;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.sns.InMemorySNS;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
 import io.openmarket.transaction.model.Transaction;
 import io.openmarket.transaction.model.TransactionErrorType;
 import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
 import io.openmarket.transaction.model.TransactionTaskResult;
 import io.openmarket.transaction.model.TransactionType;
 import io.openmarket.wallet.dao.dynamodb.WalletDao;
@@ -20,11 +39,14 @@ import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.AdditionalAnswers;
 
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -33,8 +55,16 @@ import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_I
 import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
 import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class LambdaTest {
+    private static final Gson GSON = new Gson();
     private static final String PAYER_ID = "123";
     private static final String RECIPIENT_ID = "321";
     private static final String CURRENCY_ID = "666";
@@ -159,6 +189,22 @@ public class LambdaTest {
         verify(transaction.getTransactionId(), INITIAL_BALANCE, 0.0, PAYER_ID, RECIPIENT_ID);
     }
 
+    @Test
+    public void check_Transaction_Creates_Recipient_Coin_Slot() {
+        Transaction transaction = createTransaction(CURRENCY_ID_2, TRANSACTION_AMOUNT);
+
+        createUserWallet(PAYER_ID, MULTIPLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+
+        TransactionTaskResult result = lambda.processTransaction(transaction);
+
+        assertEquals(TransactionStatus.COMPLETED, result.getStatus());
+        Map<String, Double> recipientCoins = walletDao.load(RECIPIENT_ID).get().getCoins();
+        assertEquals(2, recipientCoins.size());
+        assertEquals(INITIAL_BALANCE, recipientCoins.get(CURRENCY_ID));
+        assertEquals(TRANSACTION_AMOUNT, recipientCoins.get(CURRENCY_ID_2));
+    }
+
     @Test
     public void check_Transaction_Payer_No_Such_Coin() {
         Transaction transaction = createTransaction(TRANSACTION_AMOUNT);
@@ -339,6 +385,52 @@ public class LambdaTest {
         assertEquals(MULTIPLE_CURRENCY_WALLET, walletDao.load(RECIPIENT_ID).get().getCoins());
     }
 
+    @Test
+    public void test_Refund_Multiple_Originals() {
+        Transaction t1 = createTransaction(TRANSACTION_AMOUNT);
+        Transaction t2 = createTransaction(TRANSACTION_AMOUNT);
+
+        Wallet a = createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        Wallet b = createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+
+        lambda.processTransaction(t1);
+        lambda.processTransaction(t2);
+
+        Transaction refund = createRefundTransaction(t1, t2);
+        assertEquals(TransactionStatus.COMPLETED, lambda.processTransaction(refund).getStatus());
+
+        verifyRefund(refund.getTransactionId(), a, b, PAYER_ID, RECIPIENT_ID);
+        assertEquals(TransactionStatus.REFUNDED, transactionDao.load(t2.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Failed_Refund_Restores_Every_Original() {
+        Transaction t1 = createTransaction(TRANSACTION_AMOUNT);
+        Transaction t2 = createTransaction(TRANSACTION_AMOUNT);
+
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+
+        lambda.processTransaction(t1);
+        lambda.processTransaction(t2);
+
+        Transaction refund = createRefundTransaction(t1, t2);
+        // The refunded transaction is modified meanwhile, the refund fails and only the other one is restored.
+        t2 = transactionDao.load(t2.getTransactionId()).get();
+        t2.setStatus(TransactionStatus.REFUNDED);
+        transactionDao.save(t2);
+
+        assertEquals(TransactionStatus.ERROR, lambda.processTransaction(refund).getStatus());
+
+        assertEquals(TransactionStatus.ERROR, transactionDao.load(refund.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.COMPLETED, transactionDao.load(t1.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.REFUNDED, transactionDao.load(t2.getTransactionId()).get().getStatus());
+        assertEquals(INITIAL_BALANCE - TRANSACTION_AMOUNT * 2,
+                walletDao.load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(INITIAL_BALANCE + TRANSACTION_AMOUNT * 2,
+                walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
     @Test
     public void test_No_Such_Recipient() {
         Transaction t = createTransaction(TRANSACTION_AMOUNT);
@@ -350,6 +442,393 @@ public class LambdaTest {
         assertEquals(TransactionStatus.ERROR, t.getStatus());
     }
 
+    @Test
+    public void test_Lambda_Entry_Reuses_Runtime_Context() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET_ZERO_BALANCE);
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                new EnvironmentConfig(false, null)));
+
+        List<String> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Transaction t = createTransaction(TRANSACTION_AMOUNT);
+            transactionIds.add(t.getTransactionId());
+            SQSBatchResponse response = entry.handleRequest(createEvent(t), null);
+            assertTrue(response.getBatchItemFailures().isEmpty());
+            assertEquals(TransactionStatus.COMPLETED,
+                    transactionDao.load(t.getTransactionId()).get().getStatus());
+        }
+        verifyMultipleTransactions(transactionIds, INITIAL_BALANCE, 0.0, PAYER_ID, RECIPIENT_ID);
+    }
+
+    @Test
+    public void test_Lambda_Entry_Reports_Only_Retryable_Failures() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction insufficient = createTransaction(INITIAL_BALANCE * 2);
+        Transaction notLoaded = createTransaction(TRANSACTION_AMOUNT);
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(failingToLoad(notLoaded.getTransactionId()),
+                mock(AmazonSNS.class), EnvironmentConfig.fromMap(Collections.emptyMap())));
+
+        SQSEvent event = createEvent(completed, insufficient, notLoaded);
+        SQSBatchResponse response = entry.handleRequest(event, null);
+
+        assertEquals(1, response.getBatchItemFailures().size());
+        assertEquals(event.getRecords().get(2).getMessageId(),
+                response.getBatchItemFailures().get(0).getItemIdentifier());
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(completed.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.ERROR,
+                transactionDao.load(insufficient.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Lambda_Entry_Stops_Starting_Transactions_Near_Timeout() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET_ZERO_BALANCE);
+        Transaction first = createTransaction(TRANSACTION_AMOUNT);
+        Transaction second = createTransaction(TRANSACTION_AMOUNT);
+        Transaction third = createTransaction(TRANSACTION_AMOUNT);
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(slowToWrite(300), mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap())));
+        Context context = mock(Context.class);
+        // The first write outlasts what is left of the invocation once the safety margin is kept free.
+        when(context.getRemainingTimeInMillis()).thenReturn((int) LambdaConfig.INVOCATION_SAFETY_MARGIN_MILLIS + 100);
+
+        SQSBatchResponse response = entry.handleRequest(createEvent(first, second, third), context);
+
+        assertEquals(2, response.getBatchItemFailures().size());
+        assertEquals(TransactionStatus.COMPLETED, transactionDao.load(first.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(second.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(third.getTransactionId()).get().getStatus());
+        assertEquals(INITIAL_BALANCE - TRANSACTION_AMOUNT,
+                walletDao.load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Lambda_Entry_Publishes_Each_Settled_Result() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        InMemorySNS sns = new InMemorySNS();
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, sns, EnvironmentConfig.fromMap(
+                ImmutableMap.of(EnvironmentConfig.ENV_VAR_ENABLE_PUBLISH_TO_TOPIC, "true",
+                        EnvironmentConfig.ENV_VAR_ON_PROCESSED_TOPIC_ARN, "topic"))));
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction insufficient = createTransaction(INITIAL_BALANCE * 2);
+        Transaction missing = Transaction.builder().transactionId(UUID.randomUUID().toString()).build();
+
+        entry.handleRequest(createEvent(completed, insufficient, missing), null);
+
+        Map<String, TransactionTaskResult> published = sns.getMessages().stream()
+                .map(message -> GSON.fromJson(message, TransactionTaskResult.class))
+                .collect(Collectors.toMap(TransactionTaskResult::getTransactionId, r -> r));
+        assertEquals(2, published.size());
+        assertEquals(TransactionStatus.COMPLETED, published.get(completed.getTransactionId()).getStatus());
+        assertEquals(TransactionStatus.ERROR, published.get(insufficient.getTransactionId()).getStatus());
+    }
+
+    @Test
+    public void test_Lambda_Entry_Drops_Missing_Transactions() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        List<MetricsRecord> records = new ArrayList<>();
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap()),
+                (timestamp, published) -> records.addAll(published)));
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction missing = Transaction.builder().transactionId(UUID.randomUUID().toString()).build();
+
+        SQSBatchResponse response = entry.handleRequest(createEvent(completed, missing), null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(1L, getRecord(records, MetricDimensions.NONE).getCounts().get(Metric.MISSING_TRANSACTIONS));
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(completed.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Lambda_Entry_Records_Stage_Metrics() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        List<MetricsRecord> records = new ArrayList<>();
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap()),
+                (timestamp, published) -> records.addAll(published)));
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction insufficient = createTransaction(INITIAL_BALANCE * 2);
+
+        entry.handleRequest(createEvent(completed, insufficient), null);
+
+        MetricsRecord invocation = getRecord(records, MetricDimensions.NONE);
+        assertEquals(2L, invocation.getCounts().get(Metric.MESSAGES));
+        assertEquals(1, invocation.getHistograms().get(Metric.PARSE_LATENCY).getCount());
+        assertEquals(1, invocation.getHistograms().get(Metric.BATCH_LOAD_LATENCY).getCount());
+        assertEquals(1, invocation.getHistograms().get(Metric.INVOCATION_LATENCY).getCount());
+        assertEquals(1L, getRecord(records, MetricDimensions.of(TransactionType.TRANSFER, ErrorClass.NONE))
+                .getCounts().get(Metric.TRANSACTIONS));
+        MetricsRecord failed = getRecord(records,
+                MetricDimensions.of(TransactionType.TRANSFER, ErrorClass.CONDITION_FAILED));
+        assertEquals(1L, failed.getCounts().get(Metric.TRANSACTIONS));
+        assertEquals(1, failed.getHistograms().get(Metric.TRANSACTION_WRITE_LATENCY).getCount());
+        assertEquals(1, failed.getHistograms().get(Metric.ERROR_STATUS_WRITE_LATENCY).getCount());
+    }
+
+    @Test
+    public void test_Lambda_Entry_Skips_Loading_Inline_Transactions() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        List<MetricsRecord> records = new ArrayList<>();
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap()),
+                (timestamp, published) -> records.addAll(published)));
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction insufficient = createTransaction(INITIAL_BALANCE * 2);
+
+        SQSEvent event = new SQSEvent();
+        event.setRecords(ImmutableList.of(createInlineMessage(completed), createInlineMessage(insufficient)));
+        SQSBatchResponse response = entry.handleRequest(event, null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        MetricsRecord invocation = getRecord(records, MetricDimensions.NONE);
+        assertEquals(2L, invocation.getCounts().get(Metric.INLINE_PAYLOADS));
+        assertFalse(invocation.getHistograms().containsKey(Metric.BATCH_LOAD_LATENCY));
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(completed.getTransactionId()).get().getStatus());
+        Transaction failed = transactionDao.load(insufficient.getTransactionId()).get();
+        assertEquals(TransactionStatus.ERROR, failed.getStatus());
+        assertEquals(TransactionType.TRANSFER, failed.getType());
+        verify(completed.getTransactionId(), INITIAL_BALANCE, INITIAL_BALANCE, PAYER_ID, RECIPIENT_ID);
+    }
+
+    @Test
+    public void test_Lambda_Entry_Drops_Messages_With_Non_Numeric_Fields() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap())));
+        Transaction badVersion = createTransaction(TRANSACTION_AMOUNT);
+        Transaction badAmount = createTransaction(TRANSACTION_AMOUNT);
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+
+        SQSEvent event = createEvent(completed);
+        event.getRecords().get(0).setBody(String.format("{\"version\": \"two\", \"transactionId\": \"%s\"}",
+                badVersion.getTransactionId()));
+        SQSEvent.SQSMessage amountMessage = createInlineMessage(badAmount);
+        amountMessage.setBody(amountMessage.getBody().replaceFirst("\"amount\":[^,}]+", "\"amount\":\"lots\""));
+        event.getRecords().add(amountMessage);
+        event.getRecords().addAll(createEvent(completed).getRecords());
+        SQSBatchResponse response = entry.handleRequest(event, null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(badVersion.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(badAmount.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(completed.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Lambda_Entry_Acknowledges_Redelivered_Transactions() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        List<MetricsRecord> records = new ArrayList<>();
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(dbClient, mock(AmazonSNS.class),
+                EnvironmentConfig.fromMap(Collections.emptyMap()),
+                (timestamp, published) -> records.addAll(published)));
+        Transaction completed = createTransaction(TRANSACTION_AMOUNT);
+        Transaction inline = createTransaction(TRANSACTION_AMOUNT);
+        entry.handleRequest(createEvent(completed, inline), null);
+        records.clear();
+
+        SQSEvent event = createEvent(completed, completed);
+        event.getRecords().add(createInlineMessage(inline));
+        SQSBatchResponse response = entry.handleRequest(event, null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(1L, getRecord(records, MetricDimensions.NONE).getCounts().get(Metric.ALREADY_SETTLED));
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(completed.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.COMPLETED, transactionDao.load(inline.getTransactionId()).get().getStatus());
+        verifyMultipleTransactions(ImmutableList.of(completed.getTransactionId(), inline.getTransactionId()),
+                INITIAL_BALANCE, INITIAL_BALANCE, PAYER_ID, RECIPIENT_ID);
+    }
+
+    @Test
+    public void test_Lambda_Entry_Holds_Back_Rest_Of_Fifo_Group() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        Transaction first = createTransaction(TRANSACTION_AMOUNT);
+        Transaction notLoaded = createTransaction(TRANSACTION_AMOUNT);
+        Transaction heldBack = createTransaction(TRANSACTION_AMOUNT);
+        Transaction otherGroup = createTransaction(TRANSACTION_AMOUNT);
+        LambdaEntry entry = new LambdaEntry(new RuntimeContext(failingToLoad(notLoaded.getTransactionId()),
+                mock(AmazonSNS.class), EnvironmentConfig.fromMap(
+                        ImmutableMap.of(EnvironmentConfig.ENV_VAR_PROCESSING_PARALLELISM, "4"))));
+
+        SQSEvent event = createEvent(first, notLoaded, heldBack, otherGroup);
+        for (int i = 0; i < event.getRecords().size(); i++) {
+            event.getRecords().get(i).setAttributes(Collections.singletonMap(
+                    LambdaConfig.SQS_MESSAGE_GROUP_ID_ATTRIBUTE, i < 3 ? PAYER_ID : RECIPIENT_ID));
+        }
+        SQSBatchResponse response = entry.handleRequest(event, null);
+
+        assertEquals(ImmutableList.of(event.getRecords().get(1).getMessageId(),
+                event.getRecords().get(2).getMessageId()), response.getBatchItemFailures().stream()
+                .map(SQSBatchResponse.BatchItemFailure::getItemIdentifier).collect(Collectors.toList()));
+        assertEquals(TransactionStatus.COMPLETED, transactionDao.load(first.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(heldBack.getTransactionId()).get().getStatus());
+        assertEquals(TransactionStatus.COMPLETED,
+                transactionDao.load(otherGroup.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Conflict_Aware_Executor_Keeps_Wallet_Order() {
+        ConflictAwareExecutor executor = new ConflictAwareExecutor(4);
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET_ZERO_BALANCE);
+        List<Transaction> trans = ImmutableList.of(createTransaction(60.0), createTransaction(30.0),
+                createTransaction(20.0), createTransaction(10.0));
+
+        List<TransactionTaskResult> results = executor.execute(trans, lambda::processTransaction);
+        executor.shutdown();
+
+        assertEquals(trans.size(), results.size());
+        for (int i = 0; i < trans.size(); i++) {
+            assertEquals(trans.get(i).getTransactionId(), results.get(i).getTransactionId());
+        }
+        assertEquals(TransactionStatus.COMPLETED, results.get(0).getStatus());
+        assertEquals(TransactionStatus.COMPLETED, results.get(1).getStatus());
+        assertEquals(TransactionStatus.ERROR, results.get(2).getStatus());
+        assertEquals(TransactionStatus.COMPLETED, results.get(3).getStatus());
+        verifyMultipleTransactions(trans.stream().map(Transaction::getTransactionId).collect(Collectors.toList()),
+                INITIAL_BALANCE, 0.0, PAYER_ID, RECIPIENT_ID);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 16})
+    public void test_Conflict_Aware_Executor_Settles_Every_Wallet_Pair(int workers) {
+        ConflictAwareExecutor executor = new ConflictAwareExecutor(workers);
+        List<Transaction> trans = new ArrayList<>();
+        Map<Integer, List<String>> idsByPair = new HashMap<>();
+        for (int i = 0; i < 16; i++) {
+            String payerId = PAYER_ID + i;
+            String recipientId = RECIPIENT_ID + i;
+            createUserWallet(payerId, SINGLE_CURRENCY_WALLET);
+            createUserWallet(recipientId, SINGLE_CURRENCY_WALLET);
+            for (int j = 0; j < 4; j++) {
+                Transaction t = createTransaction(payerId, recipientId, CURRENCY_ID, TRANSACTION_AMOUNT);
+                trans.add(t);
+                idsByPair.computeIfAbsent(i, k -> new ArrayList<>()).add(t.getTransactionId());
+            }
+        }
+
+        List<TransactionTaskResult> results = executor.execute(trans, lambda::processTransaction);
+        executor.shutdown();
+
+        assertTrue(results.stream().allMatch(r -> r.getStatus().equals(TransactionStatus.COMPLETED)));
+        idsByPair.forEach((i, ids) -> verifyMultipleTransactions(ids, INITIAL_BALANCE, INITIAL_BALANCE,
+                PAYER_ID + i, RECIPIENT_ID + i));
+    }
+
+    @Test
+    public void test_Transaction_Conflict_Is_Retried() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        WalletDao flakyWalletDao = mock(WalletDao.class);
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new TransactionCanceledException("conflict").withCancellationReasons(
+                        new CancellationReason().withCode(ErrorClassifier.CANCELLATION_TRANSACTION_CONFLICT));
+            }
+            walletDao.doTransactionWrite(invocation.getArgument(0));
+            return null;
+        }).when(flakyWalletDao).doTransactionWrite(anyList());
+        TransactionLambda retryingLambda = new TransactionLambda(transactionDao, flakyWalletDao,
+                new RetryPolicy(3, 1, 10), MetricsRecorder.discarding(), TransactWriter.of(flakyWalletDao),
+                WalletShards.none(), CreditLedger.disabled(), WriteThrottle.disabled(), HotKeyTracker.disabled());
+        Transaction transaction = createTransaction(TRANSACTION_AMOUNT);
+
+        TransactionOutcome outcome = retryingLambda.process(transaction);
+
+        assertEquals(2, attempts.get());
+        assertEquals(TransactionStatus.COMPLETED, outcome.getResult().getStatus());
+        assertEquals(ErrorClass.NONE, outcome.getErrorClass());
+        verify(transaction.getTransactionId(), INITIAL_BALANCE, INITIAL_BALANCE, PAYER_ID, RECIPIENT_ID);
+    }
+
+    @Test
+    public void test_Transaction_Conflict_Is_Left_Pending_When_Attempts_Run_Out() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        WalletDao conflictingWalletDao = mock(WalletDao.class);
+        doAnswer(invocation -> {
+            throw new TransactionCanceledException("conflict").withCancellationReasons(
+                    new CancellationReason().withCode(ErrorClassifier.CANCELLATION_TRANSACTION_CONFLICT));
+        }).when(conflictingWalletDao).doTransactionWrite(anyList());
+        TransactionLambda retryingLambda = new TransactionLambda(transactionDao, conflictingWalletDao,
+                new RetryPolicy(2, 1, 10), MetricsRecorder.discarding(), TransactWriter.of(conflictingWalletDao),
+                WalletShards.none(), CreditLedger.disabled(), WriteThrottle.disabled(), HotKeyTracker.disabled());
+        Transaction transaction = createTransaction(TRANSACTION_AMOUNT);
+
+        TransactionOutcome outcome = retryingLambda.process(transaction);
+
+        assertTrue(outcome.isRetryable());
+        assertEquals(ErrorClass.TRANSACTION_CONFLICT, outcome.getErrorClass());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(transaction.getTransactionId()).get().getStatus());
+    }
+
+    @Test
+    public void test_Insufficient_Balance_Is_Not_Retried() {
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET_ZERO_BALANCE);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET);
+        Transaction transaction = createTransaction(TRANSACTION_AMOUNT);
+
+        TransactionOutcome outcome = lambda.process(transaction);
+
+        assertFalse(outcome.isRetryable());
+        assertEquals(ErrorClass.CONDITION_FAILED, outcome.getErrorClass());
+        assertEquals(TransactionStatus.ERROR, outcome.getResult().getStatus());
+    }
+
+    @Test
+    public void test_Batch_Commit_Isolates_Failed_Transaction() {
+        BatchCommitter committer = new BatchCommitter(lambda, LambdaConfig.MAX_TRANSACT_WRITE_ITEMS);
+        List<Transaction> trans = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            createUserWallet(PAYER_ID + i, i == 1 ? SINGLE_CURRENCY_WALLET_ZERO_BALANCE : SINGLE_CURRENCY_WALLET);
+            createUserWallet(RECIPIENT_ID + i, SINGLE_CURRENCY_WALLET);
+            trans.add(createTransaction(PAYER_ID + i, RECIPIENT_ID + i, CURRENCY_ID, TRANSACTION_AMOUNT));
+        }
+
+        List<TransactionOutcome> outcomes = committer.commit(trans, Long.MAX_VALUE);
+
+        assertEquals(TransactionStatus.COMPLETED, outcomes.get(0).getResult().getStatus());
+        assertEquals(TransactionStatus.ERROR, outcomes.get(1).getResult().getStatus());
+        assertEquals(TransactionStatus.COMPLETED, outcomes.get(2).getResult().getStatus());
+        verify(trans.get(0).getTransactionId(), INITIAL_BALANCE, INITIAL_BALANCE, PAYER_ID + 0, RECIPIENT_ID + 0);
+        verify(trans.get(1).getTransactionId(), 0.0, INITIAL_BALANCE, PAYER_ID + 1, RECIPIENT_ID + 1);
+        verify(trans.get(2).getTransactionId(), INITIAL_BALANCE, INITIAL_BALANCE, PAYER_ID + 2, RECIPIENT_ID + 2);
+    }
+
+    @Test
+    public void test_Batch_Commit_Keeps_Wallet_Order() {
+        BatchCommitter committer = new BatchCommitter(lambda, LambdaConfig.MAX_TRANSACT_WRITE_ITEMS);
+        createUserWallet(PAYER_ID, SINGLE_CURRENCY_WALLET);
+        createUserWallet(RECIPIENT_ID, SINGLE_CURRENCY_WALLET_ZERO_BALANCE);
+        List<Transaction> trans = ImmutableList.of(createTransaction(60.0), createTransaction(30.0),
+                createTransaction(20.0), createTransaction(10.0));
+
+        List<TransactionOutcome> outcomes = committer.commit(trans, Long.MAX_VALUE);
+
+        assertEquals(TransactionStatus.COMPLETED, outcomes.get(0).getResult().getStatus());
+        assertEquals(TransactionStatus.COMPLETED, outcomes.get(1).getResult().getStatus());
+        assertEquals(TransactionStatus.ERROR, outcomes.get(2).getResult().getStatus());
+        assertEquals(TransactionStatus.COMPLETED, outcomes.get(3).getResult().getStatus());
+        verifyMultipleTransactions(trans.stream().map(Transaction::getTransactionId).collect(Collectors.toList()),
+                INITIAL_BALANCE, 0.0, PAYER_ID, RECIPIENT_ID);
+    }
+
     private void runTask(ExecutorService executorService, Collection<Transaction> transactions) {
         for (Transaction r : transactions) {
             executorService.submit(() -> lambda.processTransaction(r));
@@ -421,6 +900,47 @@ public class LambdaTest {
         assertEquals(recipientBeforeWallet, recipientAfterWallet);
     }
 
+    /**
+     * @return a client of the local DynamoDB that always leaves the given transaction unprocessed when loading it.
+     */
+    private AmazonDynamoDB failingToLoad(final String transactionId) {
+        AmazonDynamoDB client = mock(AmazonDynamoDB.class, AdditionalAnswers.delegatesTo(dbClient));
+        doAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            KeysAndAttributes keys = request.getRequestItems().get(TRANSACTION_DDB_TABLE_NAME);
+            List<Map<String, AttributeValue>> toLoad = new ArrayList<>();
+            List<Map<String, AttributeValue>> unprocessed = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys.getKeys()) {
+                boolean failing = key.get(TRANSACTION_DDB_ATTRIBUTE_ID).getS().equals(transactionId);
+                (failing ? unprocessed : toLoad).add(key);
+            }
+            BatchGetItemResult result = toLoad.isEmpty() ? new BatchGetItemResult()
+                    : dbClient.batchGetItem(new BatchGetItemRequest().withRequestItems(Collections.singletonMap(
+                            TRANSACTION_DDB_TABLE_NAME, new KeysAndAttributes().withKeys(toLoad)
+                                    .withConsistentRead(keys.getConsistentRead()))));
+            return result.withUnprocessedKeys(unprocessed.isEmpty() ? Collections.emptyMap()
+                    : Collections.singletonMap(TRANSACTION_DDB_TABLE_NAME,
+                            new KeysAndAttributes().withKeys(unprocessed)));
+        }).when(client).batchGetItem(any(BatchGetItemRequest.class));
+        return client;
+    }
+
+    /**
+     * @return a client of the local DynamoDB whose transactional writes take at least the given time.
+     */
+    private AmazonDynamoDB slowToWrite(final long millis) {
+        AmazonDynamoDB client = mock(AmazonDynamoDB.class, AdditionalAnswers.delegatesTo(dbClient));
+        doAnswer(invocation -> {
+            Thread.sleep(millis);
+            return dbClient.transactWriteItems(invocation.getArgument(0));
+        }).when(client).transactWriteItems(any(TransactWriteItemsRequest.class));
+        return client;
+    }
+
+    private static MetricsRecord getRecord(List<MetricsRecord> records, MetricDimensions dimensions) {
+        return records.stream().filter(r -> r.getDimensions().equals(dimensions)).findFirst().get();
+    }
+
     private Wallet createUserWallet(String ownerId, Map<String, Double> coins) {
         Wallet wallet = Wallet.builder().ownerId(ownerId).coins(coins).type(WalletType.USER).build();
         walletDao.save(wallet);
@@ -432,11 +952,15 @@ public class LambdaTest {
     }
 
     private Transaction createTransaction(String currencyId, double amount) {
+        return createTransaction(PAYER_ID, RECIPIENT_ID, currencyId, amount);
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, String currencyId, double amount) {
         Transaction transaction = Transaction.builder()
                 .transactionId(UUID.randomUUID().toString())
                 .currencyId(currencyId)
                 .amount(amount)
-                .payerId(PAYER_ID).recipientId(RECIPIENT_ID)
+                .payerId(payerId).recipientId(recipientId)
                 .status(TransactionStatus.PENDING)
                 .type(TransactionType.TRANSFER)
                 .build();
@@ -444,25 +968,48 @@ public class LambdaTest {
         return transaction;
     }
 
-    private Transaction createRefundTransaction(Transaction transaction) {
+    private Transaction createRefundTransaction(Transaction... transactions) {
         Transaction refundTransaction = Transaction.builder()
                 .transactionId(UUID.randomUUID().toString())
-                .currencyId(transaction.getCurrencyId())
-                .amount(transaction.getAmount())
-                .payerId(transaction.getRecipientId())
-                .recipientId(transaction.getPayerId())
+                .currencyId(transactions[0].getCurrencyId())
+                .amount(Arrays.stream(transactions).mapToDouble(Transaction::getAmount).sum())
+                .payerId(transactions[0].getRecipientId())
+                .recipientId(transactions[0].getPayerId())
                 .status(TransactionStatus.PENDING)
                 .type(TransactionType.REFUND)
-                .refundTransacIds(ImmutableList.of(transaction.getTransactionId()))
+                .refundTransacIds(Arrays.stream(transactions).map(Transaction::getTransactionId)
+                        .collect(Collectors.toList()))
                 .build();
         transactionDao.save(refundTransaction);
 
-        transaction = transactionDao.load(transaction.getTransactionId()).get();
-        transaction.setStatus(TransactionStatus.REFUND_STARTED);
-        transactionDao.save(transaction);
+        for (Transaction transaction : transactions) {
+            transaction = transactionDao.load(transaction.getTransactionId()).get();
+            transaction.setStatus(TransactionStatus.REFUND_STARTED);
+            transactionDao.save(transaction);
+        }
         return refundTransaction;
     }
 
+    private static SQSEvent.SQSMessage createInlineMessage(Transaction transaction) {
+        SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId(UUID.randomUUID().toString());
+        message.setBody(GSON.toJson(TransactionMessage.inline(transaction)));
+        return message;
+    }
+
+    private static SQSEvent createEvent(Transaction... transactions) {
+        List<SQSEvent.SQSMessage> messages = new ArrayList<>();
+        for (Transaction t : transactions) {
+            SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageId(UUID.randomUUID().toString());
+            message.setBody(GSON.toJson(new TransactionTask(t.getTransactionId())));
+            messages.add(message);
+        }
+        SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+
     private static void createTable() {
         ProvisionedThroughput throughput = new ProvisionedThroughput(5L, 5L);
         localDBClient.amazonDynamoDB().createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
@@ -0,0 +1,140 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PreflightCheckTest {
+    private static final String PAYER_ID = "123";
+    private static final String RECIPIENT_ID = "321";
+    private static final String OTHER_ID = "456";
+    private static final String CURRENCY_ID = "666";
+
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private TransactionLambda lambda;
+    private BalanceSnapshots balances;
+    private PreflightCheck preflightCheck;
+
+    @BeforeEach
+    public void setup() {
+        InMemoryDynamoDB store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        walletDao = new WalletDaoImpl(store, mapper);
+        lambda = new TransactionLambda(transactionDao, walletDao, RetryPolicy.noRetry(),
+                MetricsRecorder.discarding(), TransactWriter.of(store), WalletShards.none(),
+                CreditLedger.disabled(), WriteThrottle.disabled(), HotKeyTracker.disabled());
+        balances = new BalanceSnapshots(store, RetryPolicy.noRetry());
+        preflightCheck = new PreflightCheck(lambda, balances);
+        createWallet(PAYER_ID, 10.0);
+        createWallet(RECIPIENT_ID, 0.0);
+        createWallet(OTHER_ID, 0.0);
+    }
+
+    @Test
+    public void test_Rejects_Malformed_And_Unaffordable_Transfers_Without_Writing() {
+        Transaction affordable = createTransaction(PAYER_ID, RECIPIENT_ID, 10.0);
+        Transaction unaffordable = createTransaction(PAYER_ID, RECIPIENT_ID, 10.5);
+        Transaction negative = createTransaction(PAYER_ID, RECIPIENT_ID, -1.0);
+        Transaction toSelf = createTransaction(PAYER_ID, PAYER_ID, 1.0);
+        // The recipient is credited by the batch, so its transfer may be affordable once that credit lands.
+        Transaction funded = createTransaction(RECIPIENT_ID, OTHER_ID, 15.0);
+        Transaction unfunded = createTransaction(RECIPIENT_ID, OTHER_ID, 40.0);
+
+        List<Transaction> accepted = new ArrayList<>();
+        List<TransactionOutcome> rejected = preflightCheck.screen(ImmutableList.of(affordable, unaffordable,
+                negative, toSelf, funded, unfunded), Long.MAX_VALUE, accepted);
+
+        assertEquals(ImmutableList.of(affordable, funded), accepted);
+        assertEquals(4, rejected.size());
+        assertEquals(ErrorClass.CONDITION_FAILED, getOutcome(rejected, unaffordable).getErrorClass());
+        assertEquals(ErrorClass.VALIDATION, getOutcome(rejected, negative).getErrorClass());
+        assertEquals(ErrorClass.VALIDATION, getOutcome(rejected, toSelf).getErrorClass());
+        assertEquals(ErrorClass.CONDITION_FAILED, getOutcome(rejected, unfunded).getErrorClass());
+        for (Transaction transaction : ImmutableList.of(unaffordable, negative, toSelf, unfunded)) {
+            assertEquals(TransactionStatus.ERROR,
+                    transactionDao.load(transaction.getTransactionId()).get().getStatus());
+        }
+        assertEquals(10.0, walletDao.load(PAYER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(0.0, walletDao.load(RECIPIENT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(0.0, walletDao.load(OTHER_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Snapshots_Only_Live_For_Their_Batch() {
+        Map<String, Map<String, Double>> snapshots = balances.load(ImmutableList.of(PAYER_ID, "missing"),
+                Long.MAX_VALUE);
+        assertEquals(10.0, snapshots.get(PAYER_ID).get(CURRENCY_ID));
+        assertTrue(snapshots.get("missing").isEmpty());
+
+        Transaction unaffordable = createTransaction(PAYER_ID, RECIPIENT_ID, 15.0);
+        List<Transaction> accepted = new ArrayList<>();
+        assertEquals(1, preflightCheck.screen(ImmutableList.of(unaffordable), Long.MAX_VALUE, accepted).size());
+
+        // Credited by another container since, the next batch must not check against the old balance.
+        createWallet(PAYER_ID, 20.0);
+        Transaction affordable = createTransaction(PAYER_ID, RECIPIENT_ID, 15.0);
+        accepted.clear();
+        assertTrue(preflightCheck.screen(ImmutableList.of(affordable), Long.MAX_VALUE, accepted).isEmpty());
+        assertEquals(ImmutableList.of(affordable), accepted);
+    }
+
+    private static TransactionOutcome getOutcome(List<TransactionOutcome> outcomes, Transaction transaction) {
+        return outcomes.stream()
+                .filter(outcome -> outcome.getResult().getTransactionId().equals(transaction.getTransactionId()))
+                .findFirst().get();
+    }
+
+    private void createWallet(String ownerId, double balance) {
+        walletDao.save(Wallet.builder().ownerId(ownerId).coins(ImmutableMap.of(CURRENCY_ID, balance))
+                .type(WalletType.USER).build());
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        transactionDao.save(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,162 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.throttle.WriteThrottle;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class WalletShardsTest {
+    private static final String MERCHANT_ID = "merchant";
+    private static final String CUSTOMER_ID = "customer";
+    private static final String CURRENCY_ID = "666";
+    private static final int SHARD_COUNT = 4;
+
+    private InMemoryDynamoDB store;
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private WalletShards walletShards;
+    private TransactionLambda lambda;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH),
+                        new KeySchemaElement(LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_SHARD, KeyType.RANGE)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        walletDao = new WalletDaoImpl(store, mapper);
+        walletShards = new WalletShards(store, ImmutableSet.of(MERCHANT_ID), SHARD_COUNT);
+        lambda = new TransactionLambda(transactionDao, walletDao, RetryPolicy.noRetry(),
+                MetricsRecorder.discarding(), TransactWriter.of(store), walletShards, CreditLedger.disabled(),
+                WriteThrottle.disabled(), HotKeyTracker.disabled());
+        walletDao.save(Wallet.builder().ownerId(MERCHANT_ID).coins(ImmutableMap.of(CURRENCY_ID, 0.0))
+                .type(WalletType.USER).build());
+        walletDao.save(Wallet.builder().ownerId(CUSTOMER_ID).coins(ImmutableMap.of(CURRENCY_ID, 100.0))
+                .type(WalletType.USER).build());
+    }
+
+    @Test
+    public void test_Credits_Land_In_Shards() {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(TransactionStatus.COMPLETED,
+                    lambda.processTransaction(createTransaction(CUSTOMER_ID, MERCHANT_ID, 1.0)).getStatus());
+        }
+
+        assertEquals(0.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(80.0, walletDao.load(CUSTOMER_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(2, store.size(WALLET_DDB_TABLE_NAME));
+        assertTrue(store.size(LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME) > 1);
+
+        assertTrue(walletShards.consolidate(MERCHANT_ID) > 0);
+        assertEquals(20.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(0, walletShards.consolidate(MERCHANT_ID));
+    }
+
+    @Test
+    public void test_Debit_Draws_From_Shards() {
+        for (int i = 0; i < 10; i++) {
+            lambda.processTransaction(createTransaction(CUSTOMER_ID, MERCHANT_ID, 3.0));
+        }
+
+        Transaction payout = createTransaction(MERCHANT_ID, CUSTOMER_ID, 25.0);
+        assertEquals(TransactionStatus.COMPLETED, lambda.processTransaction(payout).getStatus());
+        assertEquals(5.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(95.0, walletDao.load(CUSTOMER_ID).get().getCoins().get(CURRENCY_ID));
+
+        Transaction overdraft = createTransaction(MERCHANT_ID, CUSTOMER_ID, 6.0);
+        assertEquals(TransactionStatus.ERROR, lambda.processTransaction(overdraft).getStatus());
+        assertEquals(5.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Shards_Do_Not_Collide_With_Wallets() {
+        String lookalikeId = MERCHANT_ID + "#1";
+        walletDao.save(Wallet.builder().ownerId(lookalikeId).coins(ImmutableMap.of(CURRENCY_ID, 0.0))
+                .type(WalletType.USER).build());
+        for (int i = 0; i < 20; i++) {
+            lambda.processTransaction(createTransaction(CUSTOMER_ID, MERCHANT_ID, 1.0));
+        }
+
+        assertEquals(0.0, walletDao.load(lookalikeId).get().getCoins().get(CURRENCY_ID));
+        assertTrue(walletShards.consolidateAll() > 0);
+        assertEquals(20.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+        assertEquals(0.0, walletDao.load(lookalikeId).get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Debit_Survives_Concurrent_Consolidation() {
+        for (int i = 0; i < 10; i++) {
+            lambda.processTransaction(createTransaction(CUSTOMER_ID, MERCHANT_ID, 3.0));
+        }
+        // The scheduled consolidation drains the shards between the read and the write of the debit consolidation.
+        AmazonDynamoDB racing = mock(AmazonDynamoDB.class, AdditionalAnswers.delegatesTo(store));
+        AtomicBoolean raced = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (raced.compareAndSet(false, true)) {
+                assertTrue(walletShards.consolidateAll() > 0);
+            }
+            return store.transactWriteItems(invocation.getArgument(0));
+        }).when(racing).transactWriteItems(any(TransactWriteItemsRequest.class));
+        TransactionLambda racingLambda = new TransactionLambda(transactionDao, walletDao, RetryPolicy.noRetry(),
+                MetricsRecorder.discarding(), TransactWriter.of(store),
+                new WalletShards(racing, ImmutableSet.of(MERCHANT_ID), SHARD_COUNT), CreditLedger.disabled(),
+                WriteThrottle.disabled(), HotKeyTracker.disabled());
+
+        Transaction payout = createTransaction(MERCHANT_ID, CUSTOMER_ID, 25.0);
+        assertEquals(TransactionStatus.COMPLETED, racingLambda.processTransaction(payout).getStatus());
+        assertTrue(raced.get());
+        assertEquals(5.0, walletDao.load(MERCHANT_ID).get().getCoins().get(CURRENCY_ID));
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        transactionDao.save(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,113 @@
+package io.openmarket.transaction.lambda.handler;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.openmarket.config.TransactionConfig.*;
+import static io.openmarket.config.WalletConfig.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WriteItemTemplatesTest {
+    @Test
+    public void test_Templates_Build_Same_Request_As_Before() {
+        for (Transaction transaction : createTransactions()) {
+            assertEquals(buildWithoutTemplates(transaction), WriteItemTemplates.build(transaction));
+        }
+    }
+
+    @Test
+    public void test_Templates_Are_Not_Changed_By_Later_Builds() {
+        final List<Transaction> transactions = createTransactions();
+        final List<List<TransactWriteItem>> built = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            built.add(WriteItemTemplates.build(transaction));
+        }
+        for (int i = 0; i < transactions.size(); i++) {
+            assertEquals(buildWithoutTemplates(transactions.get(i)), built.get(i));
+        }
+    }
+
+    /**
+     * Transactions covering both types and several currencies, shared with {@code WriteItemTemplatesBenchmark}.
+     */
+    static List<Transaction> createTransactions() {
+        final List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            transactions.add(Transaction.builder()
+                    .transactionId("transaction" + i)
+                    .payerId("payer" + i)
+                    .recipientId("recipient" + i)
+                    .currencyId(i % 2 == 0 ? "coin" : "token")
+                    .amount(i + 0.5)
+                    .type(i % 4 == 0 ? TransactionType.REFUND : TransactionType.TRANSFER)
+                    .refundTransacIds(Collections.singletonList("original" + i))
+                    .build());
+        }
+        return transactions;
+    }
+
+    /**
+     * The write items as they were built before the templates, every map rebuilt for each transaction.
+     */
+    static List<TransactWriteItem> buildWithoutTemplates(final Transaction transaction) {
+        final Map<String, String> attributeNames = ImmutableMap.of("#cm", WALLET_DDB_ATTRIBUTE_COIN_MAP,
+                "#coin", transaction.getCurrencyId());
+        final List<TransactWriteItem> items = Stream.of(
+                new TransactWriteItem().withUpdate(new Update()
+                        .withKey(ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID,
+                                new AttributeValue(transaction.getPayerId())))
+                        .withUpdateExpression("SET #cm.#coin = #cm.#coin - :val")
+                        .withConditionExpression("attribute_exists(#cm.#coin) AND #cm.#coin >= :val")
+                        .withExpressionAttributeNames(attributeNames)
+                        .withExpressionAttributeValues(ImmutableMap.of(":val",
+                                new AttributeValue().withN(String.valueOf(transaction.getAmount()))))
+                        .withTableName(WALLET_DDB_TABLE_NAME)),
+                new TransactWriteItem().withUpdate(new Update()
+                        .withKey(ImmutableMap.of(WALLET_DDB_ATTRIBUTE_OWNER_ID,
+                                new AttributeValue(transaction.getRecipientId())))
+                        .withUpdateExpression("SET #cm.#coin = if_not_exists(#cm.#coin, :default) + :val")
+                        .withConditionExpression("attribute_exists(#cm)")
+                        .withExpressionAttributeNames(attributeNames)
+                        .withExpressionAttributeValues(ImmutableMap.of(
+                                ":val", new AttributeValue().withN(String.valueOf(transaction.getAmount())),
+                                ":default", new AttributeValue()
+                                        .withN(String.valueOf(LambdaConfig.INITIAL_COIN_AMOUNT))))
+                        .withTableName(WALLET_DDB_TABLE_NAME)),
+                buildStatusUpdate(transaction.getTransactionId(), TransactionStatus.COMPLETED,
+                        TransactionStatus.PENDING)
+        ).collect(Collectors.toList());
+        if (transaction.getType().equals(TransactionType.REFUND)) {
+            items.add(buildStatusUpdate(transaction.getRefundTransacIds().get(0), TransactionStatus.REFUNDED,
+                    TransactionStatus.REFUND_STARTED));
+        }
+        return items;
+    }
+
+    private static TransactWriteItem buildStatusUpdate(final String transactionId,
+                                                       final TransactionStatus finalStatus,
+                                                       final TransactionStatus preStatus) {
+        return new TransactWriteItem().withUpdate(new Update()
+                .withKey(ImmutableMap.of(TRANSACTION_DDB_ATTRIBUTE_ID, new AttributeValue(transactionId)))
+                .withUpdateExpression("SET #stat = :statVal")
+                .withConditionExpression("#stat = :condVal")
+                .withExpressionAttributeNames(ImmutableMap.of("#stat", TRANSACTION_DDB_ATTRIBUTE_STATUS))
+                .withExpressionAttributeValues(ImmutableMap.of(
+                        ":statVal", new AttributeValue(String.valueOf(finalStatus)),
+                        ":condVal", new AttributeValue(preStatus.toString())))
+                .withTableName(TRANSACTION_DDB_TABLE_NAME));
+    }
+}
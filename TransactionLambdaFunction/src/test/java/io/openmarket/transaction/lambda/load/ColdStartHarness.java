@@ -0,0 +1,169 @@
+package io.openmarket.transaction.lambda.load;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.lambda.sns.InMemorySNS;
+import io.openmarket.transaction.model.TransactionStatus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_STATUS;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_COIN_MAP;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+
+/**
+ * Measures the time to first result of a cold container, with and without
+ * {@link io.openmarket.transaction.lambda.entry.StartupPriming}. Every sample is a new JVM that seeds an
+ * {@link InMemoryDynamoDB} with raw items, so neither the mapper nor Gson is loaded, then builds the
+ * {@link LambdaEntry} the way the Lambda runtime does and hands it a batch of one transfer. The report gives the
+ * init time, the first and second invocation times and the time from init to the first result. Options are given
+ * as {@code --name=value}, see {@link Options} for the names and defaults:
+ * <pre>
+ * ./gradlew coldStartTest -PcoldStartArgs="--runs=20"
+ * </pre>
+ */
+public class ColdStartHarness {
+    private static final String RESULT_PREFIX = "COLD_START ";
+    private static final String CURRENCY_ID = "coin";
+
+    public static void main(final String[] args) throws Exception {
+        final Options options = LoadOptions.parse(new Options(), args);
+        if (options.child) {
+            System.out.println(RESULT_PREFIX + measure(options.prime));
+            return;
+        }
+        for (boolean prime : new boolean[] {false, true}) {
+            final List<long[]> samples = new ArrayList<>(options.runs);
+            for (int run = 0; run < options.runs; run++) {
+                samples.add(runChild(prime));
+            }
+            System.out.println(format(prime ? "primed" : "unprimed", samples));
+        }
+    }
+
+    /**
+     * @return the init, first invocation, second invocation, time to first result and JVM start to first result
+     * millis, separated by spaces.
+     */
+    private static String measure(final boolean prime) {
+        final InMemoryDynamoDB store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        for (String ownerId : Arrays.asList("payer", "recipient")) {
+            store.putItem(new PutItemRequest().withTableName(WALLET_DDB_TABLE_NAME).withItem(ImmutableMap.of(
+                    WALLET_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue(ownerId),
+                    WALLET_DDB_ATTRIBUTE_COIN_MAP, new AttributeValue().withM(Collections.singletonMap(CURRENCY_ID,
+                            new AttributeValue().withN("100"))))));
+        }
+        for (String transactionId : Arrays.asList("first", "second")) {
+            store.putItem(new PutItemRequest().withTableName(TRANSACTION_DDB_TABLE_NAME).withItem(ImmutableMap.of(
+                    TRANSACTION_DDB_ATTRIBUTE_ID, new AttributeValue(transactionId),
+                    TRANSACTION_DDB_ATTRIBUTE_STATUS, new AttributeValue(TransactionStatus.PENDING.toString()))));
+        }
+
+        final long initStart = System.currentTimeMillis();
+        final LambdaEntry entry = new LambdaEntry(new RuntimeContext(store, new InMemorySNS(),
+                EnvironmentConfig.fromMap(ImmutableMap.of(EnvironmentConfig.ENV_VAR_ENABLE_STARTUP_PRIMING,
+                        String.valueOf(prime)))));
+        final long firstStart = System.currentTimeMillis();
+        invoke(entry, "first");
+        final long firstEnd = System.currentTimeMillis();
+        invoke(entry, "second");
+        final long secondEnd = System.currentTimeMillis();
+        return String.format("%d %d %d %d %d", firstStart - initStart, firstEnd - firstStart, secondEnd - firstEnd,
+                firstEnd - initStart, firstEnd - ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    private static void invoke(final LambdaEntry entry, final String transactionId) {
+        final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId(transactionId);
+        // Written by hand, serializing it would load Gson before the entry does.
+        message.setBody(String.format("{\"version\":2,\"transactionId\":\"%s\",\"transaction\":{\"payerId\":"
+                + "\"payer\",\"recipientId\":\"recipient\",\"currencyId\":\"%s\",\"amount\":1.0,"
+                + "\"type\":\"TRANSFER\"}}", transactionId, CURRENCY_ID));
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(Collections.singletonList(message));
+        final SQSBatchResponse response = entry.handleRequest(event, null);
+        if (!response.getBatchItemFailures().isEmpty()) {
+            throw new IllegalStateException("Transaction " + transactionId + " was not processed");
+        }
+    }
+
+    private static long[] runChild(final boolean prime) throws Exception {
+        final List<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path")));
+        if (System.getProperty("log4j.configurationFile") != null) {
+            command.add("-Dlog4j.configurationFile=" + System.getProperty("log4j.configurationFile"));
+        }
+        command.addAll(Arrays.asList(ColdStartHarness.class.getName(), "--child=true", "--prime=" + prime));
+        final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result = line.substring(RESULT_PREFIX.length());
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("The measured JVM failed with status " + process.exitValue());
+        }
+        return Arrays.stream(result.split(" ")).mapToLong(Long::parseLong).toArray();
+    }
+
+    private static String format(final String name, final List<long[]> samples) {
+        final String[] columns = {"init", "first invocation", "second invocation", "time to first result",
+                "JVM start to first result"};
+        final StringBuilder report = new StringBuilder(String.format("%s, %d runs, p50/p90/max ms:%n", name,
+                samples.size()));
+        for (int column = 0; column < columns.length; column++) {
+            final long[] values = new long[samples.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = samples.get(i)[column];
+            }
+            Arrays.sort(values);
+            report.append(String.format("  %-26s %6d %6d %6d%n", columns[column],
+                    values[(values.length - 1) / 2], values[(int) Math.ceil(values.length * 0.9) - 1],
+                    values[values.length - 1]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * The options of a cold start run.
+     */
+    public static final class Options {
+        /** The number of JVMs measured with and without priming each. */
+        int runs = 10;
+        /** Set for the measured JVMs. */
+        boolean child = false;
+        /** Whether the measured JVM primes its runtime. */
+        boolean prime = false;
+    }
+}
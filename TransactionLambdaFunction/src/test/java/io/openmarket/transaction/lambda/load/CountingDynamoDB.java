@@ -0,0 +1,94 @@
+package io.openmarket.transaction.lambda.load;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.*;
+import io.openmarket.transaction.lambda.handler.ErrorClassifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegates to another {@link AmazonDynamoDB} and counts the write conflicts, so the same numbers are reported
+ * for DynamoDB Local and the in-memory store.
+ */
+public class CountingDynamoDB extends AbstractAmazonDynamoDB {
+    private final AmazonDynamoDB delegate;
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    public CountingDynamoDB(final AmazonDynamoDB delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(final TransactWriteItemsRequest request) {
+        writes.incrementAndGet();
+        try {
+            return delegate.transactWriteItems(request);
+        } catch (TransactionCanceledException e) {
+            if (e.getCancellationReasons() != null && e.getCancellationReasons().stream()
+                    .anyMatch(r -> ErrorClassifier.CANCELLATION_TRANSACTION_CONFLICT.equals(r.getCode()))) {
+                conflicts.incrementAndGet();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public UpdateItemResult updateItem(final UpdateItemRequest request) {
+        writes.incrementAndGet();
+        try {
+            return delegate.updateItem(request);
+        } catch (TransactionConflictException e) {
+            conflicts.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public PutItemResult putItem(final PutItemRequest request) {
+        writes.incrementAndGet();
+        try {
+            return delegate.putItem(request);
+        } catch (TransactionConflictException e) {
+            conflicts.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public GetItemResult getItem(final GetItemRequest request) {
+        return delegate.getItem(request);
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(final BatchGetItemRequest request) {
+        return delegate.batchGetItem(request);
+    }
+
+    @Override
+    public CreateTableResult createTable(final CreateTableRequest request) {
+        return delegate.createTable(request);
+    }
+
+    @Override
+    public DeleteTableResult deleteTable(final String tableName) {
+        return delegate.deleteTable(tableName);
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * Resets the counters, for example after a warm-up.
+     */
+    public void reset() {
+        writes.set(0);
+        conflicts.set(0);
+    }
+}
@@ -0,0 +1,311 @@
+package io.openmarket.transaction.lambda.load;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.lambda.task.TransactionMessage;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drives {@link LambdaEntry} with synthetic SQS batches for capacity planning. Payers and recipients are drawn
+ * from a Zipf distribution over the wallets, so a few hot wallets receive most of the traffic, and a share of the
+ * transactions refunds transactions completed during the warm-up. Concurrent invocations share one store, either
+ * DynamoDB Local or an {@link InMemoryDynamoDB} that holds the items of a transaction for a configurable latency.
+ * <p>
+ * Options are given as {@code --name=value}, see {@link Options} for the names and defaults:
+ * <pre>
+ * ./gradlew loadTest -PloadArgs="--backend=memory --invocations=500 --concurrency=8 --zipfExponent=1.2"
+ * </pre>
+ */
+@Log4j2
+public class LoadGenerator {
+    private static final Gson GSON = new Gson();
+    private static final int MAX_BATCH_LOAD = 100;
+
+    private final CountingDynamoDB client;
+    private final Options options;
+    private final Random random;
+    private final ZipfDistribution wallets;
+    private final RuntimeContext setupContext;
+
+    public LoadGenerator(final CountingDynamoDB client, final Options options) {
+        this.client = client;
+        this.options = options;
+        this.random = new Random(options.seed);
+        this.wallets = new ZipfDistribution(options.wallets, options.zipfExponent);
+        this.setupContext = newRuntimeContext();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Options options = Options.parse(args);
+        AmazonDynamoDBLocal local = null;
+        final AmazonDynamoDB store;
+        if ("local".equals(options.backend)) {
+            local = DynamoDBEmbedded.create();
+            store = local.amazonDynamoDB();
+        } else {
+            store = new InMemoryDynamoDB(options.latencyMicros);
+        }
+        try {
+            final LoadReport report = new LoadGenerator(new CountingDynamoDB(store), options).run();
+            System.out.println(report.format());
+        } finally {
+            if (local != null) {
+                local.shutdown();
+            }
+        }
+    }
+
+    public LoadReport run() throws Exception {
+        createTables();
+        createWallets();
+        final List<String> refundable = warmUp();
+        final List<List<Transaction>> batches = new ArrayList<>(options.invocations);
+        for (int i = 0; i < options.invocations; i++) {
+            batches.add(createBatch(refundable));
+        }
+        client.reset();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(options.concurrency);
+        final ThreadLocal<LambdaEntry> entries = ThreadLocal.withInitial(() -> new LambdaEntry(newRuntimeContext()));
+        final long[] latencyNanos = new long[batches.size()];
+        final AtomicInteger redelivered = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>(batches.size());
+        final long start = System.nanoTime();
+        for (int i = 0; i < batches.size(); i++) {
+            final int index = i;
+            final SQSEvent event = createEvent(batches.get(i));
+            futures.add(pool.submit(() -> {
+                final long invocationStart = System.nanoTime();
+                final SQSBatchResponse response = entries.get().handleRequest(event, null);
+                latencyNanos[index] = System.nanoTime() - invocationStart;
+                redelivered.addAndGet(response.getBatchItemFailures().size());
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        pool.shutdown();
+
+        int transactions = 0;
+        int completed = 0;
+        int insufficientBalance = 0;
+        int pending = 0;
+        for (Transaction transaction : loadAll(batches)) {
+            transactions++;
+            if (TransactionStatus.COMPLETED.equals(transaction.getStatus())) {
+                completed++;
+            } else if (TransactionErrorType.INSUFFICIENT_BALANCE.equals(transaction.getError())) {
+                insufficientBalance++;
+            } else if (TransactionStatus.PENDING.equals(transaction.getStatus())) {
+                pending++;
+            }
+        }
+        return new LoadReport(transactions, elapsedNanos, latencyNanos, client.getWrites(), client.getConflicts(),
+                completed, insufficientBalance, pending, redelivered.get());
+    }
+
+    /**
+     * Settles transfers before the measured run, to warm up the JIT and to have completed transactions to refund.
+     * @return the IDs of the transactions that can be refunded.
+     */
+    private List<String> warmUp() {
+        final List<List<Transaction>> batches = new ArrayList<>();
+        final LambdaEntry entry = new LambdaEntry(setupContext);
+        for (int i = 0; i < options.warmupInvocations; i++) {
+            final List<Transaction> batch = createBatch(new ArrayList<>());
+            entry.handleRequest(createEvent(batch), null);
+            batches.add(batch);
+        }
+        final List<String> refundable = new ArrayList<>();
+        for (Transaction transaction : loadAll(batches)) {
+            if (TransactionStatus.COMPLETED.equals(transaction.getStatus())) {
+                refundable.add(transaction.getTransactionId());
+            }
+        }
+        log.info("Warm-up completed {} transactions", refundable.size());
+        return refundable;
+    }
+
+    private List<Transaction> createBatch(final List<String> refundable) {
+        final TransactionDao transactionDao = setupContext.getTransactionDao();
+        final List<Transaction> batch = new ArrayList<>(options.batchSize);
+        for (int i = 0; i < options.batchSize; i++) {
+            final Transaction transaction;
+            if (!refundable.isEmpty() && random.nextDouble() < options.refundRate) {
+                final Transaction original = transactionDao.load(
+                        refundable.remove(random.nextInt(refundable.size()))).get();
+                original.setStatus(TransactionStatus.REFUND_STARTED);
+                transactionDao.save(original);
+                transaction = newTransaction(original.getRecipientId(), original.getPayerId(),
+                        original.getCurrencyId(), original.getAmount(), TransactionType.REFUND)
+                        .refundTransacIds(ImmutableList.of(original.getTransactionId()))
+                        .build();
+            } else {
+                final int payer = wallets.sample(random);
+                int recipient = wallets.sample(random);
+                if (recipient == payer) {
+                    recipient = (recipient + 1) % options.wallets;
+                }
+                transaction = newTransaction(getWalletId(payer), getWalletId(recipient),
+                        getCurrencyId(random.nextInt(options.currencies)), 1 + random.nextInt(options.maxAmount),
+                        TransactionType.TRANSFER).build();
+            }
+            transactionDao.save(transaction);
+            batch.add(transaction);
+        }
+        return batch;
+    }
+
+    private static Transaction.TransactionBuilder newTransaction(final String payerId, final String recipientId,
+                                                                 final String currencyId, final double amount,
+                                                                 final TransactionType type) {
+        return Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId)
+                .recipientId(recipientId)
+                .currencyId(currencyId)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(type);
+    }
+
+    private List<Transaction> loadAll(final List<List<Transaction>> batches) {
+        final List<String> ids = new ArrayList<>();
+        for (List<Transaction> batch : batches) {
+            for (Transaction transaction : batch) {
+                ids.add(transaction.getTransactionId());
+            }
+        }
+        final List<Transaction> transactions = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i += MAX_BATCH_LOAD) {
+            transactions.addAll(setupContext.getTransactionDao().batchLoad(
+                    ids.subList(i, Math.min(ids.size(), i + MAX_BATCH_LOAD))));
+        }
+        return transactions;
+    }
+
+    private void createTables() {
+        final ProvisionedThroughput throughput = new ProvisionedThroughput(5L, 5L);
+        client.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH))
+                .withAttributeDefinitions(new AttributeDefinition(TRANSACTION_DDB_ATTRIBUTE_ID, ScalarAttributeType.S))
+                .withProvisionedThroughput(throughput));
+        client.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH))
+                .withAttributeDefinitions(
+                        new AttributeDefinition(WALLET_DDB_ATTRIBUTE_OWNER_ID, ScalarAttributeType.S))
+                .withProvisionedThroughput(throughput));
+    }
+
+    private void createWallets() {
+        final Map<String, Double> coins = new HashMap<>();
+        for (int i = 0; i < options.currencies; i++) {
+            coins.put(getCurrencyId(i), options.initialBalance);
+        }
+        for (int i = 0; i < options.wallets; i++) {
+            setupContext.getWalletDao().save(Wallet.builder().ownerId(getWalletId(i)).coins(new HashMap<>(coins))
+                    .type(WalletType.USER).build());
+        }
+    }
+
+    private RuntimeContext newRuntimeContext() {
+        return new RuntimeContext(client, mock(AmazonSNS.class), EnvironmentConfig.fromMap(ImmutableMap.of(
+                EnvironmentConfig.ENV_VAR_PROCESSING_PARALLELISM, String.valueOf(options.processingParallelism),
+                EnvironmentConfig.ENV_VAR_ENABLE_BATCH_COMMIT, String.valueOf(options.batchCommit))));
+    }
+
+    private SQSEvent createEvent(final List<Transaction> transactions) {
+        final List<SQSEvent.SQSMessage> messages = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageId(UUID.randomUUID().toString());
+            message.setBody(options.inline ? GSON.toJson(TransactionMessage.inline(transaction))
+                    : GSON.toJson(new TransactionTask(transaction.getTransactionId())));
+            messages.add(message);
+        }
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+
+    private static String getWalletId(final int rank) {
+        return "wallet-" + rank;
+    }
+
+    private static String getCurrencyId(final int index) {
+        return "currency-" + index;
+    }
+
+    /**
+     * The options of a load run.
+     */
+    public static final class Options {
+        /** "memory" for the in-memory store, "local" for DynamoDB Local. */
+        String backend = "memory";
+        /** The number of measured invocations. */
+        int invocations = 200;
+        /** The number of unmeasured invocations before the run. */
+        int warmupInvocations = 20;
+        /** The number of invocations running at the same time, each with its own runtime context. */
+        int concurrency = 4;
+        /** The number of messages per SQS batch. */
+        int batchSize = 10;
+        int wallets = 1000;
+        /** The Zipf exponent of the payer and recipient distribution, 0 is uniform. */
+        double zipfExponent = 1.0;
+        double refundRate = 0.05;
+        int currencies = 3;
+        double initialBalance = 100;
+        /** Amounts are drawn uniformly from 1 to this value. */
+        int maxAmount = 10;
+        /** How long the in-memory store holds the items of a transaction. */
+        long latencyMicros = 1000;
+        int processingParallelism = 1;
+        boolean batchCommit = false;
+        /** Whether the messages embed the transactions so they are not loaded. */
+        boolean inline = false;
+        long seed = 42;
+
+        public static Options parse(final String[] args) {
+            return LoadOptions.parse(new Options(), args);
+        }
+    }
+}
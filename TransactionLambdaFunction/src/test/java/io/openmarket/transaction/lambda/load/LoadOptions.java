@@ -0,0 +1,42 @@
+package io.openmarket.transaction.lambda.load;
+
+/**
+ * Parses {@code --name=value} arguments into the fields of an options object, so a load tool only declares its
+ * options and their defaults.
+ */
+final class LoadOptions {
+    private LoadOptions() {}
+
+    /**
+     * @param options the options object, whose declared fields are set by name.
+     * @param args the arguments.
+     * @return the options object.
+     */
+    static <T> T parse(final T options, final String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            final String name = arg.substring(2, arg.indexOf('='));
+            final String value = arg.substring(arg.indexOf('=') + 1);
+            try {
+                final java.lang.reflect.Field field = options.getClass().getDeclaredField(name);
+                final Class<?> type = field.getType();
+                if (type == int.class) {
+                    field.setInt(options, Integer.parseInt(value));
+                } else if (type == long.class) {
+                    field.setLong(options, Long.parseLong(value));
+                } else if (type == double.class) {
+                    field.setDouble(options, Double.parseDouble(value));
+                } else if (type == boolean.class) {
+                    field.setBoolean(options, Boolean.parseBoolean(value));
+                } else {
+                    field.set(options, value);
+                }
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new IllegalArgumentException("Unknown option " + name, e);
+            }
+        }
+        return options;
+    }
+}
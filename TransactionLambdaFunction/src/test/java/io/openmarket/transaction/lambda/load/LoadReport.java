@@ -0,0 +1,84 @@
+package io.openmarket.transaction.lambda.load;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a load run.
+ */
+public class LoadReport {
+    private final int invocations;
+    private final int transactions;
+    private final long elapsedNanos;
+    private final long[] latencyNanos;
+    private final long writes;
+    private final long conflicts;
+    private final int completed;
+    private final int insufficientBalance;
+    private final int pending;
+    private final int redelivered;
+
+    public LoadReport(final int transactions, final long elapsedNanos, final long[] latencyNanos,
+                      final long writes, final long conflicts, final int completed, final int insufficientBalance,
+                      final int pending, final int redelivered) {
+        this.invocations = latencyNanos.length;
+        this.transactions = transactions;
+        this.elapsedNanos = elapsedNanos;
+        this.latencyNanos = latencyNanos.clone();
+        Arrays.sort(this.latencyNanos);
+        this.writes = writes;
+        this.conflicts = conflicts;
+        this.completed = completed;
+        this.insufficientBalance = insufficientBalance;
+        this.pending = pending;
+        this.redelivered = redelivered;
+    }
+
+    public double getThroughput() {
+        return transactions / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @param quantile the quantile in (0, 1].
+     * @return the invocation latency at the quantile, in milliseconds.
+     */
+    public double getLatencyMillis(final double quantile) {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(quantile * latencyNanos.length) - 1;
+        return latencyNanos[Math.max(0, Math.min(index, latencyNanos.length - 1))] / 1e6;
+    }
+
+    public double getConflictRate() {
+        return writes == 0 ? 0 : conflicts / (double) writes;
+    }
+
+    public double getInsufficientBalanceRate() {
+        return transactions == 0 ? 0 : insufficientBalance / (double) transactions;
+    }
+
+    public int getTransactions() {
+        return transactions;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public String format() {
+        return String.format("invocations: %d, transactions: %d, elapsed: %.1f s%n"
+                        + "throughput: %.1f transactions/s%n"
+                        + "invocation latency p50: %.2f ms, p99: %.2f ms, p999: %.2f ms%n"
+                        + "writes: %d, conflicts: %d (%.2f%%)%n"
+                        + "completed: %d, insufficient balance: %d (%.2f%%), pending: %d, redelivered messages: %d",
+                invocations, transactions, elapsedNanos / 1e9, getThroughput(),
+                getLatencyMillis(0.5), getLatencyMillis(0.99), getLatencyMillis(0.999),
+                writes, conflicts, getConflictRate() * 100,
+                completed, insufficientBalance, getInsufficientBalanceRate() * 100, pending, redelivered);
+    }
+}
@@ -0,0 +1,255 @@
+package io.openmarket.transaction.lambda.load;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.lambda.reconcile.ReconciliationReport;
+import io.openmarket.transaction.lambda.reconcile.WalletReconciler;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+
+/**
+ * Seeds a store with synthetic wallets and transactions, drifts a few balances and measures how fast
+ * {@link WalletReconciler} scans and reconciles them. The wallet balances are the opening balances plus the
+ * settled transactions, so the report must list exactly the drifted balances. Options are given as
+ * {@code --name=value}, see {@link Options} for the names and defaults:
+ * <pre>
+ * ./gradlew reconcileLoadTest -PreconcileArgs="--backend=local --wallets=200000 --transactions=2000000"
+ * </pre>
+ */
+@Log4j2
+public class ReconciliationLoad {
+    private static final int MAX_BATCH_WRITE_ITEMS = 25;
+
+    private final AmazonDynamoDB client;
+    private final Options options;
+    private final Random random;
+    private final DynamoDBMapperTableModel<Transaction> transactionModel;
+    private final DynamoDBMapperTableModel<Wallet> walletModel;
+
+    public ReconciliationLoad(final AmazonDynamoDB client, final Options options) {
+        this.client = client;
+        this.options = options;
+        this.random = new Random(options.seed);
+        final DynamoDBMapper mapper = new DynamoDBMapper(client);
+        this.transactionModel = mapper.getTableModel(Transaction.class);
+        this.walletModel = mapper.getTableModel(Wallet.class);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Options options = LoadOptions.parse(new Options(), args);
+        AmazonDynamoDBLocal local = null;
+        final AmazonDynamoDB store;
+        if ("local".equals(options.backend)) {
+            local = DynamoDBEmbedded.create();
+            store = local.amazonDynamoDB();
+        } else {
+            store = new InMemoryDynamoDB();
+        }
+        try {
+            final ReconciliationReport report = new ReconciliationLoad(store, options).run();
+            System.out.println(report.format());
+        } finally {
+            if (local != null) {
+                local.shutdown();
+            }
+        }
+    }
+
+    public ReconciliationReport run() throws Exception {
+        createTables();
+        final File openingBalances = File.createTempFile("opening-balances", ".csv");
+        openingBalances.deleteOnExit();
+        final double[] balances = new double[options.wallets * options.currencies];
+        try (BufferedWriter writer = Files.newBufferedWriter(openingBalances.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < balances.length; i++) {
+                balances[i] = options.openingBalance;
+                writer.write(String.format("%s,%s,%s%n", getWalletId(i / options.currencies),
+                        getCurrencyId(i % options.currencies), options.openingBalance));
+            }
+        }
+
+        final ExecutorService writers = Executors.newFixedThreadPool(options.writers);
+        final List<Future<?>> writes = new ArrayList<>();
+        final long start = System.currentTimeMillis();
+        List<Map<String, AttributeValue>> chunk = new ArrayList<>(MAX_BATCH_WRITE_ITEMS);
+        for (int i = 0; i < options.transactions; i++) {
+            final Transaction transaction = createTransaction();
+            if (TransactionStatus.COMPLETED.equals(transaction.getStatus())) {
+                balances[getIndex(transaction.getPayerId(), transaction.getCurrencyId())] -= transaction.getAmount();
+                balances[getIndex(transaction.getRecipientId(), transaction.getCurrencyId())] +=
+                        transaction.getAmount();
+            }
+            chunk.add(transactionModel.convert(transaction));
+            if (chunk.size() == MAX_BATCH_WRITE_ITEMS) {
+                writes.add(submitWrite(writers, TRANSACTION_DDB_TABLE_NAME, chunk));
+                chunk = new ArrayList<>(MAX_BATCH_WRITE_ITEMS);
+            }
+        }
+        writes.add(submitWrite(writers, TRANSACTION_DDB_TABLE_NAME, chunk));
+
+        // Every drifted wallet gets one more coin of its first currency than it should have.
+        final int driftStride = Math.max(1, options.wallets / Math.max(1, options.drifts));
+        chunk = new ArrayList<>(MAX_BATCH_WRITE_ITEMS);
+        for (int wallet = 0; wallet < options.wallets; wallet++) {
+            final Map<String, Double> coins = new HashMap<>();
+            for (int currency = 0; currency < options.currencies; currency++) {
+                coins.put(getCurrencyId(currency), balances[wallet * options.currencies + currency]);
+            }
+            if (wallet % driftStride == 0 && wallet / driftStride < options.drifts) {
+                coins.merge(getCurrencyId(0), 1.0, Double::sum);
+            }
+            chunk.add(walletModel.convert(Wallet.builder().ownerId(getWalletId(wallet)).coins(coins)
+                    .type(WalletType.USER).build()));
+            if (chunk.size() == MAX_BATCH_WRITE_ITEMS) {
+                writes.add(submitWrite(writers, WALLET_DDB_TABLE_NAME, chunk));
+                chunk = new ArrayList<>(MAX_BATCH_WRITE_ITEMS);
+            }
+        }
+        writes.add(submitWrite(writers, WALLET_DDB_TABLE_NAME, chunk));
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        writers.shutdown();
+        final long seedMillis = System.currentTimeMillis() - start;
+        log.info("Seeded {} transactions and {} wallets in {} ms ({} items/s)", options.transactions,
+                options.wallets, seedMillis,
+                (options.transactions + options.wallets) * 1000L / Math.max(1, seedMillis));
+
+        final WalletReconciler reconciler = new WalletReconciler(client, WalletShards.none(), CreditLedger.disabled(),
+                options.segments, 0);
+        try (BufferedReader reader = Files.newBufferedReader(openingBalances.toPath(), StandardCharsets.UTF_8)) {
+            return reconciler.reconcile(reader);
+        }
+    }
+
+    private Transaction createTransaction() {
+        final int payer = random.nextInt(options.wallets);
+        int recipient = random.nextInt(options.wallets);
+        if (recipient == payer) {
+            recipient = (recipient + 1) % options.wallets;
+        }
+        final double outcome = random.nextDouble();
+        return Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(getWalletId(payer))
+                .recipientId(getWalletId(recipient))
+                .currencyId(getCurrencyId(random.nextInt(options.currencies)))
+                .amount((double) (1 + random.nextInt(options.maxAmount)))
+                .status(outcome < options.pendingRate ? TransactionStatus.PENDING
+                        : outcome < options.pendingRate + options.errorRate ? TransactionStatus.ERROR
+                        : TransactionStatus.COMPLETED)
+                .type(TransactionType.TRANSFER)
+                .build();
+    }
+
+    /**
+     * Writes the items with BatchWriteItem, sending the unprocessed items again until every item is written.
+     */
+    private Future<?> submitWrite(final ExecutorService writers, final String tableName,
+                                  final List<Map<String, AttributeValue>> items) {
+        return writers.submit(() -> {
+            if (items.isEmpty()) {
+                return;
+            }
+            final List<WriteRequest> requests = new ArrayList<>(items.size());
+            for (Map<String, AttributeValue> item : items) {
+                requests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+            }
+            Map<String, List<WriteRequest>> unprocessed = Collections.singletonMap(tableName, requests);
+            while (unprocessed != null && !unprocessed.isEmpty()) {
+                unprocessed = client.batchWriteItem(new BatchWriteItemRequest().withRequestItems(unprocessed))
+                        .getUnprocessedItems();
+            }
+        });
+    }
+
+    private void createTables() {
+        final ProvisionedThroughput throughput = new ProvisionedThroughput(5L, 5L);
+        client.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH))
+                .withAttributeDefinitions(new AttributeDefinition(TRANSACTION_DDB_ATTRIBUTE_ID, ScalarAttributeType.S))
+                .withProvisionedThroughput(throughput));
+        client.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH))
+                .withAttributeDefinitions(
+                        new AttributeDefinition(WALLET_DDB_ATTRIBUTE_OWNER_ID, ScalarAttributeType.S))
+                .withProvisionedThroughput(throughput));
+    }
+
+    private int getIndex(final String walletId, final String currencyId) {
+        return Integer.parseInt(walletId.substring(walletId.indexOf('-') + 1)) * options.currencies
+                + Integer.parseInt(currencyId.substring(currencyId.indexOf('-') + 1));
+    }
+
+    private static String getWalletId(final int index) {
+        return "wallet-" + index;
+    }
+
+    private static String getCurrencyId(final int index) {
+        return "currency-" + index;
+    }
+
+    /**
+     * The options of a reconciliation load run.
+     */
+    public static final class Options {
+        /** "memory" for the in-memory store, "local" for DynamoDB Local. */
+        String backend = "memory";
+        int wallets = 10000;
+        int currencies = 3;
+        int transactions = 100000;
+        /** The number of wallets whose balance is off by one coin. */
+        int drifts = 10;
+        double openingBalance = 1000;
+        /** Amounts are drawn uniformly from 1 to this value. */
+        int maxAmount = 10;
+        double pendingRate = 0.05;
+        double errorRate = 0.05;
+        /** The number of threads seeding the tables. */
+        int writers = 8;
+        /** The number of parallel scan segments of the reconciliation. */
+        int segments = 16;
+        long seed = 42;
+    }
+}
@@ -0,0 +1,36 @@
+package io.openmarket.transaction.lambda.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks in [0, size) with a probability proportional to 1 / (rank + 1)^exponent, so a few ranks are drawn
+ * far more often than the rest. An exponent of 0 is the uniform distribution.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    public ZipfDistribution(final int size, final double exponent) {
+        if (size < 1 || exponent < 0) {
+            throw new IllegalArgumentException(String.format("Invalid size %d or exponent %s", size, exponent));
+        }
+        cumulative = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    public int sample(final Random random) {
+        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,50 @@
+package io.openmarket.transaction.lambda.logging;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.TransactionOutcome;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutcomeLogTest {
+    private static final Transaction TRANSACTION = Transaction.builder()
+            .transactionId("id\"with\\quotes\n")
+            .payerId("payer")
+            .recipientId("recipient")
+            .currencyId("coin")
+            .amount(2.5)
+            .type(TransactionType.TRANSFER)
+            .build();
+
+    @Test
+    public void test_Outcome_Is_One_Json_Line() {
+        StringBuilder line = new StringBuilder();
+        OutcomeLog.format(line, TransactionOutcome.retryable(TRANSACTION, ErrorClass.THROTTLING), TRANSACTION);
+
+        assertFalse(line.toString().contains("\n"));
+        JsonObject json = JsonParser.parseString(line.toString()).getAsJsonObject();
+        assertEquals(TRANSACTION.getTransactionId(), json.get("transactionId").getAsString());
+        assertEquals("TRANSFER", json.get("type").getAsString());
+        assertEquals("payer", json.get("payerId").getAsString());
+        assertEquals(2.5, json.get("amount").getAsDouble());
+        assertEquals("PENDING", json.get("status").getAsString());
+        assertEquals("THROTTLING", json.get("errorClass").getAsString());
+        assertTrue(json.get("retryable").getAsBoolean());
+    }
+
+    @Test
+    public void test_Only_Successes_Are_Sampled() {
+        OutcomeLog outcomeLog = new OutcomeLog(0.1, () -> 0.5);
+
+        assertFalse(outcomeLog.isSampled(TransactionOutcome.completed(TRANSACTION)));
+        assertTrue(outcomeLog.isSampled(TransactionOutcome.retryable(TRANSACTION, ErrorClass.THROTTLING)));
+        assertTrue(new OutcomeLog(0.1, () -> 0.05).isSampled(TransactionOutcome.completed(TRANSACTION)));
+        assertFalse(new OutcomeLog(0, () -> 0.0).isSampled(TransactionOutcome.completed(TRANSACTION)));
+    }
+}
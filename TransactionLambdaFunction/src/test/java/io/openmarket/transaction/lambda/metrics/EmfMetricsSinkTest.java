@@ -0,0 +1,134 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmfMetricsSinkTest {
+    private static final Gson GSON = new Gson();
+    private static final String NAMESPACE = "Test";
+    private static final long TIMESTAMP = 1600000000000L;
+
+    @Test
+    public void test_Metrics_Are_Written_In_Embedded_Metric_Format() {
+        List<String> lines = new ArrayList<>();
+        MetricsRecorder recorder = new MetricsRecorder(new EmfMetricsSink(NAMESPACE, lines::add));
+        MetricDimensions dimensions = MetricDimensions.of(TransactionType.TRANSFER, ErrorClass.CONDITION_FAILED);
+        recorder.record(Metric.TRANSACTION_WRITE_LATENCY, dimensions, 10.0);
+        recorder.record(Metric.TRANSACTION_WRITE_LATENCY, dimensions, 10.0);
+        recorder.record(Metric.TRANSACTION_WRITE_LATENCY, dimensions, 100.0);
+        recorder.count(Metric.TRANSACTIONS, dimensions, 3);
+
+        recorder.flush();
+
+        assertEquals(1, lines.size());
+        JsonObject document = GSON.fromJson(lines.get(0), JsonObject.class);
+        assertEquals("TRANSFER", document.get(MetricDimensions.DIMENSION_TRANSACTION_TYPE).getAsString());
+        assertEquals("CONDITION_FAILED", document.get(MetricDimensions.DIMENSION_ERROR_TYPE).getAsString());
+        assertEquals(3, document.get("Transactions").getAsLong());
+
+        JsonObject latency = document.getAsJsonObject("TransactionWriteLatency");
+        assertEquals(2, latency.getAsJsonArray("Values").size());
+        assertEquals(2, latency.getAsJsonArray("Counts").get(0).getAsLong());
+        assertEquals(3, latency.get("Count").getAsLong());
+        assertEquals(120.0, latency.get("Sum").getAsDouble());
+        assertEquals(10.0, latency.get("Min").getAsDouble());
+        assertEquals(100.0, latency.get("Max").getAsDouble());
+
+        JsonObject directive = document.getAsJsonObject("_aws").getAsJsonArray("CloudWatchMetrics")
+                .get(0).getAsJsonObject();
+        assertTrue(document.getAsJsonObject("_aws").get("Timestamp").getAsLong() >= TIMESTAMP);
+        assertEquals(NAMESPACE, directive.get("Namespace").getAsString());
+        assertEquals(2, directive.getAsJsonArray("Dimensions").get(0).getAsJsonArray().size());
+        JsonArray metrics = directive.getAsJsonArray("Metrics");
+        assertEquals(2, metrics.size());
+        assertEquals("Milliseconds", metrics.get(0).getAsJsonObject().get("Unit").getAsString());
+    }
+
+    @Test
+    public void test_Hot_Key_Is_A_Property_Not_A_Dimension() {
+        List<String> lines = new ArrayList<>();
+        MetricsRecorder recorder = new MetricsRecorder(new EmfMetricsSink(NAMESPACE, lines::add));
+        recorder.count(Metric.HOT_KEY_TOUCHES, MetricDimensions.ofHotKey("Wallet", "alice"), 7);
+        recorder.count(Metric.HOT_KEY_TOUCHES, MetricDimensions.ofHotKey("Wallet", "bob"), 3);
+
+        recorder.flush();
+
+        assertEquals(2, lines.size());
+        for (String line : lines) {
+            JsonObject document = GSON.fromJson(line, JsonObject.class);
+            assertEquals("Wallet", document.get(MetricDimensions.DIMENSION_HOT_KEY_TYPE).getAsString());
+            String key = document.get(MetricDimensions.PROPERTY_HOT_KEY).getAsString();
+            assertEquals(key.equals("alice") ? 7 : 3, document.get("HotKeyTouches").getAsLong());
+            JsonArray dimensionSet = document.getAsJsonObject("_aws").getAsJsonArray("CloudWatchMetrics")
+                    .get(0).getAsJsonObject().getAsJsonArray("Dimensions").get(0).getAsJsonArray();
+            assertEquals(1, dimensionSet.size());
+            assertEquals(MetricDimensions.DIMENSION_HOT_KEY_TYPE, dimensionSet.get(0).getAsString());
+        }
+    }
+
+    @Test
+    public void test_Flush_Loses_No_Counts_Recorded_Meanwhile() throws Exception {
+        AtomicLong published = new AtomicLong();
+        MetricsRecorder recorder = new MetricsRecorder((timestampMillis, records) -> records.forEach(
+                record -> published.addAndGet(record.getCounts().getOrDefault(Metric.MESSAGES, 0L))));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> counters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            counters.add(executor.submit(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    recorder.count(Metric.MESSAGES, MetricDimensions.NONE, 1);
+                }
+            }));
+        }
+        while (!counters.stream().allMatch(Future::isDone)) {
+            recorder.flush();
+        }
+        for (Future<?> counter : counters) {
+            counter.get();
+        }
+        executor.shutdown();
+
+        recorder.flush();
+
+        assertEquals(400000, published.get());
+    }
+
+    @Test
+    public void test_Histogram_Keeps_Values_Within_Bucket_Precision() {
+        Histogram histogram = new Histogram();
+        for (double value = 0.01; value < 10000; value *= 1.7) {
+            final double millis = value;
+            histogram.record(millis);
+            double bucketValue = histogram.getValues().stream().min((a, b) ->
+                    Double.compare(Math.abs(a - millis), Math.abs(b - millis))).get();
+            assertTrue(Math.abs(bucketValue - millis) / millis < 0.1, "value " + millis);
+        }
+        assertTrue(histogram.getValues().size() <= 100);
+    }
+
+    @Test
+    public void test_Flush_Starts_Over() {
+        List<String> lines = new ArrayList<>();
+        MetricsRecorder recorder = new MetricsRecorder(new EmfMetricsSink(NAMESPACE, lines::add));
+        recorder.count(Metric.MESSAGES, MetricDimensions.NONE, 1);
+
+        recorder.flush();
+        recorder.flush();
+
+        assertEquals(1, lines.size());
+    }
+}
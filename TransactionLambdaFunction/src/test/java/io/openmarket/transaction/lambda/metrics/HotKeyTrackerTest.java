@@ -0,0 +1,50 @@
+package io.openmarket.transaction.lambda.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotKeyTrackerTest {
+    @Test
+    public void test_Top_Keys_Are_Found_Among_Many_Distinct_Keys() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 256, 4);
+        for (int i = 0; i < 10000; i++) {
+            tracker.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH, "wallet-" + i);
+            if (i % 10 == 0) {
+                tracker.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH, "hot");
+            }
+            if (i % 20 == 0) {
+                tracker.record(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH, "warm");
+            }
+        }
+
+        Map<String, Long> top = tracker.getTop(HotKeyTracker.KeyType.WALLET, HotKeyTracker.Event.TOUCH);
+        assertEquals(2, top.size());
+        assertTrue(top.get("hot") >= 1000);
+        assertTrue(top.get("warm") >= 500);
+        assertTrue(tracker.getTop(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.TOUCH).isEmpty());
+    }
+
+    @Test
+    public void test_Top_Keys_Are_Recorded_Once_Per_Window() {
+        HotKeyTracker tracker = new HotKeyTracker(1, 64, 2);
+        tracker.record(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.CONFLICT, "coin");
+        tracker.record(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.CONFLICT, "coin");
+        List<MetricsRecord> records = new ArrayList<>();
+        MetricsRecorder metrics = new MetricsRecorder((timestamp, published) -> records.addAll(published));
+
+        tracker.recordMetrics(metrics);
+        tracker.recordMetrics(metrics);
+        metrics.flush();
+
+        assertEquals(1, records.size());
+        assertEquals(MetricDimensions.ofHotKey("Currency", "coin"), records.get(0).getDimensions());
+        assertEquals(2L, records.get(0).getCounts().get(Metric.HOT_KEY_CONFLICTS));
+        assertTrue(tracker.getTop(HotKeyTracker.KeyType.CURRENCY, HotKeyTracker.Event.CONFLICT).isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package io.openmarket.transaction.lambda.publisher;
+
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.lambda.sns.InMemorySNS;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTaskResult;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncResultPublisherTest {
+    private static final Gson GSON = new Gson();
+    private static final String TOPIC_ARN = "arn:aws:sns:us-west-2:123456789012:OnTransactionProcessed";
+    private static final int BATCH_SIZE = 10;
+    private static final long SLOW_CALL_MILLIS = 100;
+
+    private InMemorySNS sns;
+    private CircuitBreaker circuitBreaker;
+    private AsyncResultPublisher publisher;
+
+    @BeforeEach
+    public void setup() {
+        sns = new InMemorySNS();
+        circuitBreaker = new CircuitBreaker(2, SLOW_CALL_MILLIS, 60000);
+        publisher = new AsyncResultPublisher(sns, TOPIC_ARN, GSON, BATCH_SIZE, 2, circuitBreaker,
+                MetricsRecorder.discarding());
+    }
+
+    @AfterEach
+    public void reset() {
+        publisher.shutdown();
+    }
+
+    @Test
+    public void test_Results_Are_Published_One_Message_Each_In_Batches() {
+        AsyncResultPublisher.Batch batch = publisher.newBatch();
+        for (int i = 0; i < 25; i++) {
+            batch.add(createResult(i));
+        }
+
+        assertEquals(0, batch.awaitCompletion(System.currentTimeMillis() + 5000));
+        assertEquals(25, sns.getMessages().size());
+        assertEquals(3, sns.getRequestCount());
+        assertEquals("transaction-0",
+                GSON.fromJson(sns.getMessages().get(0), TransactionTaskResult.class).getTransactionId());
+    }
+
+    @Test
+    public void test_Waiting_Is_Bounded_By_Deadline() {
+        sns.setLatencyMillis(1000);
+        AsyncResultPublisher.Batch batch = publisher.newBatch();
+        for (int i = 0; i < 30; i++) {
+            batch.add(createResult(i));
+        }
+
+        long start = System.currentTimeMillis();
+        assertEquals(30, batch.awaitCompletion(start + 200));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void test_Circuit_Breaker_Stops_Publishing_To_Failing_SNS() {
+        sns.setFailing(true);
+        AsyncResultPublisher.Batch batch = publisher.newBatch();
+        for (int i = 0; i < 5; i++) {
+            batch.add(createResult(i));
+            batch.awaitCompletion(System.currentTimeMillis() + 5000);
+        }
+
+        assertEquals(2, sns.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void test_Circuit_Breaker_Lets_A_Trial_Call_Through_After_Open_Period() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(1, SLOW_CALL_MILLIS, 1000, now::get);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(SLOW_CALL_MILLIS + 1, true);
+        assertFalse(breaker.tryAcquire());
+
+        now.set(1000);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.record(1, true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static TransactionTaskResult createResult(int index) {
+        return TransactionTaskResult.builder()
+                .transactionId("transaction-" + index)
+                .type(TransactionType.TRANSFER)
+                .error(TransactionErrorType.NONE)
+                .status(TransactionStatus.COMPLETED)
+                .build();
+    }
+}
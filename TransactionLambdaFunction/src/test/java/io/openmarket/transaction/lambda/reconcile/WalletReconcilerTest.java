@@ -0,0 +1,139 @@
+package io.openmarket.transaction.lambda.reconcile;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.config.LambdaConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WalletReconcilerTest {
+    private static final String CURRENCY_ID = "666";
+    private static final String OPENING_BALANCES = "a,666,100\n";
+
+    private InMemoryDynamoDB store;
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private WalletShards walletShards;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH),
+                        new KeySchemaElement(LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_SHARD, KeyType.RANGE)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        walletDao = new WalletDaoImpl(store, mapper);
+        walletShards = new WalletShards(store, ImmutableSet.of("b"), 2);
+    }
+
+    @Test
+    public void test_Drift_Is_Reported_And_Repaired() throws Exception {
+        createTransaction("a", "b", 30.0, TransactionStatus.COMPLETED);
+        createTransaction("a", "b", 10.0, TransactionStatus.REFUND_STARTED);
+        createTransaction("b", "a", 5.0, TransactionStatus.COMPLETED);
+        createTransaction("a", "b", 50.0, TransactionStatus.PENDING);
+        createTransaction("a", "ghost", 1.0, TransactionStatus.COMPLETED);
+        createWallet("a", 64.0);
+        // 35 reached b, 7 of them are still on a shard, and 2 went missing.
+        createWallet("b", 26.0);
+        store.putItem(new PutItemRequest().withTableName(LambdaConfig.WALLET_SHARD_DDB_TABLE_NAME)
+                .withItem(ImmutableMap.of(LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_OWNER_ID, new AttributeValue("b"),
+                        LambdaConfig.WALLET_SHARD_DDB_ATTRIBUTE_SHARD, new AttributeValue().withN("1"),
+                        CURRENCY_ID, new AttributeValue().withN("7"))));
+
+        ReconciliationReport report = new WalletReconciler(store, walletShards, CreditLedger.disabled(), 4, 1000)
+                .reconcile(new BufferedReader(new StringReader(OPENING_BALANCES)));
+
+        assertEquals(2, report.getBalancesChecked());
+        assertEquals(1, report.getDriftCount());
+        Drift drift = report.getDrifts().get(0);
+        assertEquals("b", drift.getOwnerId());
+        assertEquals(33.0, drift.getBalance(), 1e-9);
+        assertEquals(35.0, drift.getExpectedBalance(), 1e-9);
+        assertEquals(1, report.getUnattributedDriftCount());
+        assertEquals(-1.0, report.getUnattributedDrift(), 1e-9);
+        assertEquals(1, report.getRepaired());
+        assertEquals(28.0, walletDao.load("b").get().getCoins().get(CURRENCY_ID));
+        assertEquals(5, report.getScans().get(0).getItems());
+
+        ReconciliationReport rerun = new WalletReconciler(store, walletShards, CreditLedger.disabled())
+                .reconcile(new BufferedReader(new StringReader(OPENING_BALANCES)));
+        assertEquals(0, rerun.getDriftCount());
+        assertFalse(rerun.isConsistent());
+    }
+
+    @Test
+    public void test_Balance_Map_Matches_Boxed_Map() {
+        BalanceMap balances = new BalanceMap(2);
+        Map<Long, Double> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Few distinct home slots, so probe sequences collide and removals shift keys back.
+            long key = ((long) random.nextInt(500) << 48) | random.nextInt(8);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, 0.0), balances.remove(key), 1e-9);
+                expected.remove(key);
+            } else {
+                balances.add(key, 1.0);
+                expected.merge(key, 1.0, Double::sum);
+            }
+        }
+        assertEquals(expected.size(), balances.size());
+        balances.forEach((key, balance) -> assertEquals(expected.get(key), balance, 1e-9));
+        assertTrue(expected.keySet().stream().allMatch(balances::contains));
+    }
+
+    private void createWallet(String ownerId, double balance) {
+        walletDao.save(Wallet.builder().ownerId(ownerId).coins(ImmutableMap.of(CURRENCY_ID, balance))
+                .type(WalletType.USER).build());
+    }
+
+    private void createTransaction(String payerId, String recipientId, double amount, TransactionStatus status) {
+        transactionDao.save(Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(status)
+                .type(TransactionType.TRANSFER)
+                .build());
+    }
+}
@@ -0,0 +1,88 @@
+package io.openmarket.transaction.lambda.sns;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.AbstractAmazonSNS;
+import com.amazonaws.services.sns.model.PublishBatchRequest;
+import com.amazonaws.services.sns.model.PublishBatchRequestEntry;
+import com.amazonaws.services.sns.model.PublishBatchResult;
+import com.amazonaws.services.sns.model.PublishBatchResultEntry;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for SNS that keeps the published messages. Requests can be slowed down and made to fail to
+ * reproduce a degraded SNS.
+ */
+public class InMemorySNS extends AbstractAmazonSNS {
+    private static final int MAX_BATCH_ENTRIES = 10;
+
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile boolean failing;
+
+    public void setLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setFailing(final boolean failing) {
+        this.failing = failing;
+    }
+
+    @Override
+    public PublishResult publish(final PublishRequest request) {
+        serve();
+        messages.add(request.getMessage());
+        return new PublishResult().withMessageId(UUID.randomUUID().toString());
+    }
+
+    @Override
+    public PublishBatchResult publishBatch(final PublishBatchRequest request) {
+        if (request.getPublishBatchRequestEntries().size() > MAX_BATCH_ENTRIES) {
+            final AmazonServiceException e = new AmazonServiceException("Too many entries in batch request");
+            e.setErrorCode("TooManyEntriesInBatchRequest");
+            throw e;
+        }
+        serve();
+        final List<PublishBatchResultEntry> successful = new ArrayList<>();
+        for (PublishBatchRequestEntry entry : request.getPublishBatchRequestEntries()) {
+            messages.add(entry.getMessage());
+            successful.add(new PublishBatchResultEntry().withId(entry.getId())
+                    .withMessageId(UUID.randomUUID().toString()));
+        }
+        return new PublishBatchResult().withSuccessful(successful).withFailed(new ArrayList<>());
+    }
+
+    public List<String> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    private void serve() {
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failing) {
+            final AmazonServiceException e = new AmazonServiceException("Service is unavailable");
+            e.setErrorCode("InternalError");
+            e.setStatusCode(500);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package io.openmarket.transaction.lambda.sqs;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import io.openmarket.transaction.lambda.worker.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for an SQS queue with visibility timeouts. A received message gets a new receipt handle and stays
+ * invisible until its timeout expires, only its latest receipt handle can change its visibility or delete it.
+ * The long polling wait can be capped to keep tests fast.
+ */
+public class InMemoryMessageQueue implements MessageQueue {
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Entry> entriesByReceipt = new HashMap<>();
+    private final long maxWaitMillis;
+    private int receives;
+    private int deleted;
+    private int redelivered;
+
+    public InMemoryMessageQueue() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxWaitMillis the longest a receive waits for a message, regardless of its wait time.
+     */
+    public InMemoryMessageQueue(final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return the ID of the new message.
+     */
+    public synchronized String send(final String body) {
+        final String messageId = UUID.randomUUID().toString();
+        entries.put(messageId, new Entry(messageId, body));
+        notifyAll();
+        return messageId;
+    }
+
+    @Override
+    public synchronized List<SQSEvent.SQSMessage> receive(final int maxMessages, final int waitTimeSeconds,
+                                                          final int visibilityTimeoutSeconds) {
+        receives++;
+        final long deadline = System.currentTimeMillis()
+                + Math.min(maxWaitMillis, TimeUnit.SECONDS.toMillis(waitTimeSeconds));
+        while (true) {
+            final long now = System.currentTimeMillis();
+            final List<SQSEvent.SQSMessage> messages = new ArrayList<>();
+            long nextVisibleAt = Long.MAX_VALUE;
+            for (Entry entry : entries.values()) {
+                if (messages.size() >= maxMessages) {
+                    break;
+                }
+                if (entry.visibleAt > now) {
+                    nextVisibleAt = Math.min(nextVisibleAt, entry.visibleAt);
+                    continue;
+                }
+                if (entry.receiveCount++ > 0) {
+                    redelivered++;
+                }
+                entriesByReceipt.remove(entry.receiptHandle);
+                entry.receiptHandle = UUID.randomUUID().toString();
+                entriesByReceipt.put(entry.receiptHandle, entry);
+                entry.visibleAt = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+                final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+                message.setMessageId(entry.messageId);
+                message.setReceiptHandle(entry.receiptHandle);
+                message.setBody(entry.body);
+                messages.add(message);
+            }
+            if (!messages.isEmpty() || now >= deadline) {
+                return messages;
+            }
+            try {
+                wait(Math.max(1, Math.min(deadline, nextVisibleAt) - now));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return messages;
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<String> changeVisibility(final List<String> receiptHandles,
+                                                      final int visibilityTimeoutSeconds) {
+        final List<String> failed = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        for (String receiptHandle : receiptHandles) {
+            final Entry entry = find(receiptHandle);
+            if (entry == null) {
+                failed.add(receiptHandle);
+            } else {
+                entry.visibleAt = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+            }
+        }
+        notifyAll();
+        return failed;
+    }
+
+    @Override
+    public synchronized List<String> delete(final List<String> receiptHandles) {
+        final List<String> failed = new ArrayList<>();
+        for (String receiptHandle : receiptHandles) {
+            final Entry entry = find(receiptHandle);
+            if (entry == null) {
+                failed.add(receiptHandle);
+            } else {
+                entries.remove(entry.messageId);
+                entriesByReceipt.remove(receiptHandle);
+                deleted++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return the number of messages not deleted yet, visible or not.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getDeletedCount() {
+        return deleted;
+    }
+
+    public synchronized int getReceiveCount() {
+        return receives;
+    }
+
+    /**
+     * @return the number of times a message was received again.
+     */
+    public synchronized int getRedeliveredCount() {
+        return redelivered;
+    }
+
+    private Entry find(final String receiptHandle) {
+        return entriesByReceipt.get(receiptHandle);
+    }
+
+    private static final class Entry {
+        private final String messageId;
+        private final String body;
+        private String receiptHandle;
+        private long visibleAt;
+        private int receiveCount;
+
+        private Entry(final String messageId, final String body) {
+            this.messageId = messageId;
+            this.body = body;
+        }
+    }
+}
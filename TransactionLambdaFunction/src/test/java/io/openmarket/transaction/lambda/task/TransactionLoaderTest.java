@@ -0,0 +1,97 @@
+package io.openmarket.transaction.lambda.task;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.handler.RetryPolicy;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransactionLoaderTest {
+    private static final int PAGE_SIZE = 100;
+
+    private InMemoryDynamoDB store;
+    private TransactionDaoImpl transactionDao;
+    private TransactionLoader loader;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        transactionDao = new TransactionDaoImpl(store, mapper);
+        loader = new TransactionLoader(store, mapper, PAGE_SIZE, 4, new RetryPolicy(10, 1, 1),
+                MetricsRecorder.discarding());
+    }
+
+    @AfterEach
+    public void reset() {
+        loader.shutdown();
+    }
+
+    @Test
+    public void test_Load_Pages_With_Unprocessed_Keys() {
+        store.setMaxBatchGetItems(30);
+        List<String> ids = createTransactions(PAGE_SIZE * 2 + 50);
+        String missing = UUID.randomUUID().toString();
+        ids.add(missing);
+
+        List<String> notFound = new ArrayList<>();
+        Map<String, Transaction> loaded = loader.load(ids, Long.MAX_VALUE, notFound);
+
+        assertEquals(ids.size() - 1, loaded.size());
+        assertFalse(loaded.containsKey(missing));
+        assertEquals(Collections.singletonList(missing), notFound);
+        for (String id : ids.subList(0, ids.size() - 1)) {
+            assertEquals(TransactionStatus.PENDING, loaded.get(id).getStatus());
+        }
+    }
+
+    @Test
+    public void test_Keys_Left_Unprocessed_Are_Absent() {
+        store.setMaxBatchGetItems(0);
+        List<String> ids = createTransactions(3);
+        List<String> notFound = new ArrayList<>();
+
+        assertTrue(loader.load(ids, Long.MAX_VALUE, notFound).isEmpty());
+        assertTrue(notFound.isEmpty());
+    }
+
+    private List<String> createTransactions(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = Transaction.builder()
+                    .transactionId(UUID.randomUUID().toString())
+                    .payerId("123").recipientId("321")
+                    .currencyId("666")
+                    .amount(1.0)
+                    .status(TransactionStatus.PENDING)
+                    .type(TransactionType.TRANSFER)
+                    .build();
+            transactionDao.save(transaction);
+            ids.add(transaction.getTransactionId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,79 @@
+package io.openmarket.transaction.lambda.task;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TransactionMessageAdapterTest {
+    private static final Gson GSON = new Gson();
+    private static final String TRANSACTION_ID = "abc";
+
+    @Test
+    public void test_Inline_Payload_Round_Trip() {
+        Transaction refund = Transaction.builder()
+                .transactionId(TRANSACTION_ID)
+                .payerId("123").recipientId("321")
+                .currencyId("666")
+                .amount(7.5)
+                .type(TransactionType.REFUND)
+                .refundTransacIds(ImmutableList.of("org"))
+                .build();
+
+        TransactionMessage message = GSON.fromJson(GSON.toJson(TransactionMessage.inline(refund)),
+                TransactionMessage.class);
+
+        assertEquals(TransactionMessage.VERSION_INLINE, message.getVersion());
+        Transaction payload = message.getPayload();
+        assertEquals(TRANSACTION_ID, payload.getTransactionId());
+        assertEquals("123", payload.getPayerId());
+        assertEquals("321", payload.getRecipientId());
+        assertEquals("666", payload.getCurrencyId());
+        assertEquals(7.5, payload.getAmount());
+        assertEquals(TransactionType.REFUND, payload.getType());
+        assertEquals(ImmutableList.of("org"), payload.getRefundTransacIds());
+        assertEquals(TransactionStatus.PENDING, payload.getStatus());
+    }
+
+    @Test
+    public void test_Plain_Task_Has_No_Payload() {
+        TransactionMessage message = GSON.fromJson(GSON.toJson(new TransactionTask(TRANSACTION_ID)),
+                TransactionMessage.class);
+
+        assertEquals(TransactionMessage.VERSION_TASK, message.getVersion());
+        assertEquals(TRANSACTION_ID, message.getTransactionId());
+        assertNull(message.getPayload());
+    }
+
+    @Test
+    public void test_Unusable_Payload_Is_Dropped() {
+        assertNull(parse("{\"version\":3,\"transactionId\":\"abc\",\"transaction\":{\"payerId\":\"1\","
+                + "\"recipientId\":\"2\",\"currencyId\":\"3\",\"amount\":1.0,\"type\":\"TRANSFER\"}}").getPayload());
+        assertNull(parse("{\"version\":2,\"transactionId\":\"abc\",\"transaction\":{\"payerId\":\"1\","
+                + "\"recipientId\":\"2\",\"currencyId\":\"3\",\"amount\":1.0,\"type\":\"GIFT\"}}").getPayload());
+        assertNull(parse("{\"version\":2,\"transactionId\":\"abc\",\"transaction\":{\"payerId\":\"1\","
+                + "\"recipientId\":\"2\",\"currencyId\":\"3\",\"amount\":1.0,\"type\":\"REFUND\"}}").getPayload());
+        assertNull(parse("{\"version\":2,\"transactionId\":\"abc\",\"transaction\":{\"payerId\":\"1\","
+                + "\"currencyId\":\"3\",\"amount\":1.0,\"type\":\"TRANSFER\"}}").getPayload());
+    }
+
+    @Test
+    public void test_Unknown_Fields_Are_Skipped() {
+        TransactionMessage message = parse("{\"transaction\":{\"payerId\":\"1\",\"recipientId\":\"2\","
+                + "\"note\":{\"text\":\"x\"},\"currencyId\":\"3\",\"amount\":1.0,\"type\":\"TRANSFER\"},"
+                + "\"traceId\":[1,2],\"version\":2,\"transactionId\":\"abc\"}");
+
+        assertEquals(TRANSACTION_ID, message.getPayload().getTransactionId());
+        assertEquals("2", message.getPayload().getRecipientId());
+    }
+
+    private static TransactionMessage parse(String body) {
+        return GSON.fromJson(body, TransactionMessage.class);
+    }
+}
@@ -0,0 +1,146 @@
+package io.openmarket.transaction.lambda.throttle;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.handler.CreditLedger;
+import io.openmarket.transaction.lambda.handler.ErrorClass;
+import io.openmarket.transaction.lambda.handler.ErrorClassifier;
+import io.openmarket.transaction.lambda.handler.RetryPolicy;
+import io.openmarket.transaction.lambda.handler.TransactWriter;
+import io.openmarket.transaction.lambda.handler.TransactionLambda;
+import io.openmarket.transaction.lambda.handler.TransactionOutcome;
+import io.openmarket.transaction.lambda.handler.WalletShards;
+import io.openmarket.transaction.lambda.metrics.HotKeyTracker;
+import io.openmarket.transaction.lambda.metrics.MetricsRecorder;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteThrottleTest {
+    private static final String CURRENCY_ID = "666";
+
+    @Test
+    public void test_Limiter_Cuts_On_Throttle_And_Recovers() {
+        AtomicLong now = new AtomicLong();
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 100, 20, 0.5, 200, 100, now::get);
+        for (int i = 0; i < 100; i++) {
+            now.set(i * 10);
+            assertEquals(0, limiter.reserve(1, Long.MAX_VALUE));
+        }
+        assertFalse(limiter.isLimiting());
+
+        now.set(1000);
+        limiter.onThrottle();
+
+        assertTrue(limiter.isLimiting());
+        assertEquals(50.0, limiter.getRateLimit(), 0.001);
+        assertEquals(0, limiter.reserve(1, Long.MAX_VALUE));
+        assertEquals(20, limiter.reserve(1, Long.MAX_VALUE));
+        assertEquals(-1, limiter.reserve(1, now.get() + 10));
+
+        limiter.onThrottle();
+        assertEquals(50.0, limiter.getRateLimit(), 0.001);
+        now.set(1300);
+        limiter.onThrottle();
+        assertEquals(25.0, limiter.getRateLimit(), 0.001);
+
+        limiter.onSuccess(1000);
+        assertFalse(limiter.isLimiting());
+        assertEquals(0, limiter.reserve(100, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void test_Only_Throttled_Tables_Are_Slowed_Down() {
+        AtomicLong now = new AtomicLong();
+        WriteThrottle throttle = new WriteThrottle(() -> new AdaptiveRateLimiter(1, 100, 20, 0.5, 200, 100,
+                now::get));
+        List<TransactWriteItem> items = ImmutableList.of(
+                new TransactWriteItem().withUpdate(new Update().withTableName(WALLET_DDB_TABLE_NAME)),
+                new TransactWriteItem().withPut(new Put().withTableName(TRANSACTION_DDB_TABLE_NAME)));
+        TransactionCanceledException throttled = new TransactionCanceledException("throttled")
+                .withCancellationReasons(new CancellationReason().withCode(ErrorClassifier.CANCELLATION_NONE),
+                        new CancellationReason().withCode(ErrorClassifier.CANCELLATION_THROTTLING));
+
+        assertEquals(0, throttle.reserve(items, Long.MAX_VALUE));
+        throttle.record(items, throttled);
+
+        assertFalse(throttle.getLimiter(WALLET_DDB_TABLE_NAME).isLimiting());
+        assertTrue(throttle.getLimiter(TRANSACTION_DDB_TABLE_NAME).isLimiting());
+        assertEquals(0, WriteThrottle.disabled().reserve(items, 0));
+    }
+
+    @Test
+    public void test_Transaction_That_Cannot_Start_Is_Left_Pending() {
+        InMemoryDynamoDB store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        DynamoDBMapper mapper = new DynamoDBMapper(store);
+        TransactionDao transactionDao = new TransactionDaoImpl(store, mapper);
+        WalletDao walletDao = new WalletDaoImpl(store, mapper);
+        WriteThrottle throttle = new WriteThrottle();
+        TransactionLambda lambda = new TransactionLambda(transactionDao, walletDao, new RetryPolicy(3, 1, 10),
+                MetricsRecorder.discarding(), TransactWriter.of(store), WalletShards.none(), CreditLedger.disabled(),
+                throttle, HotKeyTracker.disabled());
+        walletDao.save(Wallet.builder().ownerId("a").coins(ImmutableMap.of(CURRENCY_ID, 10.0))
+                .type(WalletType.USER).build());
+        walletDao.save(Wallet.builder().ownerId("b").coins(ImmutableMap.of(CURRENCY_ID, 0.0))
+                .type(WalletType.USER).build());
+        // Nothing was written yet, so the wallet table is limited to the minimum rate.
+        throttle.getLimiter(WALLET_DDB_TABLE_NAME).onThrottle();
+        long deadline = System.currentTimeMillis() + 500;
+
+        TransactionOutcome first = lambda.process(createTransaction(transactionDao), deadline);
+        Transaction second = createTransaction(transactionDao);
+        TransactionOutcome outcome = lambda.process(second, deadline);
+
+        assertEquals(TransactionStatus.COMPLETED, first.getResult().getStatus());
+        assertTrue(outcome.isRetryable());
+        assertEquals(ErrorClass.THROTTLING, outcome.getErrorClass());
+        assertEquals(TransactionStatus.PENDING, transactionDao.load(second.getTransactionId()).get().getStatus());
+        assertEquals(9.0, walletDao.load("a").get().getCoins().get(CURRENCY_ID));
+    }
+
+    private static Transaction createTransaction(TransactionDao transactionDao) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId("a").recipientId("b")
+                .currencyId(CURRENCY_ID)
+                .amount(1.0)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        transactionDao.save(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,145 @@
+package io.openmarket.transaction.lambda.worker;
+
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import io.openmarket.transaction.lambda.config.EnvironmentConfig;
+import io.openmarket.transaction.lambda.dynamodb.InMemoryDynamoDB;
+import io.openmarket.transaction.lambda.entry.LambdaEntry;
+import io.openmarket.transaction.lambda.entry.RuntimeContext;
+import io.openmarket.transaction.lambda.sqs.InMemoryMessageQueue;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.model.Wallet;
+import io.openmarket.wallet.model.WalletType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_ATTRIBUTE_ID;
+import static io.openmarket.config.TransactionConfig.TRANSACTION_DDB_TABLE_NAME;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_ATTRIBUTE_OWNER_ID;
+import static io.openmarket.config.WalletConfig.WALLET_DDB_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class TransactionWorkerTest {
+    private static final Gson GSON = new Gson();
+    private static final String CURRENCY_ID = "666";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private InMemoryDynamoDB store;
+    private RuntimeContext runtime;
+    private InMemoryMessageQueue queue;
+
+    @BeforeEach
+    public void setup() {
+        store = new InMemoryDynamoDB();
+        store.createTable(new CreateTableRequest().withTableName(TRANSACTION_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(TRANSACTION_DDB_ATTRIBUTE_ID, KeyType.HASH)));
+        store.createTable(new CreateTableRequest().withTableName(WALLET_DDB_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement(WALLET_DDB_ATTRIBUTE_OWNER_ID, KeyType.HASH)));
+        runtime = new RuntimeContext(store, mock(AmazonSNS.class), EnvironmentConfig.fromMap(Collections.emptyMap()));
+        queue = new InMemoryMessageQueue(50);
+    }
+
+    @Test
+    public void test_Worker_Settles_Queued_Transactions() throws Exception {
+        createWallet("a", 100.0);
+        createWallet("b", 0.0);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Transaction transaction = createTransaction("a", "b", 1.0);
+            transactions.add(transaction);
+            queue.send(GSON.toJson(new TransactionTask(transaction.getTransactionId())));
+        }
+        AtomicInteger metricsFlushes = new AtomicInteger();
+        LambdaEntry entry = new LambdaEntry(runtime, false);
+        TransactionWorker worker = new TransactionWorker(entry, queue, 3, 30, () -> {
+            metricsFlushes.incrementAndGet();
+            entry.flushMetrics();
+        });
+
+        worker.start();
+        waitUntilEmpty();
+
+        assertTrue(worker.shutdown(TIMEOUT_MILLIS));
+        assertEquals(1, metricsFlushes.get());
+        assertEquals(25, queue.getDeletedCount());
+        for (Transaction transaction : transactions) {
+            assertEquals(TransactionStatus.COMPLETED,
+                    runtime.getTransactionDao().load(transaction.getTransactionId()).get().getStatus());
+        }
+        assertEquals(75.0, runtime.getWalletDao().load("a").get().getCoins().get(CURRENCY_ID));
+        assertEquals(25.0, runtime.getWalletDao().load("b").get().getCoins().get(CURRENCY_ID));
+    }
+
+    @Test
+    public void test_Slow_Batch_Is_Not_Redelivered_And_Failures_Are_Kept() throws Exception {
+        String failedId = queue.send("failed");
+        queue.send("slow");
+        AtomicInteger handled = new AtomicInteger();
+        TransactionWorker worker = new TransactionWorker((event, context) -> {
+            handled.addAndGet(event.getRecords().size());
+            try {
+                // Longer than the visibility timeout, which has to be extended meanwhile.
+                Thread.sleep(2500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+            event.getRecords().stream().filter(m -> m.getMessageId().equals(failedId))
+                    .forEach(m -> failures.add(new SQSBatchResponse.BatchItemFailure(m.getMessageId())));
+            return new SQSBatchResponse(failures);
+        }, queue, 1, 1);
+
+        worker.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (queue.getDeletedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertTrue(worker.shutdown(TIMEOUT_MILLIS));
+        assertEquals(2, handled.get());
+        assertEquals(0, queue.getRedeliveredCount());
+        assertEquals(1, queue.getDeletedCount());
+        assertEquals(1, queue.size());
+    }
+
+    private void waitUntilEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private void createWallet(String ownerId, double balance) {
+        runtime.getWalletDao().save(Wallet.builder().ownerId(ownerId).coins(ImmutableMap.of(CURRENCY_ID, balance))
+                .type(WalletType.USER).build());
+    }
+
+    private Transaction createTransaction(String payerId, String recipientId, double amount) {
+        Transaction transaction = Transaction.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .payerId(payerId).recipientId(recipientId)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .status(TransactionStatus.PENDING)
+                .type(TransactionType.TRANSFER)
+                .build();
+        runtime.getTransactionDao().save(transaction);
+        return transaction;
+    }
+}